@@ -16,8 +16,29 @@
 
 package com.opsmatters.bitly;
 
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.HttpConfig;
+import com.opsmatters.bitly.api.services.CompressionStats;
+import com.opsmatters.bitly.api.services.RequestCoalescer;
+import com.opsmatters.bitly.api.services.HttpTransport;
+import com.opsmatters.bitly.api.services.RetryPolicy;
+import com.opsmatters.bitly.api.services.HedgePolicy;
+import com.opsmatters.bitly.api.services.RateLimiter;
+import com.opsmatters.bitly.api.services.CircuitBreaker;
+import com.opsmatters.bitly.api.services.CachePolicy;
+import com.opsmatters.bitly.api.services.TinyLfuCache;
+import com.opsmatters.bitly.api.services.ShortenStore;
+import com.opsmatters.bitly.api.services.ResponseCache;
+import com.opsmatters.bitly.api.services.VirtualThreads;
 import com.opsmatters.bitly.api.services.v4.BitlinkService;
 import com.opsmatters.bitly.api.services.v4.CustomBitlinkService;
 import com.opsmatters.bitly.api.services.v4.GroupService;
@@ -28,13 +49,23 @@ import com.opsmatters.bitly.api.services.v4.UserService;
 import com.opsmatters.bitly.api.services.v4.BsdService;
 import com.opsmatters.bitly.api.services.v4.WebhookService;
 import com.opsmatters.bitly.api.services.v4.AppService;
+import com.opsmatters.bitly.api.model.v4.ExpandBitlinkResponse;
+import com.opsmatters.bitly.api.model.v4.CreateBitlinkResponse;
 
 /**
  * Client used to invoke Bitly operations using the v4 REST API.
+ * <p>
+ * Each client owns its own connection pool, which is released when the client is closed.
+ * <p>
+ * Blocking service calls can be run on the client's executor using {@link #submit(Callable)}.
+ * By default this is a cached thread pool, or a virtual-thread-per-task executor on Java 21+
+ * if virtual threads are enabled using the builder. If an executor is given to the builder or virtual threads
+ * are enabled, the responses to asynchronous calls are also read on it, otherwise they are read
+ * on the common fork-join pool.
  * 
  * @author Gerald Curley (opsmatters)
  */
-public class Bitly
+public class Bitly implements AutoCloseable
 {
     private static final Logger logger = Logger.getLogger(Bitly.class.getName());
 
@@ -43,15 +74,81 @@ public class Bitly
     private int port = 443;
     private String accessToken;
     private HttpContext httpContext;
+    private ExecutorService executor;
+    private boolean ownsExecutor = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private BitlinkService bitlinks;
+    private CustomBitlinkService customBitlinks;
+    private GroupService groups;
+    private OrganizationService organizations;
+    private CampaignService campaigns;
+    private CampaignChannelService channels;
+    private UserService users;
+    private BsdService bsds;
+    private WebhookService webhooks;
+    private AppService apps;
 
     /**
      * Constructor that takes an access token.
      * @param accessToken The access token used to authenticate requests
      */
     public Bitly(String accessToken)
+    {
+        this(accessToken, new HttpConfig());
+    }
+
+    /**
+     * Constructor that takes an access token and connection settings.
+     * @param accessToken The access token used to authenticate requests
+     * @param config The connection pool and socket settings
+     */
+    public Bitly(String accessToken, HttpConfig config)
     {
         this.accessToken = accessToken;
-        httpContext = new HttpContext(protocol, hostname, port);
+        httpContext = new HttpContext(protocol, hostname, port, config);
+        createServices();
+    }
+
+    /**
+     * Constructor that takes an access token and HTTP transport.
+     * @param accessToken The access token used to authenticate requests
+     * @param transport The HTTP transport used to send requests, closed when the client is closed
+     */
+    public Bitly(String accessToken, HttpTransport transport)
+    {
+        this.accessToken = accessToken;
+        httpContext = new HttpContext(protocol, hostname, port, transport);
+        createServices();
+    }
+
+    /**
+     * Constructor that takes an access token, HTTP transport and settings.
+     * @param accessToken The access token used to authenticate requests
+     * @param transport The HTTP transport used to send requests, closed when the client is closed
+     * @param config The settings of the client, other than the connection pool and socket settings
+     */
+    public Bitly(String accessToken, HttpTransport transport, HttpConfig config)
+    {
+        this.accessToken = accessToken;
+        httpContext = new HttpContext(protocol, hostname, port, transport, config);
+        createServices();
+    }
+
+    /**
+     * Creates the services, which are stateless and shared by all callers.
+     */
+    private void createServices()
+    {
+        bitlinks = new BitlinkService(accessToken, httpContext);
+        customBitlinks = new CustomBitlinkService(accessToken, httpContext);
+        groups = new GroupService(accessToken, httpContext);
+        organizations = new OrganizationService(accessToken, httpContext);
+        campaigns = new CampaignService(accessToken, httpContext);
+        channels = new CampaignChannelService(accessToken, httpContext);
+        users = new UserService(accessToken, httpContext);
+        bsds = new BsdService(accessToken, httpContext);
+        webhooks = new WebhookService(accessToken, httpContext);
+        apps = new AppService(accessToken, httpContext);
     }
     
     /**
@@ -60,7 +157,7 @@ public class Bitly
      */
     public BitlinkService bitlinks()
     {
-        return new BitlinkService(accessToken, httpContext);
+        return bitlinks;
     }
 
     /**
@@ -69,7 +166,7 @@ public class Bitly
      */
     public CustomBitlinkService customBitlinks()
     {
-        return new CustomBitlinkService(accessToken, httpContext);
+        return customBitlinks;
     }
 
     /**
@@ -78,7 +175,7 @@ public class Bitly
      */
     public GroupService groups()
     {
-        return new GroupService(accessToken, httpContext);
+        return groups;
     }
 
     /**
@@ -87,7 +184,7 @@ public class Bitly
      */
     public OrganizationService organizations()
     {
-        return new OrganizationService(accessToken, httpContext);
+        return organizations;
     }
 
     /**
@@ -96,7 +193,7 @@ public class Bitly
      */
     public CampaignService campaigns()
     {
-        return new CampaignService(accessToken, httpContext);
+        return campaigns;
     }
 
     /**
@@ -105,7 +202,7 @@ public class Bitly
      */
     public CampaignChannelService channels()
     {
-        return new CampaignChannelService(accessToken, httpContext);
+        return channels;
     }
 
     /**
@@ -114,7 +211,7 @@ public class Bitly
      */
     public UserService users()
     {
-        return new UserService(accessToken, httpContext);
+        return users;
     }
 
     /**
@@ -123,7 +220,7 @@ public class Bitly
      */
     public BsdService bsds()
     {
-        return new BsdService(accessToken, httpContext);
+        return bsds;
     }
 
     /**
@@ -132,7 +229,7 @@ public class Bitly
      */
     public WebhookService webhooks()
     {
-        return new WebhookService(accessToken, httpContext);
+        return webhooks;
     }
 
     /**
@@ -141,6 +238,579 @@ public class Bitly
      */
     public AppService apps()
     {
-        return new AppService(accessToken, httpContext);
+        return apps;
+    }
+
+    /**
+     * Returns the counts of response bytes received over the wire and after decompression.
+     * @return The counts of response bytes received over the wire and after decompression
+     */
+    public CompressionStats getCompressionStats()
+    {
+        return httpContext.getCompressionStats();
+    }
+
+    /**
+     * Returns the coalescer used to share identical concurrent GET requests, including the collapse ratio.
+     * @return The coalescer used to share identical concurrent GET requests, or <CODE>null</CODE> if requests are not coalesced
+     */
+    public RequestCoalescer getRequestCoalescer()
+    {
+        return httpContext.getRequestCoalescer();
+    }
+
+    /**
+     * Returns the cache of expanded bitlinks, including its hit, miss and eviction counts.
+     * @return The cache of expanded bitlinks, or <CODE>null</CODE> if expanded bitlinks are not cached
+     */
+    public TinyLfuCache<String,ExpandBitlinkResponse> getExpandCache()
+    {
+        return bitlinks.getExpandCache();
+    }
+
+    /**
+     * Returns the cache of shortened long urls, including its hit, miss and eviction counts.
+     * @return The cache of shortened long urls, or <CODE>null</CODE> if shortened long urls are not cached
+     */
+    public TinyLfuCache<String,CreateBitlinkResponse> getShortenCache()
+    {
+        return bitlinks.getShortenCache();
+    }
+
+    /**
+     * Returns the persistent store of shortened long urls.
+     * @return The persistent store of shortened long urls, or <CODE>null</CODE> if shortened long urls are not stored
+     */
+    public ShortenStore getShortenStore()
+    {
+        return bitlinks.getShortenStore();
+    }
+
+    /**
+     * Returns the cache used to revalidate the results of GET requests, including its hit and revalidation counts.
+     * @return The cache used to revalidate the results of GET requests, or <CODE>null</CODE> if results are not cached
+     */
+    public ResponseCache getResponseCache()
+    {
+        return httpContext.getResponseCache();
+    }
+
+    /**
+     * Returns the client-side rate limiter, which can be used to change rates while the client is running.
+     * @return The client-side rate limiter, or <CODE>null</CODE> if requests are not rate limited
+     */
+    public RateLimiter getRateLimiter()
+    {
+        return httpContext.getRateLimiter();
+    }
+
+    /**
+     * Returns the circuit breaker, which can be used to check the state of the circuit for each endpoint.
+     * @return The circuit breaker, or <CODE>null</CODE> if there is no circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return httpContext.getCircuitBreaker();
+    }
+
+    /**
+     * Returns the executor used to run submitted service calls.
+     * <p>
+     * If no executor was configured and virtual threads were not enabled, a cached thread pool
+     * of daemon threads is created on first use.
+     * @return The executor used to run submitted service calls
+     */
+    public ExecutorService getExecutor()
+    {
+        lock.lock();
+        try
+        {
+            if(executor == null)
+            {
+                executor = Executors.newCachedThreadPool(r ->
+                {
+                    Thread ret = new Thread(r, "bitly-submit");
+                    ret.setDaemon(true);
+                    return ret;
+                });
+                ownsExecutor = true;
+            }
+
+            return executor;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given blocking service call on the client's executor.
+     * <p>
+     * For example: <CODE>client.submit(() -&gt; client.bitlinks().shorten(longUrl))</CODE>.
+     * The returned future completes exceptionally with the exception thrown by the call.
+     * @param <T> The type parameter used for the return object
+     * @param call The service call to run
+     * @return The future result of the call
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> call)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                return call.call();
+            }
+            catch(Exception e)
+            {
+                throw new CompletionException(e);
+            }
+        }, getExecutor());
+    }
+
+    /**
+     * Closes the client after waiting for in-flight requests to complete.
+     * @throws IOException if the connection pool could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        close(HttpContext.DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the client after waiting up to the given time for in-flight requests to complete.
+     * <p>
+     * An executor created by the client is shut down first so that submitted calls can complete.
+     * @param timeout The maximum time to wait for in-flight requests
+     * @param unit The time unit of the timeout
+     * @throws IOException if the connection pool could not be closed.
+     */
+    public void close(long timeout, TimeUnit unit) throws IOException
+    {
+        long deadline = System.nanoTime()+unit.toNanos(timeout);
+
+        lock.lock();
+        try
+        {
+            if(executor != null && ownsExecutor)
+            {
+                executor.shutdown();
+                executor.awaitTermination(unit.toNanos(timeout), TimeUnit.NANOSECONDS);
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        httpContext.close(Math.max(deadline-System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a builder for the client.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make client construction easier.
+     */
+    public static class Builder
+    {
+        private String accessToken;
+        private HttpConfig config = new HttpConfig();
+        private HttpTransport transport;
+        private ExecutorService executor;
+        private boolean virtualThreads = false;
+        private CachePolicy expandCache;
+        private CachePolicy shortenCache;
+        private ShortenStore shortenStore;
+
+        /**
+         * Sets the access token used to authenticate requests.
+         * @param accessToken The access token used to authenticate requests
+         * @return This object
+         */
+        public Builder accessToken(String accessToken)
+        {
+            this.accessToken = accessToken;
+            return this;
+        }
+
+        /**
+         * Sets the connection pool and socket settings.
+         * <p>
+         * The settings are copied, so that the given configuration is not changed by the other methods
+         * of the builder and can be used as a template for several clients.
+         * @param config The connection pool and socket settings
+         * @return This object
+         */
+        public Builder config(HttpConfig config)
+        {
+            this.config = new HttpConfig(config);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections per route.
+         * @param maxPerRoute The maximum number of connections per route
+         * @return This object
+         */
+        public Builder maxPerRoute(int maxPerRoute)
+        {
+            config.setMaxPerRoute(maxPerRoute);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections in the pool.
+         * @param maxTotal The maximum number of connections in the pool
+         * @return This object
+         */
+        public Builder maxTotal(int maxTotal)
+        {
+            config.setMaxTotal(maxTotal);
+            return this;
+        }
+
+        /**
+         * Sets the timeout until a connection is established (in ms).
+         * @param connectTimeout The timeout until a connection is established
+         * @return This object
+         */
+        public Builder connectTimeout(int connectTimeout)
+        {
+            config.setConnectTimeout(connectTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the timeout waiting for data on the socket (in ms).
+         * @param socketTimeout The timeout waiting for data on the socket
+         * @return This object
+         */
+        public Builder socketTimeout(int socketTimeout)
+        {
+            config.setSocketTimeout(socketTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the timeout waiting for a connection from the pool (in ms).
+         * @param connectionRequestTimeout The timeout waiting for a connection from the pool
+         * @return This object
+         */
+        public Builder connectionRequestTimeout(int connectionRequestTimeout)
+        {
+            config.setConnectionRequestTimeout(connectionRequestTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the time each call must complete within if no timeout or deadline is given for it (in ms).
+         * <p>
+         * The timeout covers the whole call, including waiting for a rate limiter permit or a pooled connection,
+         * connecting, reading the response, and any retries or hedges. A call that does not complete in time
+         * fails with a {@link RequestTimeoutException}. A different timeout can be given to the calls
+         * made through a service using eg. <CODE>client.bitlinks().withOptions(RequestOptions.ofTimeout(300L))</CODE>.
+         * @param callTimeout The time each call must complete within
+         * @return This object
+         */
+        public Builder callTimeout(long callTimeout)
+        {
+            config.setCallTimeout(callTimeout);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket.
+         * @param tcpNoDelay <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket
+         * @return This object
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay)
+        {
+            config.setTcpNoDelay(tcpNoDelay);
+            return this;
+        }
+
+        /**
+         * Sets the size of the socket send buffer (SO_SNDBUF).
+         * @param sendBufferSize The size of the socket send buffer
+         * @return This object
+         */
+        public Builder sendBufferSize(int sendBufferSize)
+        {
+            config.setSendBufferSize(sendBufferSize);
+            return this;
+        }
+
+        /**
+         * Sets the size of the socket receive buffer (SO_RCVBUF).
+         * @param receiveBufferSize The size of the socket receive buffer
+         * @return This object
+         */
+        public Builder receiveBufferSize(int receiveBufferSize)
+        {
+            config.setReceiveBufferSize(receiveBufferSize);
+            return this;
+        }
+
+        /**
+         * Sets the period of inactivity after which pooled connections are revalidated (in ms).
+         * @param validateAfterInactivity The period of inactivity after which pooled connections are revalidated
+         * @return This object
+         */
+        public Builder validateAfterInactivity(int validateAfterInactivity)
+        {
+            config.setValidateAfterInactivity(validateAfterInactivity);
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O dispatch threads used by the asynchronous client.
+         * @param ioThreadCount The number of I/O dispatch threads used by the asynchronous client
+         * @return This object
+         */
+        public Builder ioThreadCount(int ioThreadCount)
+        {
+            config.setIoThreadCount(ioThreadCount);
+            return this;
+        }
+
+        /**
+         * Sets the time a connection can be held before it is reported as a possible leak (in ms).
+         * <p>
+         * Each report is logged as a warning with the stack trace of the call that took the connection.
+         * @param leakDetectionThreshold The time a connection can be held before it is reported as a possible leak
+         * @return This object
+         */
+        public Builder leakDetectionThreshold(long leakDetectionThreshold)
+        {
+            config.setLeakDetectionThreshold(leakDetectionThreshold);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if compressed responses should be requested using gzip or deflate.
+         * <p>
+         * Responses are decompressed as they are read.
+         * @param compression <CODE>true</CODE> if compressed responses should be requested
+         * @return This object
+         */
+        public Builder compression(boolean compression)
+        {
+            config.setCompression(compression);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if identical concurrent GET requests should share one request in flight.
+         * <p>
+         * GET requests with the same URL, query and access token made while an identical request is in flight
+         * wait for its result instead of being sent, and so share the result object.
+         * @param coalescing <CODE>true</CODE> if identical concurrent GET requests should share one request in flight
+         * @return This object
+         */
+        public Builder coalescing(boolean coalescing)
+        {
+            config.setCoalescing(coalescing);
+            return this;
+        }
+
+        /**
+         * Sets the size and expiry of the cache of expanded bitlinks.
+         * <p>
+         * Expanded bitlinks are cached by the bitlink service, so that expanding the same bitlink again
+         * does not send a request until its entry expires or is evicted. An entry is invalidated when its bitlink
+         * is updated with a new long url through the client, but not if it is updated elsewhere.
+         * The result object is shared, so callers should not modify it.
+         * @param expandCache The size and expiry of the cache of expanded bitlinks
+         * @return This object
+         */
+        public Builder expandCache(CachePolicy expandCache)
+        {
+            this.expandCache = expandCache;
+            return this;
+        }
+
+        /**
+         * Sets the size and expiry of the cache of shortened long urls.
+         * <p>
+         * Bitly returns the same bitlink when a long url is shortened again in the same domain and group,
+         * so the shortened long urls are cached by the bitlink service and shortening the same long url again
+         * returns the cached bitlink without sending a request. An entry is invalidated when its bitlink is updated
+         * with a new long url through the client, but not if it is updated or deleted elsewhere.
+         * The result object is shared, so callers should not modify it.
+         * @param shortenCache The size and expiry of the cache of shortened long urls
+         * @return This object
+         */
+        public Builder shortenCache(CachePolicy shortenCache)
+        {
+            this.shortenCache = shortenCache;
+            return this;
+        }
+
+        /**
+         * Sets the persistent store of shortened long urls, eg. <CODE>new ShortenStore(Paths.get("/var/cache/bitly"))</CODE>.
+         * <p>
+         * Shortened long urls are written to the store, so that they are found again after a restart without
+         * sending a request. The store is read after the cache of shortened long urls, if there is one.
+         * <p>
+         * The store is not closed when the client is closed.
+         * @param shortenStore The persistent store of shortened long urls
+         * @return This object
+         */
+        public Builder shortenStore(ShortenStore shortenStore)
+        {
+            this.shortenStore = shortenStore;
+            return this;
+        }
+
+        /**
+         * Sets the policy used to retry failed requests.
+         * <p>
+         * Only idempotent methods are retried by default, so POST requests such as shorten
+         * are not retried unless they are added to the methods of the policy.
+         * @param retryPolicy The policy used to retry failed requests
+         * @return This object
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy)
+        {
+            config.setRetryPolicy(retryPolicy);
+            return this;
+        }
+
+        /**
+         * Sets the policy used to hedge slow requests.
+         * <p>
+         * Only GET requests and expand are hedged by default, as they can safely be sent twice.
+         * @param hedgePolicy The policy used to hedge slow requests
+         * @return This object
+         */
+        public Builder hedgePolicy(HedgePolicy hedgePolicy)
+        {
+            config.setHedgePolicy(hedgePolicy);
+            return this;
+        }
+
+        /**
+         * Sets the client-side rate limiter used to space out requests to each endpoint family.
+         * @param rateLimiter The client-side rate limiter
+         * @return This object
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter)
+        {
+            config.setRateLimiter(rateLimiter);
+            return this;
+        }
+
+        /**
+         * Sets the circuit breaker used to fail fast while an endpoint is failing or slow.
+         * @param circuitBreaker The circuit breaker
+         * @return This object
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker)
+        {
+            config.setCircuitBreaker(circuitBreaker);
+            return this;
+        }
+
+        /**
+         * Sets the cache used to revalidate the results of GET requests,
+         * eg. <CODE>new ResponseCache(CachePolicy.builder().expireAfterWrite(5000L).build())</CODE>.
+         * <p>
+         * Results with an ETag or Last-Modified header are revalidated with a conditional request,
+         * and reused without reading the body if the server returns 304 (Not Modified). Results without
+         * either header are reused without a request until the expiry time of the cache policy.
+         * Only the paths of the cache are cached, by default a group and its preferences, and the lists
+         * of organizations, campaigns and webhooks. The result objects are shared, so callers should not modify them.
+         * @param responseCache The cache used to revalidate the results of GET requests
+         * @return This object
+         */
+        public Builder responseCache(ResponseCache responseCache)
+        {
+            config.setResponseCache(responseCache);
+            return this;
+        }
+
+        /**
+         * Sets the HTTP transport used to send requests, eg. <CODE>new JdkHttpTransport(config)</CODE>.
+         * <p>
+         * All the settings of the builder apply to the transport, except the connection pool and socket settings,
+         * which are only used by the default transport.
+         * @param transport The HTTP transport used to send requests
+         * @return This object
+         */
+        public Builder transport(HttpTransport transport)
+        {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the executor used to run submitted service calls and read the responses to asynchronous calls.
+         * <p>
+         * The executor is not shut down when the client is closed.
+         * @param executor The executor used to run submitted service calls
+         * @return This object
+         */
+        public Builder executor(ExecutorService executor)
+        {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if submitted service calls should each run on a new virtual thread.
+         * <p>
+         * Requires Java 21+, otherwise a cached thread pool is used.
+         * The connection pool should be sized for the expected number of concurrent calls.
+         * @param virtualThreads <CODE>true</CODE> if submitted service calls should run on virtual threads
+         * @return This object
+         */
+        public Builder virtualThreads(boolean virtualThreads)
+        {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Returns the configured client
+         * @return The client instance
+         */
+        public Bitly build()
+        {
+            if(accessToken == null)
+                throw new IllegalArgumentException("accessToken == null");
+            Bitly ret = transport != null ? new Bitly(accessToken, transport, config) : new Bitly(accessToken, config);
+
+            if(expandCache != null)
+                ret.bitlinks.setExpandCache(new TinyLfuCache<String,ExpandBitlinkResponse>(expandCache));
+            if(shortenCache != null)
+                ret.bitlinks.setShortenCache(new TinyLfuCache<String,CreateBitlinkResponse>(shortenCache));
+            ret.bitlinks.setShortenStore(shortenStore);
+
+            if(executor != null)
+            {
+                ret.executor = executor;
+            }
+            else if(virtualThreads)
+            {
+                ret.executor = VirtualThreads.newExecutor();
+                ret.ownsExecutor = true;
+            }
+            if(ret.executor != null)
+                ret.httpContext.setCompletionExecutor(ret.executor);
+
+            return ret;
+        }
     }
 }
\ No newline at end of file
@@ -56,6 +56,16 @@ public class BitlyException extends RuntimeException
         super(message);
     }
 
+    /**
+     * Constructor that takes an error message and the exception that caused the error.
+     * @param message The error message
+     * @param cause The exception that caused the error
+     */
+    public BitlyException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+
     /**
      * Returns the HTTP method.
      * @return The HTTP method
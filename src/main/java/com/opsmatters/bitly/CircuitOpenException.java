@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly;
+
+/**
+ * Exception thrown when a request is refused without being sent because the circuit of its endpoint is open.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class CircuitOpenException extends BitlyException
+{
+    private String endpoint;
+    private long retryAfter;
+
+    /**
+     * Constructor that takes the endpoint and the time until the circuit allows a trial request.
+     * @param endpoint The endpoint of the request, eg. "POST /v4/shorten"
+     * @param retryAfter The time until the circuit allows a trial request (in ms)
+     */
+    public CircuitOpenException(String endpoint, long retryAfter)
+    {
+        super("Circuit open for "+endpoint+", trial requests allowed in "+retryAfter+"ms");
+        this.endpoint = endpoint;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the endpoint of the request.
+     * @return The endpoint of the request
+     */
+    public String getEndpoint()
+    {
+        return endpoint;
+    }
+
+    /**
+     * Returns the time until the circuit allows a trial request (in ms).
+     * @return The time until the circuit allows a trial request
+     */
+    public long getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
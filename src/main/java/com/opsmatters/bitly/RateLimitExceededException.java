@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly;
+
+import com.opsmatters.bitly.api.services.EndpointFamily;
+
+/**
+ * Exception thrown when a request is refused by the client-side rate limiter before it is sent.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class RateLimitExceededException extends BitlyException
+{
+    private EndpointFamily family;
+    private long waitTime;
+
+    /**
+     * Constructor that takes the endpoint family and the time until a permit is available.
+     * @param family The endpoint family of the request
+     * @param waitTime The time until a permit is available (in ms)
+     */
+    public RateLimitExceededException(EndpointFamily family, long waitTime)
+    {
+        super("Rate limit exceeded for "+family+" requests, next permit available in "+waitTime+"ms");
+        this.family = family;
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * Returns the endpoint family of the request.
+     * @return The endpoint family of the request
+     */
+    public EndpointFamily getFamily()
+    {
+        return family;
+    }
+
+    /**
+     * Returns the time until a permit is available (in ms).
+     * @return The time until a permit is available
+     */
+    public long getWaitTime()
+    {
+        return waitTime;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly;
+
+/**
+ * Exception thrown when a request has not completed before its deadline.
+ * <p>
+ * The deadline covers the whole call, including waiting for a rate limiter permit or a pooled connection,
+ * connecting, reading the response, and any retries or hedges.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class RequestTimeoutException extends BitlyException
+{
+    private long timeout;
+
+    /**
+     * Constructor that takes the request and the timeout of its deadline.
+     * @param request The request that timed out, eg. "POST https://api-ssl.bitly.com/v4/shorten"
+     * @param timeout The timeout of the deadline (in ms)
+     */
+    public RequestTimeoutException(String request, long timeout)
+    {
+        super(request+" did not complete within its deadline of "+timeout+"ms");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the timeout of the deadline (in ms).
+     * @return The timeout of the deadline
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+}
@@ -16,9 +16,17 @@
 
 package com.opsmatters.bitly.api.model.v4;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Represents the attributes of a bitlink.
@@ -186,4 +194,131 @@ public class Bitlink
             +", createdBy="+createdBy
             +"]";
     }
-}
\ No newline at end of file
+
+    /**
+     * Reflection-free Gson adapter for bitlinks and the responses that extend them.
+     */
+    static class Adapter<T extends Bitlink> extends TypeAdapter<T>
+    {
+        private Supplier<T> constructor;
+        private TypeAdapter<Map<String,String>> referencesAdapter;
+        private TypeAdapter<List<String>> stringsAdapter;
+        private TypeAdapter<List<Deeplink>> deeplinksAdapter;
+
+        /**
+         * Constructor that takes a Gson instance and a constructor for the bitlink type.
+         * @param gson The Gson instance used to look up adapters for nested objects
+         * @param constructor The constructor for the bitlink type
+         */
+        Adapter(Gson gson, Supplier<T> constructor)
+        {
+            this.constructor = constructor;
+            this.referencesAdapter = gson.getAdapter(new TypeToken<Map<String,String>>(){});
+            this.stringsAdapter = gson.getAdapter(new TypeToken<List<String>>(){});
+            this.deeplinksAdapter = gson.getAdapter(new TypeToken<List<Deeplink>>(){});
+        }
+
+        /**
+         * Writes the given bitlink as JSON.
+         * @param out The JSON writer
+         * @param value The bitlink to write
+         * @throws IOException if the bitlink could not be written.
+         */
+        @Override
+        public void write(JsonWriter out, T value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+
+            Bitlink bitlink = value;
+            out.beginObject();
+            out.name("id").value(bitlink.id);
+            out.name("link").value(bitlink.link);
+            out.name("title").value(bitlink.title);
+            out.name("references");
+            referencesAdapter.write(out, bitlink.references);
+            out.name("tags");
+            stringsAdapter.write(out, bitlink.tags);
+            out.name("deeplinks");
+            deeplinksAdapter.write(out, bitlink.deeplinks);
+            out.name("archived").value(bitlink.archived);
+            out.name("long_url").value(bitlink.longUrl);
+            out.name("client_id").value(bitlink.clientId);
+            out.name("custom_bitlinks");
+            stringsAdapter.write(out, bitlink.customBitlinks);
+            out.name("created_at").value(bitlink.createdAt);
+            out.name("created_by").value(bitlink.createdBy);
+            out.endObject();
+        }
+
+        /**
+         * Reads a bitlink from JSON.
+         * @param in The JSON reader
+         * @return The bitlink read, or <CODE>null</CODE> if the value is null
+         * @throws IOException if the bitlink could not be read.
+         */
+        @Override
+        public T read(JsonReader in) throws IOException
+        {
+            if(in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+
+            T ret = constructor.get();
+            Bitlink bitlink = ret;
+            in.beginObject();
+            while(in.hasNext())
+            {
+                switch(in.nextName())
+                {
+                    case "id":
+                        bitlink.id = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "link":
+                        bitlink.link = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "title":
+                        bitlink.title = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "references":
+                        bitlink.references = referencesAdapter.read(in);
+                        break;
+                    case "tags":
+                        bitlink.tags = stringsAdapter.read(in);
+                        break;
+                    case "deeplinks":
+                        bitlink.deeplinks = deeplinksAdapter.read(in);
+                        break;
+                    case "archived":
+                        bitlink.archived = V4TypeAdapterFactory.readBoolean(in);
+                        break;
+                    case "long_url":
+                        bitlink.longUrl = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "client_id":
+                        bitlink.clientId = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "custom_bitlinks":
+                        bitlink.customBitlinks = stringsAdapter.read(in);
+                        break;
+                    case "created_at":
+                        bitlink.createdAt = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "created_by":
+                        bitlink.createdBy = V4TypeAdapterFactory.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+    }
+}
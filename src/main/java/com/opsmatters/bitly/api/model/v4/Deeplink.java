@@ -17,6 +17,11 @@
 package com.opsmatters.bitly.api.model.v4;
 
 import com.google.gson.annotations.SerializedName;
+import java.io.IOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Represents a deeplink.
@@ -176,4 +181,102 @@ public class Deeplink
             +"]";
     }
 
-}
\ No newline at end of file
+    /**
+     * Reflection-free Gson adapter for a deeplink.
+     */
+    static class Adapter extends TypeAdapter<Deeplink>
+    {
+        /**
+         * Writes the given deeplink as JSON.
+         * @param out The JSON writer
+         * @param value The deeplink to write
+         * @throws IOException if the deeplink could not be written.
+         */
+        @Override
+        public void write(JsonWriter out, Deeplink value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("bitlink").value(value.bitlink);
+            out.name("guid").value(value.guid);
+            out.name("os").value(value.os);
+            out.name("created").value(value.created);
+            out.name("modified").value(value.modified);
+            out.name("app_uri_path").value(value.appUriPath);
+            out.name("install_type").value(value.installType);
+            out.name("install_url").value(value.installUrl);
+            out.name("app_id").value(value.appId);
+            out.name("app_guid").value(value.appGuid);
+            out.name("brand_guid").value(value.brandGuid);
+            out.endObject();
+        }
+
+        /**
+         * Reads a deeplink from JSON.
+         * @param in The JSON reader
+         * @return The deeplink read, or <CODE>null</CODE> if the value is null
+         * @throws IOException if the deeplink could not be read.
+         */
+        @Override
+        public Deeplink read(JsonReader in) throws IOException
+        {
+            if(in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+
+            Deeplink ret = new Deeplink();
+            in.beginObject();
+            while(in.hasNext())
+            {
+                switch(in.nextName())
+                {
+                    case "bitlink":
+                        ret.bitlink = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "guid":
+                        ret.guid = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "os":
+                        ret.os = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "created":
+                        ret.created = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "modified":
+                        ret.modified = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "app_uri_path":
+                        ret.appUriPath = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "install_type":
+                        ret.installType = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "install_url":
+                        ret.installUrl = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "app_id":
+                        ret.appId = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "app_guid":
+                        ret.appGuid = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "brand_guid":
+                        ret.brandGuid = V4TypeAdapterFactory.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+    }
+}
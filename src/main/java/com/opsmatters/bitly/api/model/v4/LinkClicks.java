@@ -16,6 +16,12 @@
 
 package com.opsmatters.bitly.api.model.v4;
 
+import java.io.IOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Represents the link clicks for a bitlink, date or metric value.
  * 
@@ -85,4 +91,74 @@ public class LinkClicks
             +"]";
     }
 
-}
\ No newline at end of file
+    /**
+     * Reflection-free Gson adapter for link clicks.
+     */
+    static class Adapter extends TypeAdapter<LinkClicks>
+    {
+        /**
+         * Writes the given link clicks as JSON.
+         * @param out The JSON writer
+         * @param value The link clicks to write
+         * @throws IOException if the link clicks could not be written.
+         */
+        @Override
+        public void write(JsonWriter out, LinkClicks value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("date").value(value.date);
+            out.name("value").value(value.value);
+            out.name("clicks").value(value.clicks);
+            out.endObject();
+        }
+
+        /**
+         * Reads link clicks from JSON.
+         * @param in The JSON reader
+         * @return The link clicks read, or <CODE>null</CODE> if the value is null
+         * @throws IOException if the link clicks could not be read.
+         */
+        @Override
+        public LinkClicks read(JsonReader in) throws IOException
+        {
+            if(in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+
+            LinkClicks ret = new LinkClicks();
+            in.beginObject();
+            while(in.hasNext())
+            {
+                switch(in.nextName())
+                {
+                    case "id":
+                        ret.id = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "date":
+                        ret.date = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "value":
+                        ret.value = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "clicks":
+                        ret.clicks = V4TypeAdapterFactory.readInt(in, ret.clicks);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+    }
+}
@@ -16,6 +16,12 @@
 
 package com.opsmatters.bitly.api.model.v4;
 
+import java.io.IOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Represents a named metric.
  * 
@@ -63,4 +69,66 @@ public class Metric
             +"]";
     }
 
-}
\ No newline at end of file
+    /**
+     * Reflection-free Gson adapter for a metric.
+     */
+    static class Adapter extends TypeAdapter<Metric>
+    {
+        /**
+         * Writes the given metric as JSON.
+         * @param out The JSON writer
+         * @param value The metric to write
+         * @throws IOException if the metric could not be written.
+         */
+        @Override
+        public void write(JsonWriter out, Metric value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("key").value(value.key);
+            out.name("value").value(value.value);
+            out.endObject();
+        }
+
+        /**
+         * Reads a metric from JSON.
+         * @param in The JSON reader
+         * @return The metric read, or <CODE>null</CODE> if the value is null
+         * @throws IOException if the metric could not be read.
+         */
+        @Override
+        public Metric read(JsonReader in) throws IOException
+        {
+            if(in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+
+            Metric ret = new Metric();
+            in.beginObject();
+            while(in.hasNext())
+            {
+                switch(in.nextName())
+                {
+                    case "key":
+                        ret.key = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "value":
+                        ret.value = V4TypeAdapterFactory.readInt(in, ret.value);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+    }
+}
@@ -16,6 +16,12 @@
 
 package com.opsmatters.bitly.api.model.v4;
 
+import java.io.IOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Represents the attributes of a page of results.
  * 
@@ -96,4 +102,78 @@ public class Pagination
             +"]";
     }
 
-}
\ No newline at end of file
+    /**
+     * Reflection-free Gson adapter for a pagination.
+     */
+    static class Adapter extends TypeAdapter<Pagination>
+    {
+        /**
+         * Writes the given pagination as JSON.
+         * @param out The JSON writer
+         * @param value The pagination to write
+         * @throws IOException if the pagination could not be written.
+         */
+        @Override
+        public void write(JsonWriter out, Pagination value) throws IOException
+        {
+            if(value == null)
+            {
+                out.nullValue();
+                return;
+            }
+
+            out.beginObject();
+            out.name("total").value(value.total);
+            out.name("size").value(value.size);
+            out.name("prev").value(value.prev);
+            out.name("page").value(value.page);
+            out.name("next").value(value.next);
+            out.endObject();
+        }
+
+        /**
+         * Reads a pagination from JSON.
+         * @param in The JSON reader
+         * @return The pagination read, or <CODE>null</CODE> if the value is null
+         * @throws IOException if the pagination could not be read.
+         */
+        @Override
+        public Pagination read(JsonReader in) throws IOException
+        {
+            if(in.peek() == JsonToken.NULL)
+            {
+                in.nextNull();
+                return null;
+            }
+
+            Pagination ret = new Pagination();
+            in.beginObject();
+            while(in.hasNext())
+            {
+                switch(in.nextName())
+                {
+                    case "total":
+                        ret.total = V4TypeAdapterFactory.readInt(in, ret.total);
+                        break;
+                    case "size":
+                        ret.size = V4TypeAdapterFactory.readInt(in, ret.size);
+                        break;
+                    case "prev":
+                        ret.prev = V4TypeAdapterFactory.readString(in);
+                        break;
+                    case "page":
+                        ret.page = V4TypeAdapterFactory.readInt(in, ret.page);
+                        break;
+                    case "next":
+                        ret.next = V4TypeAdapterFactory.readString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.model.v4;
+
+import java.io.IOException;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Provides reflection-free Gson adapters for the most frequently parsed v4 models.
+ * <p>
+ * The adapters read and write the same JSON field names as the <CODE>@SerializedName</CODE>
+ * annotations on the models, and produce the same objects as Gson's reflective adapter.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class V4TypeAdapterFactory implements TypeAdapterFactory
+{
+    /**
+     * Default constructor.
+     */
+    public V4TypeAdapterFactory()
+    {
+    }
+
+    /**
+     * Returns the adapter for the given type, or <CODE>null</CODE> if the type is not supported.
+     * @param <T> The type parameter of the adapter
+     * @param gson The Gson instance used to look up adapters for nested objects
+     * @param type The type to create the adapter for
+     * @return The adapter for the given type, or <CODE>null</CODE> if the type is not supported
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type)
+    {
+        Class<? super T> rawType = type.getRawType();
+        if(rawType == Bitlink.class)
+            return (TypeAdapter<T>)new Bitlink.Adapter<Bitlink>(gson, Bitlink::new);
+        else if(rawType == CreateBitlinkResponse.class)
+            return (TypeAdapter<T>)new Bitlink.Adapter<CreateBitlinkResponse>(gson, CreateBitlinkResponse::new);
+        else if(rawType == GetBitlinkResponse.class)
+            return (TypeAdapter<T>)new Bitlink.Adapter<GetBitlinkResponse>(gson, GetBitlinkResponse::new);
+        else if(rawType == UpdateBitlinkResponse.class)
+            return (TypeAdapter<T>)new Bitlink.Adapter<UpdateBitlinkResponse>(gson, UpdateBitlinkResponse::new);
+        else if(rawType == Deeplink.class)
+            return (TypeAdapter<T>)new Deeplink.Adapter();
+        else if(rawType == LinkClicks.class)
+            return (TypeAdapter<T>)new LinkClicks.Adapter();
+        else if(rawType == Metric.class)
+            return (TypeAdapter<T>)new Metric.Adapter();
+        else if(rawType == Pagination.class)
+            return (TypeAdapter<T>)new Pagination.Adapter();
+        return null;
+    }
+
+    /**
+     * Reads a string value in the same way as Gson's built-in adapter.
+     * @param in The JSON reader
+     * @return The string value, or <CODE>null</CODE> if the value is null
+     * @throws IOException if the value could not be read.
+     */
+    static String readString(JsonReader in) throws IOException
+    {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        else if(token == JsonToken.BOOLEAN)
+        {
+            return Boolean.toString(in.nextBoolean());
+        }
+
+        return in.nextString();
+    }
+
+    /**
+     * Reads an int value in the same way as Gson's built-in adapter.
+     * <p>
+     * A null value leaves the current value unchanged, as the reflective adapter does for primitive fields.
+     * @param in The JSON reader
+     * @param value The current value
+     * @return The int value
+     * @throws IOException if the value could not be read.
+     */
+    static int readInt(JsonReader in, int value) throws IOException
+    {
+        if(in.peek() == JsonToken.NULL)
+        {
+            in.nextNull();
+            return value;
+        }
+
+        try
+        {
+            return in.nextInt();
+        }
+        catch(NumberFormatException e)
+        {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Reads a boolean value in the same way as Gson's built-in adapter.
+     * @param in The JSON reader
+     * @return The boolean value, or <CODE>null</CODE> if the value is null
+     * @throws IOException if the value could not be read.
+     */
+    static Boolean readBoolean(JsonReader in) throws IOException
+    {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL)
+        {
+            in.nextNull();
+            return null;
+        }
+        else if(token == JsonToken.STRING)
+        {
+            return Boolean.parseBoolean(in.nextString());
+        }
+
+        return in.nextBoolean();
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * HTTP transport using Apache HttpClient for blocking requests and Apache HttpAsyncClient for non-blocking requests.
+ * <p>
+ * Each client has its own connection pool, and the connection limits of the settings are shared between them:
+ * the blocking pool has all the connections until the first non-blocking request, when half of them
+ * are moved to the non-blocking pool.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ApacheHttpTransport implements HttpTransport
+{
+    private HttpConfig config;
+    private RequestConfig requestConfig;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient client;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor that takes the connection settings.
+     * @param config The connection pool and socket settings
+     */
+    public ApacheHttpTransport(HttpConfig config)
+    {
+        this.config = config;
+        this.requestConfig = RequestConfig.custom()
+            .setConnectTimeout(config.getConnectTimeout())
+            .setSocketTimeout(config.getSocketTimeout())
+            .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+            .build();
+        this.client = createClient(config);
+    }
+
+    /**
+     * Creates a HTTP client with a connection pool using the given settings.
+     * @param config The connection pool and socket settings
+     * @return The HTTP client
+     */
+    private CloseableHttpClient createClient(HttpConfig config)
+    {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivity());
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+            .setTcpNoDelay(config.isTcpNoDelay())
+            .setSoTimeout(Math.max(config.getSocketTimeout(), 0))
+            .setSndBufSize(config.getSendBufferSize())
+            .setRcvBufSize(config.getReceiveBufferSize())
+            .build());
+
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .disableContentCompression() // handled by HttpContext
+            .build();
+    }
+
+    /**
+     * Creates and starts a non-blocking HTTP client with a connection pool using the given settings.
+     * <p>
+     * Half of the connections of the blocking pool, rounded down, are moved to the new pool,
+     * so that the two pools together keep to the limits of the settings.
+     * @param config The connection pool and socket settings
+     * @return The asynchronous HTTP client
+     * @throws IOException if the I/O reactor could not be created.
+     */
+    private CloseableHttpAsyncClient createAsyncClient(HttpConfig config) throws IOException
+    {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+            .setIoThreadCount(config.getIoThreadCount())
+            .setTcpNoDelay(config.isTcpNoDelay())
+            .setConnectTimeout(Math.max(config.getConnectTimeout(), 0))
+            .setSoTimeout(Math.max(config.getSocketTimeout(), 0))
+            .setSndBufSize(config.getSendBufferSize())
+            .setRcvBufSize(config.getReceiveBufferSize())
+            .build();
+
+        int asyncMaxTotal = getAsyncLimit(config.getMaxTotal());
+        int asyncMaxPerRoute = getAsyncLimit(config.getMaxPerRoute());
+        PoolingNHttpClientConnectionManager asyncConnectionManager
+            = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        asyncConnectionManager.setMaxTotal(asyncMaxTotal);
+        asyncConnectionManager.setDefaultMaxPerRoute(asyncMaxPerRoute);
+        connectionManager.setMaxTotal(Math.max(config.getMaxTotal()-asyncMaxTotal, 1));
+        connectionManager.setDefaultMaxPerRoute(Math.max(config.getMaxPerRoute()-asyncMaxPerRoute, 1));
+
+        CloseableHttpAsyncClient ret = HttpAsyncClients.custom()
+            .setConnectionManager(asyncConnectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+        ret.start();
+        return ret;
+    }
+
+    /**
+     * Returns the number of connections of the given limit used by the non-blocking pool.
+     * @param max The maximum number of connections of both pools
+     * @return The number of connections used by the non-blocking pool, which is at least 1
+     */
+    static int getAsyncLimit(int max)
+    {
+        return Math.max(max/2, 1);
+    }
+
+    /**
+     * Returns the non-blocking HTTP client, creating it on first use.
+     * @return The asynchronous HTTP client
+     * @throws IOException if the client could not be created.
+     */
+    private CloseableHttpAsyncClient getAsyncClient() throws IOException
+    {
+        CloseableHttpAsyncClient ret = asyncClient;
+        if(ret == null)
+        {
+            lock.lock();
+            try
+            {
+                if(closed)
+                    throw new IllegalStateException("HTTP transport is closed");
+                if(asyncClient == null)
+                    asyncClient = createAsyncClient(config);
+                ret = asyncClient;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        HttpRequestBase httpRequest = createRequest(request, true);
+        Deadline deadline = request.getDeadline();
+        if(deadline == null)
+            return new ApacheTransportResponse(client.execute(httpRequest), null);
+
+        // Abort the exchange if it is still running at the deadline, including while the response is read
+        ScheduledFuture<?> abort = deadline.schedule(httpRequest::abort);
+        try
+        {
+            return new ApacheTransportResponse(client.execute(httpRequest), abort);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            abort.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        final CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+
+        CloseableHttpAsyncClient asyncClient;
+        try
+        {
+            asyncClient = getAsyncClient();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        HttpRequestBase httpRequest;
+        try
+        {
+            httpRequest = createRequest(request, false);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        final Future<HttpResponse> future = asyncClient.execute(httpRequest, new FutureCallback<HttpResponse>()
+        {
+            @Override
+            public void completed(HttpResponse response)
+            {
+                if(!ret.complete(new ApacheTransportResponse(response, null)))
+                    EntityUtils.consumeQuietly(response.getEntity());
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                ret.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled()
+            {
+                ret.cancel(false);
+            }
+        });
+
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCancelled())
+                future.cancel(true);
+        });
+
+        return ret;
+    }
+
+    /**
+     * Closes the blocking and non-blocking clients and their connection pools.
+     * @throws IOException if a client could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        client.close();
+
+        lock.lock();
+        try
+        {
+            if(asyncClient != null)
+                asyncClient.close();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates an Apache request from the given transport request.
+     * <p>
+     * A body that fits in a buffer of {@link JsonRequestBody#BUFFER_SIZE} bytes is sent with a Content-Length.
+     * A longer body is written directly to the connection by the blocking client using chunked encoding,
+     * but must be serialized first for the non-blocking client.
+     * If the request has a deadline, the timeouts are limited to the time remaining.
+     * @param request The transport request
+     * @param streaming <CODE>true</CODE> if the body should be written directly to the connection
+     * @return The Apache request
+     * @throws IOException if the body could not be serialized.
+     */
+    private HttpRequestBase createRequest(TransportRequest request, boolean streaming) throws IOException
+    {
+        HttpRequestBase ret;
+        String method = request.getMethod();
+        if(method.equals("GET"))
+            ret = new HttpGet(request.getUri());
+        else if(method.equals("POST"))
+            ret = new HttpPost(request.getUri());
+        else if(method.equals("PATCH"))
+            ret = new HttpPatch(request.getUri());
+        else if(method.equals("DELETE"))
+            ret = new HttpDelete(request.getUri());
+        else
+            throw new IllegalArgumentException("unsupported method: "+method);
+
+        for(Map.Entry<String,String> e : request.getHeaders().entrySet())
+            ret.setHeader(e.getKey(), e.getValue());
+
+        Deadline deadline = request.getDeadline();
+        if(deadline != null)
+        {
+            int remaining = (int)Math.min(deadline.getTimeoutMillis(), Integer.MAX_VALUE);
+            ret.setConfig(RequestConfig.copy(requestConfig)
+                .setConnectionRequestTimeout(limit(requestConfig.getConnectionRequestTimeout(), remaining))
+                .setConnectTimeout(limit(requestConfig.getConnectTimeout(), remaining))
+                .setSocketTimeout(limit(requestConfig.getSocketTimeout(), remaining))
+                .build());
+        }
+
+        RequestBody body = request.getBody();
+        if(body != null && ret instanceof HttpEntityEnclosingRequestBase)
+        {
+            HttpEntity entity;
+            byte[] bytes = streaming ? body.toByteArray(JsonRequestBody.BUFFER_SIZE) : body.toByteArray();
+            if(bytes != null)
+                entity = new ByteArrayEntity(bytes, ContentType.parse(body.getContentType()));
+            else
+                entity = new RequestBodyEntity(body);
+            ((HttpEntityEnclosingRequestBase)ret).setEntity(entity);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the given timeout limited to the time remaining until a deadline.
+     * @param timeout The configured timeout (in ms), or a value less than 1 if there is no timeout
+     * @param remaining The time remaining until the deadline (in ms)
+     * @return The limited timeout
+     */
+    private static int limit(int timeout, int remaining)
+    {
+        return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+    }
+
+    /**
+     * Entity that writes a request body directly to the connection, used for bodies too long to buffer.
+     */
+    private static class RequestBodyEntity extends AbstractHttpEntity
+    {
+        private RequestBody body;
+
+        /**
+         * Constructor that takes a request body.
+         * @param body The request body
+         */
+        RequestBodyEntity(RequestBody body)
+        {
+            this.body = body;
+            setContentType(body.getContentType());
+        }
+
+        /**
+         * Returns <CODE>true</CODE> as the body can be written more than once.
+         * @return <CODE>true</CODE>
+         */
+        @Override
+        public boolean isRepeatable()
+        {
+            return true;
+        }
+
+        /**
+         * Returns -1 as the length is not known until the body has been written.
+         * @return -1
+         */
+        @Override
+        public long getContentLength()
+        {
+            return -1L;
+        }
+
+        /**
+         * Returns the body as a stream, serializing it first.
+         * @return The body as a stream
+         * @throws IOException if the body could not be serialized.
+         */
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            return new ByteArrayInputStream(body.toByteArray());
+        }
+
+        /**
+         * Writes the body to the given stream.
+         * @param os The stream to write the body to
+         * @throws IOException if the body could not be written.
+         */
+        @Override
+        public void writeTo(OutputStream os) throws IOException
+        {
+            body.writeTo(os);
+            os.flush();
+        }
+
+        /**
+         * Returns <CODE>false</CODE> as the body is not read from a stream.
+         * @return <CODE>false</CODE>
+         */
+        @Override
+        public boolean isStreaming()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Wraps an Apache response.
+     */
+    private static class ApacheTransportResponse implements TransportResponse
+    {
+        private HttpResponse response;
+        private ScheduledFuture<?> abort;
+
+        /**
+         * Constructor that takes an Apache response and the task that aborts it at its deadline.
+         * @param response The Apache response
+         * @param abort The task that aborts the response at its deadline, or <CODE>null</CODE> if there is no deadline
+         */
+        ApacheTransportResponse(HttpResponse response, ScheduledFuture<?> abort)
+        {
+            this.response = response;
+            this.abort = abort;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getStatusCode()
+        {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getReasonPhrase()
+        {
+            return response.getStatusLine().getReasonPhrase();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getHeader(String name)
+        {
+            Header header = response.getFirstHeader(name);
+            return header != null ? header.getValue() : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            HttpEntity entity = response.getEntity();
+            return entity != null ? entity.getContent() : null;
+        }
+
+        /**
+         * Releases the connection used by the response.
+         * <p>
+         * Any unread content is consumed first so that the connection can be returned to the pool
+         * and reused, rather than being discarded.
+         * @throws IOException if the connection could not be released.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            finally
+            {
+                if(abort != null)
+                    abort.cancel(false);
+                if(response instanceof Closeable)
+                    ((Closeable)response).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import com.google.common.base.Optional;
+import com.opsmatters.bitly.BitlyException;
+
+/**
+ * Iterator that sends the requests for a batch of inputs asynchronously, with a bounded number in flight,
+ * and returns the outcome of each one.
+ * <p>
+ * Inputs with the same key share one request. Requests are sent using the asynchronous calls of a service,
+ * so they use the connection pool of the client rather than a thread each, and a new request is sent
+ * as each request completes. No more requests are sent once a number of outcomes is waiting to be read,
+ * so a slow reader holds back the batch rather than filling memory.
+ * <p>
+ * In input order, an outcome is returned for every input, including those that shared a request.
+ * The outcome of a key is dropped once it has been read for each of its inputs, so an input with the same key
+ * as one that has already been read sends a request of its own. In completion order, an outcome is returned
+ * for each key as soon as its request completes, so a slow request does not hold back the others,
+ * and only the keys are kept to find later inputs with the same key.
+ *
+ * @param <K> The type of the inputs of the batch
+ * @param <T> The type of the results of the batch
+ * @author Gerald Curley (opsmatters)
+ */
+public class BatchIterator<K,T> implements Iterator<BatchResult<K,T>>
+{
+    /**
+     * The number of requests in flight by default.
+     */
+    public static final int DEFAULT_CONCURRENCY = 10;
+
+    private final Iterator<? extends K> inputs;
+    private final Function<? super K,String> key;
+    private final Function<? super K,CompletableFuture<Optional<T>>> call;
+    private final int concurrency;
+    private final int maxBuffered;
+    private final boolean ordered;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String,Slot> slots = new HashMap<String,Slot>();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+    private final ArrayDeque<BatchResult<K,T>> completed = new ArrayDeque<BatchResult<K,T>>();
+    private final List<CompletableFuture<Optional<T>>> inFlight = new ArrayList<CompletableFuture<Optional<T>>>();
+    private boolean sending = false;
+    private boolean closed = false;
+
+    /**
+     * Constructor that takes the inputs and the call used to send the request for each input.
+     * @param inputs The inputs of the batch, which are read as requests are sent
+     * @param key The function that returns the key of an input, so that inputs with the same key share a request
+     * @param call The asynchronous call that sends the request for an input
+     * @param concurrency The maximum number of requests in flight
+     * @param ordered <CODE>true</CODE> if an outcome should be returned for each input in input order,
+     *     or <CODE>false</CODE> if an outcome should be returned for each key in completion order
+     */
+    public BatchIterator(Iterator<? extends K> inputs, Function<? super K,String> key,
+        Function<? super K,CompletableFuture<Optional<T>>> call, int concurrency, boolean ordered)
+    {
+        if(inputs == null)
+            throw new IllegalArgumentException("inputs == null");
+        if(key == null)
+            throw new IllegalArgumentException("key == null");
+        if(call == null)
+            throw new IllegalArgumentException("call == null");
+        if(concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be > 0");
+
+        this.inputs = inputs;
+        this.key = key;
+        this.call = call;
+        this.concurrency = concurrency;
+        this.maxBuffered = concurrency*4;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Returns the maximum number of requests in flight.
+     * @return The maximum number of requests in flight
+     */
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if outcomes are returned in input order.
+     * @return <CODE>true</CODE> if outcomes are returned in input order
+     */
+    public boolean isOrdered()
+    {
+        return ordered;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if there are more outcomes, waiting for a request to complete if necessary.
+     * @return <CODE>true</CODE> if there are more outcomes
+     * @throws BitlyException if the thread is interrupted while waiting.
+     */
+    @Override
+    public boolean hasNext()
+    {
+        lock.lock();
+        try
+        {
+            send();
+            if(ordered)
+                return !closed && !pending.isEmpty();
+
+            while(!closed && completed.isEmpty())
+            {
+                if(inFlight.isEmpty() && !inputs.hasNext())
+                    return false;
+                await();
+            }
+            return !closed;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next outcome, waiting for its request to complete if necessary.
+     * @return The next outcome
+     * @throws NoSuchElementException if there are no more outcomes.
+     * @throws BitlyException if the thread is interrupted while waiting.
+     */
+    @Override
+    public BatchResult<K,T> next()
+    {
+        lock.lock();
+        try
+        {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            BatchResult<K,T> ret;
+            if(ordered)
+            {
+                Pending head = pending.peek();
+                while(!head.slot.done)
+                {
+                    if(closed)
+                        throw new NoSuchElementException();
+                    await();
+                }
+                pending.poll();
+                ret = new BatchResult<K,T>(head.input, head.slot.value, head.slot.exception);
+                if(--head.slot.readers == 0)
+                    slots.remove(head.slot.key);
+            }
+            else
+            {
+                ret = completed.poll();
+            }
+
+            send();
+            return ret;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the outcomes of the remaining inputs.
+     * @return The outcomes of the remaining inputs
+     * @throws BitlyException if the thread is interrupted while waiting.
+     */
+    public List<BatchResult<K,T>> toList()
+    {
+        List<BatchResult<K,T>> ret = new ArrayList<BatchResult<K,T>>();
+        while(hasNext())
+            ret.add(next());
+        return ret;
+    }
+
+    /**
+     * Stops sending requests and cancels the requests in flight, after which there are no more outcomes.
+     */
+    public void cancel()
+    {
+        List<CompletableFuture<Optional<T>>> futures;
+        lock.lock();
+        try
+        {
+            closed = true;
+            futures = new ArrayList<CompletableFuture<Optional<T>>>(inFlight);
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        for(CompletableFuture<Optional<T>> future : futures)
+            future.cancel(true);
+    }
+
+    /**
+     * Sends requests for the next inputs until the maximum number are in flight or waiting to be read.
+     * <p>
+     * Must be called with the lock held. Requests that complete at once are handled by the loop
+     * rather than by a nested call, so that a run of cached results does not overflow the stack.
+     */
+    private void send()
+    {
+        if(sending)
+            return;
+
+        sending = true;
+        try
+        {
+            while(!closed && inFlight.size() < concurrency
+                && (ordered ? pending.size() : completed.size()+inFlight.size()) < maxBuffered
+                && inputs.hasNext())
+            {
+                K input = inputs.next();
+                String k = key.apply(input);
+                Slot slot = slots.get(k);
+                if(!slots.containsKey(k))
+                {
+                    slot = new Slot(k, input);
+                    slots.put(k, slot);
+                    start(slot);
+                }
+
+                // Slots are only kept while they have outcomes waiting to be read in input order
+                if(ordered)
+                {
+                    ++slot.readers;
+                    pending.add(new Pending(input, slot));
+                }
+            }
+        }
+        finally
+        {
+            sending = false;
+        }
+    }
+
+    /**
+     * Sends the request for the given slot.
+     * <p>
+     * Must be called with the lock held.
+     * @param slot The slot of the input whose request is to be sent
+     */
+    private void start(final Slot slot)
+    {
+        CompletableFuture<Optional<T>> future;
+        try
+        {
+            future = call.apply(slot.input);
+        }
+        catch(RuntimeException e)
+        {
+            future = new CompletableFuture<Optional<T>>();
+            future.completeExceptionally(e);
+        }
+
+        final CompletableFuture<Optional<T>> f = future;
+        inFlight.add(f);
+        f.whenComplete((result, e) -> complete(slot, f, result, e));
+    }
+
+    /**
+     * Records the outcome of the request for the given slot and sends the next requests.
+     * @param slot The slot of the input whose request completed
+     * @param future The future of the request
+     * @param result The result of the request, or <CODE>null</CODE> if it failed
+     * @param e The exception the request failed with, or <CODE>null</CODE> if it succeeded
+     */
+    private void complete(Slot slot, CompletableFuture<Optional<T>> future, Optional<T> result, Throwable e)
+    {
+        lock.lock();
+        try
+        {
+            inFlight.remove(future);
+            slot.value = result != null ? result.orNull() : null;
+            slot.exception = e != null ? toBitlyException(e) : null;
+            slot.done = true;
+
+            // Only the key is needed to find duplicates when outcomes are returned once per key
+            if(!ordered)
+            {
+                slots.put(slot.key, null);
+                completed.add(new BatchResult<K,T>(slot.input, slot.value, slot.exception));
+            }
+
+            send();
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a request to complete.
+     * <p>
+     * Must be called with the lock held.
+     * @throws BitlyException if the thread is interrupted while waiting.
+     */
+    private void await()
+    {
+        try
+        {
+            changed.await();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new BitlyException("Interrupted while waiting for a batch request", e);
+        }
+    }
+
+    /**
+     * Returns the given exception as a BitlyException.
+     * @param e The exception thrown by a request
+     * @return The given exception if it is a BitlyException, otherwise a BitlyException wrapping it
+     */
+    static BitlyException toBitlyException(Throwable e)
+    {
+        Throwable cause = HttpContext.unwrap(e);
+        if(cause instanceof BitlyException)
+            return (BitlyException)cause;
+        return new BitlyException(cause.toString(), cause);
+    }
+
+    /**
+     * The request shared by the inputs with the same key, and its outcome.
+     */
+    private class Slot
+    {
+        private final String key;
+        private final K input;
+        private T value;
+        private BitlyException exception;
+        private boolean done;
+        private int readers;
+
+        /**
+         * Constructor that takes the key and the first input with the key.
+         * @param key The key shared by the inputs
+         * @param input The input whose request is sent
+         */
+        Slot(String key, K input)
+        {
+            this.key = key;
+            this.input = input;
+        }
+    }
+
+    /**
+     * An input waiting for its outcome to be read.
+     */
+    private class Pending
+    {
+        private final K input;
+        private final Slot slot;
+
+        /**
+         * Constructor that takes the input and its slot.
+         * @param input The input
+         * @param slot The slot holding the request for the input
+         */
+        Pending(K input, Slot slot)
+        {
+            this.input = input;
+            this.slot = slot;
+        }
+    }
+}
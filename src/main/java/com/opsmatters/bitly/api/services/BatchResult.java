@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import com.opsmatters.bitly.BitlyException;
+
+/**
+ * The outcome of one item of a batch of requests, holding either its result or the exception it failed with.
+ * <p>
+ * A failed item does not stop the rest of the batch.
+ *
+ * @param <K> The type of the inputs of the batch
+ * @param <T> The type of the results of the batch
+ * @author Gerald Curley (opsmatters)
+ */
+public class BatchResult<K,T>
+{
+    private final K input;
+    private final T value;
+    private final BitlyException exception;
+
+    /**
+     * Constructor that takes the input and its result or exception.
+     * @param input The input of the request
+     * @param value The result of the request, or <CODE>null</CODE> if it failed or returned no result
+     * @param exception The exception the request failed with, or <CODE>null</CODE> if it succeeded
+     */
+    public BatchResult(K input, T value, BitlyException exception)
+    {
+        this.input = input;
+        this.value = value;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the input of the request.
+     * @return The input of the request
+     */
+    public K getInput()
+    {
+        return input;
+    }
+
+    /**
+     * Returns the result of the request.
+     * @return The result of the request, or <CODE>null</CODE> if it failed or returned no result
+     */
+    public T getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Returns the exception the request failed with.
+     * @return The exception the request failed with, or <CODE>null</CODE> if it succeeded
+     */
+    public BitlyException getException()
+    {
+        return exception;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the request succeeded.
+     * @return <CODE>true</CODE> if the request succeeded
+     */
+    public boolean isSuccess()
+    {
+        return exception == null;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the request failed because the server returned 404 (Not Found).
+     * @return <CODE>true</CODE> if the request failed because the server returned 404
+     */
+    public boolean isNotFound()
+    {
+        return exception != null && exception.getStatus() == 404;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "BatchResult ["
+            +"input="+input
+            +(exception == null ? ", value="+value : ", exception="+exception)
+            +"]";
+    }
+}
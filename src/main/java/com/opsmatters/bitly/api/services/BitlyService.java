@@ -17,7 +17,8 @@
 package com.opsmatters.bitly.api.services;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.logging.Logger;
 import java.net.URLEncoder;
 import java.io.UnsupportedEncodingException;
@@ -32,6 +33,8 @@ public class BitlyService
     private static final Logger logger = Logger.getLogger(BitlyService.class.getName());
 
     private String accessToken;
+    private Map<String,String> headers;
+    private RequestOptions options;
     protected HttpContext HTTP;
 
     /**
@@ -42,8 +45,59 @@ public class BitlyService
     public BitlyService(String accessToken, HttpContext httpContext)
     {    
         this.accessToken = accessToken;
+        this.headers = createHeaders(accessToken);
         this.HTTP = httpContext;
     }
+
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    protected BitlyService(BitlyService service, RequestOptions options)
+    {
+        this.accessToken = service.accessToken;
+        this.headers = service.headers;
+        this.options = options;
+        this.HTTP = service.HTTP;
+    }
+
+    /**
+     * Returns a copy of this service that makes its calls with the given options.
+     * <p>
+     * For example, to give each call a timeout of 300ms:
+     * <pre>
+     * client.bitlinks().withOptions(RequestOptions.ofTimeout(300L)).shorten(longUrl);
+     * </pre>
+     * @param options The options for the calls made through the new service
+     * @return The copy of the service
+     */
+    public BitlyService withOptions(RequestOptions options)
+    {
+        return new BitlyService(this, options);
+    }
+
+    /**
+     * Returns the options for the calls made through this service.
+     * @return The options for the calls, or <CODE>null</CODE> to use the defaults
+     */
+    public RequestOptions getOptions()
+    {
+        return options;
+    }
+
+    /**
+     * Returns the default headers for an OAuth request with the given access token.
+     * @param accessToken The access token used to authenticate API operations
+     * @return The headers
+     */
+    private static Map<String,String> createHeaders(String accessToken)
+    {
+        Map<String,String> ret = new LinkedHashMap<String,String>();
+        ret.put("Authorization", "Bearer "+accessToken);
+        ret.put("Content-Type","application/json");
+        return Collections.unmodifiableMap(ret);
+    }
     
     /**
      * Encode special character in query string to the URL encoded representation.
@@ -71,13 +125,12 @@ public class BitlyService
 
     /**
      * Returns the default headers for an OAuth request.
-     * @return The encoded String
+     * <p>
+     * The headers are created once for the access token and cannot be modified.
+     * @return The headers
      */
     public Map<String,String> getHeaders()
     {
-        Map<String,String> ret = new HashMap<String,String>();
-        ret.put("Authorization", "Bearer "+accessToken);
-        ret.put("Content-Type","application/json");
-        return ret;
+        return headers;
     }
 }
\ No newline at end of file
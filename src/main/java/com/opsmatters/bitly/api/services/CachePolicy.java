@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Represents the settings of an in-process cache of API results.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CachePolicy
+{
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000L;
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE = 3600000L;
+
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private long expireAfterWrite = DEFAULT_EXPIRE_AFTER_WRITE;
+
+    /**
+     * Default constructor.
+     */
+    public CachePolicy()
+    {
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     * @return The maximum number of entries in the cache
+     */
+    public long getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of entries in the cache.
+     * @param maximumSize The maximum number of entries in the cache
+     */
+    public void setMaximumSize(long maximumSize)
+    {
+        if(maximumSize <= 0L)
+            throw new IllegalArgumentException("maximumSize must be > 0");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the time after which an entry expires once it has been added (in ms).
+     * @return The time after which an entry expires once it has been added, or 0 if entries do not expire
+     */
+    public long getExpireAfterWrite()
+    {
+        return expireAfterWrite;
+    }
+
+    /**
+     * Sets the time after which an entry expires once it has been added (in ms).
+     * @param expireAfterWrite The time after which an entry expires once it has been added, or 0 if entries should not expire
+     */
+    public void setExpireAfterWrite(long expireAfterWrite)
+    {
+        if(expireAfterWrite < 0L)
+            throw new IllegalArgumentException("expireAfterWrite must be >= 0");
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "CachePolicy ["
+            +"maximumSize="+maximumSize
+            +", expireAfterWrite="+expireAfterWrite
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the policy.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make policy construction easier.
+     */
+    public static class Builder
+    {
+        private CachePolicy policy = new CachePolicy();
+
+        /**
+         * Sets the maximum number of entries in the cache.
+         * @param maximumSize The maximum number of entries in the cache
+         * @return This object
+         */
+        public Builder maximumSize(long maximumSize)
+        {
+            policy.setMaximumSize(maximumSize);
+            return this;
+        }
+
+        /**
+         * Sets the time after which an entry expires once it has been added (in ms).
+         * @param expireAfterWrite The time after which an entry expires once it has been added, or 0 if entries should not expire
+         * @return This object
+         */
+        public Builder expireAfterWrite(long expireAfterWrite)
+        {
+            policy.setExpireAfterWrite(expireAfterWrite);
+            return this;
+        }
+
+        /**
+         * Returns the configured policy
+         * @return The policy instance
+         */
+        public CachePolicy build()
+        {
+            return policy;
+        }
+    }
+}
@@ -0,0 +1,769 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import com.opsmatters.bitly.CircuitOpenException;
+import com.opsmatters.bitly.RequestTimeoutException;
+
+/**
+ * Circuit breaker that stops sending requests to an endpoint while it is failing or slow.
+ * <p>
+ * Each endpoint, eg. "POST /v4/shorten" or "GET /v4/bitlinks/{id}/clicks", has its own circuit
+ * that records the outcome of its most recent calls. When the rate of failed or slow calls reaches
+ * a threshold the circuit opens, and requests fail immediately with a {@link CircuitOpenException}.
+ * After the open duration the circuit is half-open and lets a few trial calls through:
+ * if they succeed the circuit closes, otherwise it opens again.
+ * <p>
+ * A call fails if it throws an I/O exception, passes its deadline, or returns one of the failure status codes.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CircuitBreaker
+{
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100;
+    public static final long DEFAULT_SLOW_CALL_DURATION = 5000L;
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final long DEFAULT_OPEN_DURATION = 30000L;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+    /**
+     * The status codes counted as failures by default.
+     */
+    public static final Set<Integer> DEFAULT_FAILURE_STATUS_CODES = Collections.unmodifiableSet(
+        new HashSet<Integer>(Arrays.asList(500, 502, 503, 504)));
+
+    /**
+     * The state of the circuit for an endpoint.
+     */
+    public enum State
+    {
+        /**
+         * Requests are sent and their outcomes recorded.
+         */
+        CLOSED,
+
+        /**
+         * Requests are refused without being sent.
+         */
+        OPEN,
+
+        /**
+         * A limited number of trial requests are sent to decide whether to close the circuit.
+         */
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private int slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private long slowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private long openDuration = DEFAULT_OPEN_DURATION;
+    private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+    private Set<Integer> failureStatusCodes = new HashSet<Integer>(DEFAULT_FAILURE_STATUS_CODES);
+    private final Map<String,Circuit> circuits = new ConcurrentHashMap<String,Circuit>();
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+    /**
+     * Default constructor.
+     */
+    public CircuitBreaker()
+    {
+    }
+
+    /**
+     * Returns the percentage of failed calls at which the circuit opens.
+     * @return The percentage of failed calls at which the circuit opens
+     */
+    public int getFailureRateThreshold()
+    {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of failed calls at which the circuit opens.
+     * @param failureRateThreshold The percentage of failed calls at which the circuit opens
+     */
+    public void setFailureRateThreshold(int failureRateThreshold)
+    {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * Returns the percentage of slow calls at which the circuit opens.
+     * @return The percentage of slow calls at which the circuit opens
+     */
+    public int getSlowCallRateThreshold()
+    {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of slow calls at which the circuit opens.
+     * @param slowCallRateThreshold The percentage of slow calls at which the circuit opens
+     */
+    public void setSlowCallRateThreshold(int slowCallRateThreshold)
+    {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * Returns the time after which a call is counted as slow (in ms).
+     * @return The time after which a call is counted as slow
+     */
+    public long getSlowCallDuration()
+    {
+        return slowCallDuration;
+    }
+
+    /**
+     * Sets the time after which a call is counted as slow (in ms).
+     * @param slowCallDuration The time after which a call is counted as slow
+     */
+    public void setSlowCallDuration(long slowCallDuration)
+    {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    /**
+     * Returns the number of recent calls used to calculate the failure and slow call rates.
+     * @return The number of recent calls used to calculate the failure and slow call rates
+     */
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    /**
+     * Sets the number of recent calls used to calculate the failure and slow call rates.
+     * <p>
+     * Only applies to circuits created after the change.
+     * @param windowSize The number of recent calls used to calculate the failure and slow call rates
+     */
+    public void setWindowSize(int windowSize)
+    {
+        if(windowSize < 1)
+            throw new IllegalArgumentException("windowSize < 1");
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the number of calls that must be recorded before the circuit can open.
+     * @return The number of calls that must be recorded before the circuit can open
+     */
+    public int getMinimumCalls()
+    {
+        return minimumCalls;
+    }
+
+    /**
+     * Sets the number of calls that must be recorded before the circuit can open.
+     * @param minimumCalls The number of calls that must be recorded before the circuit can open
+     */
+    public void setMinimumCalls(int minimumCalls)
+    {
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * Returns the time the circuit stays open before allowing trial calls (in ms).
+     * @return The time the circuit stays open before allowing trial calls
+     */
+    public long getOpenDuration()
+    {
+        return openDuration;
+    }
+
+    /**
+     * Sets the time the circuit stays open before allowing trial calls (in ms).
+     * @param openDuration The time the circuit stays open before allowing trial calls
+     */
+    public void setOpenDuration(long openDuration)
+    {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns the number of trial calls allowed while the circuit is half-open.
+     * @return The number of trial calls allowed while the circuit is half-open
+     */
+    public int getHalfOpenCalls()
+    {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Sets the number of trial calls allowed while the circuit is half-open.
+     * @param halfOpenCalls The number of trial calls allowed while the circuit is half-open
+     */
+    public void setHalfOpenCalls(int halfOpenCalls)
+    {
+        if(halfOpenCalls < 1)
+            throw new IllegalArgumentException("halfOpenCalls < 1");
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Returns the HTTP status codes counted as failures.
+     * @return The HTTP status codes counted as failures
+     */
+    public Set<Integer> getFailureStatusCodes()
+    {
+        return failureStatusCodes;
+    }
+
+    /**
+     * Sets the HTTP status codes counted as failures.
+     * @param failureStatusCodes The HTTP status codes counted as failures
+     */
+    public void setFailureStatusCodes(Set<Integer> failureStatusCodes)
+    {
+        this.failureStatusCodes = new HashSet<Integer>(failureStatusCodes);
+    }
+
+    /**
+     * Adds a listener to be notified when a circuit changes state.
+     * @param listener The listener to add
+     */
+    public void addListener(CircuitBreakerListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener notified when a circuit changes state.
+     * @param listener The listener to remove
+     */
+    public void removeListener(CircuitBreakerListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the state of the circuit for the given endpoint.
+     * @param endpoint The endpoint, eg. "POST /v4/shorten"
+     * @return The state of the circuit, which is closed if no calls have been made to the endpoint
+     */
+    public State getState(String endpoint)
+    {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit != null ? circuit.getState() : State.CLOSED;
+    }
+
+    /**
+     * Returns the state of the circuit for each endpoint that has been called.
+     * @return The state of the circuit for each endpoint
+     */
+    public Map<String,State> getStates()
+    {
+        Map<String,State> ret = new TreeMap<String,State>();
+        for(Map.Entry<String,Circuit> entry : circuits.entrySet())
+            ret.put(entry.getKey(), entry.getValue().getState());
+        return ret;
+    }
+
+    /**
+     * Closes all the circuits and clears their recorded calls.
+     */
+    public void reset()
+    {
+        for(Map.Entry<String,Circuit> entry : circuits.entrySet())
+            notify(entry.getKey(), entry.getValue().reset());
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given HTTP status code is counted as a failure.
+     * @param statusCode The HTTP status code
+     * @return <CODE>true</CODE> if the given HTTP status code is counted as a failure
+     */
+    public boolean isFailure(int statusCode)
+    {
+        return failureStatusCodes.contains(statusCode);
+    }
+
+    /**
+     * Returns a permit to make a call to the given endpoint.
+     * <p>
+     * The outcome of the call must be reported using {@link Call#onResponse(int)} or {@link Call#onError(Throwable)},
+     * or the permit released using {@link Call#release()} if the call was not completed.
+     * @param endpoint The endpoint, eg. "POST /v4/shorten"
+     * @return The permit to make the call
+     * @throws CircuitOpenException if the circuit for the endpoint is open.
+     */
+    public Call acquire(String endpoint)
+    {
+        Circuit circuit = circuits.computeIfAbsent(endpoint, k -> new Circuit(windowSize));
+        return circuit.acquire(endpoint);
+    }
+
+    /**
+     * Notifies the listeners of a change of state.
+     * @param endpoint The endpoint whose circuit changed state
+     * @param transition The previous and new states, or <CODE>null</CODE> if the state did not change
+     */
+    private void notify(String endpoint, State[] transition)
+    {
+        if(transition == null)
+            return;
+
+        logger.info("Circuit for "+endpoint+" changed from "+transition[0]+" to "+transition[1]);
+        for(CircuitBreakerListener listener : listeners)
+        {
+            try
+            {
+                listener.onStateChange(endpoint, transition[0], transition[1]);
+            }
+            catch(RuntimeException e)
+            {
+                logger.warning("Circuit breaker listener failed: "+e);
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "CircuitBreaker ["
+            +"failureRateThreshold="+failureRateThreshold
+            +", slowCallRateThreshold="+slowCallRateThreshold
+            +", slowCallDuration="+slowCallDuration
+            +", windowSize="+windowSize
+            +", minimumCalls="+minimumCalls
+            +", openDuration="+openDuration
+            +", halfOpenCalls="+halfOpenCalls
+            +", failureStatusCodes="+failureStatusCodes
+            +", states="+getStates()
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the circuit breaker.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make circuit breaker construction easier.
+     */
+    public static class Builder
+    {
+        private CircuitBreaker breaker = new CircuitBreaker();
+
+        /**
+         * Sets the percentage of failed calls at which the circuit opens.
+         * @param failureRateThreshold The percentage of failed calls at which the circuit opens
+         * @return This object
+         */
+        public Builder failureRateThreshold(int failureRateThreshold)
+        {
+            breaker.setFailureRateThreshold(failureRateThreshold);
+            return this;
+        }
+
+        /**
+         * Sets the percentage of slow calls at which the circuit opens.
+         * @param slowCallRateThreshold The percentage of slow calls at which the circuit opens
+         * @return This object
+         */
+        public Builder slowCallRateThreshold(int slowCallRateThreshold)
+        {
+            breaker.setSlowCallRateThreshold(slowCallRateThreshold);
+            return this;
+        }
+
+        /**
+         * Sets the time after which a call is counted as slow (in ms).
+         * @param slowCallDuration The time after which a call is counted as slow
+         * @return This object
+         */
+        public Builder slowCallDuration(long slowCallDuration)
+        {
+            breaker.setSlowCallDuration(slowCallDuration);
+            return this;
+        }
+
+        /**
+         * Sets the number of recent calls used to calculate the failure and slow call rates.
+         * @param windowSize The number of recent calls used to calculate the failure and slow call rates
+         * @return This object
+         */
+        public Builder windowSize(int windowSize)
+        {
+            breaker.setWindowSize(windowSize);
+            return this;
+        }
+
+        /**
+         * Sets the number of calls that must be recorded before the circuit can open.
+         * @param minimumCalls The number of calls that must be recorded before the circuit can open
+         * @return This object
+         */
+        public Builder minimumCalls(int minimumCalls)
+        {
+            breaker.setMinimumCalls(minimumCalls);
+            return this;
+        }
+
+        /**
+         * Sets the time the circuit stays open before allowing trial calls (in ms).
+         * @param openDuration The time the circuit stays open before allowing trial calls
+         * @return This object
+         */
+        public Builder openDuration(long openDuration)
+        {
+            breaker.setOpenDuration(openDuration);
+            return this;
+        }
+
+        /**
+         * Sets the number of trial calls allowed while the circuit is half-open.
+         * @param halfOpenCalls The number of trial calls allowed while the circuit is half-open
+         * @return This object
+         */
+        public Builder halfOpenCalls(int halfOpenCalls)
+        {
+            breaker.setHalfOpenCalls(halfOpenCalls);
+            return this;
+        }
+
+        /**
+         * Sets the HTTP status codes counted as failures.
+         * @param failureStatusCodes The HTTP status codes counted as failures
+         * @return This object
+         */
+        public Builder failureStatusCodes(Integer... failureStatusCodes)
+        {
+            breaker.setFailureStatusCodes(new HashSet<Integer>(Arrays.asList(failureStatusCodes)));
+            return this;
+        }
+
+        /**
+         * Adds a listener to be notified when a circuit changes state.
+         * @param listener The listener to add
+         * @return This object
+         */
+        public Builder listener(CircuitBreakerListener listener)
+        {
+            breaker.addListener(listener);
+            return this;
+        }
+
+        /**
+         * Returns the configured circuit breaker
+         * @return The circuit breaker instance
+         */
+        public CircuitBreaker build()
+        {
+            return breaker;
+        }
+    }
+
+    /**
+     * Represents a permit to make a call, used to report the outcome of the call.
+     */
+    public class Call
+    {
+        private String endpoint;
+        private Circuit circuit;
+        private boolean trial;
+        private long generation;
+        private long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        /**
+         * Constructor that takes the endpoint and circuit.
+         * @param endpoint The endpoint being called
+         * @param circuit The circuit of the endpoint
+         * @param trial <CODE>true</CODE> if this is a trial call made while the circuit is half-open
+         * @param generation The generation of the circuit state when the call was made
+         */
+        private Call(String endpoint, Circuit circuit, boolean trial, long generation)
+        {
+            this.endpoint = endpoint;
+            this.circuit = circuit;
+            this.trial = trial;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns the endpoint being called.
+         * @return The endpoint being called
+         */
+        public String getEndpoint()
+        {
+            return endpoint;
+        }
+
+        /**
+         * Records a call that returned a response with the given status code.
+         * @param statusCode The HTTP status code of the response
+         */
+        public void onResponse(int statusCode)
+        {
+            record(isFailure(statusCode));
+        }
+
+        /**
+         * Records a call that failed with the given exception.
+         * <p>
+         * Only I/O exceptions and calls that passed their deadline are counted as failures,
+         * other exceptions, eg. the cancellation of the call by the caller, release the permit.
+         * @param e The exception thrown by the call
+         */
+        public void onError(Throwable e)
+        {
+            if(e instanceof IOException || e instanceof RequestTimeoutException)
+                record(true);
+            else
+                release();
+        }
+
+        /**
+         * Releases the permit without recording an outcome, eg. if the call was cancelled.
+         */
+        public void release()
+        {
+            if(done.compareAndSet(false, true))
+                CircuitBreaker.this.notify(endpoint, circuit.release(generation, trial));
+        }
+
+        /**
+         * Records the outcome of the call.
+         * @param failed <CODE>true</CODE> if the call failed
+         */
+        private void record(boolean failed)
+        {
+            if(done.compareAndSet(false, true))
+            {
+                long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+                byte outcome = (byte)((failed ? FAILED : 0) | (duration >= slowCallDuration ? SLOW : 0));
+                CircuitBreaker.this.notify(endpoint, circuit.record(generation, trial, outcome));
+            }
+        }
+    }
+
+    /**
+     * The state and recent call outcomes for an endpoint.
+     * <p>
+     * The generation is incremented on every change of state, so that the outcome of a call made
+     * in an earlier state, eg. a trial call from an earlier half-open period, is not counted.
+     */
+    private class Circuit
+    {
+        private State state = State.CLOSED;
+        private long generation = 0L;
+        private byte[] window;
+        private int index = 0;
+        private int count = 0;
+        private int failures = 0;
+        private int slow = 0;
+        private long openedAt = 0L;
+        private int trials = 0;
+        private int trialsDone = 0;
+        private int trialFailures = 0;
+        private int trialSlow = 0;
+
+        /**
+         * Constructor that takes the window size.
+         * @param windowSize The number of recent calls recorded
+         */
+        Circuit(int windowSize)
+        {
+            this.window = new byte[windowSize];
+        }
+
+        /**
+         * Returns the state of the circuit.
+         * @return The state of the circuit
+         */
+        synchronized State getState()
+        {
+            return state;
+        }
+
+        /**
+         * Returns a permit to make a call, or throws an exception if the circuit is open.
+         * @param endpoint The endpoint being called
+         * @return The permit to make the call
+         * @throws CircuitOpenException if the circuit is open.
+         */
+        Call acquire(String endpoint)
+        {
+            State[] transition = null;
+            Call ret;
+            synchronized(this)
+            {
+                if(state == State.OPEN)
+                {
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-openedAt);
+                    if(elapsed < openDuration)
+                        throw new CircuitOpenException(endpoint, openDuration-elapsed);
+                    transition = moveTo(State.HALF_OPEN);
+                }
+
+                if(state == State.HALF_OPEN)
+                {
+                    if(trials >= halfOpenCalls)
+                        throw new CircuitOpenException(endpoint, 0L);
+                    ++trials;
+                }
+
+                ret = new Call(endpoint, this, state == State.HALF_OPEN, generation);
+            }
+
+            CircuitBreaker.this.notify(endpoint, transition);
+            return ret;
+        }
+
+        /**
+         * Records the outcome of a call, opening or closing the circuit if a threshold is reached.
+         * @param generation The generation of the circuit state when the call was made
+         * @param trial <CODE>true</CODE> if this was a trial call made while the circuit was half-open
+         * @param outcome The outcome of the call
+         * @return The previous and new states, or <CODE>null</CODE> if the state did not change
+         */
+        synchronized State[] record(long generation, boolean trial, byte outcome)
+        {
+            // Ignore calls made in an earlier state, eg. before the circuit opened or in an earlier half-open period
+            if(generation != this.generation)
+                return null;
+
+            boolean failed = (outcome & FAILED) != 0;
+            boolean isSlow = (outcome & SLOW) != 0;
+
+            if(trial)
+            {
+                ++trialsDone;
+                if(failed)
+                    ++trialFailures;
+                if(isSlow)
+                    ++trialSlow;
+                if(trialsDone < halfOpenCalls)
+                    return null;
+                if(exceeded(trialFailures, trialSlow, trialsDone))
+                    return moveTo(State.OPEN);
+                return moveTo(State.CLOSED);
+            }
+
+            if(count == window.length)
+            {
+                byte evicted = window[index];
+                if((evicted & FAILED) != 0)
+                    --failures;
+                if((evicted & SLOW) != 0)
+                    --slow;
+            }
+            else
+            {
+                ++count;
+            }
+
+            window[index] = outcome;
+            index = (index+1)%window.length;
+            if(failed)
+                ++failures;
+            if(isSlow)
+                ++slow;
+
+            if(count >= minimumCalls && exceeded(failures, slow, count))
+                return moveTo(State.OPEN);
+            return null;
+        }
+
+        /**
+         * Releases a permit without recording an outcome.
+         * @param generation The generation of the circuit state when the call was made
+         * @param trial <CODE>true</CODE> if this was a trial call made while the circuit was half-open
+         * @return <CODE>null</CODE> as the state does not change
+         */
+        synchronized State[] release(long generation, boolean trial)
+        {
+            if(trial && generation == this.generation && trials > trialsDone)
+                --trials;
+            return null;
+        }
+
+        /**
+         * Closes the circuit and clears the recorded calls.
+         * @return The previous and new states, or <CODE>null</CODE> if the state did not change
+         */
+        synchronized State[] reset()
+        {
+            return state != State.CLOSED ? moveTo(State.CLOSED) : null;
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the failure or slow call rate has reached its threshold.
+         * @param failed The number of failed calls
+         * @param slowCalls The number of slow calls
+         * @param total The number of calls
+         * @return <CODE>true</CODE> if the failure or slow call rate has reached its threshold
+         */
+        private boolean exceeded(int failed, int slowCalls, int total)
+        {
+            return failed*100 >= failureRateThreshold*total || slowCalls*100 >= slowCallRateThreshold*total;
+        }
+
+        /**
+         * Moves the circuit to the given state, clearing the counts for the new state.
+         * @param to The new state
+         * @return The previous and new states
+         */
+        private State[] moveTo(State to)
+        {
+            State from = state;
+            state = to;
+            ++generation;
+            if(to == State.OPEN)
+                openedAt = System.nanoTime();
+            trials = trialsDone = trialFailures = trialSlow = 0;
+            if(to == State.CLOSED)
+            {
+                Arrays.fill(window, (byte)0);
+                index = count = failures = slow = 0;
+            }
+
+            return new State[] {from, to};
+        }
+    }
+}
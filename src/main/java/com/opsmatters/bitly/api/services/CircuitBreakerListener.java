@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Listener notified when the circuit of an endpoint changes state.
+ * <p>
+ * Methods are called on the thread that caused the change and should return quickly.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface CircuitBreakerListener
+{
+    /**
+     * Called when the circuit of an endpoint changes state.
+     * @param endpoint The endpoint, eg. "POST /v4/shorten"
+     * @param from The previous state of the circuit
+     * @param to The new state of the circuit
+     */
+    void onStateChange(String endpoint, CircuitBreaker.State from, CircuitBreaker.State to);
+}
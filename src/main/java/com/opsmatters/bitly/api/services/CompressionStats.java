@@ -0,0 +1,274 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes compressed response bodies and counts the bytes received over the wire against the bytes decoded.
+ * <p>
+ * Bodies are decompressed as they are read, so the decompressed body is never buffered.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CompressionStats
+{
+    /**
+     * The value of the Accept-Encoding header sent when compression is enabled.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+
+    /**
+     * Default constructor.
+     */
+    public CompressionStats()
+    {
+    }
+
+    /**
+     * Returns the number of response bodies read.
+     * @return The number of response bodies read
+     */
+    public long getResponses()
+    {
+        return responses.sum();
+    }
+
+    /**
+     * Returns the number of response bodies read that were compressed.
+     * @return The number of response bodies read that were compressed
+     */
+    public long getCompressedResponses()
+    {
+        return compressedResponses.sum();
+    }
+
+    /**
+     * Returns the number of body bytes received over the wire.
+     * @return The number of body bytes received over the wire
+     */
+    public long getWireBytes()
+    {
+        return wireBytes.sum();
+    }
+
+    /**
+     * Returns the number of body bytes after decompression.
+     * @return The number of body bytes after decompression
+     */
+    public long getDecodedBytes()
+    {
+        return decodedBytes.sum();
+    }
+
+    /**
+     * Returns the ratio of wire bytes to decoded bytes.
+     * @return The ratio of wire bytes to decoded bytes, or 1.0 if no bytes have been decoded
+     */
+    public double getCompressionRatio()
+    {
+        long decoded = getDecodedBytes();
+        return decoded > 0L ? (double)getWireBytes()/decoded : 1.0d;
+    }
+
+    /**
+     * Resets all the counters to zero.
+     */
+    public void reset()
+    {
+        responses.reset();
+        compressedResponses.reset();
+        wireBytes.reset();
+        decodedBytes.reset();
+    }
+
+    /**
+     * Returns a stream that decodes the given body according to its content encoding and counts the bytes read.
+     * @param is The body as received over the wire
+     * @param contentEncoding The value of the Content-Encoding header, or <CODE>null</CODE> if there is none
+     * @return The decoded body
+     * @throws IOException if the body could not be decoded.
+     */
+    InputStream decode(InputStream is, String contentEncoding) throws IOException
+    {
+        responses.increment();
+        InputStream ret = new CountingInputStream(is, wireBytes);
+
+        String encoding = contentEncoding != null ? contentEncoding.trim() : "";
+        boolean gzip = encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+        boolean deflate = encoding.equalsIgnoreCase("deflate");
+        if(gzip || deflate)
+        {
+            // Peek at the first bytes to detect an empty body and the deflate format
+            PushbackInputStream pis = new PushbackInputStream(ret, 2);
+            byte[] header = new byte[2];
+            int n = 0;
+            while(n < header.length)
+            {
+                int r = pis.read(header, n, header.length-n);
+                if(r < 0)
+                    break;
+                n += r;
+            }
+
+            pis.unread(header, 0, n);
+            ret = pis;
+            if(n > 0)
+            {
+                compressedResponses.increment();
+                if(gzip)
+                    ret = new GZIPInputStream(pis);
+                else
+                    ret = newInflaterInputStream(pis, !isZlibHeader(header, n));
+            }
+        }
+
+        return new CountingInputStream(ret, decodedBytes);
+    }
+
+    /**
+     * Returns a stream that inflates the given deflate body, releasing the inflater when it is closed.
+     * @param is The deflate body
+     * @param nowrap <CODE>true</CODE> if the body is a raw deflate stream without a zlib header
+     * @return The inflated body
+     */
+    private static InputStream newInflaterInputStream(InputStream is, boolean nowrap)
+    {
+        final Inflater inflater = new Inflater(nowrap);
+        return new InflaterInputStream(is, inflater)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given bytes are a zlib header, rather than the start of a raw deflate stream.
+     * @param header The first bytes of the body
+     * @param length The number of bytes in the header
+     * @return <CODE>true</CODE> if the given bytes are a zlib header
+     */
+    private static boolean isZlibHeader(byte[] header, int length)
+    {
+        if(length < 2)
+            return false;
+        int cmf = header[0] & 0xff;
+        int flg = header[1] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "CompressionStats ["
+            +"responses="+getResponses()
+            +", compressedResponses="+getCompressedResponses()
+            +", wireBytes="+getWireBytes()
+            +", decodedBytes="+getDecodedBytes()
+            +"]";
+    }
+
+    /**
+     * Stream that adds the number of bytes read to a counter.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private LongAdder counter;
+
+        /**
+         * Constructor that takes a stream and counter.
+         * @param is The stream to read
+         * @param counter The counter to add the bytes read to
+         */
+        CountingInputStream(InputStream is, LongAdder counter)
+        {
+            super(is);
+            this.counter = counter;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException
+        {
+            int ret = in.read();
+            if(ret >= 0)
+                counter.increment();
+            return ret;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int ret = in.read(b, off, len);
+            if(ret > 0)
+                counter.add(ret);
+            return ret;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long ret = in.skip(n);
+            if(ret > 0L)
+                counter.add(ret);
+            return ret;
+        }
+
+        /**
+         * Mark is not supported as it would break the count.
+         * @return <CODE>false</CODE>
+         */
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
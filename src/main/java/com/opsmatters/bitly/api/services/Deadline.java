@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the time by which a call must complete.
+ * <p>
+ * A deadline is fixed when it is created, so the same deadline can be shared by several calls
+ * made to serve one request, eg. to bound the total time taken by a request handler.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public final class Deadline
+{
+    private final long timeout;
+    private final long expiry;
+
+    /**
+     * Constructor that takes the timeout and the time it expires.
+     * @param timeout The timeout of the deadline (in ms)
+     * @param expiry The value of {@link System#nanoTime()} when the deadline expires
+     */
+    private Deadline(long timeout, long expiry)
+    {
+        this.timeout = timeout;
+        this.expiry = expiry;
+    }
+
+    /**
+     * Returns a deadline that expires after the given time from now.
+     * @param timeout The time until the deadline expires
+     * @param unit The unit of the timeout
+     * @return The deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit)
+    {
+        if(timeout < 0L)
+            throw new IllegalArgumentException("timeout < 0");
+        return new Deadline(unit.toMillis(timeout), System.nanoTime()+unit.toNanos(timeout));
+    }
+
+    /**
+     * Returns the timeout the deadline was created with (in ms).
+     * @return The timeout the deadline was created with
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Returns the time remaining until the deadline expires.
+     * @param unit The unit of the time remaining
+     * @return The time remaining until the deadline expires, which is negative if the deadline has expired
+     */
+    public long timeRemaining(TimeUnit unit)
+    {
+        return unit.convert(expiry-System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the deadline has expired.
+     * @return <CODE>true</CODE> if the deadline has expired
+     */
+    public boolean isExpired()
+    {
+        return expiry-System.nanoTime() <= 0L;
+    }
+
+    /**
+     * Returns the earlier of this deadline and the given deadline.
+     * @param deadline The deadline to compare with, or <CODE>null</CODE>
+     * @return The earlier of the two deadlines
+     */
+    public Deadline min(Deadline deadline)
+    {
+        return deadline == null || expiry-deadline.expiry <= 0L ? this : deadline;
+    }
+
+    /**
+     * Returns the time remaining rounded up to the next millisecond, for use as a transport timeout.
+     * <p>
+     * Rounding up makes sure that a transport timeout does not fire before the deadline has expired.
+     * @return The time remaining until the deadline expires (in ms), which is at least 1
+     */
+    long getTimeoutMillis()
+    {
+        long remaining = expiry-System.nanoTime();
+        return remaining > 0L ? TimeUnit.NANOSECONDS.toMillis(remaining)+1L : 1L;
+    }
+
+    /**
+     * Runs the given task when the deadline expires, eg. to abort a request that is still running.
+     * @param task The task to run
+     * @return The scheduled task, which should be cancelled if the request completes first
+     */
+    ScheduledFuture<?> schedule(Runnable task)
+    {
+        return SchedulerHolder.scheduler.schedule(task, Math.max(expiry-System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "Deadline ["
+            +"timeout="+timeout
+            +", remaining="+timeRemaining(TimeUnit.MILLISECONDS)
+            +"]";
+    }
+
+    /**
+     * Holds the scheduler used to expire deadlines, created when it is first used.
+     */
+    private static class SchedulerHolder
+    {
+        static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread ret = new Thread(r, "bitly-deadline");
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+}
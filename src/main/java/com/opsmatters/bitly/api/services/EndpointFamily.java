@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Represents the families of endpoints that are rate limited separately.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public enum EndpointFamily
+{
+    /**
+     * Requests that create bitlinks, eg. POST /v4/shorten.
+     */
+    SHORTEN,
+
+    /**
+     * Requests for click and shorten metrics, eg. GET /v4/bitlinks/{bitlink}/clicks.
+     */
+    METRICS,
+
+    /**
+     * All other requests, eg. GET /v4/groups.
+     */
+    MANAGEMENT;
+
+    private static final Set<String> CREATE_PATHS = new HashSet<String>(Arrays.asList(
+        "/v4/shorten", "/v4/bitlinks", "/v4/custom_bitlinks"));
+
+    private static final Set<String> METRIC_SEGMENTS = new HashSet<String>(Arrays.asList(
+        "clicks", "summary", "countries", "referrers", "referring_domains", "referrers_by_domains",
+        "referring_networks", "shorten_counts", "clicks_by_destination"));
+
+    /**
+     * Returns the family of the endpoint with the given method and path.
+     * <p>
+     * A path is a metrics endpoint if its last segment is a metric and it is long enough
+     * to follow a bitlink or guid, so that a bitlink such as "bit.ly/clicks" is not mistaken for one.
+     * @param method The HTTP method type
+     * @param path The path of the endpoint, eg. "/v4/bitlinks/bit.ly/abc/clicks"
+     * @return The family of the endpoint
+     */
+    public static EndpointFamily of(String method, String path)
+    {
+        if(path == null)
+            return MANAGEMENT;
+
+        if(method.equals("POST") && CREATE_PATHS.contains(path))
+            return SHORTEN;
+
+        String[] segments = path.substring(path.startsWith("/") ? 1 : 0).split("/");
+        if(segments.length >= 4 && METRIC_SEGMENTS.contains(segments[segments.length-1]))
+        {
+            String resource = segments[1];
+            boolean bitlink = resource.equals("bitlinks") || resource.equals("custom_bitlinks");
+            if(!bitlink || segments.length >= 5)
+                return METRICS;
+        }
+
+        return MANAGEMENT;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Interface for reading a response body incrementally as it arrives.
+ * <p>
+ * The reader is given the response body as a stream of JSON tokens, so large responses
+ * can be processed without first being bound to a complete object graph.
+ *
+ * @param <T> The type of the object returned by the reader
+ * @author Gerald Curley (opsmatters)
+ */
+public interface EntityReader<T>
+{
+    /**
+     * Reads the response body.
+     * @param reader The JSON reader positioned at the start of the response body
+     * @param gson The Gson instance used by the context, to read nested objects
+     * @return The object read, or <CODE>null</CODE> if there is no result
+     * @throws IOException if the body could not be read.
+     */
+    T read(JsonReader reader, Gson gson) throws IOException;
+}
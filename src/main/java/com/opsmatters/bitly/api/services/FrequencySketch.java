@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Count-min sketch of 4-bit counters used to estimate how often each key has been used.
+ * <p>
+ * Each key is counted in four counters of a table sized to the maximum size of the cache,
+ * and its frequency is the smallest of the four. All the counters are halved once the number of
+ * increments reaches ten times the maximum size, so that keys which were popular in the past fade out.
+ * <p>
+ * Not thread-safe: the caller must hold the lock of the cache.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class FrequencySketch
+{
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * Constructor that takes the maximum number of entries of the cache.
+     * @param maximumSize The maximum number of entries of the cache
+     */
+    FrequencySketch(long maximumSize)
+    {
+        int length = (int)Math.min(Math.max(maximumSize, 16L), MAX_TABLE_SIZE);
+        length = Integer.highestOneBit(length-1) << 1;
+        this.table = new long[length];
+        this.tableMask = length-1;
+        this.sampleSize = (int)Math.min(10L*maximumSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the estimated number of times the given key has been used, up to 15.
+     * @param key The key of the entry
+     * @return The estimated number of times the given key has been used
+     */
+    int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int ret = Integer.MAX_VALUE;
+        for(int i = 0; i < 4; i++)
+        {
+            int index = indexOf(hash, i);
+            int count = (int)((table[index] >>> ((start+i) << 2)) & 0xfL);
+            ret = Math.min(ret, count);
+        }
+        return ret;
+    }
+
+    /**
+     * Increments the counters of the given key, halving all the counters once enough keys have been counted.
+     * @param key The key of the entry
+     */
+    void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for(int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(hash, i), start+i);
+
+        if(added && ++size >= sampleSize)
+            reset();
+    }
+
+    /**
+     * Increments the given 4-bit counter of the given table entry unless it has reached 15.
+     * @param i The index of the table entry
+     * @param j The index of the counter within the table entry
+     * @return <CODE>true</CODE> if the counter was incremented
+     */
+    private boolean incrementAt(int i, int j)
+    {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if((table[i] & mask) != mask)
+        {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all the counters.
+     */
+    private void reset()
+    {
+        int count = 0;
+        for(int i = 0; i < table.length; i++)
+        {
+            count += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    /**
+     * Returns the index of the table entry holding the given counter of a key.
+     * @param hash The spread hash of the key
+     * @param i The number of the counter, from 0 to 3
+     * @return The index of the table entry
+     */
+    private int indexOf(int hash, int i)
+    {
+        long ret = (hash+SEEDS[i])*SEEDS[i];
+        ret += ret >>> 32;
+        return ((int)ret) & tableMask;
+    }
+
+    /**
+     * Returns the given hash code with its bits mixed to guard against poor hash functions.
+     * @param hash The hash code of the key
+     * @return The mixed hash code
+     */
+    private static int spread(int hash)
+    {
+        hash = ((hash >>> 16) ^ hash)*0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash)*0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Represents the settings used to hedge slow requests.
+ * <p>
+ * A hedged request is sent a second time if it has not been answered within the hedge delay,
+ * which is the given percentile of recent response times for its endpoint. The first response
+ * is used and the other attempt is aborted. Hedges are limited by a budget to a ratio of the
+ * requests sent, so that hedging cannot double the load on the server. The hedge budget is separate
+ * from the budget of any retry policy.
+ * <p>
+ * Only idempotent reads are hedged: GET requests, and POST /v4/expand which only looks up a bitlink.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class HedgePolicy
+{
+    public static final double DEFAULT_PERCENTILE = 95.0d;
+    public static final long DEFAULT_INITIAL_DELAY = 100L;
+    public static final long DEFAULT_MIN_DELAY = 5L;
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    public static final int DEFAULT_MAX_SAMPLES = 1000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05d;
+    public static final int DEFAULT_BUDGET_BURST = 10;
+
+    /**
+     * The methods hedged by default.
+     */
+    public static final Set<String> DEFAULT_METHODS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("GET")));
+
+    /**
+     * The paths hedged by default whatever their method.
+     */
+    public static final Set<String> DEFAULT_PATHS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("/v4/expand")));
+
+    private double percentile = DEFAULT_PERCENTILE;
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+    private long minDelay = DEFAULT_MIN_DELAY;
+    private int minSamples = DEFAULT_MIN_SAMPLES;
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private int budgetBurst = DEFAULT_BUDGET_BURST;
+    private Set<String> methods = new HashSet<String>(DEFAULT_METHODS);
+    private Set<String> paths = new HashSet<String>(DEFAULT_PATHS);
+
+    /**
+     * Default constructor.
+     */
+    public HedgePolicy()
+    {
+    }
+
+    /**
+     * Returns the percentile of recent response times used as the hedge delay.
+     * @return The percentile of recent response times used as the hedge delay
+     */
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    /**
+     * Sets the percentile of recent response times used as the hedge delay, eg. 95.0.
+     * @param percentile The percentile of recent response times used as the hedge delay
+     */
+    public void setPercentile(double percentile)
+    {
+        if(percentile <= 0.0d || percentile > 100.0d)
+            throw new IllegalArgumentException("percentile must be > 0 and <= 100");
+        this.percentile = percentile;
+    }
+
+    /**
+     * Returns the hedge delay used until enough response times have been recorded (in ms).
+     * @return The hedge delay used until enough response times have been recorded
+     */
+    public long getInitialDelay()
+    {
+        return initialDelay;
+    }
+
+    /**
+     * Sets the hedge delay used until enough response times have been recorded (in ms).
+     * @param initialDelay The hedge delay used until enough response times have been recorded
+     */
+    public void setInitialDelay(long initialDelay)
+    {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Returns the shortest hedge delay (in ms).
+     * @return The shortest hedge delay
+     */
+    public long getMinDelay()
+    {
+        return minDelay;
+    }
+
+    /**
+     * Sets the shortest hedge delay (in ms).
+     * @param minDelay The shortest hedge delay
+     */
+    public void setMinDelay(long minDelay)
+    {
+        this.minDelay = minDelay;
+    }
+
+    /**
+     * Returns the number of response times that must be recorded for an endpoint before the percentile is used.
+     * @return The number of response times that must be recorded before the percentile is used
+     */
+    public int getMinSamples()
+    {
+        return minSamples;
+    }
+
+    /**
+     * Sets the number of response times that must be recorded for an endpoint before the percentile is used.
+     * @param minSamples The number of response times that must be recorded before the percentile is used
+     */
+    public void setMinSamples(int minSamples)
+    {
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * Returns the number of response times kept for each endpoint, after which older times fade out.
+     * @return The number of response times kept for each endpoint
+     */
+    public int getMaxSamples()
+    {
+        return maxSamples;
+    }
+
+    /**
+     * Sets the number of response times kept for each endpoint, after which older times fade out.
+     * @param maxSamples The number of response times kept for each endpoint
+     */
+    public void setMaxSamples(int maxSamples)
+    {
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Returns the number of hedges allowed for each request sent.
+     * @return The number of hedges allowed for each request sent
+     */
+    public double getBudgetRatio()
+    {
+        return budgetRatio;
+    }
+
+    /**
+     * Sets the number of hedges allowed for each request sent, eg. 0.05 allows 5% of requests to be hedged.
+     * @param budgetRatio The number of hedges allowed for each request sent
+     */
+    public void setBudgetRatio(double budgetRatio)
+    {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * Returns the maximum number of hedges that can be made in a burst.
+     * @return The maximum number of hedges that can be made in a burst
+     */
+    public int getBudgetBurst()
+    {
+        return budgetBurst;
+    }
+
+    /**
+     * Sets the maximum number of hedges that can be made in a burst.
+     * @param budgetBurst The maximum number of hedges that can be made in a burst
+     */
+    public void setBudgetBurst(int budgetBurst)
+    {
+        this.budgetBurst = budgetBurst;
+    }
+
+    /**
+     * Returns the HTTP methods that are hedged.
+     * @return The HTTP methods that are hedged
+     */
+    public Set<String> getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * Sets the HTTP methods that are hedged.
+     * @param methods The HTTP methods that are hedged
+     */
+    public void setMethods(Set<String> methods)
+    {
+        this.methods = new HashSet<String>(methods);
+    }
+
+    /**
+     * Returns the paths that are hedged whatever their method.
+     * @return The paths that are hedged whatever their method
+     */
+    public Set<String> getPaths()
+    {
+        return paths;
+    }
+
+    /**
+     * Sets the paths that are hedged whatever their method.
+     * @param paths The paths that are hedged whatever their method
+     */
+    public void setPaths(Set<String> paths)
+    {
+        this.paths = new HashSet<String>(paths);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given request can be hedged.
+     * @param request The request to be sent
+     * @return <CODE>true</CODE> if the given request can be hedged
+     */
+    public boolean isHedged(TransportRequest request)
+    {
+        return methods.contains(request.getMethod()) || paths.contains(request.getUri().getRawPath());
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "HedgePolicy ["
+            +"percentile="+percentile
+            +", initialDelay="+initialDelay
+            +", minDelay="+minDelay
+            +", minSamples="+minSamples
+            +", maxSamples="+maxSamples
+            +", budgetRatio="+budgetRatio
+            +", budgetBurst="+budgetBurst
+            +", methods="+methods
+            +", paths="+paths
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the policy.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make policy construction easier.
+     */
+    public static class Builder
+    {
+        private HedgePolicy policy = new HedgePolicy();
+
+        /**
+         * Sets the percentile of recent response times used as the hedge delay, eg. 95.0.
+         * @param percentile The percentile of recent response times used as the hedge delay
+         * @return This object
+         */
+        public Builder percentile(double percentile)
+        {
+            policy.setPercentile(percentile);
+            return this;
+        }
+
+        /**
+         * Sets the hedge delay used until enough response times have been recorded (in ms).
+         * @param initialDelay The hedge delay used until enough response times have been recorded
+         * @return This object
+         */
+        public Builder initialDelay(long initialDelay)
+        {
+            policy.setInitialDelay(initialDelay);
+            return this;
+        }
+
+        /**
+         * Sets the shortest hedge delay (in ms).
+         * @param minDelay The shortest hedge delay
+         * @return This object
+         */
+        public Builder minDelay(long minDelay)
+        {
+            policy.setMinDelay(minDelay);
+            return this;
+        }
+
+        /**
+         * Sets the number of response times that must be recorded for an endpoint before the percentile is used.
+         * @param minSamples The number of response times that must be recorded before the percentile is used
+         * @return This object
+         */
+        public Builder minSamples(int minSamples)
+        {
+            policy.setMinSamples(minSamples);
+            return this;
+        }
+
+        /**
+         * Sets the number of response times kept for each endpoint, after which older times fade out.
+         * @param maxSamples The number of response times kept for each endpoint
+         * @return This object
+         */
+        public Builder maxSamples(int maxSamples)
+        {
+            policy.setMaxSamples(maxSamples);
+            return this;
+        }
+
+        /**
+         * Sets the number of hedges allowed for each request sent.
+         * @param budgetRatio The number of hedges allowed for each request sent
+         * @return This object
+         */
+        public Builder budgetRatio(double budgetRatio)
+        {
+            policy.setBudgetRatio(budgetRatio);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of hedges that can be made in a burst.
+         * @param budgetBurst The maximum number of hedges that can be made in a burst
+         * @return This object
+         */
+        public Builder budgetBurst(int budgetBurst)
+        {
+            policy.setBudgetBurst(budgetBurst);
+            return this;
+        }
+
+        /**
+         * Sets the HTTP methods that are hedged.
+         * @param methods The HTTP methods that are hedged
+         * @return This object
+         */
+        public Builder methods(String... methods)
+        {
+            policy.setMethods(new HashSet<String>(Arrays.asList(methods)));
+            return this;
+        }
+
+        /**
+         * Sets the paths that are hedged whatever their method.
+         * @param paths The paths that are hedged whatever their method
+         * @return This object
+         */
+        public Builder paths(String... paths)
+        {
+            policy.setPaths(new HashSet<String>(Arrays.asList(paths)));
+            return this;
+        }
+
+        /**
+         * Returns the configured policy
+         * @return The policy instance
+         */
+        public HedgePolicy build()
+        {
+            return policy;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP transport that wraps another transport and hedges slow requests according to a hedge policy.
+ * <p>
+ * If a hedged request has not been answered within the hedge delay for its endpoint, the request
+ * is sent again. The first response is returned and the other attempt is cancelled, which aborts
+ * its exchange and releases its connection. A hedged request only fails once all of its attempts
+ * have failed. Requests that are not hedged are passed straight to the wrapped transport.
+ * <p>
+ * Hedges are limited by a budget of their own, using the ratio and burst size of the hedge policy.
+ * The budget is separate from the retry budget of a {@link RetryingTransport}, so when both are used
+ * a request can be both retried and hedged, each within the limit of its own policy.
+ * <p>
+ * Hedged requests are always sent using the non-blocking client, so that the first response
+ * can be taken even when the request was made synchronously.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class HedgingTransport implements HttpTransport
+{
+    private static final Logger logger = Logger.getLogger(HedgingTransport.class.getName());
+
+    private HttpTransport transport;
+    private HedgePolicy policy;
+    private final RequestBudget budget;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String,LatencyHistogram> histograms = new ConcurrentHashMap<String,LatencyHistogram>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    /**
+     * Constructor that takes the transport to wrap and the hedge policy.
+     * @param transport The HTTP transport used to send requests, closed when this transport is closed
+     * @param policy The policy used to decide when to hedge requests
+     */
+    public HedgingTransport(HttpTransport transport, HedgePolicy policy)
+    {
+        if(transport == null)
+            throw new IllegalArgumentException("transport == null");
+        if(policy == null)
+            throw new IllegalArgumentException("policy == null");
+
+        this.transport = transport;
+        this.policy = policy;
+        this.budget = new RequestBudget(policy.getBudgetRatio(), policy.getBudgetBurst());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread ret = new Thread(r, "bitly-hedge");
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+
+    /**
+     * Returns the wrapped HTTP transport.
+     * @return The wrapped HTTP transport
+     */
+    public HttpTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Returns the policy used to decide when to hedge requests.
+     * @return The policy used to decide when to hedge requests
+     */
+    public HedgePolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Returns the number of hedged requests sent, not including hedges.
+     * @return The number of hedged requests sent
+     */
+    public long getRequestCount()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of hedges sent.
+     * @return The number of hedges sent
+     */
+    public long getHedgeCount()
+    {
+        return hedges.sum();
+    }
+
+    /**
+     * Returns the number of hedges that were answered before the original request.
+     * @return The number of hedges that were answered before the original request
+     */
+    public long getHedgeWinCount()
+    {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * Returns the number of hedges refused because the hedge budget was used up.
+     * @return The number of hedges refused because the hedge budget was used up
+     */
+    public long getBudgetExhaustedCount()
+    {
+        return budgetExhausted.sum();
+    }
+
+    /**
+     * Returns the current hedge delay for the given endpoint.
+     * @param endpoint The endpoint, eg. "GET /v4/bitlinks/{id}"
+     * @return The current hedge delay for the endpoint (in ms)
+     */
+    public long getDelay(String endpoint)
+    {
+        LatencyHistogram histogram = histograms.get(endpoint);
+        return histogram != null ? getDelay(histogram) : policy.getInitialDelay();
+    }
+
+    /**
+     * Returns the current hedge delay for the given response times.
+     * @param histogram The recent response times of an endpoint
+     * @return The current hedge delay (in ms)
+     */
+    private long getDelay(LatencyHistogram histogram)
+    {
+        if(histogram.getCount() < policy.getMinSamples())
+            return policy.getInitialDelay();
+        return Math.max(histogram.getPercentile(policy.getPercentile()), policy.getMinDelay());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        if(!policy.isHedged(request))
+            return transport.execute(request);
+
+        CompletableFuture<TransportResponse> future = executeAsync(request);
+        Deadline deadline = request.getDeadline();
+        try
+        {
+            if(deadline == null)
+                return future.get();
+            return future.get(Math.max(deadline.timeRemaining(TimeUnit.NANOSECONDS), 0L), TimeUnit.NANOSECONDS);
+        }
+        catch(TimeoutException e)
+        {
+            future.cancel(true);
+            throw HttpContext.timeout(request);
+        }
+        catch(InterruptedException e)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "
+                +request.getMethod()+" "+request.getUri());
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        if(!policy.isHedged(request))
+            return transport.executeAsync(request);
+
+        requests.increment();
+        budget.deposit();
+
+        String endpoint = HttpContext.getEndpoint(request.getMethod(), request.getUri().getRawPath());
+        LatencyHistogram histogram = histograms.computeIfAbsent(endpoint,
+            k -> new LatencyHistogram(policy.getMaxSamples()));
+
+        Hedge hedge = new Hedge(request, histogram);
+        hedge.send(false);
+
+        // There is no point in a hedge that would be sent after the deadline
+        long delay = getDelay(histogram);
+        Deadline deadline = request.getDeadline();
+        if(deadline == null || delay < deadline.timeRemaining(TimeUnit.MILLISECONDS))
+            hedge.schedule(delay);
+        return hedge.ret;
+    }
+
+    /**
+     * Stops any scheduled hedges and closes the wrapped transport.
+     * @throws IOException if the transport could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        scheduler.shutdownNow();
+        transport.close();
+    }
+
+    /**
+     * Closes the given response, logging any error.
+     * @param response The response to close
+     */
+    private static void closeQuietly(TransportResponse response)
+    {
+        try
+        {
+            response.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to close response: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "HedgingTransport ["
+            +"requests="+getRequestCount()
+            +", hedges="+getHedgeCount()
+            +", hedgeWins="+getHedgeWinCount()
+            +", budgetExhausted="+getBudgetExhaustedCount()
+            +"]";
+    }
+
+    /**
+     * The attempts made for a hedged request.
+     */
+    private class Hedge
+    {
+        private final TransportRequest request;
+        private final LatencyHistogram histogram;
+        private final CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+        private final List<CompletableFuture<TransportResponse>> attempts
+            = new CopyOnWriteArrayList<CompletableFuture<TransportResponse>>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Constructor that takes the request and the response times of its endpoint.
+         * @param request The request to send
+         * @param histogram The recent response times of the endpoint
+         */
+        Hedge(TransportRequest request, LatencyHistogram histogram)
+        {
+            this.request = request;
+            this.histogram = histogram;
+
+            // Abort the other attempt once there is an answer, or all of them if the caller cancels
+            ret.whenComplete((result, e) ->
+            {
+                for(CompletableFuture<TransportResponse> attempt : attempts)
+                    attempt.cancel(true);
+            });
+        }
+
+        /**
+         * Sends an attempt of the request.
+         * @param hedged <CODE>true</CODE> if the attempt is the hedge
+         */
+        void send(final boolean hedged)
+        {
+            pending.incrementAndGet();
+            if(ret.isDone())
+            {
+                pending.decrementAndGet();
+                return;
+            }
+
+            final long start = System.nanoTime();
+            CompletableFuture<TransportResponse> attempt;
+            try
+            {
+                attempt = transport.executeAsync(request);
+            }
+            catch(RuntimeException e)
+            {
+                attempt = new CompletableFuture<TransportResponse>();
+                attempt.completeExceptionally(e);
+            }
+
+            attempts.add(attempt);
+            if(ret.isDone())
+                attempt.cancel(true);
+
+            attempt.whenComplete((response, e) ->
+            {
+                if(response != null)
+                {
+                    histogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+                    if(ret.complete(response))
+                    {
+                        if(hedged)
+                            hedgeWins.increment();
+                    }
+                    else
+                    {
+                        closeQuietly(response);
+                    }
+                }
+                else if(pending.decrementAndGet() == 0)
+                {
+                    ret.completeExceptionally(HttpContext.unwrap(e));
+                }
+            });
+        }
+
+        /**
+         * Schedules the hedge to be sent after the given delay if there is still no answer.
+         * @param delay The hedge delay (in ms)
+         */
+        void schedule(long delay)
+        {
+            if(ret.isDone())
+                return;
+
+            try
+            {
+                final ScheduledFuture<?> future = scheduler.schedule(() ->
+                {
+                    if(ret.isDone())
+                        return;
+
+                    if(!budget.withdraw())
+                    {
+                        budgetExhausted.increment();
+                        return;
+                    }
+
+                    hedges.increment();
+                    if(logger.isLoggable(Level.FINE))
+                        logger.fine("Hedging "+request.getMethod()+" "+request.getUri()+" after "+delay+"ms");
+                    send(true);
+                }, delay, TimeUnit.MILLISECONDS);
+
+                ret.whenComplete((result, e) -> future.cancel(false));
+            }
+            catch(RejectedExecutionException e)
+            {
+                // The transport is closing, so just wait for the first attempt
+            }
+        }
+    }
+}
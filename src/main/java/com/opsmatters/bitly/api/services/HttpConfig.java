@@ -0,0 +1,717 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Represents the connection pool and socket settings used by the HTTP client.
+ * <p>
+ * Timeouts are in milliseconds, with a value of -1 meaning the system default.
+ * Buffer sizes of 0 also mean the system default.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class HttpConfig
+{
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+    public static final int DEFAULT_MAX_TOTAL = 50;
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+    private int maxTotal = DEFAULT_MAX_TOTAL;
+    private int connectTimeout = -1;
+    private int socketTimeout = -1;
+    private int connectionRequestTimeout = -1;
+    private long callTimeout = 0L;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private int validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+    private long leakDetectionThreshold = 0L;
+    private boolean compression = false;
+    private boolean coalescing = false;
+    private RetryPolicy retryPolicy;
+    private HedgePolicy hedgePolicy;
+    private RateLimiter rateLimiter;
+    private CircuitBreaker circuitBreaker;
+    private ResponseCache responseCache;
+
+    /**
+     * Default constructor.
+     */
+    public HttpConfig()
+    {
+    }
+
+    /**
+     * Copy constructor.
+     * <p>
+     * The settings are copied, but the policies, rate limiter, circuit breaker and response cache
+     * are shared with the given configuration.
+     * @param config The configuration to copy
+     */
+    public HttpConfig(HttpConfig config)
+    {
+        this.maxPerRoute = config.maxPerRoute;
+        this.maxTotal = config.maxTotal;
+        this.connectTimeout = config.connectTimeout;
+        this.socketTimeout = config.socketTimeout;
+        this.connectionRequestTimeout = config.connectionRequestTimeout;
+        this.callTimeout = config.callTimeout;
+        this.tcpNoDelay = config.tcpNoDelay;
+        this.sendBufferSize = config.sendBufferSize;
+        this.receiveBufferSize = config.receiveBufferSize;
+        this.validateAfterInactivity = config.validateAfterInactivity;
+        this.ioThreadCount = config.ioThreadCount;
+        this.leakDetectionThreshold = config.leakDetectionThreshold;
+        this.compression = config.compression;
+        this.coalescing = config.coalescing;
+        this.retryPolicy = config.retryPolicy;
+        this.hedgePolicy = config.hedgePolicy;
+        this.rateLimiter = config.rateLimiter;
+        this.circuitBreaker = config.circuitBreaker;
+        this.responseCache = config.responseCache;
+    }
+
+    /**
+     * Returns the maximum number of connections per route.
+     * @return The maximum number of connections per route
+     */
+    public int getMaxPerRoute()
+    {
+        return maxPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of connections per route.
+     * <p>
+     * The limit covers both blocking and asynchronous requests. The default transport has separate pools
+     * for them, so once an asynchronous request has been sent, half of the connections (at least one)
+     * are used for asynchronous requests and the rest (at least one) for blocking requests.
+     * @param maxPerRoute The maximum number of connections per route
+     */
+    public void setMaxPerRoute(int maxPerRoute)
+    {
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    /**
+     * Returns the maximum number of connections in the pool.
+     * @return The maximum number of connections in the pool
+     */
+    public int getMaxTotal()
+    {
+        return maxTotal;
+    }
+
+    /**
+     * Sets the maximum number of connections in the pool.
+     * <p>
+     * As for the limit per route, the limit is split between blocking and asynchronous requests
+     * once an asynchronous request has been sent.
+     * @param maxTotal The maximum number of connections in the pool
+     */
+    public void setMaxTotal(int maxTotal)
+    {
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * Returns the timeout until a connection is established (in ms).
+     * @return The timeout until a connection is established
+     */
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets the timeout until a connection is established (in ms).
+     * @param connectTimeout The timeout until a connection is established
+     */
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Returns the timeout waiting for data on the socket (in ms).
+     * @return The timeout waiting for data on the socket
+     */
+    public int getSocketTimeout()
+    {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the timeout waiting for data on the socket (in ms).
+     * @param socketTimeout The timeout waiting for data on the socket
+     */
+    public void setSocketTimeout(int socketTimeout)
+    {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * Returns the timeout waiting for a connection from the pool (in ms).
+     * @return The timeout waiting for a connection from the pool
+     */
+    public int getConnectionRequestTimeout()
+    {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * Sets the timeout waiting for a connection from the pool (in ms).
+     * @param connectionRequestTimeout The timeout waiting for a connection from the pool
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout)
+    {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    /**
+     * Returns the time each call must complete within if no timeout or deadline is given for it (in ms).
+     * @return The time each call must complete within, or 0 if calls have no default timeout
+     */
+    public long getCallTimeout()
+    {
+        return callTimeout;
+    }
+
+    /**
+     * Sets the time each call must complete within if no timeout or deadline is given for it (in ms).
+     * <p>
+     * The timeout covers the whole call, including waiting for a connection, connecting,
+     * reading the response, and any retries or hedges.
+     * @param callTimeout The time each call must complete within, or 0 if calls should have no default timeout
+     */
+    public void setCallTimeout(long callTimeout)
+    {
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if TCP_NODELAY is enabled on the socket.
+     * @return <CODE>true</CODE> if TCP_NODELAY is enabled on the socket
+     */
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket.
+     * @param tcpNoDelay <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay)
+    {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Returns the size of the socket send buffer (SO_SNDBUF).
+     * @return The size of the socket send buffer
+     */
+    public int getSendBufferSize()
+    {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket send buffer (SO_SNDBUF).
+     * @param sendBufferSize The size of the socket send buffer
+     */
+    public void setSendBufferSize(int sendBufferSize)
+    {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * Returns the size of the socket receive buffer (SO_RCVBUF).
+     * @return The size of the socket receive buffer
+     */
+    public int getReceiveBufferSize()
+    {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket receive buffer (SO_RCVBUF).
+     * @param receiveBufferSize The size of the socket receive buffer
+     */
+    public void setReceiveBufferSize(int receiveBufferSize)
+    {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Returns the period of inactivity after which pooled connections are revalidated (in ms).
+     * @return The period of inactivity after which pooled connections are revalidated
+     */
+    public int getValidateAfterInactivity()
+    {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Sets the period of inactivity after which pooled connections are revalidated (in ms).
+     * @param validateAfterInactivity The period of inactivity after which pooled connections are revalidated
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity)
+    {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * Returns the number of I/O dispatch threads used by the asynchronous client.
+     * @return The number of I/O dispatch threads used by the asynchronous client
+     */
+    public int getIoThreadCount()
+    {
+        return ioThreadCount;
+    }
+
+    /**
+     * Sets the number of I/O dispatch threads used by the asynchronous client.
+     * @param ioThreadCount The number of I/O dispatch threads used by the asynchronous client
+     */
+    public void setIoThreadCount(int ioThreadCount)
+    {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    /**
+     * Returns the time a connection can be held before it is reported as a possible leak (in ms).
+     * @return The time a connection can be held before it is reported as a possible leak, or 0 if leak detection is disabled
+     */
+    public long getLeakDetectionThreshold()
+    {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * Sets the time a connection can be held before it is reported as a possible leak (in ms).
+     * <p>
+     * A value of 0 disables leak detection.
+     * @param leakDetectionThreshold The time a connection can be held before it is reported as a possible leak
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold)
+    {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if compressed responses should be requested.
+     * @return <CODE>true</CODE> if compressed responses should be requested
+     */
+    public boolean isCompression()
+    {
+        return compression;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if compressed responses should be requested using gzip or deflate.
+     * @param compression <CODE>true</CODE> if compressed responses should be requested
+     */
+    public void setCompression(boolean compression)
+    {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if identical concurrent GET requests share one request in flight.
+     * @return <CODE>true</CODE> if identical concurrent GET requests share one request in flight
+     */
+    public boolean isCoalescing()
+    {
+        return coalescing;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if identical concurrent GET requests should share one request in flight.
+     * @param coalescing <CODE>true</CODE> if identical concurrent GET requests should share one request in flight
+     */
+    public void setCoalescing(boolean coalescing)
+    {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Returns the policy used to retry failed requests.
+     * @return The policy used to retry failed requests, or <CODE>null</CODE> if requests are not retried
+     */
+    public RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to retry failed requests.
+     * <p>
+     * A value of <CODE>null</CODE> disables retries.
+     * @param retryPolicy The policy used to retry failed requests
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the policy used to hedge slow requests.
+     * @return The policy used to hedge slow requests, or <CODE>null</CODE> if requests are not hedged
+     */
+    public HedgePolicy getHedgePolicy()
+    {
+        return hedgePolicy;
+    }
+
+    /**
+     * Sets the policy used to hedge slow requests.
+     * <p>
+     * A value of <CODE>null</CODE> disables hedging.
+     * @param hedgePolicy The policy used to hedge slow requests
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy)
+    {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * Returns the client-side rate limiter.
+     * @return The client-side rate limiter, or <CODE>null</CODE> if requests are not rate limited
+     */
+    public RateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the client-side rate limiter.
+     * <p>
+     * A value of <CODE>null</CODE> disables rate limiting.
+     * @param rateLimiter The client-side rate limiter
+     */
+    public void setRateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the circuit breaker.
+     * @return The circuit breaker, or <CODE>null</CODE> if there is no circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker.
+     * <p>
+     * A value of <CODE>null</CODE> disables the circuit breaker.
+     * @param circuitBreaker The circuit breaker
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the cache used to revalidate the results of GET requests.
+     * @return The cache used to revalidate the results of GET requests, or <CODE>null</CODE> if results are not cached
+     */
+    public ResponseCache getResponseCache()
+    {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache used to revalidate the results of GET requests.
+     * <p>
+     * A value of <CODE>null</CODE> disables the cache.
+     * @param responseCache The cache used to revalidate the results of GET requests
+     */
+    public void setResponseCache(ResponseCache responseCache)
+    {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "HttpConfig ["
+            +"maxPerRoute="+maxPerRoute
+            +", maxTotal="+maxTotal
+            +", connectTimeout="+connectTimeout
+            +", socketTimeout="+socketTimeout
+            +", connectionRequestTimeout="+connectionRequestTimeout
+            +", callTimeout="+callTimeout
+            +", tcpNoDelay="+tcpNoDelay
+            +", sendBufferSize="+sendBufferSize
+            +", receiveBufferSize="+receiveBufferSize
+            +", validateAfterInactivity="+validateAfterInactivity
+            +", ioThreadCount="+ioThreadCount
+            +", leakDetectionThreshold="+leakDetectionThreshold
+            +", compression="+compression
+            +", coalescing="+coalescing
+            +", retryPolicy="+retryPolicy
+            +", hedgePolicy="+hedgePolicy
+            +", rateLimiter="+rateLimiter
+            +", circuitBreaker="+circuitBreaker
+            +", responseCache="+responseCache
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the configuration.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make configuration construction easier.
+     */
+    public static class Builder
+    {
+        private HttpConfig config = new HttpConfig();
+
+        /**
+         * Sets the maximum number of connections per route.
+         * @param maxPerRoute The maximum number of connections per route
+         * @return This object
+         */
+        public Builder maxPerRoute(int maxPerRoute)
+        {
+            config.setMaxPerRoute(maxPerRoute);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections in the pool.
+         * @param maxTotal The maximum number of connections in the pool
+         * @return This object
+         */
+        public Builder maxTotal(int maxTotal)
+        {
+            config.setMaxTotal(maxTotal);
+            return this;
+        }
+
+        /**
+         * Sets the timeout until a connection is established (in ms).
+         * @param connectTimeout The timeout until a connection is established
+         * @return This object
+         */
+        public Builder connectTimeout(int connectTimeout)
+        {
+            config.setConnectTimeout(connectTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the timeout waiting for data on the socket (in ms).
+         * @param socketTimeout The timeout waiting for data on the socket
+         * @return This object
+         */
+        public Builder socketTimeout(int socketTimeout)
+        {
+            config.setSocketTimeout(socketTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the timeout waiting for a connection from the pool (in ms).
+         * @param connectionRequestTimeout The timeout waiting for a connection from the pool
+         * @return This object
+         */
+        public Builder connectionRequestTimeout(int connectionRequestTimeout)
+        {
+            config.setConnectionRequestTimeout(connectionRequestTimeout);
+            return this;
+        }
+
+        /**
+         * Sets the time each call must complete within if no timeout or deadline is given for it (in ms).
+         * @param callTimeout The time each call must complete within
+         * @return This object
+         */
+        public Builder callTimeout(long callTimeout)
+        {
+            config.setCallTimeout(callTimeout);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket.
+         * @param tcpNoDelay <CODE>true</CODE> if TCP_NODELAY should be enabled on the socket
+         * @return This object
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay)
+        {
+            config.setTcpNoDelay(tcpNoDelay);
+            return this;
+        }
+
+        /**
+         * Sets the size of the socket send buffer (SO_SNDBUF).
+         * @param sendBufferSize The size of the socket send buffer
+         * @return This object
+         */
+        public Builder sendBufferSize(int sendBufferSize)
+        {
+            config.setSendBufferSize(sendBufferSize);
+            return this;
+        }
+
+        /**
+         * Sets the size of the socket receive buffer (SO_RCVBUF).
+         * @param receiveBufferSize The size of the socket receive buffer
+         * @return This object
+         */
+        public Builder receiveBufferSize(int receiveBufferSize)
+        {
+            config.setReceiveBufferSize(receiveBufferSize);
+            return this;
+        }
+
+        /**
+         * Sets the period of inactivity after which pooled connections are revalidated (in ms).
+         * @param validateAfterInactivity The period of inactivity after which pooled connections are revalidated
+         * @return This object
+         */
+        public Builder validateAfterInactivity(int validateAfterInactivity)
+        {
+            config.setValidateAfterInactivity(validateAfterInactivity);
+            return this;
+        }
+
+        /**
+         * Sets the number of I/O dispatch threads used by the asynchronous client.
+         * @param ioThreadCount The number of I/O dispatch threads used by the asynchronous client
+         * @return This object
+         */
+        public Builder ioThreadCount(int ioThreadCount)
+        {
+            config.setIoThreadCount(ioThreadCount);
+            return this;
+        }
+
+        /**
+         * Sets the time a connection can be held before it is reported as a possible leak (in ms).
+         * @param leakDetectionThreshold The time a connection can be held before it is reported as a possible leak
+         * @return This object
+         */
+        public Builder leakDetectionThreshold(long leakDetectionThreshold)
+        {
+            config.setLeakDetectionThreshold(leakDetectionThreshold);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if compressed responses should be requested using gzip or deflate.
+         * @param compression <CODE>true</CODE> if compressed responses should be requested
+         * @return This object
+         */
+        public Builder compression(boolean compression)
+        {
+            config.setCompression(compression);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if identical concurrent GET requests should share one request in flight.
+         * @param coalescing <CODE>true</CODE> if identical concurrent GET requests should share one request in flight
+         * @return This object
+         */
+        public Builder coalescing(boolean coalescing)
+        {
+            config.setCoalescing(coalescing);
+            return this;
+        }
+
+        /**
+         * Sets the policy used to retry failed requests.
+         * @param retryPolicy The policy used to retry failed requests
+         * @return This object
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy)
+        {
+            config.setRetryPolicy(retryPolicy);
+            return this;
+        }
+
+        /**
+         * Sets the policy used to hedge slow requests.
+         * @param hedgePolicy The policy used to hedge slow requests
+         * @return This object
+         */
+        public Builder hedgePolicy(HedgePolicy hedgePolicy)
+        {
+            config.setHedgePolicy(hedgePolicy);
+            return this;
+        }
+
+        /**
+         * Sets the client-side rate limiter.
+         * @param rateLimiter The client-side rate limiter
+         * @return This object
+         */
+        public Builder rateLimiter(RateLimiter rateLimiter)
+        {
+            config.setRateLimiter(rateLimiter);
+            return this;
+        }
+
+        /**
+         * Sets the circuit breaker.
+         * @param circuitBreaker The circuit breaker
+         * @return This object
+         */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker)
+        {
+            config.setCircuitBreaker(circuitBreaker);
+            return this;
+        }
+
+        /**
+         * Sets the cache used to revalidate the results of GET requests.
+         * @param responseCache The cache used to revalidate the results of GET requests
+         * @return This object
+         */
+        public Builder responseCache(ResponseCache responseCache)
+        {
+            config.setResponseCache(responseCache);
+            return this;
+        }
+
+        /**
+         * Returns the configuration
+         * @return The configuration instance
+         */
+        public HttpConfig build()
+        {
+            return config;
+        }
+    }
+}
@@ -16,53 +16,88 @@
 
 package com.opsmatters.bitly.api.services;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.lang.reflect.Type;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 import com.google.common.base.Optional;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPatch;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.HttpMessage;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpEntity;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.entity.ContentType;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
 import com.opsmatters.bitly.BitlyException;
+import com.opsmatters.bitly.CircuitOpenException;
+import com.opsmatters.bitly.RequestTimeoutException;
 import com.opsmatters.bitly.api.model.ErrorResponse;
+import com.opsmatters.bitly.api.model.v4.V4TypeAdapterFactory;
 
 /**
  * Base class for HTTP operations using API calls.  
+ * <p>
+ * Requests are sent using a {@link HttpTransport}, which is {@link ApacheHttpTransport} by default.
  * 
  * @author Gerald Curley (opsmatters)
  */
-public class HttpContext
+public class HttpContext implements AutoCloseable
 {
     private static final Logger logger = Logger.getLogger(HttpContext.class.getName());
 
     protected static final Type ERROR = new TypeToken<ErrorResponse>(){}.getType();
-    
+
+    /**
+     * The default time to wait for in-flight requests to complete on close (in ms).
+     */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 30000L;
+
     private String protocol;
     private String hostname;
     private int port;
+    private String baseUrl;
+
+    private Gson gson = new GsonBuilder()
+        .registerTypeAdapterFactory(new V4TypeAdapterFactory())
+        .create();
 
-    private Gson gson = new Gson();
+    private HttpTransport transport;
+    private volatile boolean compressionEnabled = false;
+    private final CompressionStats compressionStats = new CompressionStats();
+    private volatile HeadersWithEncoding lastHeaders;
+    private volatile RateLimiter rateLimiter;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile long callTimeout = 0L;
+    private volatile RequestCoalescer coalescer;
+    private volatile ResponseCache responseCache;
+    private volatile Executor completionExecutor = ForkJoinPool.commonPool();
 
-    private static CloseableHttpClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private volatile boolean closed = false;
     
     /**
      * Constructor that takes a protocol, hostname and port.
@@ -71,15 +106,348 @@ public class HttpContext
      * @param port The port of the server
      */
     public HttpContext(String protocol, String hostname, int port)
+    {
+        this(protocol, hostname, port, new HttpConfig());
+    }
+
+    /**
+     * Constructor that takes a protocol, hostname, port and connection settings.
+     * @param protocol The protocol used to connect to the server
+     * @param hostname The hostname of the server
+     * @param port The port of the server
+     * @param config The connection pool and socket settings
+     */
+    public HttpContext(String protocol, String hostname, int port, HttpConfig config)
+    {
+        this(protocol, hostname, port, new ApacheHttpTransport(config), config);
+    }
+
+    /**
+     * Constructor that takes a protocol, hostname, port, HTTP transport and settings.
+     * <p>
+     * The transport is wrapped as described in {@link #wrapTransport(HttpTransport, HttpConfig)},
+     * and the other settings of the config are applied to the context. The connection pool and socket settings
+     * are only used by the default transport.
+     * @param protocol The protocol used to connect to the server
+     * @param hostname The hostname of the server
+     * @param port The port of the server
+     * @param transport The HTTP transport used to send requests, closed when the context is closed
+     * @param config The settings of the context
+     */
+    public HttpContext(String protocol, String hostname, int port, HttpTransport transport, HttpConfig config)
+    {
+        this(protocol, hostname, port, wrapTransport(transport, config));
+        this.compressionEnabled = config.isCompression();
+        setRateLimiter(config.getRateLimiter());
+        this.circuitBreaker = config.getCircuitBreaker();
+        this.callTimeout = config.getCallTimeout();
+        if(config.isCoalescing())
+            this.coalescer = new RequestCoalescer();
+        this.responseCache = config.getResponseCache();
+    }
+
+    /**
+     * Constructor that takes a protocol, hostname, port and HTTP transport.
+     * @param protocol The protocol used to connect to the server
+     * @param hostname The hostname of the server
+     * @param port The port of the server
+     * @param transport The HTTP transport used to send requests, closed when the context is closed
+     */
+    public HttpContext(String protocol, String hostname, int port, HttpTransport transport)
     {
         this.protocol = protocol;
         this.hostname = hostname;
         this.port = port;
+        this.baseUrl = protocol+"://"+hostname+":"+port;
+        this.transport = transport;
+    }
+
+    /**
+     * Wraps the given transport in a leak detector if a leak detection threshold is set,
+     * then in a hedging transport if a hedge policy is set,
+     * and then in a retrying transport if a retry policy is set.
+     * <p>
+     * Each attempt of a retried or hedged request takes its own connection lease.
+     * @param transport The HTTP transport used to send requests
+     * @param config The connection settings
+     * @return The wrapped HTTP transport
+     */
+    public static HttpTransport wrapTransport(HttpTransport transport, HttpConfig config)
+    {
+        HttpTransport ret = transport;
+        if(config.getLeakDetectionThreshold() > 0L)
+            ret = new LeakDetectingTransport(ret, config.getLeakDetectionThreshold());
+        if(config.getHedgePolicy() != null)
+            ret = new HedgingTransport(ret, config.getHedgePolicy());
+        if(config.getRetryPolicy() != null)
+            ret = new RetryingTransport(ret, config.getRetryPolicy());
+        return ret;
+    }
+
+    /**
+     * Returns the HTTP transport used to send requests.
+     * @return The HTTP transport used to send requests
+     */
+    public HttpTransport getTransport()
+    {
+        return transport;
+    }
 
-        if(client == null)
-            client = HttpClients.custom().setConnectionManager(new PoolingHttpClientConnectionManager()).build();
+    /**
+     * Returns <CODE>true</CODE> if compressed responses are requested.
+     * @return <CODE>true</CODE> if compressed responses are requested
+     */
+    public boolean isCompressionEnabled()
+    {
+        return compressionEnabled;
     }
-    
+
+    /**
+     * Set to <CODE>true</CODE> if compressed responses should be requested using gzip or deflate.
+     * <p>
+     * Compressed responses are always decoded, whether or not they were requested.
+     * @param compressionEnabled <CODE>true</CODE> if compressed responses should be requested
+     */
+    public void setCompressionEnabled(boolean compressionEnabled)
+    {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * Returns the client-side rate limiter.
+     * @return The client-side rate limiter, or <CODE>null</CODE> if requests are not rate limited
+     */
+    public RateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the client-side rate limiter.
+     * <p>
+     * If the transport is a {@link RetryingTransport}, the rate limiter is also used to take a permit
+     * for each retry, so that retries count against the rate limit like the first attempt.
+     * @param rateLimiter The client-side rate limiter, or <CODE>null</CODE> if requests should not be rate limited
+     */
+    public void setRateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+        if(transport instanceof RetryingTransport)
+            ((RetryingTransport)transport).setRateLimiter(rateLimiter);
+    }
+
+    /**
+     * Returns the circuit breaker.
+     * @return The circuit breaker, or <CODE>null</CODE> if there is no circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker()
+    {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker.
+     * @param circuitBreaker The circuit breaker, or <CODE>null</CODE> if there should be no circuit breaker
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+    {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the time each call must complete within if no timeout or deadline is given for it (in ms).
+     * @return The time each call must complete within, or 0 if calls have no default timeout
+     */
+    public long getCallTimeout()
+    {
+        return callTimeout;
+    }
+
+    /**
+     * Sets the time each call must complete within if no timeout or deadline is given for it (in ms).
+     * @param callTimeout The time each call must complete within, or 0 if calls should have no default timeout
+     */
+    public void setCallTimeout(long callTimeout)
+    {
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * Returns the Gson instance used to read and write JSON.
+     * @return The Gson instance used to read and write JSON
+     */
+    public Gson getGson()
+    {
+        return gson;
+    }
+
+    /**
+     * Returns the coalescer used to share identical concurrent GET requests.
+     * @return The coalescer used to share identical concurrent GET requests, or <CODE>null</CODE> if requests are not coalesced
+     */
+    public RequestCoalescer getRequestCoalescer()
+    {
+        return coalescer;
+    }
+
+    /**
+     * Sets the coalescer used to share identical concurrent GET requests.
+     * @param coalescer The coalescer used to share identical concurrent GET requests,
+     *                  or <CODE>null</CODE> if requests should not be coalesced
+     */
+    public void setRequestCoalescer(RequestCoalescer coalescer)
+    {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * Returns the cache used to revalidate the results of GET requests.
+     * @return The cache used to revalidate the results of GET requests, or <CODE>null</CODE> if results are not cached
+     */
+    public ResponseCache getResponseCache()
+    {
+        return responseCache;
+    }
+
+    /**
+     * Sets the cache used to revalidate the results of GET requests.
+     * @param responseCache The cache used to revalidate the results of GET requests,
+     *     or <CODE>null</CODE> if results should not be cached
+     */
+    public void setResponseCache(ResponseCache responseCache)
+    {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns the executor used to read the responses to asynchronous requests and complete their futures.
+     * @return The executor used to read the responses to asynchronous requests
+     */
+    public Executor getCompletionExecutor()
+    {
+        return completionExecutor;
+    }
+
+    /**
+     * Sets the executor used to read the responses to asynchronous requests and complete their futures.
+     * <p>
+     * Responses are read on this executor rather than on the I/O thread of the transport, so that parsing
+     * a response or running the callbacks of its future does not hold up the other connections of that thread.
+     * If the executor rejects a task, eg. because it has been shut down, the response is read on the I/O thread.
+     * The default is the common fork-join pool.
+     * @param completionExecutor The executor used to read the responses to asynchronous requests
+     */
+    public void setCompletionExecutor(Executor completionExecutor)
+    {
+        if(completionExecutor == null)
+            throw new IllegalArgumentException("completionExecutor == null");
+        this.completionExecutor = completionExecutor;
+    }
+
+    /**
+     * Returns the counts of response bytes received over the wire and after decompression.
+     * @return The counts of response bytes received over the wire and after decompression
+     */
+    public CompressionStats getCompressionStats()
+    {
+        return compressionStats;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the context has been closed.
+     * @return <CODE>true</CODE> if the context has been closed
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Returns the number of requests currently in progress.
+     * @return The number of requests currently in progress
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * Closes the context after waiting for in-flight requests to complete.
+     * @throws IOException if the transport could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        close(DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting new requests, waits up to the given time for in-flight requests to complete,
+     * and then closes the transport and its connection pool.
+     * @param timeout The maximum time to wait for in-flight requests
+     * @param unit The time unit of the timeout
+     * @throws IOException if the transport could not be closed.
+     */
+    public void close(long timeout, TimeUnit unit) throws IOException
+    {
+        closed = true;
+
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try
+        {
+            while(inFlight.get() > 0 && remaining > 0L)
+                remaining = drained.awaitNanos(remaining);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if(inFlight.get() > 0)
+            logger.warning("Closing client with "+inFlight.get()+" requests still in progress");
+        transport.close();
+    }
+
+    /**
+     * Registers the start of a request.
+     * <p>
+     * The request is counted before the closed flag is checked, so that a concurrent close
+     * either sees the request and waits for it, or the request sees the close and is refused.
+     */
+    private void beginRequest()
+    {
+        inFlight.incrementAndGet();
+        if(closed)
+        {
+            endRequest();
+            throw new IllegalStateException("HTTP context is closed");
+        }
+    }
+
+    /**
+     * Registers the end of a request, signalling any waiting close once the last request has completed.
+     */
+    private void endRequest()
+    {
+        if(inFlight.decrementAndGet() == 0 && closed)
+        {
+            lock.lock();
+            try
+            {
+                drained.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
     /**
      * Build the URL from the protocol://hostname:port + relativePath
      * @param relativePath The path of the resource (should always start with a "/")
@@ -87,7 +455,7 @@ public class HttpContext
      */
     String buildUrl(String relativePath)
     {
-        return String.format("%s://%s:%d%s", protocol, hostname, port, relativePath);
+        return baseUrl+relativePath;
     }
     
     /**
@@ -96,12 +464,28 @@ public class HttpContext
      * @return The URI to call
      */
     URI buildUri(String relativePath)
+    {    
+        return buildUri(relativePath, null);
+    }
+
+    /**
+     * Build the URI from the protocol://hostname:port + relativePath + queryParams.
+     * <p>
+     * The URI is parsed once, after the query parameters have been added.
+     * @param relativePath The path of the resource (should always start with a "/")
+     * @param queryParams A set of query parameters to add to the URI
+     * @return The URI to call
+     */
+    URI buildUri(String relativePath, List<String> queryParams)
     {    
         URI uri = null;
         
         try
         {    
-            uri = new URI(buildUrl(relativePath));   
+            String url = buildUrl(relativePath);
+            if(queryParams != null && queryParams.size() > 0)
+                url = appendQueryParams(new StringBuilder(url), url.indexOf('?') < 0, queryParams).toString();
+            uri = new URI(url);
         }
         catch(URISyntaxException e)
         {           
@@ -140,8 +524,85 @@ public class HttpContext
     public <T> Optional<T> GET(String partialUrl, Map<String,String> headers, List<String> queryParams, Type returnType)
         throws IOException, URISyntaxException
     {
-        URI uri = buildUri(partialUrl);
-        return executeGetRequest(uri, headers, queryParams, returnType);
+        return GET(partialUrl, headers, queryParams, returnType, null);
+    }
+
+    /**
+     * Execute a GET call against the partial URL with the given options and deserialize the results.
+     * <p>
+     * If a coalescer is set, the call shares the result of any identical GET already in flight.
+     * The shared request is sent asynchronously, so that each caller only waits for it until its own deadline.
+     * If a response cache is set and caches the path, the result is revalidated or reused from the cache.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public <T> Optional<T> GET(String partialUrl, Map<String,String> headers, List<String> queryParams, Type returnType,
+        RequestOptions options)
+        throws IOException, URISyntaxException
+    {
+        final URI uri = buildUri(partialUrl, queryParams);
+        final EntityReader<T> reader = this.<T>createReader(returnType);
+        RequestCoalescer c = coalescer;
+        ResponseCache rc = responseCache;
+        if(c == null && rc == null)
+            return execute("GET", uri, null, headers, null, reader, options);
+
+        final String key = getCoalescingKey("GET", uri, headers, returnType);
+        final ResponseCache.Entry entry = getCacheEntry(rc, key, uri);
+        if(entry != null && entry.isFresh())
+            return Optional.of(HttpContext.<T>getCachedValue(entry));
+        if(c == null)
+            return executeCached(rc, key, entry, uri, headers, reader, getDeadline(options));
+
+        // The shared request has no deadline, each caller waits for it until its own deadline
+        return c.execute(key, "GET "+uri, getDeadline(options),
+            () -> executeCachedAsync(rc, key, entry, uri, headers, reader, null));
+    }
+
+    /**
+     * Execute a GET call against the partial URL and read the results as they arrive using the given reader.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body
+     * @return The object returned by the reader
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public <T> Optional<T> GET(String partialUrl, Map<String,String> headers, List<String> queryParams,
+        EntityReader<T> reader)
+        throws IOException, URISyntaxException
+    {
+        return GET(partialUrl, headers, queryParams, reader, null);
+    }
+
+    /**
+     * Execute a GET call against the partial URL with the given options and read the results as they arrive
+     * using the given reader.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The object returned by the reader
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public <T> Optional<T> GET(String partialUrl, Map<String,String> headers, List<String> queryParams,
+        EntityReader<T> reader, RequestOptions options)
+        throws IOException, URISyntaxException
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        return execute("GET", uri, null, headers, null, reader, options);
     }
 
     /**
@@ -197,9 +658,34 @@ public class HttpContext
      * @throws IOException if there is a communication error.
      */
     public <T> Optional<T> POST(String partialUrl, Object payload, Map<String,String> headers, Type returnType) throws IOException
+    {
+        return POST(partialUrl, payload, headers, returnType, null);
+    }
+
+    /**
+     * Execute a POST call against the partial URL with the given options.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the POST
+     * @param headers A set of headers to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     */
+    public <T> Optional<T> POST(String partialUrl, Object payload, Map<String,String> headers, Type returnType,
+        RequestOptions options)
+        throws IOException
     {
         URI uri = buildUri(partialUrl);
-        return executePostRequest(uri, payload, headers, returnType);
+        try
+        {
+            return execute("POST", uri, payload, headers, null, this.<T>createReader(returnType), options);
+        }
+        catch(URISyntaxException e)
+        {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -227,8 +713,8 @@ public class HttpContext
     public void PATCH(String partialUrl, Object payload, Map<String,String> headers, List<String> queryParams)
         throws IOException, URISyntaxException
     {
-        URI uri = buildUri(partialUrl);
-        executePatchRequest(uri, payload, headers, queryParams);
+        URI uri = buildUri(partialUrl, queryParams);
+        executePatchRequest(uri, payload, headers, null);
     }
 
     /**
@@ -264,8 +750,28 @@ public class HttpContext
         List<String> queryParams, Type returnType)
         throws IOException, URISyntaxException
     {
-        URI uri = buildUri(partialUrl);
-        return executePatchRequest(uri, payload, headers, queryParams, returnType);
+        return PATCH(partialUrl, payload, headers, queryParams, returnType, null);
+    }
+
+    /**
+     * Execute a PATCH call against the partial URL with the given options.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the PATCH
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public <T> Optional<T> PATCH(String partialUrl, Object payload, Map<String,String> headers,
+        List<String> queryParams, Type returnType, RequestOptions options)
+        throws IOException, URISyntaxException
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        return execute("PATCH", uri, payload, headers, null, this.<T>createReader(returnType), options);
     }
 
     /**
@@ -291,8 +797,200 @@ public class HttpContext
     public void DELETE(String partialUrl, Map<String,String> headers, List<String> queryParams)
         throws IOException, URISyntaxException
     {
-        URI uri = buildUri(partialUrl);
-        executeDeleteRequest(uri, headers, queryParams);
+        DELETE(partialUrl, headers, queryParams, null);
+    }
+
+    /**
+     * Execute a DELETE call against the partial URL with the given options.
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public void DELETE(String partialUrl, Map<String,String> headers, List<String> queryParams, RequestOptions options)
+        throws IOException, URISyntaxException
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        execute("DELETE", uri, null, headers, null, (EntityReader<Object>)null, options);
+    }
+
+    /**
+     * Execute an asynchronous GET call against the partial URL and deserialize the results.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> GETAsync(String partialUrl, Map<String,String> headers,
+        List<String> queryParams, Type returnType)
+    {
+        return GETAsync(partialUrl, headers, queryParams, returnType, null);
+    }
+
+    /**
+     * Execute an asynchronous GET call against the partial URL with the given options and deserialize the results.
+     * <p>
+     * If a coalescer is set, the call shares the result of any identical GET already in flight.
+     * If a response cache is set and caches the path, the result is revalidated or reused from the cache.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> GETAsync(String partialUrl, Map<String,String> headers,
+        List<String> queryParams, Type returnType, RequestOptions options)
+    {
+        final URI uri = buildUri(partialUrl, queryParams);
+        final EntityReader<T> reader = this.<T>createReader(returnType);
+        RequestCoalescer c = coalescer;
+        ResponseCache rc = responseCache;
+        if(c == null && rc == null)
+            return executeAsync("GET", uri, null, headers, null, reader, options);
+
+        final String key = getCoalescingKey("GET", uri, headers, returnType);
+        final ResponseCache.Entry entry = getCacheEntry(rc, key, uri);
+        if(entry != null && entry.isFresh())
+            return CompletableFuture.completedFuture(Optional.of(HttpContext.<T>getCachedValue(entry)));
+        if(c == null)
+            return executeCachedAsync(rc, key, entry, uri, headers, reader, getDeadline(options));
+
+        // The shared request has no deadline, each caller waits for it until its own deadline
+        return c.executeAsync(key, "GET "+uri, getDeadline(options),
+            () -> executeCachedAsync(rc, key, entry, uri, headers, reader, null));
+    }
+
+    /**
+     * Execute an asynchronous GET call against the partial URL and read the results using the given reader.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body
+     * @return The future object returned by the reader
+     */
+    public <T> CompletableFuture<Optional<T>> GETAsync(String partialUrl, Map<String,String> headers,
+        List<String> queryParams, EntityReader<T> reader)
+    {
+        return GETAsync(partialUrl, headers, queryParams, reader, null);
+    }
+
+    /**
+     * Execute an asynchronous GET call against the partial URL with the given options and read the results
+     * using the given reader.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future object returned by the reader
+     */
+    public <T> CompletableFuture<Optional<T>> GETAsync(String partialUrl, Map<String,String> headers,
+        List<String> queryParams, EntityReader<T> reader, RequestOptions options)
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        return executeAsync("GET", uri, null, headers, null, reader, options);
+    }
+
+    /**
+     * Execute an asynchronous POST call against the partial URL and deserialize the results.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the POST
+     * @param headers A set of headers to add to the request
+     * @param returnType The expected return type
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> POSTAsync(String partialUrl, Object payload, Map<String,String> headers,
+        Type returnType)
+    {
+        return POSTAsync(partialUrl, payload, headers, returnType, null);
+    }
+
+    /**
+     * Execute an asynchronous POST call against the partial URL with the given options and deserialize the results.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the POST
+     * @param headers A set of headers to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> POSTAsync(String partialUrl, Object payload, Map<String,String> headers,
+        Type returnType, RequestOptions options)
+    {
+        URI uri = buildUri(partialUrl);
+        return executeAsync("POST", uri, payload, headers, null, this.<T>createReader(returnType), options);
+    }
+
+    /**
+     * Execute an asynchronous PATCH call against the partial URL and deserialize the results.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the PATCH
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> PATCHAsync(String partialUrl, Object payload, Map<String,String> headers,
+        List<String> queryParams, Type returnType)
+    {
+        return PATCHAsync(partialUrl, payload, headers, queryParams, returnType, null);
+    }
+
+    /**
+     * Execute an asynchronous PATCH call against the partial URL with the given options and deserialize the results.
+     * @param <T> The type parameter used for the return object
+     * @param partialUrl The partial URL to build
+     * @param payload The object to use for the PATCH
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The expected return type
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future return type
+     */
+    public <T> CompletableFuture<Optional<T>> PATCHAsync(String partialUrl, Object payload, Map<String,String> headers,
+        List<String> queryParams, Type returnType, RequestOptions options)
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        return executeAsync("PATCH", uri, payload, headers, null, this.<T>createReader(returnType), options);
+    }
+
+    /**
+     * Execute an asynchronous DELETE call against the partial URL.
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @return The future that completes when the DELETE has completed
+     */
+    public CompletableFuture<Void> DELETEAsync(String partialUrl, Map<String,String> headers, List<String> queryParams)
+    {
+        return DELETEAsync(partialUrl, headers, queryParams, null);
+    }
+
+    /**
+     * Execute an asynchronous DELETE call against the partial URL with the given options.
+     * @param partialUrl The partial URL to build
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future that completes when the DELETE has completed
+     */
+    public CompletableFuture<Void> DELETEAsync(String partialUrl, Map<String,String> headers, List<String> queryParams,
+        RequestOptions options)
+    {
+        URI uri = buildUri(partialUrl, queryParams);
+        return this.<Object>executeAsync("DELETE", uri, null, headers, null, (EntityReader<Object>)null, options)
+            .thenApply(r -> (Void)null);
     }
 
     /**
@@ -323,14 +1021,7 @@ public class HttpContext
     protected <T> Optional<T> executeGetRequest(URI uri, Map<String,String> headers, List<String> queryParams, Type returnType)
         throws IOException, URISyntaxException
     {
-        URIBuilder builder = new URIBuilder(uri);
-        builder = applyQueryParams(builder, queryParams);
-        HttpGet request = new HttpGet(builder.build());
-        applyHeaders(request, headers);
-        HttpResponse response = client.execute(request);
-        handleResponseError("GET", uri, response);
-        logResponse(uri, response);
-        return extractEntityFromResponse(response, returnType);
+        return execute("GET", uri, null, headers, queryParams, returnType);
     }
 
     /**
@@ -355,13 +1046,18 @@ public class HttpContext
      */
     protected Optional<HttpResponse> executePostRequest(URI uri, Object obj, Map<String,String> headers) throws IOException
     {
-        HttpPost request = new HttpPost(uri);
-        applyHeaders(request, headers);
-        request.setEntity(new StringEntity(gson.toJson(obj), ContentType.APPLICATION_JSON));
-        HttpResponse response = client.execute(request);
-        handleResponseError("POST", uri, response);
-        logResponse(uri, response);
-        return Optional.of(response);
+        try
+        {
+            return executeRequest("POST", uri, obj, headers, null, getDeadline(null), response ->
+            {
+                processChange("POST", uri, response, null);
+                return Optional.<HttpResponse>of(toHttpResponse(response));
+            });
+        }
+        catch(URISyntaxException e)
+        {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -391,13 +1087,14 @@ public class HttpContext
     protected <T> Optional<T> executePostRequest(URI uri, Object obj, Map<String,String> headers, Type returnType)
         throws IOException
     {
-        HttpPost request = new HttpPost(uri);
-        applyHeaders(request, headers);
-        request.setEntity(new StringEntity(gson.toJson(obj), ContentType.APPLICATION_JSON));
-        HttpResponse response = client.execute(request);
-        handleResponseError("POST", uri, response);
-        logResponse(uri, response);
-        return extractEntityFromResponse(response, returnType);
+        try
+        {
+            return execute("POST", uri, obj, headers, null, returnType);
+        }
+        catch(URISyntaxException e)
+        {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -424,14 +1121,7 @@ public class HttpContext
     protected void executePatchRequest(URI uri, Object obj, Map<String,String> headers, List<String> queryParams)
         throws IOException, URISyntaxException
     {
-        URIBuilder builder = new URIBuilder(uri);
-        builder = applyQueryParams(builder, queryParams);
-        HttpPatch request = new HttpPatch(builder.build());
-        applyHeaders(request, headers);
-        request.setEntity(new StringEntity(gson.toJson(obj), ContentType.APPLICATION_JSON));
-        HttpResponse response = client.execute(request);
-        handleResponseError("PATCH", uri, response);
-        logResponse(uri, response);
+        execute("PATCH", uri, obj, headers, queryParams, (EntityReader<Object>)null);
     }
 
     /**
@@ -450,15 +1140,7 @@ public class HttpContext
         List<String> queryParams, Type returnType)
         throws IOException, URISyntaxException
     {
-        URIBuilder builder = new URIBuilder(uri);
-        builder = applyQueryParams(builder, queryParams);
-        HttpPatch request = new HttpPatch(builder.build());
-        applyHeaders(request, headers);
-        request.setEntity(new StringEntity(gson.toJson(obj), ContentType.APPLICATION_JSON));
-        HttpResponse response = client.execute(request);
-        handleResponseError("PATCH", uri, response);
-        logResponse(uri, response);
-        return extractEntityFromResponse(response, returnType);
+        return execute("PATCH", uri, obj, headers, queryParams, returnType);
     }
 
     /**
@@ -483,119 +1165,887 @@ public class HttpContext
     protected void executeDeleteRequest(URI uri, Map<String,String> headers, List<String> queryParams)
         throws IOException, URISyntaxException
     {
-        URIBuilder builder = new URIBuilder(uri);
-        builder = applyQueryParams(builder, queryParams);
-        HttpDelete request = new HttpDelete(builder.build());
-        applyHeaders(request, headers);
-        HttpResponse response = client.execute(request);
-        handleResponseError("DELETE", uri, response);
-        logResponse(uri, response);
+        execute("DELETE", uri, null, headers, queryParams, (EntityReader<Object>)null);
     }
 
     /**
-     * Extract the entity from the HTTP response.
+     * Execute a request and return the result.
      * @param <T> The type parameter used for the return object
-     * @param response The HTTP response to extract the entity from
-     * @param returnType The type to marshall the result back into
-     * @return The extracted entity
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The type to marshall the result back into, or <CODE>null</CODE> if there is no result
+     * @return The return type
      * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
      */
-    private <T> Optional<T> extractEntityFromResponse(HttpResponse response, Type returnType) throws IOException
+    protected <T> Optional<T> execute(String method, URI uri, Object obj, Map<String,String> headers,
+        List<String> queryParams, Type returnType)
+        throws IOException, URISyntaxException
     {
-        int statusCode = response.getStatusLine().getStatusCode();
-        HttpEntity entity = response.getEntity();
-        if(entity != null && (statusCode == 200 || statusCode == 201))
-            return Optional.of(readEntity(entity, returnType));
-        return Optional.absent();
+        return execute(method, uri, obj, headers, queryParams, this.<T>createReader(returnType));
+    }
+
+    /**
+     * Execute a request and return the result read by the given reader.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @return The object returned by the reader
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    protected <T> Optional<T> execute(String method, URI uri, Object obj, Map<String,String> headers,
+        List<String> queryParams, EntityReader<T> reader)
+        throws IOException, URISyntaxException
+    {
+        return execute(method, uri, obj, headers, queryParams, reader, null);
+    }
+
+    /**
+     * Execute a request with the given options and return the result read by the given reader.
+     * <p>
+     * The deadline of the call covers waiting for the rate limiter, sending the request, any retries or hedges,
+     * and reading the response.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The object returned by the reader
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     * @throws RequestTimeoutException if the call did not complete before its deadline.
+     */
+    protected <T> Optional<T> execute(String method, URI uri, Object obj, Map<String,String> headers,
+        List<String> queryParams, EntityReader<T> reader, RequestOptions options)
+        throws IOException, URISyntaxException
+    {
+        return executeRequest(method, uri, obj, headers, queryParams, getDeadline(options),
+            response -> processChange(method, uri, response, reader));
+    }
+
+    /**
+     * Execute a request with the given deadline and return the result of the given processor.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param deadline The time by which the call must complete, or <CODE>null</CODE> if there is no deadline
+     * @param processor The processor used to check the response and read its body
+     * @return The object returned by the processor
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     * @throws RequestTimeoutException if the call did not complete before its deadline.
+     */
+    private <T> Optional<T> executeRequest(String method, URI uri, Object obj, Map<String,String> headers,
+        List<String> queryParams, Deadline deadline, ResponseProcessor<T> processor)
+        throws IOException, URISyntaxException
+    {
+        beginRequest();
+        try
+        {
+            TransportRequest request = createRequest(method, uri, obj, headers, queryParams, deadline);
+            try(TransportResponse response = send(request))
+            {
+                return processor.process(response);
+            }
+            catch(IOException e)
+            {
+                RequestTimeoutException ex = checkDeadline(request, e);
+                if(ex != null)
+                    throw ex;
+                throw e;
+            }
+        }
+        finally
+        {
+            endRequest();
+        }
+    }
+
+    /**
+     * Execute a request asynchronously and return the future result.
+     * <p>
+     * The returned future completes exceptionally with an {@link IOException}, {@link URISyntaxException}
+     * or {@link BitlyException} if the request fails. Cancelling the future aborts the request.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param returnType The type to marshall the result back into, or <CODE>null</CODE> if there is no result
+     * @return The future return type
+     */
+    protected <T> CompletableFuture<Optional<T>> executeAsync(String method, URI uri, Object obj,
+        Map<String,String> headers, List<String> queryParams, Type returnType)
+    {
+        return executeAsync(method, uri, obj, headers, queryParams, this.<T>createReader(returnType));
+    }
+
+    /**
+     * Execute a request asynchronously and return the future result read by the given reader.
+     * <p>
+     * The returned future completes exceptionally with an {@link IOException}, {@link URISyntaxException}
+     * or {@link BitlyException} if the request fails. Cancelling the future aborts the request.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @return The future object returned by the reader
+     */
+    protected <T> CompletableFuture<Optional<T>> executeAsync(final String method, final URI uri, Object obj,
+        Map<String,String> headers, List<String> queryParams, final EntityReader<T> reader)
+    {
+        return executeAsync(method, uri, obj, headers, queryParams, reader, null);
+    }
+
+    /**
+     * Execute a request asynchronously with the given options and return the future result read by the given reader.
+     * <p>
+     * The returned future completes exceptionally with a {@link RequestTimeoutException} if the call
+     * has not completed before its deadline, and the request is aborted.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The future object returned by the reader
+     */
+    protected <T> CompletableFuture<Optional<T>> executeAsync(final String method, final URI uri, Object obj,
+        Map<String,String> headers, List<String> queryParams, final EntityReader<T> reader, RequestOptions options)
+    {
+        return executeRequestAsync(method, uri, obj, headers, queryParams, getDeadline(options),
+            response -> processChange(method, uri, response, reader));
+    }
+
+    /**
+     * Execute a request asynchronously with the given deadline and return the future result of the given processor.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param deadline The time by which the call must complete, or <CODE>null</CODE> if there is no deadline
+     * @param processor The processor used to check the response and read its body
+     * @return The future object returned by the processor
+     */
+    private <T> CompletableFuture<Optional<T>> executeRequestAsync(String method, URI uri, Object obj,
+        Map<String,String> headers, List<String> queryParams, Deadline deadline, final ResponseProcessor<T> processor)
+    {
+        final CompletableFuture<Optional<T>> ret = new CompletableFuture<Optional<T>>();
+
+        final TransportRequest request;
+        try
+        {
+            request = createRequest(method, uri, obj, headers, queryParams, deadline);
+            beginRequest();
+        }
+        catch(URISyntaxException | RuntimeException e)
+        {
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        final CircuitBreaker.Call call;
+        long delay;
+        try
+        {
+            call = acquireCall(request);
+            try
+            {
+                delay = reservePermit(request);
+            }
+            catch(RuntimeException e)
+            {
+                if(call != null)
+                    call.release();
+                throw e;
+            }
+        }
+        catch(RuntimeException e)
+        {
+            endRequest();
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        // Fail the call at its deadline, which also aborts the request
+        if(deadline != null)
+        {
+            final ScheduledFuture<?> expiry = deadline.schedule(() -> ret.completeExceptionally(timeout(request)));
+            ret.whenComplete((result, e) -> expiry.cancel(false));
+        }
+
+        // Wait for the rate limiter without blocking the caller
+        if(delay > 0L)
+            RateLimiter.schedule(() -> sendAsync(request, call, processor, ret), delay);
+        else
+            sendAsync(request, call, processor, ret);
+
+        return ret;
+    }
+
+    /**
+     * Sends a request, after checking the circuit breaker and waiting for the rate limiter.
+     * <p>
+     * The outcome of the request is recorded by the circuit breaker.
+     * @param request The request to send
+     * @return The response
+     * @throws IOException if there is a communication error.
+     */
+    private TransportResponse send(TransportRequest request) throws IOException
+    {
+        CircuitBreaker.Call call = acquireCall(request);
+        try
+        {
+            acquirePermit(request);
+            Deadline deadline = request.getDeadline();
+            if(deadline != null && deadline.isExpired())
+                throw timeout(request);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            if(call != null)
+                call.release();
+            throw e;
+        }
+
+        try
+        {
+            TransportResponse ret = transport.execute(request);
+            if(call != null)
+                call.onResponse(ret.getStatusCode());
+            return ret;
+        }
+        catch(IOException | RuntimeException e)
+        {
+            if(call != null)
+                call.onError(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a request asynchronously and completes the given future with the result of the given processor.
+     * <p>
+     * The response is read and the future completed on the completion executor.
+     * The in-flight request count is decremented when the request completes.
+     * @param <T> The type parameter used for the return object
+     * @param request The request to send
+     * @param call The permit from the circuit breaker, or <CODE>null</CODE> if there is no circuit breaker
+     * @param processor The processor used to check the response and read its body
+     * @param ret The future completed with the object returned by the processor
+     */
+    private <T> void sendAsync(final TransportRequest request, final CircuitBreaker.Call call,
+        final ResponseProcessor<T> processor, final CompletableFuture<Optional<T>> ret)
+    {
+        if(ret.isDone())
+        {
+            if(call != null)
+                call.release();
+            endRequest();
+            return;
+        }
+
+        final CompletableFuture<TransportResponse> future;
+        try
+        {
+            future = transport.executeAsync(request);
+        }
+        catch(RuntimeException e)
+        {
+            if(call != null)
+                call.release();
+            endRequest();
+            ret.completeExceptionally(e);
+            return;
+        }
+
+        future.whenComplete((response, e) -> dispatch(() ->
+        {
+            try
+            {
+                if(e != null)
+                {
+                    // A request cancelled at its deadline is recorded as a timeout rather than a cancellation
+                    Throwable cause = unwrap(e);
+                    RequestTimeoutException ex = checkDeadline(request, cause);
+                    if(call != null)
+                        call.onError(ex != null ? ex : cause);
+                    ret.completeExceptionally(ex != null ? ex : cause);
+                }
+                else
+                {
+                    if(call != null)
+                        call.onResponse(response.getStatusCode());
+                    try(TransportResponse r = response)
+                    {
+                        ret.complete(processor.process(r));
+                    }
+                    catch(IOException | RuntimeException ex)
+                    {
+                        ret.completeExceptionally(ex);
+                    }
+                }
+            }
+            finally
+            {
+                endRequest();
+            }
+        }));
+
+        // Abort the request if the call is cancelled or has passed its deadline
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCompletedExceptionally())
+                future.cancel(true);
+        });
+    }
+
+    /**
+     * Runs the given task on the completion executor, or on the current thread if the executor rejects it.
+     * @param task The task to run
+     */
+    private void dispatch(Runnable task)
+    {
+        try
+        {
+            completionExecutor.execute(task);
+        }
+        catch(RejectedExecutionException e)
+        {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns a permit from the circuit breaker for the given request, if a circuit breaker is set.
+     * @param request The request to be sent
+     * @return The permit, or <CODE>null</CODE> if there is no circuit breaker
+     * @throws CircuitOpenException if the circuit for the endpoint of the request is open.
+     */
+    private CircuitBreaker.Call acquireCall(TransportRequest request)
+    {
+        CircuitBreaker breaker = circuitBreaker;
+        if(breaker == null)
+            return null;
+        return breaker.acquire(getEndpoint(request.getMethod(), request.getUri().getRawPath()));
+    }
+
+    /**
+     * Returns the name of the endpoint called by a request, eg. "GET /v4/bitlinks/{id}/clicks".
+     * @param method The HTTP method type
+     * @param path The path of the request
+     * @return The name of the endpoint
+     */
+    static String getEndpoint(String method, String path)
+    {
+        PathTemplate template = PathTemplate.match(path);
+        return method+" "+(template != null ? template.getPattern() : path);
     }
 
     /**
-     * Add the given set of headers to the message.
-     * @param message The message to add the headers to
-     * @param headers The headers to add
+     * Waits for a permit from the rate limiter for the given request, if a rate limiter is set.
+     * @param request The request to be sent
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
      */
-    private void applyHeaders(HttpMessage message, Map<String,String> headers)
+    private void acquirePermit(TransportRequest request) throws InterruptedIOException
     {
-        if(headers != null)
+        long delay = reservePermit(request);
+        if(delay > 0L)
         {
-            for (Map.Entry<String,String> e : headers.entrySet())
+            try
             {
-                message.setHeader(e.getKey(), e.getValue());
+                TimeUnit.NANOSECONDS.sleep(delay);
             }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a permit for "
+                    +request.getMethod()+" "+request.getUri());
+            }
+        }
+    }
+
+    /**
+     * Reserves a permit from the rate limiter for the given request, if a rate limiter is set.
+     * @param request The request to be sent
+     * @return The time until the request can be sent (in ns)
+     */
+    private long reservePermit(TransportRequest request)
+    {
+        RateLimiter limiter = rateLimiter;
+        if(limiter == null)
+            return 0L;
+        long ret = limiter.reserve(request);
+        if(ret < 0L)
+            throw timeout(request);
+        return ret;
+    }
+
+    /**
+     * Returns the key used to coalesce identical requests, which includes the access token and result type.
+     * @param method The HTTP method type
+     * @param uri The URI to call, including any query parameters
+     * @param headers The headers to add to the request
+     * @param returnType The type to marshall the result back into
+     * @return The key used to coalesce identical requests
+     */
+    private static String getCoalescingKey(String method, URI uri, Map<String,String> headers, Type returnType)
+    {
+        String authorization = headers != null ? headers.get("Authorization") : null;
+        return method+" "+uri+" "+authorization+" "+returnType.getTypeName();
+    }
+
+    /**
+     * Returns the deadline for a call starting now with the given options.
+     * @param options The options for the call, or <CODE>null</CODE> to use the defaults
+     * @return The deadline for the call, or <CODE>null</CODE> if the call has no deadline
+     */
+    private Deadline getDeadline(RequestOptions options)
+    {
+        if(options != null)
+            return options.getDeadline(callTimeout);
+        return callTimeout > 0L ? Deadline.after(callTimeout, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * Returns the exception thrown when the given request has passed its deadline.
+     * @param request The request that timed out
+     * @return The exception for the timeout
+     */
+    static RequestTimeoutException timeout(TransportRequest request)
+    {
+        return new RequestTimeoutException(request.getMethod()+" "+request.getUri(), request.getDeadline().getTimeout());
+    }
+
+    /**
+     * Returns a timeout exception caused by the given exception if the given request has passed its deadline.
+     * <p>
+     * Used to report the I/O error caused by aborting a request at its deadline as a timeout.
+     * @param request The request that failed
+     * @param e The exception thrown by the request
+     * @return The timeout exception, or <CODE>null</CODE> if the request has not passed its deadline
+     */
+    private static RequestTimeoutException checkDeadline(TransportRequest request, Throwable e)
+    {
+        Deadline deadline = request.getDeadline();
+        if(deadline == null || !deadline.isExpired())
+            return null;
+        RequestTimeoutException ret = timeout(request);
+        ret.initCause(e);
+        return ret;
+    }
+
+    /**
+     * Returns the entry cached for the given GET request, if the result of the request is cached.
+     * <p>
+     * An entry that has expired and has no validators is ignored.
+     * @param cache The cache of results, or <CODE>null</CODE> if results are not cached
+     * @param key The key of the request
+     * @param uri The URI of the request
+     * @return The entry cached for the given request, or <CODE>null</CODE> if there is none to use
+     */
+    private static ResponseCache.Entry getCacheEntry(ResponseCache cache, String key, URI uri)
+    {
+        if(cache == null || !cache.isCached(uri.getRawPath()))
+            return null;
+        ResponseCache.Entry ret = cache.get(key);
+        return ret != null && (ret.isFresh() || ret.hasValidators()) ? ret : null;
+    }
+
+    /**
+     * Returns the result held by the given cache entry.
+     * @param <T> The type parameter used for the return object
+     * @param entry The cached entry
+     * @return The result held by the given cache entry
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T getCachedValue(ResponseCache.Entry entry)
+    {
+        return (T)entry.getValue();
+    }
+
+    /**
+     * Execute a GET request, revalidating the given cached entry and caching the result if the path is cached.
+     * @param <T> The type parameter used for the return object
+     * @param cache The cache of results, or <CODE>null</CODE> if results are not cached
+     * @param key The key of the request
+     * @param entry The cached entry to revalidate, or <CODE>null</CODE> if there is none
+     * @param uri The URI to call
+     * @param headers A set of headers to add to the request
+     * @param reader The reader used to read the response body
+     * @param deadline The time by which the call must complete, or <CODE>null</CODE> if there is no deadline
+     * @return The object returned by the reader, or the cached result if it has not been modified
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    private <T> Optional<T> executeCached(ResponseCache cache, String key, ResponseCache.Entry entry, URI uri,
+        Map<String,String> headers, EntityReader<T> reader, Deadline deadline)
+        throws IOException, URISyntaxException
+    {
+        if(cache == null || !cache.isCached(uri.getRawPath()))
+            return executeRequest("GET", uri, null, headers, null, deadline,
+                response -> processChange("GET", uri, response, reader));
+        return executeRequest("GET", uri, null, entry != null ? cache.addValidators(headers, entry) : headers, null,
+            deadline, response -> processCached(cache, key, entry, uri, response, reader));
+    }
+
+    /**
+     * Execute a GET request asynchronously, revalidating the given cached entry and caching the result if the path is cached.
+     * @param <T> The type parameter used for the return object
+     * @param cache The cache of results, or <CODE>null</CODE> if results are not cached
+     * @param key The key of the request
+     * @param entry The cached entry to revalidate, or <CODE>null</CODE> if there is none
+     * @param uri The URI to call
+     * @param headers A set of headers to add to the request
+     * @param reader The reader used to read the response body
+     * @param deadline The time by which the call must complete, or <CODE>null</CODE> if there is no deadline
+     * @return The future object returned by the reader, or the cached result if it has not been modified
+     */
+    private <T> CompletableFuture<Optional<T>> executeCachedAsync(ResponseCache cache, String key,
+        ResponseCache.Entry entry, URI uri, Map<String,String> headers, EntityReader<T> reader, Deadline deadline)
+    {
+        if(cache == null || !cache.isCached(uri.getRawPath()))
+            return executeRequestAsync("GET", uri, null, headers, null, deadline,
+                response -> processChange("GET", uri, response, reader));
+        return executeRequestAsync("GET", uri, null, entry != null ? cache.addValidators(headers, entry) : headers, null,
+            deadline, response -> processCached(cache, key, entry, uri, response, reader));
+    }
+
+    /**
+     * Returns the cached result if the server returned 304 (Not Modified), otherwise checks the given response
+     * for errors, extracts the entity and caches it.
+     * @param <T> The type parameter used for the return object
+     * @param cache The cache of results
+     * @param key The key of the request
+     * @param entry The cached entry that was revalidated, or <CODE>null</CODE> if there was none
+     * @param uri The URI used for the HTTP call
+     * @param response The HTTP call response
+     * @param reader The reader used to read the response body
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     */
+    private <T> Optional<T> processCached(ResponseCache cache, String key, ResponseCache.Entry entry, URI uri,
+        TransportResponse response, EntityReader<T> reader)
+        throws IOException
+    {
+        if(entry != null && response.getStatusCode() == 304)
+        {
+            if(logger.isLoggable(Level.FINE))
+                logger.fine(uri.toString()+" => 304 "+response.getReasonPhrase());
+            cache.revalidated(key, entry, response);
+            return Optional.of(HttpContext.<T>getCachedValue(entry));
         }
+
+        Optional<T> ret = processResponse("GET", uri, response, reader);
+        if(ret.isPresent())
+            cache.put(key, uri, ret.get(), response);
+        return ret;
+    }
+
+    /**
+     * Checks the given response for errors and extracts the entity, invalidating any results cached
+     * for the path if the request changed it.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI used for the HTTP call
+     * @param response The HTTP call response
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     */
+    private <T> Optional<T> processChange(String method, URI uri, TransportResponse response, EntityReader<T> reader)
+        throws IOException
+    {
+        Optional<T> ret = processResponse(method, uri, response, reader);
+        ResponseCache cache = responseCache;
+        if(cache != null && !"GET".equals(method))
+            cache.invalidate(uri.getRawPath());
+        return ret;
+    }
+
+    /**
+     * Checks the given response for errors and extracts the entity.
+     * @param <T> The type parameter used for the return object
+     * @param method The HTTP method type
+     * @param uri The URI used for the HTTP call
+     * @param response The HTTP call response
+     * @param reader The reader used to read the response body, or <CODE>null</CODE> if there is no result
+     * @return The return type
+     * @throws IOException if there is a communication error.
+     */
+    private <T> Optional<T> processResponse(String method, URI uri, TransportResponse response, EntityReader<T> reader)
+        throws IOException
+    {
+        handleResponseError(method, uri, response);
+        logResponse(method, uri, response);
+        if(reader == null)
+            return Optional.absent();
+        return extractEntityFromResponse(response, reader);
+    }
+
+    /**
+     * Returns a reader that marshalls the response body into an object of the given type.
+     * @param <T> The type parameter used for the return object
+     * @param type The type to marshall the result back into, or <CODE>null</CODE> if there is no result
+     * @return The reader, or <CODE>null</CODE> if the type is <CODE>null</CODE>
+     */
+    private <T> EntityReader<T> createReader(final Type type)
+    {
+        if(type == null)
+            return null;
+        return (reader, gson) -> gson.<T>fromJson(reader, type);
+    }
+
+    /**
+     * Creates a request for the given method with the given body, headers and query parameters.
+     * @param method The HTTP method type
+     * @param uri The URI to call
+     * @param obj The object to use for the request body, or <CODE>null</CODE> if there is no body
+     * @param headers A set of headers to add to the request
+     * @param queryParams A set of query parameters to add to the request
+     * @param deadline The time by which the request must complete, or <CODE>null</CODE> if there is no deadline
+     * @return The request
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    private TransportRequest createRequest(String method, URI uri, Object obj, Map<String,String> headers,
+        List<String> queryParams, Deadline deadline)
+        throws URISyntaxException
+    {
+        RequestBody body = null;
+        if(obj != null)
+            body = new JsonRequestBody(gson, obj);
+        if(compressionEnabled)
+            headers = addAcceptEncoding(headers);
+        return new TransportRequest(method, applyQueryParams(uri, queryParams), headers, body, deadline);
+    }
+
+    /**
+     * Returns the given headers with an Accept-Encoding header added.
+     * <p>
+     * The result for the last set of headers is cached, as services pass the same headers on every call.
+     * @param headers The headers to add to the request
+     * @return The headers including the Accept-Encoding header
+     */
+    private Map<String,String> addAcceptEncoding(Map<String,String> headers)
+    {
+        HeadersWithEncoding cached = lastHeaders;
+        if(cached != null && cached.headers == headers)
+            return cached.withEncoding;
+
+        Map<String,String> ret = headers != null ? new HashMap<String,String>(headers) : new HashMap<String,String>();
+        ret.put("Accept-Encoding", CompressionStats.ACCEPT_ENCODING);
+        ret = Collections.unmodifiableMap(ret);
+        lastHeaders = new HeadersWithEncoding(headers, ret);
+        return ret;
+    }
+
+    /**
+     * Extract the entity from the HTTP response.
+     * @param <T> The type parameter used for the return object
+     * @param response The HTTP response to extract the entity from
+     * @param reader The reader used to read the response body
+     * @return The extracted entity
+     * @throws IOException if there is a communication error.
+     */
+    private <T> Optional<T> extractEntityFromResponse(TransportResponse response, EntityReader<T> reader)
+        throws IOException
+    {
+        int statusCode = response.getStatusCode();
+        InputStream is = getContent(response);
+        if(is != null && (statusCode == 200 || statusCode == 201))
+            return Optional.fromNullable(readEntity(is, reader));
+        return Optional.absent();
     }
 
     /**
      * Add the given set of query parameters to the given URI.
-     * @param builder The URI builder to add the parameters to
+     * @param uri The URI to add the parameters to
      * @param queryParams The query parameters to add
-     * @return The updated builder
+     * @return The updated URI
+     * @throws URISyntaxException if there is a format error in the URL.
      */
-    private URIBuilder applyQueryParams(URIBuilder builder, List<String> queryParams)
+    private URI applyQueryParams(URI uri, List<String> queryParams) throws URISyntaxException
     {
-        if(queryParams != null)
+        if(queryParams == null || queryParams.size() == 0)
+            return uri;
+        StringBuilder sb = new StringBuilder(uri.toString());
+        return new URI(appendQueryParams(sb, uri.getRawQuery() == null, queryParams).toString());
+    }
+
+    /**
+     * Append the given set of query parameters to the given URL.
+     * @param sb The URL to add the parameters to
+     * @param first <CODE>true</CODE> if the URL does not have a query yet
+     * @param queryParams The query parameters to add
+     * @return The updated URL
+     */
+    private static StringBuilder appendQueryParams(StringBuilder sb, boolean first, List<String> queryParams)
+    {
+        char separator = first ? '?' : '&';
+        for(int i = 0; i < queryParams.size(); i += 2)
         {
-            for(int i = 0; i < queryParams.size(); i += 2)
-                builder = builder.setParameter(queryParams.get(i), queryParams.get(i+1));
+            sb.append(separator)
+                .append(BitlyService.encode(queryParams.get(i)))
+                .append('=')
+                .append(BitlyService.encode(queryParams.get(i+1)));
+            separator = '&';
         }
 
-        return builder;
+        return sb;
     }
 
     /**
      * Log a HTTP error response.
+     * @param method The HTTP method type
      * @param uri The URI used for the HTTP call
      * @param response The HTTP call response
      */
-    private void logResponse(URI uri, HttpResponse response)
+    private void logResponse(String method, URI uri, TransportResponse response)
     {
         if(logger.isLoggable(Level.FINE))
-            logger.fine(uri.toString()+" => "+response.getStatusLine());
-        if(response.getStatusLine().getStatusCode() > 300)
-            logger.warning(response.toString());
+            logger.fine(uri.toString()+" => "+response.getStatusCode()+" "+response.getReasonPhrase());
+        if(response.getStatusCode() > 300)
+            logger.warning(method+" "+uri+" => "+response.getStatusCode()+" "+response.getReasonPhrase());
     }
 
     /**
-     * Handle HTTP error responses if {@link #throwExceptions() throwExceptions} returns <CODE>true</CODE>.
+     * Handle HTTP error responses by throwing a {@link BitlyException}.
      * @param method The HTTP method type
      * @param uri The URI used for the HTTP call
      * @param response The HTTP call response
      */
-    private void handleResponseError(String method, URI uri, HttpResponse response) throws IOException
+    private void handleResponseError(String method, URI uri, TransportResponse response) throws IOException
     {
-        int statusCode = response.getStatusLine().getStatusCode();
+        int statusCode = response.getStatusCode();
         if(statusCode != 200 && statusCode != 201 && statusCode != 204)
         {
             ErrorResponse error = null;
-            HttpEntity entity = response.getEntity();
-            if(entity != null)
-                error = readEntity(entity, ERROR);
-            throw new BitlyException(method, statusCode, 
-                response.getStatusLine().getReasonPhrase(), error);
+            InputStream is = getContent(response);
+            if(is != null)
+                error = readEntity(is, this.<ErrorResponse>createReader(ERROR));
+            throw new BitlyException(method, statusCode, response.getReasonPhrase(), error);
         }
     }
 
     /**
-     * Marshalls the given HTTP response message into an object of the given type.
-     * @param entity The entity to be ready
-     * @param returnType The type to marshall the result back into
-     * @param response The result object
+     * Converts the given transport response to a buffered Apache response.
+     * @param response The transport response
+     * @return The Apache response
+     * @throws IOException if the body could not be read.
      */
-    private <T> T readEntity(HttpEntity entity, Type type) throws IOException
+    private HttpResponse toHttpResponse(TransportResponse response) throws IOException
+    {
+        HttpResponse ret = new BasicHttpResponse(HttpVersion.HTTP_1_1, response.getStatusCode(), response.getReasonPhrase());
+        InputStream is = getContent(response);
+        if(is != null)
+        {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for(int n = is.read(buffer); n >= 0; n = is.read(buffer))
+                os.write(buffer, 0, n);
+            ret.setEntity(new ByteArrayEntity(os.toByteArray()));
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the decoded body of the given response.
+     * @param response The HTTP response
+     * @return The decoded body, or <CODE>null</CODE> if there is no body
+     * @throws IOException if the body could not be read.
+     */
+    private InputStream getContent(TransportResponse response) throws IOException
+    {
+        InputStream is = response.getContent();
+        if(is == null)
+            return null;
+        return compressionStats.decode(is, response.getHeader("Content-Encoding"));
+    }
+
+    /**
+     * Returns the cause of the given exception if it is a completion wrapper.
+     * @param e The exception
+     * @return The unwrapped exception
+     */
+    static Throwable unwrap(Throwable e)
+    {
+        if(e instanceof CompletionException && e.getCause() != null)
+            return e.getCause();
+        return e;
+    }
+
+    /**
+     * Reads the given HTTP response body using the given reader.
+     * @param is The response body to be read
+     * @param reader The reader used to read the response body
+     * @return The result object
+     */
+    private <T> T readEntity(InputStream is, EntityReader<T> reader) throws IOException
     {
-        T ret;
-        InputStream is = null;
         try
         {
-            is = entity.getContent();
-            ret = gson.fromJson(new InputStreamReader(is, "UTF-8"), type);
+            return reader.read(new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8)), gson);
         }
         finally
         {
-            if(is != null)
-                is.close();
+            is.close();
         }
+    }
 
-        return ret;
+    /**
+     * Checks a response for errors and reads its body.
+     */
+    private interface ResponseProcessor<T>
+    {
+        /**
+         * Returns the result of the given response.
+         * @param response The HTTP call response
+         * @return The result of the response
+         * @throws IOException if there is a communication error.
+         */
+        Optional<T> process(TransportResponse response) throws IOException;
+    }
+
+    /**
+     * Holds a set of headers and the same headers with an Accept-Encoding header added.
+     */
+    private static class HeadersWithEncoding
+    {
+        private Map<String,String> headers;
+        private Map<String,String> withEncoding;
+
+        /**
+         * Constructor that takes the original and updated headers.
+         * @param headers The original headers
+         * @param withEncoding The headers with an Accept-Encoding header added
+         */
+        HeadersWithEncoding(Map<String,String> headers, Map<String,String> withEncoding)
+        {
+            this.headers = headers;
+            this.withEncoding = withEncoding;
+        }
     }
 }
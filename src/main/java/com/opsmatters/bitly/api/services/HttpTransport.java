@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for the HTTP engine used to send requests to the API.
+ * <p>
+ * {@link ApacheHttpTransport} is used by default. On Java 11+ a <CODE>JdkHttpTransport</CODE>
+ * using <CODE>java.net.http.HttpClient</CODE> over HTTP/2 is also available.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface HttpTransport extends Closeable
+{
+    /**
+     * Sends the given request and waits for the response.
+     * <p>
+     * The caller must close the response to release the underlying connection.
+     * @param request The request to send
+     * @return The response to the request
+     * @throws IOException if there is a communication error.
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Sends the given request without blocking the calling thread.
+     * <p>
+     * The caller must close the response to release the underlying connection.
+     * Cancelling the returned future should abort the request.
+     * @param request The request to send
+     * @return The future response to the request
+     */
+    CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+
+/**
+ * Request body that serializes an object to JSON as it is written.
+ * <p>
+ * The object is written through a {@link com.google.gson.stream.JsonWriter} and encoded as UTF-8
+ * into a pooled buffer that is flushed to the connection, without building an intermediate String.
+ * A body that fits in the buffer can instead be copied out of it, so that it is sent with a Content-Length.
+ * The bytes are the same as those of <CODE>gson.toJson(obj).getBytes(StandardCharsets.UTF_8)</CODE>.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class JsonRequestBody implements RequestBody
+{
+    /**
+     * The content type of JSON request bodies.
+     */
+    public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * The size of the buffers used to encode the body (in bytes).
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private Gson gson;
+    private Object obj;
+
+    /**
+     * Constructor that takes the Gson instance and the object to serialize.
+     * @param gson The Gson instance used to serialize the object
+     * @param obj The object to serialize
+     */
+    public JsonRequestBody(Gson gson, Object obj)
+    {
+        this.gson = gson;
+        this.obj = obj;
+    }
+
+    /**
+     * Returns the object to serialize.
+     * @return The object to serialize
+     */
+    public Object getObject()
+    {
+        return obj;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContentType()
+    {
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Serializes the object as JSON to the given stream.
+     * @param os The stream to write the body to
+     * @throws IOException if the body could not be written.
+     */
+    @Override
+    public void writeTo(OutputStream os) throws IOException
+    {
+        byte[] buffer = acquireBuffer();
+        try
+        {
+            write(new Utf8Writer(os, buffer, buffer.length));
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Serializes the object as JSON to a byte array.
+     * <p>
+     * A body that fits in a pooled buffer is copied out of it, otherwise the body is collected in a stream.
+     * @return The body as a byte array
+     * @throws IOException if the body could not be written.
+     */
+    @Override
+    public byte[] toByteArray() throws IOException
+    {
+        byte[] ret = toByteArray(BUFFER_SIZE);
+        if(ret == null)
+        {
+            ByteArrayOutputStream os = new ByteArrayOutputStream(BUFFER_SIZE*2);
+            writeTo(os);
+            ret = os.toByteArray();
+        }
+        return ret;
+    }
+
+    /**
+     * Serializes the object as JSON to a byte array if it is no longer than the given length.
+     * <p>
+     * The object is encoded into a pooled buffer, and the serialization is abandoned as soon as
+     * the body is longer than the given length or the buffer.
+     * @param maxLength The maximum length of the body (in bytes)
+     * @return The body as a byte array, or <CODE>null</CODE> if it is longer than the given length or the buffer
+     * @throws IOException if the body could not be written.
+     */
+    @Override
+    public byte[] toByteArray(int maxLength) throws IOException
+    {
+        byte[] buffer = acquireBuffer();
+        try
+        {
+            Utf8Writer writer = new Utf8Writer(null, buffer, Math.min(maxLength, buffer.length));
+            write(writer);
+            return Arrays.copyOf(buffer, writer.position);
+        }
+        catch(BufferFullException e)
+        {
+            return null;
+        }
+        finally
+        {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Serializes the object as JSON to the given writer.
+     * @param writer The writer to serialize the object to
+     * @throws IOException if the body could not be written.
+     */
+    private void write(Utf8Writer writer) throws IOException
+    {
+        try
+        {
+            gson.toJson(obj, obj.getClass(), gson.newJsonWriter(writer));
+            writer.finish();
+        }
+        catch(JsonIOException e)
+        {
+            if(e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a buffer from the pool, or a new buffer if the pool is empty.
+     * @return The buffer
+     */
+    private static byte[] acquireBuffer()
+    {
+        byte[] ret = pool.poll();
+        if(ret != null)
+            pooled.decrementAndGet();
+        else
+            ret = new byte[BUFFER_SIZE];
+        return ret;
+    }
+
+    /**
+     * Returns the given buffer to the pool, unless the pool is full.
+     * @param buffer The buffer
+     */
+    private static void releaseBuffer(byte[] buffer)
+    {
+        if(pooled.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            pool.offer(buffer);
+        else
+            pooled.decrementAndGet();
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "JsonRequestBody ["
+            +"obj="+obj
+            +"]";
+    }
+
+    /**
+     * Thrown when a body that is not written to a stream does not fit in its buffer.
+     */
+    private static class BufferFullException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Returns this exception without a stack trace, as it is always caught.
+         * @return This exception
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+
+    /**
+     * Writer that encodes characters as UTF-8 into a buffer, writing the buffer to a stream when it is full.
+     * <p>
+     * Unpaired surrogates are replaced with '?', as {@link java.io.OutputStreamWriter} does.
+     * If there is no stream, a {@link BufferFullException} is thrown when the buffer is full.
+     */
+    private static class Utf8Writer extends Writer
+    {
+        private OutputStream os;
+        private byte[] buffer;
+        private int limit;
+        private int position = 0;
+        private char highSurrogate = 0;
+
+        /**
+         * Constructor that takes a stream and buffer.
+         * @param os The stream to write to, or <CODE>null</CODE> if the body must fit in the buffer
+         * @param buffer The buffer used to collect the encoded bytes
+         * @param limit The number of bytes of the buffer to use
+         */
+        Utf8Writer(OutputStream os, byte[] buffer, int limit)
+        {
+            this.os = os;
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int c) throws IOException
+        {
+            encode((char)c);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            for(int i = off; i < off+len; i++)
+                encode(cbuf[i]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(String str, int off, int len) throws IOException
+        {
+            for(int i = off; i < off+len; i++)
+                encode(str.charAt(i));
+        }
+
+        /**
+         * Encodes the given character into the buffer.
+         * @param c The character to encode
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        private void encode(char c) throws IOException
+        {
+            if(highSurrogate != 0)
+            {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if(Character.isLowSurrogate(c))
+                {
+                    int cp = Character.toCodePoint(high, c);
+                    ensureCapacity(4);
+                    buffer[position++] = (byte)(0xf0 | (cp >> 18));
+                    buffer[position++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                    buffer[position++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                    buffer[position++] = (byte)(0x80 | (cp & 0x3f));
+                    return;
+                }
+
+                ensureCapacity(1);
+                buffer[position++] = '?';
+            }
+
+            if(c < 0x80)
+            {
+                ensureCapacity(1);
+                buffer[position++] = (byte)c;
+            }
+            else if(c < 0x800)
+            {
+                ensureCapacity(2);
+                buffer[position++] = (byte)(0xc0 | (c >> 6));
+                buffer[position++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if(Character.isHighSurrogate(c))
+            {
+                highSurrogate = c;
+            }
+            else if(Character.isLowSurrogate(c))
+            {
+                ensureCapacity(1);
+                buffer[position++] = '?';
+            }
+            else
+            {
+                ensureCapacity(3);
+                buffer[position++] = (byte)(0xe0 | (c >> 12));
+                buffer[position++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+
+        /**
+         * Writes the buffer to the stream if it does not have room for the given number of bytes.
+         * @param length The number of bytes to be added
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        private void ensureCapacity(int length) throws IOException
+        {
+            if(position+length > limit)
+            {
+                if(os == null)
+                    throw new BufferFullException();
+                flushBuffer();
+            }
+        }
+
+        /**
+         * Writes the contents of the buffer to the stream.
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        private void flushBuffer() throws IOException
+        {
+            if(position > 0 && os != null)
+            {
+                os.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+
+        /**
+         * Writes any unpaired surrogate and the contents of the buffer to the stream.
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        void finish() throws IOException
+        {
+            if(highSurrogate != 0)
+            {
+                highSurrogate = 0;
+                ensureCapacity(1);
+                buffer[position++] = '?';
+            }
+
+            flushBuffer();
+        }
+
+        /**
+         * Writes the buffer to the stream without flushing the stream.
+         * <p>
+         * The stream is flushed by the transport once the whole body has been written.
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        @Override
+        public void flush() throws IOException
+        {
+            flushBuffer();
+        }
+
+        /**
+         * Writes the buffer to the stream, leaving the stream open.
+         * @throws IOException if the buffer could not be written to the stream.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            finish();
+        }
+    }
+}
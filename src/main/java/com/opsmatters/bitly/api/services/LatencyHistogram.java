@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Histogram of recent response times used to estimate latency percentiles.
+ * <p>
+ * Times are counted in buckets that grow by 20%, so a percentile is accurate to within 20%.
+ * The counts are halved whenever the total reaches the maximum, so that older samples fade out.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class LatencyHistogram
+{
+    private static final double GROWTH = 1.2d;
+    private static final int BUCKETS = 64;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0L;
+    private int maxSamples;
+
+    /**
+     * Constructor that takes the number of samples after which the counts are halved.
+     * @param maxSamples The number of samples after which the counts are halved
+     */
+    LatencyHistogram(int maxSamples)
+    {
+        this.maxSamples = Math.max(maxSamples, 2);
+    }
+
+    /**
+     * Records a response time.
+     * @param millis The response time (in ms)
+     */
+    synchronized void record(long millis)
+    {
+        int bucket = millis <= 1L ? 0 : Math.min((int)Math.ceil(Math.log(millis)/LOG_GROWTH), BUCKETS-1);
+        ++counts[bucket];
+        if(++total >= maxSamples)
+        {
+            total = 0L;
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                counts[i] >>= 1;
+                total += counts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of samples currently counted.
+     * @return The number of samples currently counted
+     */
+    synchronized long getCount()
+    {
+        return total;
+    }
+
+    /**
+     * Returns the response time below which the given percentage of responses were received.
+     * @param percentile The percentile, eg. 95.0
+     * @return The response time at the percentile (in ms), or -1 if there are no samples
+     */
+    synchronized long getPercentile(double percentile)
+    {
+        if(total == 0L)
+            return -1L;
+
+        long target = (long)Math.ceil(total*percentile/100.0d);
+        long count = 0L;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            count += counts[i];
+            if(count >= target)
+                return (long)Math.ceil(Math.pow(GROWTH, i));
+        }
+
+        return (long)Math.ceil(Math.pow(GROWTH, BUCKETS-1));
+    }
+}
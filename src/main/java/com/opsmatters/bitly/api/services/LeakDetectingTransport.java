@@ -0,0 +1,344 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP transport that wraps another transport and reports connections that are held for too long.
+ * <p>
+ * A lease is taken when a request is sent and released when its response is closed.
+ * Any lease held for longer than the threshold is logged once as a warning,
+ * together with its age and the stack trace of the call that took it.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class LeakDetectingTransport implements HttpTransport
+{
+    private static final Logger logger = Logger.getLogger(LeakDetectingTransport.class.getName());
+
+    private HttpTransport transport;
+    private long threshold;
+    private final Set<Lease> leases = ConcurrentHashMap.<Lease>newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor that takes the transport to wrap and the leak detection threshold.
+     * @param transport The HTTP transport used to send requests, closed when this transport is closed
+     * @param threshold The time a connection can be held before it is reported as a possible leak (in ms)
+     */
+    public LeakDetectingTransport(HttpTransport transport, long threshold)
+    {
+        if(transport == null)
+            throw new IllegalArgumentException("transport == null");
+        if(threshold <= 0L)
+            throw new IllegalArgumentException("threshold <= 0");
+
+        this.transport = transport;
+        this.threshold = threshold;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread ret = new Thread(r, "bitly-leak-detector");
+            ret.setDaemon(true);
+            return ret;
+        });
+
+        long period = Math.max(threshold/2L, 1L);
+        scheduler.scheduleWithFixedDelay(this::checkLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the wrapped HTTP transport.
+     * @return The wrapped HTTP transport
+     */
+    public HttpTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Returns the time a connection can be held before it is reported as a possible leak (in ms).
+     * @return The time a connection can be held before it is reported as a possible leak
+     */
+    public long getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Returns the number of connection leases currently held.
+     * @return The number of connection leases currently held
+     */
+    public int getLeaseCount()
+    {
+        return leases.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        Lease lease = acquire(request);
+        try
+        {
+            return new TrackedResponse(transport.execute(request), lease);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            lease.release();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        final Lease lease = acquire(request);
+        final CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+
+        final CompletableFuture<TransportResponse> future;
+        try
+        {
+            future = transport.executeAsync(request);
+        }
+        catch(RuntimeException e)
+        {
+            lease.release();
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        future.whenComplete((response, e) ->
+        {
+            if(e != null)
+            {
+                lease.release();
+                ret.completeExceptionally(HttpContext.unwrap(e));
+            }
+            else
+            {
+                TrackedResponse tracked = new TrackedResponse(response, lease);
+                if(!ret.complete(tracked))
+                    closeQuietly(tracked);
+            }
+        });
+
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCancelled())
+                future.cancel(true);
+        });
+
+        return ret;
+    }
+
+    /**
+     * Stops the leak detector and closes the wrapped transport.
+     * @throws IOException if the transport could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        scheduler.shutdownNow();
+        if(leases.size() > 0)
+            logger.warning("Closing transport with "+leases.size()+" connection leases still held");
+        transport.close();
+    }
+
+    /**
+     * Takes a lease for the given request, recording the call site.
+     * @param request The request being sent
+     * @return The lease
+     */
+    private Lease acquire(TransportRequest request)
+    {
+        Lease ret = new Lease(request.getMethod(), request.getUri());
+        leases.add(ret);
+        return ret;
+    }
+
+    /**
+     * Reports any lease that has been held for longer than the threshold.
+     */
+    private void checkLeases()
+    {
+        long now = System.nanoTime();
+        for(Lease lease : leases)
+        {
+            long age = lease.getAge(now);
+            if(age > threshold && !lease.reported)
+            {
+                lease.reported = true;
+                logger.log(Level.WARNING, "Possible connection leak: "+lease.method+" "+lease.uri
+                    +" held for "+age+"ms", lease.callSite);
+            }
+        }
+    }
+
+    /**
+     * Closes the given response, logging any error.
+     * @param response The response to close
+     */
+    private static void closeQuietly(TransportResponse response)
+    {
+        try
+        {
+            response.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to close response: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Represents a connection held by a request.
+     */
+    private class Lease
+    {
+        private String method;
+        private URI uri;
+        private long start = System.nanoTime();
+        private Throwable callSite = new Throwable("Connection lease taken here");
+        private volatile boolean reported = false;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Constructor that takes the method and URI of the request.
+         * @param method The HTTP method type
+         * @param uri The URI called
+         */
+        Lease(String method, URI uri)
+        {
+            this.method = method;
+            this.uri = uri;
+        }
+
+        /**
+         * Returns the time the lease has been held (in ms).
+         * @param now The current value of {@link System#nanoTime()}
+         * @return The time the lease has been held
+         */
+        long getAge(long now)
+        {
+            return TimeUnit.NANOSECONDS.toMillis(now-start);
+        }
+
+        /**
+         * Releases the lease, logging if it was previously reported as a possible leak.
+         */
+        void release()
+        {
+            if(released.compareAndSet(false, true))
+            {
+                leases.remove(this);
+                if(reported)
+                    logger.info("Previously reported connection lease released: "+method+" "+uri
+                        +" held for "+getAge(System.nanoTime())+"ms");
+            }
+        }
+    }
+
+    /**
+     * Wraps a response so that its lease is released when it is closed.
+     */
+    private static class TrackedResponse implements TransportResponse
+    {
+        private TransportResponse response;
+        private Lease lease;
+
+        /**
+         * Constructor that takes the response and its lease.
+         * @param response The response to wrap
+         * @param lease The lease held by the response
+         */
+        TrackedResponse(TransportResponse response, Lease lease)
+        {
+            this.response = response;
+            this.lease = lease;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getStatusCode()
+        {
+            return response.getStatusCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getReasonPhrase()
+        {
+            return response.getReasonPhrase();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getHeader(String name)
+        {
+            return response.getHeader(name);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getContent() throws IOException
+        {
+            return response.getContent();
+        }
+
+        /**
+         * Closes the wrapped response and releases the lease.
+         * @throws IOException if the response could not be closed.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                response.close();
+            }
+            finally
+            {
+                lease.release();
+            }
+        }
+    }
+}
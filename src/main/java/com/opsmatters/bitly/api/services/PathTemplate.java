@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Represents a resource path with "%s" placeholders, compiled once and expanded for each request.
+ * <p>
+ * Each value is percent-encoded as part of a path, so "/" is kept to allow bitlinks such as "bit.ly/abc".
+ * <p>
+ * Compiled templates are registered so that the template of an expanded path can be found,
+ * eg. to group requests by endpoint.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class PathTemplate
+{
+    private static final String PLACEHOLDER = "%s";
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final List<PathTemplate> templates = new CopyOnWriteArrayList<PathTemplate>();
+
+    private String template;
+    private String pattern;
+    private String[] literals;
+    private int length;
+
+    /**
+     * Constructor that takes a template.
+     * @param template The path template, eg. "/v4/bitlinks/%s/clicks"
+     */
+    private PathTemplate(String template)
+    {
+        this.template = template;
+
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for(int i = template.indexOf(PLACEHOLDER); i >= 0; i = template.indexOf(PLACEHOLDER, start))
+        {
+            parts.add(template.substring(start, i));
+            start = i+PLACEHOLDER.length();
+        }
+        parts.add(template.substring(start));
+
+        this.literals = parts.toArray(new String[parts.size()]);
+        this.length = template.length()-(PLACEHOLDER.length()*(literals.length-1));
+        this.pattern = template.replace(PLACEHOLDER, "{id}");
+    }
+
+    /**
+     * Returns a compiled path template.
+     * @param template The path template, eg. "/v4/bitlinks/%s/clicks"
+     * @return The compiled path template
+     */
+    public static PathTemplate compile(String template)
+    {
+        if(template == null)
+            throw new IllegalArgumentException("template == null");
+        PathTemplate ret = new PathTemplate(template);
+        templates.add(ret);
+        return ret;
+    }
+
+    /**
+     * Returns the compiled template that best matches the given path.
+     * <p>
+     * As values can contain "/", a path can match more than one template, in which case
+     * the template with the most literal characters is chosen, eg. "/v4/bitlinks/%s/clicks"
+     * rather than "/v4/bitlinks/%s" for "/v4/bitlinks/bit.ly/abc/clicks".
+     * @param path The expanded path
+     * @return The template that best matches the path, or <CODE>null</CODE> if no template matches
+     */
+    public static PathTemplate match(String path)
+    {
+        PathTemplate ret = null;
+        for(PathTemplate template : templates)
+        {
+            if(template.matches(path) && (ret == null || template.length > ret.length))
+                ret = template;
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the path template.
+     * @return The path template
+     */
+    public String getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Returns the template with each placeholder shown as "{id}", eg. "/v4/bitlinks/{id}/clicks".
+     * @return The template with each placeholder shown as "{id}"
+     */
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    /**
+     * Returns the number of values in the template.
+     * @return The number of values in the template
+     */
+    public int getValueCount()
+    {
+        return literals.length-1;
+    }
+
+    /**
+     * Returns the path with the placeholder replaced by the given value.
+     * @param value The value of the placeholder
+     * @return The expanded path
+     */
+    public String expand(String value)
+    {
+        checkValueCount(1);
+        StringBuilder sb = new StringBuilder(length+value.length()+8);
+        sb.append(literals[0]);
+        appendEncoded(sb, value);
+        sb.append(literals[1]);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the path with the placeholders replaced by the given values.
+     * @param value1 The value of the first placeholder
+     * @param value2 The value of the second placeholder
+     * @return The expanded path
+     */
+    public String expand(String value1, String value2)
+    {
+        checkValueCount(2);
+        StringBuilder sb = new StringBuilder(length+value1.length()+value2.length()+8);
+        sb.append(literals[0]);
+        appendEncoded(sb, value1);
+        sb.append(literals[1]);
+        appendEncoded(sb, value2);
+        sb.append(literals[2]);
+        return sb.toString();
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given path could have been expanded from this template.
+     * @param path The expanded path
+     * @return <CODE>true</CODE> if the given path could have been expanded from this template
+     */
+    boolean matches(String path)
+    {
+        int last = literals.length-1;
+        if(last == 0)
+            return path.equals(literals[0]);
+        if(!path.startsWith(literals[0]) || !path.endsWith(literals[last]))
+            return false;
+
+        // Each value must be non-empty and the literals must appear in order
+        int position = literals[0].length();
+        int end = path.length()-literals[last].length();
+        for(int i = 1; i < last; i++)
+        {
+            int index = path.indexOf(literals[i], position+1);
+            if(index < 0 || index+literals[i].length() >= end)
+                return false;
+            position = index+literals[i].length();
+        }
+
+        return position < end;
+    }
+
+    /**
+     * Throws an exception if the template does not have the given number of placeholders.
+     * @param count The number of values given
+     */
+    private void checkValueCount(int count)
+    {
+        if(getValueCount() != count)
+            throw new IllegalArgumentException("template "+template+" expects "+getValueCount()+" values");
+    }
+
+    /**
+     * Appends the given value to the path, percent-encoding any character not allowed in a path.
+     * @param sb The path being built
+     * @param value The value to append
+     */
+    static void appendEncoded(StringBuilder sb, String value)
+    {
+        int len = value.length();
+        int i = 0;
+        while(i < len && isAllowed(value.charAt(i)))
+            ++i;
+
+        // Fast path if nothing needs to be encoded
+        if(i == len)
+        {
+            sb.append(value);
+            return;
+        }
+
+        sb.append(value, 0, i);
+        for(; i < len; i++)
+        {
+            char c = value.charAt(i);
+            if(isAllowed(c))
+            {
+                sb.append(c);
+            }
+            else
+            {
+                int end = Character.isHighSurrogate(c) && i+1 < len ? i+2 : i+1;
+                for(byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8))
+                    sb.append('%').append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+                i = end-1;
+            }
+        }
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given character is allowed in a path without encoding (RFC 3986).
+     * @param c The character to check
+     * @return <CODE>true</CODE> if the given character is allowed in a path without encoding
+     */
+    private static boolean isAllowed(char c)
+    {
+        if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))
+            return true;
+        switch(c)
+        {
+            case '-': case '.': case '_': case '~':                      // unreserved
+            case '!': case '$': case '&': case '\'': case '(': case ')':  // sub-delims
+            case '*': case '+': case ',': case ';': case '=':
+            case ':': case '@': case '/':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return template;
+    }
+}
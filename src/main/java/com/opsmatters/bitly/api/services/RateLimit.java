@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the rate at which requests can be sent, and the size of the burst that can be sent at once.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class RateLimit
+{
+    private int permits;
+    private long period;
+    private TimeUnit unit;
+    private int burst;
+
+    /**
+     * Constructor that takes the number of requests per period and the burst size.
+     * @param permits The number of requests allowed in each period
+     * @param period The length of the period
+     * @param unit The time unit of the period
+     * @param burst The maximum number of requests that can be sent at once
+     */
+    public RateLimit(int permits, long period, TimeUnit unit, int burst)
+    {
+        if(permits <= 0)
+            throw new IllegalArgumentException("permits <= 0");
+        if(period <= 0L)
+            throw new IllegalArgumentException("period <= 0");
+        if(burst <= 0)
+            throw new IllegalArgumentException("burst <= 0");
+
+        this.permits = permits;
+        this.period = period;
+        this.unit = unit;
+        this.burst = burst;
+    }
+
+    /**
+     * Returns a rate limit with a burst size of one, so that requests are evenly spaced over the period.
+     * @param permits The number of requests allowed in each period
+     * @param period The length of the period
+     * @param unit The time unit of the period
+     * @return The rate limit
+     */
+    public static RateLimit of(int permits, long period, TimeUnit unit)
+    {
+        return new RateLimit(permits, period, unit, 1);
+    }
+
+    /**
+     * Returns the number of requests allowed in each period.
+     * @return The number of requests allowed in each period
+     */
+    public int getPermits()
+    {
+        return permits;
+    }
+
+    /**
+     * Returns the length of the period.
+     * @return The length of the period
+     */
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * Returns the time unit of the period.
+     * @return The time unit of the period
+     */
+    public TimeUnit getUnit()
+    {
+        return unit;
+    }
+
+    /**
+     * Returns the maximum number of requests that can be sent at once.
+     * @return The maximum number of requests that can be sent at once
+     */
+    public int getBurst()
+    {
+        return burst;
+    }
+
+    /**
+     * Returns the time between requests at the steady rate (in ns).
+     * @return The time between requests at the steady rate
+     */
+    public double getInterval()
+    {
+        return (double)unit.toNanos(period)/permits;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RateLimit ["
+            +"permits="+permits
+            +", period="+period
+            +", unit="+unit
+            +", burst="+burst
+            +"]";
+    }
+}
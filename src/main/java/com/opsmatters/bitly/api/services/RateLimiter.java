@@ -0,0 +1,423 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import com.opsmatters.bitly.RateLimitExceededException;
+
+/**
+ * Client-side rate limiter that spaces out requests using a token bucket for each access token and endpoint family.
+ * <p>
+ * A request that finds no permit in its bucket either waits for one, fails immediately,
+ * or waits for up to a timeout, depending on the mode. Families without a rate are not limited.
+ * Rates, the mode and the timeout can all be changed while requests are being sent.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class RateLimiter
+{
+    /**
+     * The behaviour when a permit is not immediately available.
+     */
+    public enum Mode
+    {
+        /**
+         * Wait until a permit is available.
+         */
+        BLOCK,
+
+        /**
+         * Throw a {@link RateLimitExceededException} immediately.
+         */
+        FAIL_FAST,
+
+        /**
+         * Wait up to the timeout for a permit, then throw a {@link RateLimitExceededException}.
+         */
+        TIMEOUT
+    }
+
+    private final Map<EndpointFamily,RateLimit> rates = new EnumMap<EndpointFamily,RateLimit>(EndpointFamily.class);
+    private final Map<String,Bucket[]> buckets = new ConcurrentHashMap<String,Bucket[]>();
+    private volatile Mode mode = Mode.BLOCK;
+    private volatile long timeout = 0L;
+
+    /**
+     * Default constructor.
+     */
+    public RateLimiter()
+    {
+    }
+
+    /**
+     * Returns the rate limit for the given endpoint family.
+     * @param family The endpoint family
+     * @return The rate limit for the endpoint family, or <CODE>null</CODE> if it is not limited
+     */
+    public synchronized RateLimit getRate(EndpointFamily family)
+    {
+        return rates.get(family);
+    }
+
+    /**
+     * Sets the rate limit for the given endpoint family, applying it immediately to all access tokens.
+     * @param family The endpoint family
+     * @param rate The rate limit for the endpoint family, or <CODE>null</CODE> if it should not be limited
+     */
+    public synchronized void setRate(EndpointFamily family, RateLimit rate)
+    {
+        if(rate != null)
+            rates.put(family, rate);
+        else
+            rates.remove(family);
+
+        for(Bucket[] array : buckets.values())
+        {
+            Bucket bucket = array[family.ordinal()];
+            if(bucket != null)
+                bucket.setRate(rate);
+        }
+    }
+
+    /**
+     * Returns the behaviour when a permit is not immediately available.
+     * @return The behaviour when a permit is not immediately available
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Sets the behaviour when a permit is not immediately available.
+     * @param mode The behaviour when a permit is not immediately available
+     */
+    public void setMode(Mode mode)
+    {
+        if(mode == null)
+            throw new IllegalArgumentException("mode == null");
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the longest time to wait for a permit in {@link Mode#TIMEOUT} mode (in ms).
+     * @return The longest time to wait for a permit
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Sets the longest time to wait for a permit in {@link Mode#TIMEOUT} mode (in ms).
+     * @param timeout The longest time to wait for a permit
+     */
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Reserves a permit for a request, returning the time until the request can be sent.
+     * <p>
+     * The permit is taken even if the caller must wait for it, so the caller must send the request
+     * after the returned delay.
+     * @param key The access token, or another key identifying the caller's quota
+     * @param family The endpoint family of the request
+     * @return The time until the request can be sent (in ns), or 0 if it can be sent immediately
+     * @throws RateLimitExceededException if the mode does not allow the caller to wait that long.
+     */
+    public long reserve(String key, EndpointFamily family)
+    {
+        return reserve(key, family, null);
+    }
+
+    /**
+     * Reserves a permit for a request with a deadline, returning the time until the request can be sent.
+     * <p>
+     * If the permit would not be available until after the deadline, no permit is taken and the negated
+     * time until one is available is returned.
+     * @param key The access token, or another key identifying the caller's quota
+     * @param family The endpoint family of the request
+     * @param deadline The time by which the request must complete, or <CODE>null</CODE> if there is no deadline
+     * @return The time until the request can be sent (in ns), or the negated time if it would pass the deadline
+     * @throws RateLimitExceededException if the mode does not allow the caller to wait that long.
+     */
+    long reserve(String key, EndpointFamily family, Deadline deadline)
+    {
+        Bucket bucket = getBucket(key, family);
+        if(bucket == null)
+            return 0L;
+
+        Mode mode = this.mode;
+        long maxWait = Long.MAX_VALUE;
+        if(mode == Mode.FAIL_FAST)
+            maxWait = 0L;
+        else if(mode == Mode.TIMEOUT)
+            maxWait = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        long remaining = deadline != null ? Math.max(deadline.timeRemaining(TimeUnit.NANOSECONDS), 0L) : Long.MAX_VALUE;
+        long ret = bucket.reserve(Math.min(maxWait, remaining));
+        if(ret < 0L && -ret > maxWait)
+            throw new RateLimitExceededException(family, TimeUnit.NANOSECONDS.toMillis(-ret));
+        return ret;
+    }
+
+    /**
+     * Reserves a permit for the given request, using its access token, endpoint family and deadline.
+     * @param request The request to be sent
+     * @return The time until the request can be sent (in ns), or the negated time if it would pass the deadline
+     * @throws RateLimitExceededException if the mode does not allow the caller to wait that long.
+     */
+    long reserve(TransportRequest request)
+    {
+        Map<String,String> headers = request.getHeaders();
+        return reserve(headers != null ? headers.get("Authorization") : null,
+            EndpointFamily.of(request.getMethod(), request.getUri().getRawPath()), request.getDeadline());
+    }
+
+    /**
+     * Waits until a permit is available for a request.
+     * @param key The access token, or another key identifying the caller's quota
+     * @param family The endpoint family of the request
+     * @throws RateLimitExceededException if the mode does not allow the caller to wait for a permit.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    public void acquire(String key, EndpointFamily family) throws InterruptedIOException
+    {
+        long delay = reserve(key, family);
+        if(delay > 0L)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a "+family+" permit");
+            }
+        }
+    }
+
+    /**
+     * Runs the given task after the given delay, without blocking the caller.
+     * @param task The task to run
+     * @param delay The delay before the task is run (in ns)
+     */
+    static void schedule(Runnable task, long delay)
+    {
+        SchedulerHolder.scheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the bucket for the given key and endpoint family, creating it if necessary.
+     * @param key The access token, or another key identifying the caller's quota
+     * @param family The endpoint family of the request
+     * @return The bucket, or <CODE>null</CODE> if the endpoint family is not limited
+     */
+    private Bucket getBucket(String key, EndpointFamily family)
+    {
+        Bucket[] array = buckets.get(key != null ? key : "");
+        Bucket ret = array != null ? array[family.ordinal()] : null;
+        if(ret != null)
+            return ret;
+
+        synchronized(this)
+        {
+            RateLimit rate = rates.get(family);
+            if(rate == null)
+                return null;
+
+            array = buckets.computeIfAbsent(key != null ? key : "", k -> new Bucket[EndpointFamily.values().length]);
+            ret = array[family.ordinal()];
+            if(ret == null)
+            {
+                ret = new Bucket(rate);
+                array[family.ordinal()] = ret;
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "RateLimiter ["
+            +"rates="+rates
+            +", mode="+mode
+            +", timeout="+timeout
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the rate limiter.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make rate limiter construction easier.
+     */
+    public static class Builder
+    {
+        private RateLimiter limiter = new RateLimiter();
+
+        /**
+         * Sets the rate limit for the given endpoint family.
+         * @param family The endpoint family
+         * @param rate The rate limit for the endpoint family
+         * @return This object
+         */
+        public Builder rate(EndpointFamily family, RateLimit rate)
+        {
+            limiter.setRate(family, rate);
+            return this;
+        }
+
+        /**
+         * Sets the behaviour when a permit is not immediately available.
+         * @param mode The behaviour when a permit is not immediately available
+         * @return This object
+         */
+        public Builder mode(Mode mode)
+        {
+            limiter.setMode(mode);
+            return this;
+        }
+
+        /**
+         * Sets the longest time to wait for a permit in {@link Mode#TIMEOUT} mode (in ms).
+         * @param timeout The longest time to wait for a permit
+         * @return This object
+         */
+        public Builder timeout(long timeout)
+        {
+            limiter.setTimeout(timeout);
+            return this;
+        }
+
+        /**
+         * Returns the configured rate limiter
+         * @return The rate limiter instance
+         */
+        public RateLimiter build()
+        {
+            return limiter;
+        }
+    }
+
+    /**
+     * Token bucket that refills at a steady rate up to the burst size.
+     * <p>
+     * The token count goes negative when permits are reserved ahead of time,
+     * so that waiting callers are spaced out rather than all woken at once.
+     */
+    private static class Bucket
+    {
+        private double interval;
+        private double burst;
+        private double tokens;
+        private long last = System.nanoTime();
+        private boolean unlimited = false;
+
+        /**
+         * Constructor that takes the rate limit.
+         * @param rate The rate limit of the bucket
+         */
+        Bucket(RateLimit rate)
+        {
+            this.interval = rate.getInterval();
+            this.burst = rate.getBurst();
+            this.tokens = burst;
+        }
+
+        /**
+         * Changes the rate limit of the bucket, keeping the permits already earned up to the new burst size.
+         * @param rate The new rate limit, or <CODE>null</CODE> if the bucket should not be limited
+         */
+        synchronized void setRate(RateLimit rate)
+        {
+            if(rate == null)
+            {
+                unlimited = true;
+                return;
+            }
+
+            refill(System.nanoTime());
+            unlimited = false;
+            interval = rate.getInterval();
+            burst = rate.getBurst();
+            tokens = Math.min(tokens, burst);
+        }
+
+        /**
+         * Reserves a permit if one will be available within the given time.
+         * @param maxWait The longest time the caller will wait (in ns)
+         * @return The time until the permit is available (in ns),
+         *         or the negated time until one is available if the caller cannot wait that long
+         */
+        synchronized long reserve(long maxWait)
+        {
+            if(unlimited)
+                return 0L;
+
+            refill(System.nanoTime());
+            long wait = tokens >= 1.0d ? 0L : (long)Math.ceil((1.0d-tokens)*interval);
+            if(wait > maxWait)
+                return -Math.max(wait, 1L);
+            tokens -= 1.0d;
+            return wait;
+        }
+
+        /**
+         * Adds the permits earned since the last refill.
+         * @param now The current value of {@link System#nanoTime()}
+         */
+        private void refill(long now)
+        {
+            tokens = Math.min(burst, tokens+(now-last)/interval);
+            last = now;
+        }
+    }
+
+    /**
+     * Holds the scheduler used to delay asynchronous requests, created when first used.
+     */
+    private static class SchedulerHolder
+    {
+        static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread ret = new Thread(r, "bitly-rate-limiter");
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+}
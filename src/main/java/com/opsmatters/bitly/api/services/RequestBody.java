@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Represents the body of a request, written directly to the connection by the transport.
+ * <p>
+ * A body can be written more than once, for example if the request is retried.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface RequestBody
+{
+    /**
+     * Returns the content type of the body.
+     * @return The content type of the body
+     */
+    String getContentType();
+
+    /**
+     * Writes the body to the given stream.
+     * @param os The stream to write the body to
+     * @throws IOException if the body could not be written.
+     */
+    void writeTo(OutputStream os) throws IOException;
+
+    /**
+     * Returns the body as a byte array, for transports that cannot write directly to the connection.
+     * @return The body as a byte array
+     * @throws IOException if the body could not be written.
+     */
+    default byte[] toByteArray() throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeTo(os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Returns the body as a byte array if it is no longer than the given length,
+     * so that a short body can be sent with a Content-Length rather than streamed.
+     * @param maxLength The maximum length of the body (in bytes)
+     * @return The body as a byte array, or <CODE>null</CODE> if it is longer than the given length
+     * @throws IOException if the body could not be written.
+     */
+    default byte[] toByteArray(int maxLength) throws IOException
+    {
+        byte[] ret = toByteArray();
+        return ret.length <= maxLength ? ret : null;
+    }
+}
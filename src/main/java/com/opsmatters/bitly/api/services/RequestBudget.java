@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits extra requests, such as retries or hedges, to a ratio of the requests sent.
+ * <p>
+ * Each request deposits a fraction of an extra request and each extra request withdraws a whole one.
+ * The balance starts at, and cannot exceed, the burst size.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class RequestBudget
+{
+    private static final long SCALE = 1000L;
+
+    private long deposit;
+    private long max;
+    private final AtomicLong balance;
+
+    /**
+     * Constructor that takes the ratio and burst size.
+     * @param ratio The number of extra requests allowed for each request sent
+     * @param burst The maximum number of extra requests that can be made in a burst
+     */
+    RequestBudget(double ratio, int burst)
+    {
+        this.deposit = (long)(ratio*SCALE);
+        this.max = burst*SCALE;
+        this.balance = new AtomicLong(max);
+    }
+
+    /**
+     * Adds the allowance for a request to the balance.
+     */
+    void deposit()
+    {
+        long current;
+        do
+        {
+            current = balance.get();
+            if(current >= max)
+                return;
+        }
+        while(!balance.compareAndSet(current, Math.min(current+deposit, max)));
+    }
+
+    /**
+     * Takes an extra request from the balance.
+     * @return <CODE>true</CODE> if the balance allowed an extra request
+     */
+    boolean withdraw()
+    {
+        long current;
+        do
+        {
+            current = balance.get();
+            if(current < SCALE)
+                return false;
+        }
+        while(!balance.compareAndSet(current, current-SCALE));
+        return true;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import com.google.common.base.Optional;
+import com.opsmatters.bitly.RequestTimeoutException;
+
+/**
+ * Coalesces identical concurrent GET requests, so that they share one request in flight and its result.
+ * <p>
+ * Requests are identical if they have the same method, URL including the query, access token and result type.
+ * The first request is sent and any identical requests made before it completes wait for its result,
+ * including any exception it throws. The result object is shared, so callers should not modify it.
+ * <p>
+ * The shared request is sent without a deadline, and each caller, including the first, waits for it
+ * until its own deadline. A caller that times out or cancels its future leaves the shared request,
+ * which is only aborted once all of the callers waiting for it have left.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RequestCoalescer
+{
+    private final ConcurrentMap<String,Flight> flights = new ConcurrentHashMap<String,Flight>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Default constructor.
+     */
+    public RequestCoalescer()
+    {
+    }
+
+    /**
+     * Returns the number of requests that could be coalesced.
+     * @return The number of requests that could be coalesced
+     */
+    public long getRequestCount()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of requests that shared another request in flight instead of being sent.
+     * @return The number of requests that shared another request in flight
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of requests that could be coalesced but were sent.
+     * @return The number of requests that could be coalesced but were sent
+     */
+    public long getSentCount()
+    {
+        return getRequestCount()-getCoalescedCount();
+    }
+
+    /**
+     * Returns the ratio of the requests that shared another request in flight to all the requests that could be coalesced.
+     * @return The ratio of coalesced requests, or 0.0 if there have been no requests
+     */
+    public double getCollapseRatio()
+    {
+        long count = getRequestCount();
+        return count > 0L ? (double)getCoalescedCount()/count : 0.0d;
+    }
+
+    /**
+     * Returns the number of requests currently in flight that can be shared.
+     * @return The number of requests currently in flight that can be shared
+     */
+    public int getInFlightCount()
+    {
+        return flights.size();
+    }
+
+    /**
+     * Resets all the counters to zero.
+     */
+    public void reset()
+    {
+        requests.reset();
+        coalesced.reset();
+    }
+
+    /**
+     * Sends a request, or waits for the result of an identical request already in flight.
+     * @param <T> The type parameter used for the return object
+     * @param key The key identifying identical requests
+     * @param request The description of the request used in exceptions, eg. "GET https://..."
+     * @param deadline The time by which the caller must have a result, or <CODE>null</CODE> if there is no deadline
+     * @param sender Sends the shared request asynchronously if there is no identical request in flight
+     * @return The result of the request
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    <T> Optional<T> execute(String key, String request, Deadline deadline,
+        Supplier<CompletableFuture<Optional<T>>> sender)
+        throws IOException, URISyntaxException
+    {
+        return this.<T>await(start(key, sender), request, deadline);
+    }
+
+    /**
+     * Sends a request asynchronously, or returns the future result of an identical request already in flight.
+     * @param <T> The type parameter used for the return object
+     * @param key The key identifying identical requests
+     * @param request The description of the request used in exceptions, eg. "GET https://..."
+     * @param deadline The time by which the caller must have a result, or <CODE>null</CODE> if there is no deadline
+     * @param sender Sends the shared request asynchronously if there is no identical request in flight
+     * @return The future result of the request
+     */
+    <T> CompletableFuture<Optional<T>> executeAsync(String key, String request, Deadline deadline,
+        Supplier<CompletableFuture<Optional<T>>> sender)
+    {
+        return this.<T>follow(start(key, sender), request, deadline);
+    }
+
+    /**
+     * Joins the flight of an identical request already in flight, or sends the request as a new flight.
+     * @param <T> The type parameter used for the return object
+     * @param key The key identifying identical requests
+     * @param sender Sends the shared request asynchronously if there is no identical request in flight
+     * @return The flight joined by the caller
+     */
+    private <T> Flight start(final String key, Supplier<CompletableFuture<Optional<T>>> sender)
+    {
+        requests.increment();
+        final Flight flight = new Flight(new CompletableFuture<Object>());
+        Flight existing = join(key, flight);
+        if(existing != null)
+            return existing;
+
+        final CompletableFuture<Optional<T>> future;
+        try
+        {
+            future = sender.get();
+        }
+        catch(RuntimeException e)
+        {
+            flights.remove(key, flight);
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+
+        future.whenComplete((result, e) ->
+        {
+            flights.remove(key, flight);
+            if(e != null)
+                flight.future.completeExceptionally(HttpContext.unwrap(e));
+            else
+                flight.future.complete(result);
+        });
+
+        // Abort the request once every caller has left
+        flight.future.whenComplete((result, e) ->
+        {
+            if(flight.future.isCancelled())
+                future.cancel(true);
+        });
+
+        return flight;
+    }
+
+    /**
+     * Registers the given flight for the key, or joins the flight already registered.
+     * @param key The key identifying identical requests
+     * @param flight The new flight
+     * @return The flight joined, or <CODE>null</CODE> if the new flight was registered
+     */
+    private Flight join(String key, Flight flight)
+    {
+        while(true)
+        {
+            Flight existing = flights.putIfAbsent(key, flight);
+            if(existing == null)
+                return null;
+            if(existing.join())
+            {
+                coalesced.increment();
+                return existing;
+            }
+
+            // Every caller has left the existing flight, so replace it
+            flights.remove(key, existing);
+        }
+    }
+
+    /**
+     * Waits for the result of the given flight.
+     * @param <T> The type parameter used for the return object
+     * @param flight The flight to wait for
+     * @param request The description of the request used in exceptions
+     * @param deadline The time by which the caller must have a result, or <CODE>null</CODE> if there is no deadline
+     * @return The result of the flight
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Optional<T> await(Flight flight, String request, Deadline deadline)
+        throws IOException, URISyntaxException
+    {
+        try
+        {
+            if(deadline == null)
+                return (Optional<T>)flight.future.get();
+            return (Optional<T>)flight.future.get(Math.max(deadline.timeRemaining(TimeUnit.NANOSECONDS), 0L),
+                TimeUnit.NANOSECONDS);
+        }
+        catch(TimeoutException e)
+        {
+            flight.leave();
+            throw new RequestTimeoutException(request, deadline.getTimeout());
+        }
+        catch(InterruptedException e)
+        {
+            flight.leave();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for "+request);
+        }
+        catch(ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+            if(cause instanceof URISyntaxException)
+                throw (URISyntaxException)cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns a future completed with the result of the given flight, which can be cancelled by the caller
+     * without affecting the other callers.
+     * @param <T> The type parameter used for the return object
+     * @param flight The flight to follow
+     * @param request The description of the request used in exceptions
+     * @param deadline The time by which the caller must have a result, or <CODE>null</CODE> if there is no deadline
+     * @return The future result of the flight
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<Optional<T>> follow(final Flight flight, final String request,
+        final Deadline deadline)
+    {
+        final CompletableFuture<Optional<T>> ret = new CompletableFuture<Optional<T>>();
+        flight.future.whenComplete((result, e) ->
+        {
+            if(e != null)
+                ret.completeExceptionally(HttpContext.unwrap(e));
+            else
+                ret.complete((Optional<T>)result);
+        });
+
+        if(deadline != null)
+        {
+            final ScheduledFuture<?> expiry = deadline.schedule(() ->
+                ret.completeExceptionally(new RequestTimeoutException(request, deadline.getTimeout())));
+            ret.whenComplete((result, e) -> expiry.cancel(false));
+        }
+
+        // Leave the flight if the caller gives up before it completes
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCompletedExceptionally() && !flight.future.isDone())
+                flight.leave();
+        });
+
+        return ret;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RequestCoalescer ["
+            +"requests="+getRequestCount()
+            +", coalesced="+getCoalescedCount()
+            +", collapseRatio="+getCollapseRatio()
+            +", inFlight="+getInFlightCount()
+            +"]";
+    }
+
+    /**
+     * A request in flight and the number of callers waiting for it.
+     */
+    private static class Flight
+    {
+        private final CompletableFuture<Object> future;
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+        /**
+         * Constructor that takes the future result of the request.
+         * @param future The future result of the request
+         */
+        Flight(CompletableFuture<Object> future)
+        {
+            this.future = future;
+        }
+
+        /**
+         * Adds a caller waiting for the request.
+         * @return <CODE>true</CODE> if the caller was added, or <CODE>false</CODE> if every other caller has left
+         */
+        boolean join()
+        {
+            int current;
+            do
+            {
+                current = waiters.get();
+                if(current <= 0)
+                    return false;
+            }
+            while(!waiters.compareAndSet(current, current+1));
+            return true;
+        }
+
+        /**
+         * Removes a caller that has stopped waiting, cancelling the request if it was the last caller.
+         */
+        void leave()
+        {
+            if(waiters.decrementAndGet() == 0)
+                future.cancel(true);
+        }
+    }
+}
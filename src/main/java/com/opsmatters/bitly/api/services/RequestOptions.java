@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the options for the calls made through a service, eg. their deadline.
+ * <p>
+ * A timeout starts a new deadline for each call, while a deadline is shared by all the calls it is given to.
+ * If both are set, each call must complete within the timeout and before the deadline.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RequestOptions
+{
+    private long timeout = 0L;
+    private Deadline deadline;
+
+    /**
+     * Default constructor.
+     */
+    public RequestOptions()
+    {
+    }
+
+    /**
+     * Returns options with the given timeout for each call.
+     * @param timeout The time each call must complete within (in ms)
+     * @return The options
+     */
+    public static RequestOptions ofTimeout(long timeout)
+    {
+        return builder().timeout(timeout).build();
+    }
+
+    /**
+     * Returns options with the given deadline for all calls.
+     * @param deadline The time by which all calls must complete
+     * @return The options
+     */
+    public static RequestOptions ofDeadline(Deadline deadline)
+    {
+        return builder().deadline(deadline).build();
+    }
+
+    /**
+     * Returns the time each call must complete within (in ms).
+     * @return The time each call must complete within, or 0 to use the timeout of the client
+     */
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Sets the time each call must complete within (in ms).
+     * @param timeout The time each call must complete within, or 0 to use the timeout of the client
+     */
+    public void setTimeout(long timeout)
+    {
+        if(timeout < 0L)
+            throw new IllegalArgumentException("timeout < 0");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the time by which all calls must complete.
+     * @return The time by which all calls must complete, or <CODE>null</CODE> if there is no shared deadline
+     */
+    public Deadline getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Sets the time by which all calls must complete.
+     * @param deadline The time by which all calls must complete, or <CODE>null</CODE> if there is no shared deadline
+     */
+    public void setDeadline(Deadline deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the deadline for a call starting now.
+     * @param defaultTimeout The timeout of the client (in ms), used if no timeout or deadline is set
+     * @return The deadline for the call, or <CODE>null</CODE> if the call has no deadline
+     */
+    public Deadline getDeadline(long defaultTimeout)
+    {
+        Deadline ret = deadline;
+        long callTimeout = timeout > 0L || ret != null ? timeout : defaultTimeout;
+        if(callTimeout > 0L)
+            ret = Deadline.after(callTimeout, TimeUnit.MILLISECONDS).min(ret);
+        return ret;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RequestOptions ["
+            +"timeout="+timeout
+            +", deadline="+deadline
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the options.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make options construction easier.
+     */
+    public static class Builder
+    {
+        private RequestOptions options = new RequestOptions();
+
+        /**
+         * Sets the time each call must complete within (in ms).
+         * @param timeout The time each call must complete within
+         * @return This object
+         */
+        public Builder timeout(long timeout)
+        {
+            options.setTimeout(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the time by which all calls must complete.
+         * @param deadline The time by which all calls must complete
+         * @return This object
+         */
+        public Builder deadline(Deadline deadline)
+        {
+            options.setDeadline(deadline);
+            return this;
+        }
+
+        /**
+         * Returns the configured options
+         * @return The options instance
+         */
+        public RequestOptions build()
+        {
+            return options;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the results of GET requests that revalidates them with the server using conditional requests.
+ * <p>
+ * If a response has an ETag or Last-Modified header, the next identical request is sent with an If-None-Match
+ * or If-Modified-Since header, and the cached result is returned if the server answers 304 (Not Modified),
+ * so the body is neither sent nor parsed again. If a response has neither header, its result is returned
+ * without a request until it has been cached for the expiry time of the cache policy, or not cached at all
+ * if the policy has no expiry.
+ * <p>
+ * Requests are identical if they have the same URL including the query, access token and result type.
+ * Only the paths of the cache are cached, and a successful POST, PATCH or DELETE to a cached path,
+ * or to a path directly below it, invalidates the results cached for that path. A change to a webhook
+ * also invalidates the webhooks cached for every organization, as the organization is not part of its path.
+ * The result objects are shared, so callers should not modify them.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ResponseCache
+{
+    /**
+     * The paths cached by default: a group and its preferences, and the lists of organizations,
+     * campaigns and organization webhooks.
+     */
+    public static final Set<String> DEFAULT_PATHS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("/v4/groups/{id}", "/v4/groups/{id}/preferences",
+            "/v4/organizations", "/v4/campaigns", "/v4/organizations/{id}/webhooks")));
+
+    /**
+     * The paths whose results are changed by a change to a path with another parent, by the path changed.
+     */
+    private static final Map<String,String> DEPENDENT_PATHS = new HashMap<String,String>();
+
+    static
+    {
+        DEPENDENT_PATHS.put("/v4/webhooks", "/v4/organizations/{id}/webhooks");
+        DEPENDENT_PATHS.put("/v4/webhooks/{id}", "/v4/organizations/{id}/webhooks");
+    }
+
+    private final TinyLfuCache<String,Entry> entries;
+    private final long expireAfterWrite;
+    private volatile Set<String> paths = DEFAULT_PATHS;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor that takes the size and expiry of the cache.
+     * <p>
+     * Results with validators are kept until they are evicted, as they are revalidated on each request.
+     * @param policy The maximum size of the cache, and the time for which results without validators are used
+     */
+    public ResponseCache(CachePolicy policy)
+    {
+        this.entries = new TinyLfuCache<String,Entry>(CachePolicy.builder()
+            .maximumSize(policy.getMaximumSize())
+            .expireAfterWrite(0L)
+            .build());
+        this.expireAfterWrite = TimeUnit.MILLISECONDS.toNanos(policy.getExpireAfterWrite());
+    }
+
+    /**
+     * Returns the paths that are cached, eg. "/v4/groups/{id}".
+     * @return The paths that are cached
+     */
+    public Set<String> getPaths()
+    {
+        return paths;
+    }
+
+    /**
+     * Sets the paths that are cached, with each placeholder shown as "{id}", eg. "/v4/groups/{id}".
+     * @param paths The paths that are cached
+     */
+    public void setPaths(Set<String> paths)
+    {
+        this.paths = Collections.unmodifiableSet(new HashSet<String>(paths));
+    }
+
+    /**
+     * Returns the number of results cached.
+     * @return The number of results cached
+     */
+    public long size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of requests answered from the cache without being sent.
+     * @return The number of requests answered from the cache without being sent
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests answered from the cache after the server returned 304 (Not Modified).
+     * @return The number of requests answered from the cache after the server returned 304
+     */
+    public long getRevalidatedCount()
+    {
+        return revalidations.sum();
+    }
+
+    /**
+     * Returns the number of requests for cached paths that returned a new result.
+     * @return The number of requests for cached paths that returned a new result
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Removes all the results from the cache.
+     */
+    public void invalidateAll()
+    {
+        entries.invalidateAll();
+    }
+
+    /**
+     * Resets the counts to zero.
+     */
+    public void reset()
+    {
+        hits.reset();
+        revalidations.reset();
+        misses.reset();
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the results of requests to the given path are cached.
+     * @param path The path of the request
+     * @return <CODE>true</CODE> if the results of requests to the given path are cached
+     */
+    boolean isCached(String path)
+    {
+        return paths.contains(getPattern(path));
+    }
+
+    /**
+     * Returns the entry for the given request, which may need to be revalidated.
+     * @param key The key of the request
+     * @return The entry for the given request, or <CODE>null</CODE> if there is none
+     */
+    Entry get(String key)
+    {
+        Entry ret = entries.get(key);
+        if(ret != null && ret.isFresh())
+            hits.increment();
+        return ret;
+    }
+
+    /**
+     * Returns the given headers with the conditional headers for the given entry added.
+     * @param headers The headers of the request
+     * @param entry The cached entry for the request
+     * @return The headers including the conditional headers
+     */
+    Map<String,String> addValidators(Map<String,String> headers, Entry entry)
+    {
+        Map<String,String> ret = headers != null ? new HashMap<String,String>(headers) : new HashMap<String,String>();
+        if(entry.etag != null)
+            ret.put("If-None-Match", entry.etag);
+        if(entry.lastModified != null)
+            ret.put("If-Modified-Since", entry.lastModified);
+        return ret;
+    }
+
+    /**
+     * Caches the given result of a request with the validators of its response.
+     * @param key The key of the request
+     * @param uri The URI of the request
+     * @param value The result of the request
+     * @param response The response to the request
+     */
+    void put(String key, URI uri, Object value, TransportResponse response)
+    {
+        misses.increment();
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        long expiresAt;
+        if(etag != null || lastModified != null)
+            expiresAt = System.nanoTime(); // Revalidate on the next request
+        else if(expireAfterWrite > 0L)
+            expiresAt = System.nanoTime()+expireAfterWrite;
+        else
+            return;
+        String path = uri.getRawPath();
+        entries.put(key, new Entry(path, getPattern(path), value, etag, lastModified, expiresAt));
+    }
+
+    /**
+     * Records that the server returned 304 (Not Modified) for the given entry, updating its validators if they changed.
+     * @param key The key of the request
+     * @param entry The cached entry for the request
+     * @param response The response to the request
+     */
+    void revalidated(String key, Entry entry, TransportResponse response)
+    {
+        revalidations.increment();
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        if((etag != null && !etag.equals(entry.etag)) || (lastModified != null && !lastModified.equals(entry.lastModified)))
+        {
+            entries.put(key, new Entry(entry.path, entry.pattern, entry.value, etag != null ? etag : entry.etag,
+                lastModified != null ? lastModified : entry.lastModified, entry.expiresAt));
+        }
+    }
+
+    /**
+     * Removes the results cached for the given path, for the path above it and for the paths that depend on it,
+     * after a change to the given path.
+     * @param path The path that was changed
+     */
+    void invalidate(String path)
+    {
+        int pos = path.lastIndexOf('/');
+        String parent = pos > 0 ? path.substring(0, pos) : null;
+        boolean cached = isCached(path);
+        boolean parentCached = parent != null && isCached(parent);
+        String dependent = DEPENDENT_PATHS.get(getPattern(path));
+        if(dependent != null && !paths.contains(dependent))
+            dependent = null;
+        if(cached || parentCached || dependent != null)
+        {
+            String pattern = dependent;
+            entries.invalidateIf((key, entry) -> (cached && entry.path.equals(path))
+                || (parentCached && entry.path.equals(parent))
+                || (pattern != null && entry.pattern.equals(pattern)));
+        }
+    }
+
+    /**
+     * Returns the pattern of the given path, with each placeholder shown as "{id}".
+     * @param path The path of a request
+     * @return The pattern of the given path
+     */
+    private static String getPattern(String path)
+    {
+        PathTemplate template = PathTemplate.match(path);
+        return template != null ? template.getPattern() : path;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "ResponseCache ["
+            +"size="+size()
+            +", hits="+getHitCount()
+            +", revalidated="+getRevalidatedCount()
+            +", misses="+getMissCount()
+            +", paths="+paths
+            +"]";
+    }
+
+    /**
+     * A cached result with the validators of its response.
+     */
+    static class Entry
+    {
+        private final String path;
+        private final String pattern;
+        private final Object value;
+        private final String etag;
+        private final String lastModified;
+        private final long expiresAt;
+
+        /**
+         * Constructor that takes the path, result and validators.
+         * @param path The path of the request
+         * @param pattern The pattern of the path, with each placeholder shown as "{id}"
+         * @param value The result of the request
+         * @param etag The ETag header of the response, or <CODE>null</CODE> if there was none
+         * @param lastModified The Last-Modified header of the response, or <CODE>null</CODE> if there was none
+         * @param expiresAt The time until which the result can be used without a request (in ns)
+         */
+        Entry(String path, String pattern, Object value, String etag, String lastModified, long expiresAt)
+        {
+            this.path = path;
+            this.pattern = pattern;
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Returns the result of the request.
+         * @return The result of the request
+         */
+        Object getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the response had an ETag or Last-Modified header.
+         * @return <CODE>true</CODE> if the response had an ETag or Last-Modified header
+         */
+        boolean hasValidators()
+        {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the result can be used without a request.
+         * @return <CODE>true</CODE> if the result can be used without a request
+         */
+        boolean isFresh()
+        {
+            return System.nanoTime()-expiresAt < 0L;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+/**
+ * Listener notified when a request is retried or a retry is refused, eg. to record metrics.
+ * <p>
+ * Methods are called on the thread that completed the attempt and should return quickly.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface RetryListener
+{
+    /**
+     * Called before a request is retried.
+     * @param request The request being retried
+     * @param attempt The number of attempts already made
+     * @param delay The delay before the retry (in ms)
+     * @param statusCode The status code of the failed attempt, or -1 if it threw an exception
+     * @param cause The exception thrown by the failed attempt, or <CODE>null</CODE> if it returned a response
+     */
+    default void onRetry(TransportRequest request, int attempt, long delay, int statusCode, Throwable cause)
+    {
+    }
+
+    /**
+     * Called when a request could have been retried but the maximum number of attempts has been made.
+     * @param request The request that failed
+     * @param attempts The number of attempts made
+     */
+    default void onRetriesExhausted(TransportRequest request, int attempts)
+    {
+    }
+
+    /**
+     * Called when a request could have been retried but the retry budget has been used up.
+     * @param request The request that failed
+     * @param attempts The number of attempts made
+     */
+    default void onBudgetExhausted(TransportRequest request, int attempts)
+    {
+    }
+}
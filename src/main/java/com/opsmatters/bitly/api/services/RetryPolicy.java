@@ -0,0 +1,615 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLException;
+
+/**
+ * Represents the settings used to retry failed requests.
+ * <p>
+ * Requests are retried after a backoff with full jitter, where the delay is chosen at random
+ * between 0 and an exponentially increasing ceiling, or after the delay given by a Retry-After header.
+ * Retries are limited by a budget that allows a fixed ratio of retries to requests,
+ * so that retries cannot multiply the load on the server during an outage.
+ * <p>
+ * Only idempotent methods are retried by default.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RetryPolicy
+{
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 100L;
+    public static final long DEFAULT_MAX_BACKOFF = 10000L;
+    public static final double DEFAULT_MULTIPLIER = 2.0d;
+    public static final long DEFAULT_MAX_RETRY_AFTER = 60000L;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1d;
+    public static final int DEFAULT_BUDGET_BURST = 10;
+
+    /**
+     * The methods retried by default.
+     */
+    public static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE")));
+
+    /**
+     * The status codes retried by default.
+     */
+    public static final Set<Integer> DEFAULT_STATUS_CODES = Collections.unmodifiableSet(
+        new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504)));
+
+    private static final RetryListener NO_LISTENER = new RetryListener() {};
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private double multiplier = DEFAULT_MULTIPLIER;
+    private boolean retryAfter = true;
+    private long maxRetryAfter = DEFAULT_MAX_RETRY_AFTER;
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private int budgetBurst = DEFAULT_BUDGET_BURST;
+    private Set<String> methods = new HashSet<String>(IDEMPOTENT_METHODS);
+    private Set<Integer> statusCodes = new HashSet<Integer>(DEFAULT_STATUS_CODES);
+    private List<Class<? extends IOException>> exceptions = new ArrayList<Class<? extends IOException>>();
+    private List<Class<? extends IOException>> nonRetriableExceptions = new ArrayList<Class<? extends IOException>>();
+    private RetryListener listener = NO_LISTENER;
+
+    /**
+     * Default constructor.
+     */
+    public RetryPolicy()
+    {
+        exceptions.add(IOException.class);
+        nonRetriableExceptions.add(UnknownHostException.class);
+        nonRetriableExceptions.add(SSLException.class);
+    }
+
+    /**
+     * Returns the maximum number of attempts for each request, including the first.
+     * @return The maximum number of attempts for each request
+     */
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum number of attempts for each request, including the first.
+     * @param maxAttempts The maximum number of attempts for each request
+     */
+    public void setMaxAttempts(int maxAttempts)
+    {
+        if(maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts < 1");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Returns the ceiling of the backoff before the first retry (in ms).
+     * @return The ceiling of the backoff before the first retry
+     */
+    public long getInitialBackoff()
+    {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets the ceiling of the backoff before the first retry (in ms).
+     * @param initialBackoff The ceiling of the backoff before the first retry
+     */
+    public void setInitialBackoff(long initialBackoff)
+    {
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Returns the maximum ceiling of the backoff between retries (in ms).
+     * @return The maximum ceiling of the backoff between retries
+     */
+    public long getMaxBackoff()
+    {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the maximum ceiling of the backoff between retries (in ms).
+     * @param maxBackoff The maximum ceiling of the backoff between retries
+     */
+    public void setMaxBackoff(long maxBackoff)
+    {
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Returns the factor the backoff ceiling is multiplied by after each retry.
+     * @return The factor the backoff ceiling is multiplied by after each retry
+     */
+    public double getMultiplier()
+    {
+        return multiplier;
+    }
+
+    /**
+     * Sets the factor the backoff ceiling is multiplied by after each retry.
+     * @param multiplier The factor the backoff ceiling is multiplied by after each retry
+     */
+    public void setMultiplier(double multiplier)
+    {
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the delay given by a Retry-After header should be used.
+     * @return <CODE>true</CODE> if the delay given by a Retry-After header should be used
+     */
+    public boolean isRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if the delay given by a Retry-After header should be used.
+     * @param retryAfter <CODE>true</CODE> if the delay given by a Retry-After header should be used
+     */
+    public void setRetryAfter(boolean retryAfter)
+    {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the longest Retry-After delay that will be waited for (in ms).
+     * @return The longest Retry-After delay that will be waited for
+     */
+    public long getMaxRetryAfter()
+    {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Sets the longest Retry-After delay that will be waited for (in ms).
+     * <p>
+     * A response with a longer delay is returned to the caller without being retried.
+     * @param maxRetryAfter The longest Retry-After delay that will be waited for
+     */
+    public void setMaxRetryAfter(long maxRetryAfter)
+    {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * Returns the number of retries allowed for each request sent.
+     * @return The number of retries allowed for each request sent
+     */
+    public double getBudgetRatio()
+    {
+        return budgetRatio;
+    }
+
+    /**
+     * Sets the number of retries allowed for each request sent, eg. 0.1 allows one retry for every 10 requests.
+     * @param budgetRatio The number of retries allowed for each request sent
+     */
+    public void setBudgetRatio(double budgetRatio)
+    {
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * Returns the maximum number of retries that can be made in a burst.
+     * @return The maximum number of retries that can be made in a burst
+     */
+    public int getBudgetBurst()
+    {
+        return budgetBurst;
+    }
+
+    /**
+     * Sets the maximum number of retries that can be made in a burst.
+     * @param budgetBurst The maximum number of retries that can be made in a burst
+     */
+    public void setBudgetBurst(int budgetBurst)
+    {
+        this.budgetBurst = budgetBurst;
+    }
+
+    /**
+     * Returns the HTTP methods that are retried.
+     * @return The HTTP methods that are retried
+     */
+    public Set<String> getMethods()
+    {
+        return methods;
+    }
+
+    /**
+     * Sets the HTTP methods that are retried.
+     * @param methods The HTTP methods that are retried
+     */
+    public void setMethods(Set<String> methods)
+    {
+        this.methods = new HashSet<String>(methods);
+    }
+
+    /**
+     * Returns the HTTP status codes that are retried.
+     * @return The HTTP status codes that are retried
+     */
+    public Set<Integer> getStatusCodes()
+    {
+        return statusCodes;
+    }
+
+    /**
+     * Sets the HTTP status codes that are retried.
+     * @param statusCodes The HTTP status codes that are retried
+     */
+    public void setStatusCodes(Set<Integer> statusCodes)
+    {
+        this.statusCodes = new HashSet<Integer>(statusCodes);
+    }
+
+    /**
+     * Returns the I/O exceptions that are retried.
+     * @return The I/O exceptions that are retried
+     */
+    public List<Class<? extends IOException>> getExceptions()
+    {
+        return exceptions;
+    }
+
+    /**
+     * Sets the I/O exceptions that are retried.
+     * @param exceptions The I/O exceptions that are retried
+     */
+    public void setExceptions(List<Class<? extends IOException>> exceptions)
+    {
+        this.exceptions = new ArrayList<Class<? extends IOException>>(exceptions);
+    }
+
+    /**
+     * Returns the I/O exceptions that are never retried, even if they are a subclass of a retried exception.
+     * @return The I/O exceptions that are never retried
+     */
+    public List<Class<? extends IOException>> getNonRetriableExceptions()
+    {
+        return nonRetriableExceptions;
+    }
+
+    /**
+     * Sets the I/O exceptions that are never retried, even if they are a subclass of a retried exception.
+     * @param nonRetriableExceptions The I/O exceptions that are never retried
+     */
+    public void setNonRetriableExceptions(List<Class<? extends IOException>> nonRetriableExceptions)
+    {
+        this.nonRetriableExceptions = new ArrayList<Class<? extends IOException>>(nonRetriableExceptions);
+    }
+
+    /**
+     * Returns the listener notified of retries.
+     * @return The listener notified of retries
+     */
+    public RetryListener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * Sets the listener notified of retries.
+     * @param listener The listener notified of retries
+     */
+    public void setListener(RetryListener listener)
+    {
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if requests with the given method can be retried.
+     * @param method The HTTP method type
+     * @return <CODE>true</CODE> if requests with the given method can be retried
+     */
+    public boolean isRetriableMethod(String method)
+    {
+        return methods.contains(method);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if responses with the given status code can be retried.
+     * @param statusCode The HTTP status code
+     * @return <CODE>true</CODE> if responses with the given status code can be retried
+     */
+    public boolean isRetriableStatus(int statusCode)
+    {
+        return statusCodes.contains(statusCode);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if requests that failed with the given exception can be retried.
+     * @param e The exception thrown by the request
+     * @return <CODE>true</CODE> if requests that failed with the given exception can be retried
+     */
+    public boolean isRetriableException(Throwable e)
+    {
+        for(Class<? extends IOException> type : nonRetriableExceptions)
+        {
+            if(type.isInstance(e))
+                return false;
+        }
+
+        for(Class<? extends IOException> type : exceptions)
+        {
+            if(type.isInstance(e))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the backoff before the given retry, chosen at random up to the ceiling for the attempt.
+     * @param attempt The number of attempts already made
+     * @return The backoff before the retry (in ms)
+     */
+    public long getBackoff(int attempt)
+    {
+        double ceiling = Math.min(maxBackoff, initialBackoff*Math.pow(multiplier, attempt-1));
+        return (long)(ThreadLocalRandom.current().nextDouble()*ceiling);
+    }
+
+    /**
+     * Returns the delay given by the value of a Retry-After header.
+     * @param value The value of the Retry-After header, either a number of seconds or a HTTP date
+     * @return The delay (in ms), or -1 if the header is missing or invalid
+     */
+    public static long parseRetryAfter(String value)
+    {
+        if(value == null || value.trim().length() == 0)
+            return -1L;
+
+        value = value.trim();
+        try
+        {
+            return Math.max(Long.parseLong(value)*1000L, 0L);
+        }
+        catch(NumberFormatException e)
+        {
+            // Not a number of seconds, so try a date
+        }
+
+        try
+        {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(date.toInstant().toEpochMilli()-System.currentTimeMillis(), 0L);
+        }
+        catch(DateTimeParseException e)
+        {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RetryPolicy ["
+            +"maxAttempts="+maxAttempts
+            +", initialBackoff="+initialBackoff
+            +", maxBackoff="+maxBackoff
+            +", multiplier="+multiplier
+            +", retryAfter="+retryAfter
+            +", maxRetryAfter="+maxRetryAfter
+            +", budgetRatio="+budgetRatio
+            +", budgetBurst="+budgetBurst
+            +", methods="+methods
+            +", statusCodes="+statusCodes
+            +", exceptions="+exceptions
+            +", nonRetriableExceptions="+nonRetriableExceptions
+            +"]";
+    }
+
+    /**
+     * Returns a builder for the policy.
+     * @return The builder instance.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Builder to make policy construction easier.
+     */
+    public static class Builder
+    {
+        private RetryPolicy policy = new RetryPolicy();
+
+        /**
+         * Sets the maximum number of attempts for each request, including the first.
+         * @param maxAttempts The maximum number of attempts for each request
+         * @return This object
+         */
+        public Builder maxAttempts(int maxAttempts)
+        {
+            policy.setMaxAttempts(maxAttempts);
+            return this;
+        }
+
+        /**
+         * Sets the ceiling of the backoff before the first retry (in ms).
+         * @param initialBackoff The ceiling of the backoff before the first retry
+         * @return This object
+         */
+        public Builder initialBackoff(long initialBackoff)
+        {
+            policy.setInitialBackoff(initialBackoff);
+            return this;
+        }
+
+        /**
+         * Sets the maximum ceiling of the backoff between retries (in ms).
+         * @param maxBackoff The maximum ceiling of the backoff between retries
+         * @return This object
+         */
+        public Builder maxBackoff(long maxBackoff)
+        {
+            policy.setMaxBackoff(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Sets the factor the backoff ceiling is multiplied by after each retry.
+         * @param multiplier The factor the backoff ceiling is multiplied by after each retry
+         * @return This object
+         */
+        public Builder multiplier(double multiplier)
+        {
+            policy.setMultiplier(multiplier);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if the delay given by a Retry-After header should be used.
+         * @param retryAfter <CODE>true</CODE> if the delay given by a Retry-After header should be used
+         * @return This object
+         */
+        public Builder retryAfter(boolean retryAfter)
+        {
+            policy.setRetryAfter(retryAfter);
+            return this;
+        }
+
+        /**
+         * Sets the longest Retry-After delay that will be waited for (in ms).
+         * @param maxRetryAfter The longest Retry-After delay that will be waited for
+         * @return This object
+         */
+        public Builder maxRetryAfter(long maxRetryAfter)
+        {
+            policy.setMaxRetryAfter(maxRetryAfter);
+            return this;
+        }
+
+        /**
+         * Sets the number of retries allowed for each request sent.
+         * @param budgetRatio The number of retries allowed for each request sent
+         * @return This object
+         */
+        public Builder budgetRatio(double budgetRatio)
+        {
+            policy.setBudgetRatio(budgetRatio);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of retries that can be made in a burst.
+         * @param budgetBurst The maximum number of retries that can be made in a burst
+         * @return This object
+         */
+        public Builder budgetBurst(int budgetBurst)
+        {
+            policy.setBudgetBurst(budgetBurst);
+            return this;
+        }
+
+        /**
+         * Sets the HTTP methods that are retried.
+         * @param methods The HTTP methods that are retried
+         * @return This object
+         */
+        public Builder methods(String... methods)
+        {
+            policy.setMethods(new HashSet<String>(Arrays.asList(methods)));
+            return this;
+        }
+
+        /**
+         * Sets the HTTP status codes that are retried.
+         * @param statusCodes The HTTP status codes that are retried
+         * @return This object
+         */
+        public Builder statusCodes(Integer... statusCodes)
+        {
+            policy.setStatusCodes(new HashSet<Integer>(Arrays.asList(statusCodes)));
+            return this;
+        }
+
+        /**
+         * Sets the I/O exceptions that are retried.
+         * @param exceptions The I/O exceptions that are retried
+         * @return This object
+         */
+        @SafeVarargs
+        public final Builder exceptions(Class<? extends IOException>... exceptions)
+        {
+            // Copy the types one by one, as passing the varargs array on could pollute the heap
+            List<Class<? extends IOException>> list = new ArrayList<Class<? extends IOException>>(exceptions.length);
+            for(Class<? extends IOException> type : exceptions)
+                list.add(type);
+            policy.setExceptions(list);
+            return this;
+        }
+
+        /**
+         * Sets the I/O exceptions that are never retried.
+         * @param nonRetriableExceptions The I/O exceptions that are never retried
+         * @return This object
+         */
+        @SafeVarargs
+        public final Builder nonRetriableExceptions(Class<? extends IOException>... nonRetriableExceptions)
+        {
+            // Copy the types one by one, as passing the varargs array on could pollute the heap
+            List<Class<? extends IOException>> list = new ArrayList<Class<? extends IOException>>(nonRetriableExceptions.length);
+            for(Class<? extends IOException> type : nonRetriableExceptions)
+                list.add(type);
+            policy.setNonRetriableExceptions(list);
+            return this;
+        }
+
+        /**
+         * Sets the listener notified of retries.
+         * @param listener The listener notified of retries
+         * @return This object
+         */
+        public Builder listener(RetryListener listener)
+        {
+            policy.setListener(listener);
+            return this;
+        }
+
+        /**
+         * Returns the configured policy
+         * @return The policy instance
+         */
+        public RetryPolicy build()
+        {
+            return policy;
+        }
+    }
+}
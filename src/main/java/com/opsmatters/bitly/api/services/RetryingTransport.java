@@ -0,0 +1,388 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.opsmatters.bitly.RateLimitExceededException;
+
+/**
+ * HTTP transport that wraps another transport and retries failed requests according to a retry policy.
+ * <p>
+ * A response is retried if its status code is retriable, and a request is retried if it throws
+ * a retriable I/O exception. The response of a failed attempt is closed before the retry,
+ * so its connection is returned to the pool. The last response or exception is returned
+ * to the caller once no more retries are allowed, or once a retry would pass the deadline of the request.
+ * <p>
+ * If a rate limiter is set, each retry takes a permit from it before it is sent, and a retry
+ * that cannot get a permit is not made.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RetryingTransport implements HttpTransport
+{
+    private static final Logger logger = Logger.getLogger(RetryingTransport.class.getName());
+
+    private HttpTransport transport;
+    private RetryPolicy policy;
+    private final RequestBudget budget;
+    private final ScheduledExecutorService scheduler;
+    private volatile RateLimiter rateLimiter;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    /**
+     * Constructor that takes the transport to wrap and the retry policy.
+     * @param transport The HTTP transport used to send requests, closed when this transport is closed
+     * @param policy The policy used to decide when and how to retry requests
+     */
+    public RetryingTransport(HttpTransport transport, RetryPolicy policy)
+    {
+        if(transport == null)
+            throw new IllegalArgumentException("transport == null");
+        if(policy == null)
+            throw new IllegalArgumentException("policy == null");
+
+        this.transport = transport;
+        this.policy = policy;
+        this.budget = new RequestBudget(policy.getBudgetRatio(), policy.getBudgetBurst());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread ret = new Thread(r, "bitly-retry");
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+
+    /**
+     * Returns the wrapped HTTP transport.
+     * @return The wrapped HTTP transport
+     */
+    public HttpTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Returns the policy used to decide when and how to retry requests.
+     * @return The policy used to decide when and how to retry requests
+     */
+    public RetryPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Returns the rate limiter used to take a permit for each retry.
+     * @return The rate limiter used to take a permit for each retry, or <CODE>null</CODE> if retries are not rate limited
+     */
+    public RateLimiter getRateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the rate limiter used to take a permit for each retry.
+     * <p>
+     * The first attempt of each request is expected to have taken its permit before it reached this transport.
+     * @param rateLimiter The rate limiter used to take a permit for each retry, or <CODE>null</CODE> if retries should not be rate limited
+     */
+    public void setRateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the number of requests sent, not including retries.
+     * @return The number of requests sent
+     */
+    public long getRequestCount()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of retries made.
+     * @return The number of retries made
+     */
+    public long getRetryCount()
+    {
+        return retries.sum();
+    }
+
+    /**
+     * Returns the number of requests that failed after the maximum number of attempts.
+     * @return The number of requests that failed after the maximum number of attempts
+     */
+    public long getRetriesExhaustedCount()
+    {
+        return retriesExhausted.sum();
+    }
+
+    /**
+     * Returns the number of retries refused because the retry budget was used up.
+     * @return The number of retries refused because the retry budget was used up
+     */
+    public long getBudgetExhaustedCount()
+    {
+        return budgetExhausted.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        requests.increment();
+        budget.deposit();
+
+        for(int attempt = 1; ; attempt++)
+        {
+            long delay;
+            try
+            {
+                TransportResponse response = transport.execute(request);
+                delay = getRetryDelay(request, attempt, response, null);
+                if(delay < 0L)
+                    return response;
+                closeQuietly(response);
+            }
+            catch(IOException e)
+            {
+                delay = getRetryDelay(request, attempt, null, e);
+                if(delay < 0L)
+                    throw e;
+            }
+
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry "
+                    +request.getMethod()+" "+request.getUri());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        requests.increment();
+        budget.deposit();
+
+        CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+        executeAsync(request, 1, ret);
+        return ret;
+    }
+
+    /**
+     * Sends the given attempt of a request asynchronously, scheduling a retry if it fails.
+     * @param request The request to send
+     * @param attempt The number of the attempt, starting at 1
+     * @param ret The future completed with the final response
+     */
+    private void executeAsync(final TransportRequest request, final int attempt,
+        final CompletableFuture<TransportResponse> ret)
+    {
+        if(ret.isDone())
+            return;
+
+        final CompletableFuture<TransportResponse> future;
+        try
+        {
+            future = transport.executeAsync(request);
+        }
+        catch(RuntimeException e)
+        {
+            ret.completeExceptionally(e);
+            return;
+        }
+
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCancelled())
+                future.cancel(true);
+        });
+
+        future.whenComplete((response, e) ->
+        {
+            Throwable cause = e != null ? HttpContext.unwrap(e) : null;
+            long delay = ret.isDone() ? -1L : getRetryDelay(request, attempt, response, cause);
+            if(delay < 0L)
+            {
+                if(cause != null)
+                    ret.completeExceptionally(cause);
+                else if(!ret.complete(response))
+                    closeQuietly(response);
+                return;
+            }
+
+            if(response != null)
+                closeQuietly(response);
+
+            try
+            {
+                final ScheduledFuture<?> retry = scheduler.schedule(() -> executeAsync(request, attempt+1, ret),
+                    delay, TimeUnit.MILLISECONDS);
+                ret.whenComplete((result, ex) ->
+                {
+                    if(ret.isCancelled())
+                        retry.cancel(false);
+                });
+            }
+            catch(RejectedExecutionException ex)
+            {
+                ret.completeExceptionally(cause != null ? cause : new IOException("Transport closed"));
+            }
+        });
+    }
+
+    /**
+     * Returns the delay before the next attempt of the given request, or -1 if it should not be retried.
+     * <p>
+     * Takes a retry from the budget and a permit from the rate limiter,
+     * and notifies the listener if the request is to be retried.
+     * @param request The request that was sent
+     * @param attempt The number of attempts already made
+     * @param response The response of the attempt, or <CODE>null</CODE> if it threw an exception
+     * @param cause The exception thrown by the attempt, or <CODE>null</CODE> if it returned a response
+     * @return The delay before the next attempt (in ms), or -1 if the request should not be retried
+     */
+    private long getRetryDelay(TransportRequest request, int attempt, TransportResponse response, Throwable cause)
+    {
+        if(!policy.isRetriableMethod(request.getMethod()))
+            return -1L;
+
+        int statusCode = response != null ? response.getStatusCode() : -1;
+        if(response != null ? !policy.isRetriableStatus(statusCode) : !policy.isRetriableException(cause))
+            return -1L;
+
+        RetryListener listener = policy.getListener();
+        if(attempt >= policy.getMaxAttempts())
+        {
+            retriesExhausted.increment();
+            listener.onRetriesExhausted(request, attempt);
+            return -1L;
+        }
+
+        long ret = policy.getBackoff(attempt);
+        if(response != null && policy.isRetryAfter())
+        {
+            long retryAfter = RetryPolicy.parseRetryAfter(response.getHeader("Retry-After"));
+            if(retryAfter > policy.getMaxRetryAfter())
+                return -1L;
+            if(retryAfter >= 0L)
+                ret = retryAfter;
+        }
+
+        // Give up if the request would pass its deadline before the retry is sent
+        Deadline deadline = request.getDeadline();
+        if(deadline != null && ret >= deadline.timeRemaining(TimeUnit.MILLISECONDS))
+            return -1L;
+
+        if(!budget.withdraw())
+        {
+            budgetExhausted.increment();
+            listener.onBudgetExhausted(request, attempt);
+            return -1L;
+        }
+
+        // Take a permit for the retry, waiting for it as well as the backoff
+        RateLimiter limiter = rateLimiter;
+        if(limiter != null)
+        {
+            long permit;
+            try
+            {
+                permit = limiter.reserve(request);
+            }
+            catch(RateLimitExceededException e)
+            {
+                permit = -1L;
+            }
+            if(permit < 0L)
+                return -1L;
+            ret = Math.max(ret, TimeUnit.NANOSECONDS.toMillis(permit+999999L));
+        }
+
+        retries.increment();
+        if(logger.isLoggable(Level.FINE))
+            logger.fine("Retrying "+request.getMethod()+" "+request.getUri()+" in "+ret+"ms after attempt "+attempt
+                +(cause != null ? " failed: "+cause : " returned "+statusCode));
+        listener.onRetry(request, attempt, ret, statusCode, cause);
+        return ret;
+    }
+
+    /**
+     * Stops any scheduled retries and closes the wrapped transport.
+     * @throws IOException if the transport could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        scheduler.shutdownNow();
+        transport.close();
+    }
+
+    /**
+     * Closes the given response, logging any error.
+     * @param response The response to close
+     */
+    private static void closeQuietly(TransportResponse response)
+    {
+        try
+        {
+            response.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to close response: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RetryingTransport ["
+            +"requests="+getRequestCount()
+            +", retries="+getRetryCount()
+            +", retriesExhausted="+getRetriesExhaustedCount()
+            +", budgetExhausted="+getBudgetExhaustedCount()
+            +"]";
+    }
+}
@@ -0,0 +1,1171 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of shortened long urls, so that a client can find its bitlinks again after a restart
+ * without sending a shorten request for each of them.
+ * <p>
+ * The store is a directory holding two memory-mapped files:
+ * <ul>
+ * <li>An append-only log of records, each holding a CRC32 checksum, the key and the value.
+ * A removed key is recorded with a tombstone.</li>
+ * <li>An open-addressing hash index from the hash of each key to the position of its latest record in the log.</li>
+ * </ul>
+ * A lookup probes the index and reads only the record it points to from the mapped log, copying the value out.
+ * After a restart the mappings are available as soon as the files are mapped rather than after the log
+ * has been read. The index also records how much of the log it covers, and any records after that point
+ * are indexed when the store is opened.
+ * <p>
+ * A mapping can be put with an id, eg. the bitlink a long url was shortened to, and all the mappings with an id
+ * removed with {@link #removeId(String)}. The keys for each id are held in a record of their own in the log,
+ * so a removal only touches the records of that id.
+ * <p>
+ * A mapping loaded while another thread could be removing it, eg. a bitlink returned by a shorten request that
+ * was in flight while the bitlink was updated, can be put with the stamp returned by {@link #getInvalidationStamp()}
+ * before it was loaded, so that it is not stored if a mapping has been removed since.
+ * <p>
+ * The log is limited to 2GB. Records that have been replaced or removed stay in the log until it is compacted,
+ * either by calling {@link #compact()} or automatically when the log is full, which copies the live records
+ * to a new log. The log and index are remapped when they grow or the log is compacted, and the old mappings
+ * are released when they are garbage collected, as Java 8 has no way to unmap a file.
+ * <p>
+ * Each record is checked against its checksum when it is read. A record damaged by a crash is treated as the end
+ * of the log when the store is opened, and later records are written over it. If the index is missing or damaged
+ * it is rebuilt from the log.
+ * <p>
+ * Lookups can run concurrently; writes are serialized. Writes are not forced to disk until {@link #flush()}
+ * or {@link #close()} is called, so records written just before a power failure may be lost,
+ * but those written before a process crash are kept by the operating system.
+ * The directory is locked using a lock file, so only one process can use the store at a time.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ShortenStore implements Closeable
+{
+    private static final Logger logger = Logger.getLogger(ShortenStore.class.getName());
+
+    private static final String LOG_FILE = "shorten.log";
+    private static final String INDEX_FILE = "shorten.idx";
+    private static final String LOCK_FILE = "shorten.lock";
+    private static final int LOG_MAGIC = 0x42534c31;
+    private static final int INDEX_MAGIC = 0x42534931;
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int INDEX_HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_LOG_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MAX_LENGTH = 1 << 20;
+    private static final double MAX_LOAD = 0.7d;
+    private static final int TOMBSTONE = -1;
+    private static final byte ID_PREFIX = 0;
+
+    private final Path directory;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel lockChannel;
+    private FileLock fileLock;
+    private FileChannel logChannel;
+    private MappedByteBuffer log;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int used;
+    private int live;
+    private int logEnd;
+    private volatile long invalidations = 0L;
+    private volatile boolean closed = false;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor that takes the directory of the store, which is created if it does not exist.
+     * @param directory The directory holding the files of the store
+     * @throws IOException if the store could not be opened or is in use by another process.
+     */
+    public ShortenStore(Path directory) throws IOException
+    {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            try
+            {
+                fileLock = lockChannel.tryLock();
+            }
+            catch(OverlappingFileLockException e)
+            {
+                fileLock = null;
+            }
+            if(fileLock == null)
+                throw new IOException("Shorten store is in use: "+directory);
+
+            // Discard the new log of a compaction that did not complete
+            Files.deleteIfExists(directory.resolve(LOG_FILE+".tmp"));
+
+            Path path = directory.resolve(LOG_FILE);
+            logChannel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            openLog(path);
+            if(!openIndex())
+                createIndex();
+            recover();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            if(logChannel != null)
+                logChannel.close();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the directory holding the files of the store.
+     * @return The directory holding the files of the store
+     */
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns the number of keys in the store.
+     * @return The number of keys in the store
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return live;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the value for the given key, or <CODE>null</CODE> if it is not in the store.
+     * @param key The key of the mapping
+     * @return The value for the given key, or <CODE>null</CODE> if it is not in the store
+     */
+    public String get(String key)
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+
+        lock.readLock().lock();
+        try
+        {
+            checkOpen();
+            int position = getPosition(findSlot(hash, keyBytes));
+            String ret = position > 0 ? readValue(position) : null;
+            if(ret != null)
+                hits.increment();
+            else
+                misses.increment();
+            return ret;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given mapping to the store, replacing any existing value for the key.
+     * @param key The key of the mapping
+     * @param value The value of the mapping
+     * @throws IOException if the log could not be extended.
+     */
+    public void put(String key, String value) throws IOException
+    {
+        if(value == null)
+            throw new IllegalArgumentException("value == null");
+        write(getKeyBytes(key), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the given mapping to the store with the given id, replacing any existing value for the key.
+     * <p>
+     * The mapping is removed by {@link #removeId(String)} with the same id.
+     * @param key The key of the mapping
+     * @param value The value of the mapping
+     * @param id The id of the mapping, eg. the bitlink a long url was shortened to
+     * @throws IOException if the log could not be extended.
+     */
+    public void put(String key, String value, String id) throws IOException
+    {
+        if(value == null)
+            throw new IllegalArgumentException("value == null");
+        byte[] keyBytes = getKeyBytes(key);
+        byte[] idBytes = getIdBytes(id);
+
+        lock.writeLock().lock();
+        try
+        {
+            write(keyBytes, value.getBytes(StandardCharsets.UTF_8));
+
+            // Add the key to the keys of the id, separated by NUL bytes
+            byte[] keys = readValueBytes(getPosition(findSlot(hash(idBytes), idBytes)));
+            if(keys == null)
+            {
+                write(idBytes, keyBytes);
+            }
+            else if(!containsKey(keys, keyBytes))
+            {
+                byte[] list = Arrays.copyOf(keys, keys.length+1+keyBytes.length);
+                System.arraycopy(keyBytes, 0, list, keys.length+1, keyBytes.length);
+                write(idBytes, list);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given mapping to the store with the given id only if no mapping has been removed since the given stamp was taken.
+     * <p>
+     * Used to add a mapping that was loaded while it could have been removed,
+     * so that a mapping loaded before an update does not replace the removed mapping.
+     * @param key The key of the mapping
+     * @param value The value of the mapping
+     * @param id The id of the mapping, eg. the bitlink a long url was shortened to, or <CODE>null</CODE> if it has no id
+     * @param stamp The stamp returned by {@link #getInvalidationStamp()} before the mapping was loaded
+     * @return <CODE>true</CODE> if the mapping was added
+     * @throws IOException if the log could not be extended.
+     */
+    public boolean put(String key, String value, String id, long stamp) throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            if(invalidations != stamp)
+                return false;
+            if(id != null)
+                put(key, value, id);
+            else
+                put(key, value);
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a stamp that changes whenever a mapping is removed.
+     * @return A stamp that changes whenever a mapping is removed
+     */
+    public long getInvalidationStamp()
+    {
+        return invalidations;
+    }
+
+    /**
+     * Removes the mapping for the given key from the store.
+     * @param key The key of the mapping
+     * @throws IOException if the log could not be extended.
+     */
+    public void remove(String key) throws IOException
+    {
+        byte[] keyBytes = getKeyBytes(key);
+
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            ++invalidations;
+            write(keyBytes, null);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mappings from the store that were put with the given id.
+     * <p>
+     * A key that was put with the id and later with another id is also removed.
+     * @param id The id of the mappings, eg. the bitlink a long url was shortened to
+     * @throws IOException if the log could not be extended.
+     */
+    public void removeId(String id) throws IOException
+    {
+        byte[] idBytes = getIdBytes(id);
+
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+
+            // A mapping for the id may be being loaded, so it must not be put afterwards even if there is none yet
+            ++invalidations;
+            byte[] keys = readValueBytes(getPosition(findSlot(hash(idBytes), idBytes)));
+            if(keys == null)
+                return;
+
+            for(int start = 0; start < keys.length; )
+            {
+                int end = start;
+                while(end < keys.length && keys[end] != 0)
+                    ++end;
+                write(Arrays.copyOfRange(keys, start, end), null);
+                start = end+1;
+            }
+            write(idBytes, null);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mappings from the store that match the given predicate.
+     * <p>
+     * Reads every mapping while holding the write lock, so should only be used for occasional removals.
+     * Use {@link #removeId(String)} to remove the mappings for an id.
+     * @param predicate The predicate given the key and value of each mapping
+     * @throws IOException if the log could not be extended.
+     */
+    public void removeIf(BiPredicate<String,String> predicate) throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            ++invalidations;
+            for(int slot = 0; slot < capacity; slot++)
+            {
+                int position = getPosition(slot);
+                String value = position > 0 ? readValue(position) : null;
+                if(value == null)
+                    continue;
+
+                int keyLength = log.getInt(position+4);
+                byte[] keyBytes = new byte[keyLength];
+                read(position+RECORD_HEADER_SIZE, keyBytes);
+                if(keyBytes[0] != ID_PREFIX && predicate.test(new String(keyBytes, StandardCharsets.UTF_8), value))
+                    write(keyBytes, null);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the live records to a new log, dropping records that have been replaced or removed,
+     * and rebuilds the index.
+     * <p>
+     * Blocks lookups and writes while the log is copied. The old log is replaced atomically,
+     * so a crash during compaction leaves either the old or the new log in place.
+     * @throws IOException if the new log could not be written.
+     */
+    public void compact() throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            rewrite();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces any changes to the store to be written to disk.
+     * @throws IOException if the store has been closed.
+     */
+    public void flush() throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if(closed)
+                throw new IOException("Shorten store closed: "+directory);
+            log.force();
+            index.force();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a value.
+     * @return The number of lookups that found a value
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a value.
+     * @return The number of lookups that did not find a value
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Resets the counts to zero.
+     */
+    public void reset()
+    {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Forces any changes to disk and closes the store.
+     * @throws IOException if the store could not be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if(closed)
+                return;
+            closed = true;
+            log.force();
+            index.force();
+            logChannel.close();
+            fileLock.release();
+            lockChannel.close();
+            log = null;
+            index = null;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Maps the log file, writing its header if it is new.
+     * @param path The path of the log file
+     * @throws IOException if the log file could not be mapped or is not a log of a shorten store.
+     */
+    private void openLog(Path path) throws IOException
+    {
+        long size = logChannel.size();
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("Shorten store log too large: "+path);
+        if(size < INITIAL_LOG_SIZE)
+            extend(logChannel, INITIAL_LOG_SIZE);
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0L, logChannel.size());
+
+        int magic = log.getInt(0);
+        if(magic == 0 && log.getInt(4) == 0)
+        {
+            log.putInt(0, LOG_MAGIC);
+            log.putInt(4, VERSION);
+        }
+        else if(magic != LOG_MAGIC || log.getInt(4) != VERSION)
+        {
+            throw new IOException("Not a shorten store log: "+path);
+        }
+    }
+
+    /**
+     * Maps the index file if it exists and is valid.
+     * @return <CODE>true</CODE> if the index was mapped, or <CODE>false</CODE> if it needs to be rebuilt
+     * @throws IOException if the index file could not be mapped.
+     */
+    private boolean openIndex() throws IOException
+    {
+        Path path = directory.resolve(INDEX_FILE);
+        if(!Files.exists(path))
+            return false;
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long size = channel.size();
+            if(size < INDEX_HEADER_SIZE)
+                return invalidIndex(path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            int slots = buffer.getInt(8);
+            long end = buffer.getLong(24);
+            if(buffer.getInt(0) != INDEX_MAGIC || buffer.getInt(4) != VERSION
+                || slots <= 0 || slots > MAX_CAPACITY || Integer.bitCount(slots) != 1
+                || size != INDEX_HEADER_SIZE+(long)slots*SLOT_SIZE
+                || end < LOG_HEADER_SIZE || end > log.capacity() || buffer.getInt(20) != log.getInt(8))
+            {
+                return invalidIndex(path);
+            }
+
+            index = buffer;
+            capacity = slots;
+            used = buffer.getInt(12);
+            live = buffer.getInt(16);
+            logEnd = (int)end;
+            return true;
+        }
+    }
+
+    /**
+     * Logs that the given index file is invalid.
+     * @param path The path of the index file
+     * @return <CODE>false</CODE>
+     */
+    private boolean invalidIndex(Path path)
+    {
+        logger.warning("Rebuilding invalid shorten store index: "+path);
+        return false;
+    }
+
+    /**
+     * Creates an empty index, so that all of the log is indexed when the store is recovered.
+     * @throws IOException if the index file could not be created.
+     */
+    private void createIndex() throws IOException
+    {
+        capacity = INITIAL_CAPACITY;
+        used = 0;
+        live = 0;
+        logEnd = LOG_HEADER_SIZE;
+        index = mapIndex(capacity);
+        installIndex();
+    }
+
+    /**
+     * Creates a temporary index file with the given number of slots.
+     * @param slots The number of slots in the index
+     * @return The mapped index file
+     * @throws IOException if the index file could not be created.
+     */
+    private MappedByteBuffer mapIndex(int slots) throws IOException
+    {
+        Path path = directory.resolve(INDEX_FILE+".tmp");
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0L, INDEX_HEADER_SIZE+(long)slots*SLOT_SIZE);
+        }
+    }
+
+    /**
+     * Writes the header of the current index and replaces the index file with the temporary index file.
+     * @throws IOException if the index file could not be replaced.
+     */
+    private void installIndex() throws IOException
+    {
+        writeIndexHeader();
+        index.force();
+        Files.move(directory.resolve(INDEX_FILE+".tmp"), directory.resolve(INDEX_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the counts, the generation of the log and the end of the indexed log to the header of the index.
+     */
+    private void writeIndexHeader()
+    {
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, capacity);
+        index.putInt(12, used);
+        index.putInt(16, live);
+        index.putInt(20, log.getInt(8));
+        index.putLong(24, logEnd);
+    }
+
+    /**
+     * Indexes the records written after the end of the indexed log, stopping at the first damaged record.
+     * @throws IOException if the index could not be grown.
+     */
+    private void recover() throws IOException
+    {
+        int position = logEnd;
+        int recovered = 0;
+        while(position+RECORD_HEADER_SIZE <= log.capacity())
+        {
+            int keyLength = log.getInt(position+4);
+            if(keyLength == 0)
+                break;
+
+            int size = getRecordSize(position);
+            if(size < 0 || !isValid(position, size))
+            {
+                logger.warning("Discarding damaged shorten store record at "+position+" of "+directory);
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            read(position+RECORD_HEADER_SIZE, keyBytes);
+            index(keyBytes, position);
+            position += size;
+            ++recovered;
+        }
+
+        // Mark the end of the log over any damaged record
+        if(position+RECORD_HEADER_SIZE <= log.capacity())
+            log.putInt(position+4, 0);
+        logEnd = position;
+        writeIndexHeader();
+
+        if(recovered > 0)
+            logger.fine("Indexed "+recovered+" shorten store records from "+directory);
+    }
+
+    /**
+     * Appends a record with the given key and value, and points the index at it.
+     * @param keyBytes The key of the mapping
+     * @param valueBytes The value of the mapping, or <CODE>null</CODE> to remove it
+     * @throws IOException if the log could not be extended.
+     */
+    private void write(byte[] keyBytes, byte[] valueBytes) throws IOException
+    {
+        if(keyBytes.length == 0 || keyBytes.length > MAX_LENGTH)
+            throw new IllegalArgumentException("key length must be > 0 and <= "+MAX_LENGTH);
+        if(valueBytes != null && valueBytes.length > MAX_LENGTH)
+            throw new IllegalArgumentException("value length must be <= "+MAX_LENGTH);
+
+        lock.writeLock().lock();
+        try
+        {
+            checkOpen();
+            int slot = findSlot(hash(keyBytes), keyBytes);
+            int existing = getPosition(slot);
+            boolean wasLive = existing > 0 && log.getInt(existing+8) != TOMBSTONE;
+            if(valueBytes == null ? !wasLive : wasLive && valueEquals(existing, valueBytes))
+                return;
+
+            int position = append(keyBytes, valueBytes);
+            index(keyBytes, position);
+            logEnd = position+getRecordSize(position);
+            writeIndexHeader();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a checksummed record to the end of the log, followed by an end marker.
+     * @param keyBytes The key of the mapping
+     * @param valueBytes The value of the mapping, or <CODE>null</CODE> for a tombstone
+     * @return The position of the record in the log
+     * @throws IOException if the log could not be extended.
+     */
+    private int append(byte[] keyBytes, byte[] valueBytes) throws IOException
+    {
+        int valueLength = valueBytes != null ? valueBytes.length : 0;
+        int size = RECORD_HEADER_SIZE+keyBytes.length+valueLength;
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(0);
+        record.putInt(keyBytes.length);
+        record.putInt(valueBytes != null ? valueBytes.length : TOMBSTONE);
+        record.put(keyBytes);
+        if(valueBytes != null)
+            record.put(valueBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, size-4);
+        record.putInt(0, (int)crc.getValue());
+        record.flip();
+
+        ensureCapacity(size);
+        int position = logEnd;
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(position);
+        buffer.put(record);
+        log.putInt(position+size+4, 0);
+        return position;
+    }
+
+    /**
+     * Points the slot of the given key at the given record, growing the index if it is too full.
+     * @param keyBytes The key of the mapping
+     * @param position The position of the latest record for the key
+     * @throws IOException if the index could not be grown.
+     */
+    private void index(byte[] keyBytes, int position) throws IOException
+    {
+        int hash = hash(keyBytes);
+        int slot = findSlot(hash, keyBytes);
+        int existing = getPosition(slot);
+        boolean wasLive = existing > 0 && log.getInt(existing+8) != TOMBSTONE;
+        boolean isLive = log.getInt(position+8) != TOMBSTONE;
+        if(existing == 0)
+            ++used;
+        if(keyBytes[0] != ID_PREFIX)
+            live += (isLive ? 1 : 0)-(wasLive ? 1 : 0);
+
+        int offset = INDEX_HEADER_SIZE+slot*SLOT_SIZE;
+        index.putInt(offset+8, hash);
+        index.putLong(offset, position);
+
+        if(used > capacity*MAX_LOAD)
+            resize();
+    }
+
+    /**
+     * Doubles the number of slots in the index, replacing the index file.
+     * @throws IOException if the index file could not be replaced.
+     */
+    private void resize() throws IOException
+    {
+        if(capacity >= MAX_CAPACITY)
+            throw new IOException("Shorten store index is full: "+directory);
+
+        int slots = capacity*2;
+        MappedByteBuffer buffer = mapIndex(slots);
+        int mask = slots-1;
+        for(int slot = 0; slot < capacity; slot++)
+        {
+            int offset = INDEX_HEADER_SIZE+slot*SLOT_SIZE;
+            long position = index.getLong(offset);
+            if(position == 0L)
+                continue;
+
+            int hash = index.getInt(offset+8);
+            int i = hash & mask;
+            while(buffer.getLong(INDEX_HEADER_SIZE+i*SLOT_SIZE) != 0L)
+                i = (i+1) & mask;
+            buffer.putLong(INDEX_HEADER_SIZE+i*SLOT_SIZE, position);
+            buffer.putInt(INDEX_HEADER_SIZE+i*SLOT_SIZE+8, hash);
+        }
+
+        index = buffer;
+        capacity = slots;
+        installIndex();
+    }
+
+    /**
+     * Returns the slot holding the given key, or the empty slot where it would be added.
+     * @param hash The hash of the key
+     * @param keyBytes The key of the mapping
+     * @return The index of the slot
+     */
+    private int findSlot(int hash, byte[] keyBytes)
+    {
+        int mask = capacity-1;
+        for(int slot = hash & mask; ; slot = (slot+1) & mask)
+        {
+            int offset = INDEX_HEADER_SIZE+slot*SLOT_SIZE;
+            long position = index.getLong(offset);
+            if(position == 0L || (index.getInt(offset+8) == hash && keyEquals((int)position, keyBytes)))
+                return slot;
+        }
+    }
+
+    /**
+     * Returns the position of the record in the given slot, or 0 if the slot is empty.
+     * @param slot The index of the slot
+     * @return The position of the record in the given slot, or 0 if the slot is empty
+     */
+    private int getPosition(int slot)
+    {
+        return (int)index.getLong(INDEX_HEADER_SIZE+slot*SLOT_SIZE);
+    }
+
+    /**
+     * Returns the value of the record at the given position,
+     * or <CODE>null</CODE> if it is a tombstone or is damaged.
+     * @param position The position of the record in the log
+     * @return The value of the record, or <CODE>null</CODE> if it is a tombstone or is damaged
+     */
+    private String readValue(int position)
+    {
+        byte[] ret = readValueBytes(position);
+        return ret != null ? new String(ret, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Returns a copy of the value of the record at the given position,
+     * or <CODE>null</CODE> if there is no record or it is a tombstone or is damaged.
+     * @param position The position of the record in the log, or 0 if there is no record
+     * @return The value of the record, or <CODE>null</CODE> if there is no record or it is a tombstone or is damaged
+     */
+    private byte[] readValueBytes(int position)
+    {
+        if(position <= 0)
+            return null;
+
+        int size = getRecordSize(position);
+        if(size < 0 || !isValid(position, size))
+        {
+            logger.warning("Ignoring damaged shorten store record at "+position+" of "+directory);
+            return null;
+        }
+
+        int valueLength = log.getInt(position+8);
+        if(valueLength == TOMBSTONE)
+            return null;
+        byte[] ret = new byte[valueLength];
+        read(position+RECORD_HEADER_SIZE+log.getInt(position+4), ret);
+        return ret;
+    }
+
+    /**
+     * Returns the size of the record at the given position, or -1 if its lengths are invalid.
+     * @param position The position of the record in the log
+     * @return The size of the record, or -1 if its lengths are invalid
+     */
+    private int getRecordSize(int position)
+    {
+        int keyLength = log.getInt(position+4);
+        int valueLength = log.getInt(position+8);
+        if(keyLength <= 0 || keyLength > MAX_LENGTH || valueLength < TOMBSTONE || valueLength > MAX_LENGTH)
+            return -1;
+        long ret = (long)RECORD_HEADER_SIZE+keyLength+Math.max(valueLength, 0);
+        return position+ret <= log.capacity() ? (int)ret : -1;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the record at the given position matches its checksum.
+     * @param position The position of the record in the log
+     * @param size The size of the record
+     * @return <CODE>true</CODE> if the record at the given position matches its checksum
+     */
+    private boolean isValid(int position, int size)
+    {
+        ByteBuffer buffer = log.duplicate();
+        buffer.limit(position+size);
+        buffer.position(position+4);
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int)crc.getValue() == log.getInt(position);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the key of the record at the given position is the given key.
+     * @param position The position of the record in the log
+     * @param keyBytes The key to compare
+     * @return <CODE>true</CODE> if the key of the record at the given position is the given key
+     */
+    private boolean keyEquals(int position, byte[] keyBytes)
+    {
+        if(log.getInt(position+4) != keyBytes.length)
+            return false;
+        return regionEquals(position+RECORD_HEADER_SIZE, keyBytes);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the value of the record at the given position is the given value.
+     * @param position The position of the record in the log
+     * @param valueBytes The value to compare
+     * @return <CODE>true</CODE> if the value of the record at the given position is the given value
+     */
+    private boolean valueEquals(int position, byte[] valueBytes)
+    {
+        if(log.getInt(position+8) != valueBytes.length)
+            return false;
+        return regionEquals(position+RECORD_HEADER_SIZE+log.getInt(position+4), valueBytes);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the log holds the given bytes at the given position.
+     * @param position The position in the log
+     * @param bytes The bytes to compare
+     * @return <CODE>true</CODE> if the log holds the given bytes at the given position
+     */
+    private boolean regionEquals(int position, byte[] bytes)
+    {
+        if((long)position+bytes.length > log.capacity())
+            return false;
+        for(int i = 0; i < bytes.length; i++)
+        {
+            if(log.get(position+i) != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies bytes from the given position of the log.
+     * @param position The position in the log
+     * @param bytes The array to fill
+     */
+    private void read(int position, byte[] bytes)
+    {
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(position);
+        buffer.get(bytes);
+    }
+
+    /**
+     * Extends and remaps the log if there is no room for a record of the given size and an end marker,
+     * compacting the log first if it has reached its maximum size.
+     * @param size The size of the record
+     * @throws IOException if the log could not be extended.
+     */
+    private void ensureCapacity(int size) throws IOException
+    {
+        long required = (long)logEnd+size+RECORD_HEADER_SIZE;
+        if(required <= log.capacity())
+            return;
+
+        if(required > Integer.MAX_VALUE)
+        {
+            logger.info("Compacting full shorten store log: "+directory);
+            rewrite();
+            required = (long)logEnd+size+RECORD_HEADER_SIZE;
+            if(required <= log.capacity())
+                return;
+            if(required > Integer.MAX_VALUE)
+                throw new IOException("Shorten store log is full: "+directory);
+        }
+
+        long length = Math.min(Math.max(log.capacity()*2L, required), Integer.MAX_VALUE);
+        extend(logChannel, length);
+        log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0L, length);
+    }
+
+    /**
+     * Copies the live records to a new log with the next generation, and replaces the log and index with the new ones.
+     * <p>
+     * The new index is only installed after the new log, and records the generation of the log it covers,
+     * so an index left over from the old log by a crash is rebuilt when the store is opened.
+     * @throws IOException if the new log could not be written.
+     */
+    private void rewrite() throws IOException
+    {
+        // Find the size of the new log and index
+        long length = LOG_HEADER_SIZE+RECORD_HEADER_SIZE;
+        int count = 0;
+        for(int slot = 0; slot < capacity; slot++)
+        {
+            int position = getPosition(slot);
+            int size = position > 0 && log.getInt(position+8) != TOMBSTONE ? getRecordSize(position) : -1;
+            if(size > 0 && isValid(position, size))
+            {
+                length += size;
+                ++count;
+            }
+        }
+
+        if(length > Integer.MAX_VALUE)
+            throw new IOException("Shorten store log is full: "+directory);
+        int slots = INITIAL_CAPACITY;
+        while(count > slots*MAX_LOAD && slots < MAX_CAPACITY)
+            slots *= 2;
+
+        Path path = directory.resolve(LOG_FILE+".tmp");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer;
+        MappedByteBuffer newIndex;
+        int end = LOG_HEADER_SIZE;
+        int newLive = 0;
+        try
+        {
+            extend(channel, Math.max(length, INITIAL_LOG_SIZE));
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+            buffer.putInt(0, LOG_MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, log.getInt(8)+1);
+
+            // Copy each live record and add it to the new index
+            newIndex = mapIndex(slots);
+            int mask = slots-1;
+            for(int slot = 0; slot < capacity; slot++)
+            {
+                int position = getPosition(slot);
+                int size = position > 0 && log.getInt(position+8) != TOMBSTONE ? getRecordSize(position) : -1;
+                if(size < 0 || !isValid(position, size))
+                    continue;
+
+                ByteBuffer record = log.duplicate();
+                record.limit(position+size);
+                record.position(position);
+                ByteBuffer target = buffer.duplicate();
+                target.position(end);
+                target.put(record);
+
+                int hash = index.getInt(INDEX_HEADER_SIZE+slot*SLOT_SIZE+8);
+                int i = hash & mask;
+                while(newIndex.getLong(INDEX_HEADER_SIZE+i*SLOT_SIZE) != 0L)
+                    i = (i+1) & mask;
+                newIndex.putLong(INDEX_HEADER_SIZE+i*SLOT_SIZE, end);
+                newIndex.putInt(INDEX_HEADER_SIZE+i*SLOT_SIZE+8, hash);
+                if(log.get(position+RECORD_HEADER_SIZE) != ID_PREFIX)
+                    ++newLive;
+                end += size;
+            }
+            buffer.force();
+            Files.move(path, directory.resolve(LOG_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        FileChannel oldChannel = logChannel;
+        logChannel = channel;
+        log = buffer;
+        index = newIndex;
+        capacity = slots;
+        used = count;
+        live = newLive;
+        logEnd = end;
+        installIndex();
+        oldChannel.close();
+    }
+
+    /**
+     * Throws an exception if the store has been closed.
+     */
+    private void checkOpen()
+    {
+        if(closed)
+            throw new IllegalStateException("Shorten store closed: "+directory);
+    }
+
+    /**
+     * Extends the given file to the given size.
+     * @param channel The channel of the file
+     * @param size The size of the file
+     * @throws IOException if the file could not be extended.
+     */
+    private static void extend(FileChannel channel, long size) throws IOException
+    {
+        if(channel.size() < size)
+            channel.write(ByteBuffer.wrap(new byte[1]), size-1L);
+    }
+
+    /**
+     * Returns the given key as UTF-8 bytes, checking that it cannot be mistaken for the keys of an id.
+     * @param key The key of the mapping
+     * @return The key as UTF-8 bytes
+     */
+    private static byte[] getKeyBytes(String key)
+    {
+        if(key.indexOf(0) >= 0)
+            throw new IllegalArgumentException("key must not contain NUL");
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the key of the record holding the keys of the given id, which is the id prefixed with a NUL byte.
+     * @param id The id of the mappings
+     * @return The key of the record holding the keys of the id
+     */
+    private static byte[] getIdBytes(String id)
+    {
+        if(id == null)
+            throw new IllegalArgumentException("id == null");
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] ret = new byte[bytes.length+1];
+        ret[0] = ID_PREFIX;
+        System.arraycopy(bytes, 0, ret, 1, bytes.length);
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given NUL separated list of keys contains the given key.
+     * @param keys The NUL separated list of keys
+     * @param keyBytes The key to find
+     * @return <CODE>true</CODE> if the list contains the given key
+     */
+    private static boolean containsKey(byte[] keys, byte[] keyBytes)
+    {
+        for(int start = 0; start < keys.length; )
+        {
+            int end = start;
+            while(end < keys.length && keys[end] != 0)
+                ++end;
+            if(end-start == keyBytes.length)
+            {
+                int i = 0;
+                while(i < keyBytes.length && keys[start+i] == keyBytes[i])
+                    ++i;
+                if(i == keyBytes.length)
+                    return true;
+            }
+            start = end+1;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the hash of the given key, which must not change between releases as it is stored in the index.
+     * @param keyBytes The key of the mapping
+     * @return The hash of the given key
+     */
+    private static int hash(byte[] keyBytes)
+    {
+        int ret = 0x811c9dc5;
+        for(byte b : keyBytes)
+            ret = (ret ^ (b & 0xff))*0x01000193;
+        ret ^= ret >>> 16;
+        ret *= 0x85ebca6b;
+        ret ^= ret >>> 13;
+        return ret;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "ShortenStore ["
+            +"directory="+directory
+            +", size="+size()
+            +", hits="+getHitCount()
+            +", misses="+getMissCount()
+            +"]";
+    }
+}
@@ -0,0 +1,706 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-process cache that uses W-TinyLFU to decide which entries to keep.
+ * <p>
+ * New entries go into a small LRU window. An entry that leaves the window is only admitted to the main
+ * space if it has been used more often than the entry it would evict, as estimated by a frequency sketch.
+ * The main space is a segmented LRU of probation and protected entries, where an entry is protected
+ * once it has been used again after being admitted. This keeps the popular entries in the cache
+ * when a burst of entries that are used once passes through it.
+ * <p>
+ * Reads do not take a lock: entries are held in a {@link ConcurrentHashMap} and each read is recorded in one of
+ * several striped buffers, which are replayed against the LRU lists by whichever thread next holds the lock.
+ * Reads are dropped rather than waited for when a buffer is full. Writes and invalidations take the lock.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class TinyLfuCache<K,V>
+{
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+    static final int REMOVED = -1;
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE-1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 4;
+    private static final int MAX_READ_BUFFERS = 64;
+
+    private final long maximumSize;
+    private final long expireAfterWrite;
+    private final ConcurrentHashMap<K,Node<K,V>> data = new ConcurrentHashMap<K,Node<K,V>>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers;
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque<K,V> window = new AccessOrderDeque<K,V>();
+    private final AccessOrderDeque<K,V> probation = new AccessOrderDeque<K,V>();
+    private final AccessOrderDeque<K,V> protectedDeque = new AccessOrderDeque<K,V>();
+    private final long maxWindow;
+    private final long maxProtected;
+    private long windowSize;
+    private long protectedSize;
+    private long size;
+    private volatile long invalidations;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Constructor that takes the settings of the cache.
+     * @param policy The maximum size and expiry of the cache
+     */
+    public TinyLfuCache(CachePolicy policy)
+    {
+        if(policy == null)
+            throw new IllegalArgumentException("policy == null");
+
+        this.maximumSize = policy.getMaximumSize();
+        this.expireAfterWrite = TimeUnit.MILLISECONDS.toNanos(policy.getExpireAfterWrite());
+        this.sketch = new FrequencySketch(maximumSize);
+
+        // The window holds 1% of the entries and the protected segment 80% of the rest
+        this.maxWindow = Math.max(1L, maximumSize/100L);
+        this.maxProtected = (long)((maximumSize-maxWindow)*0.8d);
+
+        int count = Math.min(MAX_READ_BUFFERS, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()-1) << 1);
+        this.readBuffers = new ReadBuffer[Math.max(1, count)];
+        for(int i = 0; i < readBuffers.length; i++)
+            readBuffers[i] = new ReadBuffer();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     * @return The maximum number of entries in the cache
+     */
+    public long getMaximumSize()
+    {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of entries in the cache, including any that have expired but not yet been removed.
+     * @return The number of entries in the cache
+     */
+    public long size()
+    {
+        return data.size();
+    }
+
+    /**
+     * Returns the value for the given key, or <CODE>null</CODE> if it is not in the cache or has expired.
+     * @param key The key of the entry
+     * @return The value for the given key, or <CODE>null</CODE> if it is not in the cache or has expired
+     */
+    public V get(K key)
+    {
+        Node<K,V> node = data.get(key);
+        if(node == null)
+        {
+            misses.increment();
+            return null;
+        }
+
+        if(node.isExpired(System.nanoTime()))
+        {
+            misses.increment();
+            expire(node);
+            return null;
+        }
+
+        hits.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * Adds the given value to the cache, replacing any existing value for the key.
+     * <p>
+     * The entry may be evicted straight away if it is not used as often as the entries already in the cache.
+     * @param key The key of the entry
+     * @param value The value of the entry
+     */
+    public void put(K key, V value)
+    {
+        lock.lock();
+        try
+        {
+            add(key, value);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the given value to the cache only if no entry has been invalidated since the given stamp was taken.
+     * <p>
+     * Used to add a value that was loaded while an entry could have been invalidated,
+     * so that a value loaded before an update does not replace the invalidated entry.
+     * @param key The key of the entry
+     * @param value The value of the entry
+     * @param stamp The stamp returned by {@link #getInvalidationStamp()} before the value was loaded
+     * @return <CODE>true</CODE> if the value was added
+     */
+    public boolean put(K key, V value, long stamp)
+    {
+        lock.lock();
+        try
+        {
+            if(invalidations != stamp)
+                return false;
+            add(key, value);
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a stamp that changes whenever an entry is invalidated.
+     * @return A stamp that changes whenever an entry is invalidated
+     */
+    public long getInvalidationStamp()
+    {
+        return invalidations;
+    }
+
+    /**
+     * Removes the entry for the given key from the cache.
+     * @param key The key of the entry
+     */
+    public void invalidate(K key)
+    {
+        lock.lock();
+        try
+        {
+            ++invalidations;
+            Node<K,V> node = data.remove(key);
+            if(node != null)
+                unlink(node);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entries from the cache that match the given predicate.
+     * <p>
+     * Checks every entry, so should only be used for occasional invalidations.
+     * @param predicate The predicate given the key and value of each entry
+     */
+    public void invalidateIf(BiPredicate<? super K,? super V> predicate)
+    {
+        lock.lock();
+        try
+        {
+            ++invalidations;
+            for(Node<K,V> node : data.values())
+            {
+                if(predicate.test(node.key, node.value) && data.remove(node.key, node))
+                    unlink(node);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public void invalidateAll()
+    {
+        lock.lock();
+        try
+        {
+            ++invalidations;
+            data.clear();
+            clear(window);
+            clear(probation);
+            clear(protectedDeque);
+            windowSize = 0L;
+            protectedSize = 0L;
+            size = 0L;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the segment holding the entry for the given key, after replaying the buffered reads.
+     * @param key The key of the entry
+     * @return The segment holding the entry, or {@link #REMOVED} if it is not in the cache
+     */
+    int getSegment(K key)
+    {
+        lock.lock();
+        try
+        {
+            drainReadBuffers();
+            Node<K,V> node = data.get(key);
+            return node != null ? node.queue : REMOVED;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of reads that found a value.
+     * @return The number of reads that found a value
+     */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of reads that did not find a value, including those that found an expired entry.
+     * @return The number of reads that did not find a value
+     */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the ratio of reads that found a value, or 0 if there have been no reads.
+     * @return The ratio of reads that found a value
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHitCount();
+        long total = hitCount+getMissCount();
+        return total > 0L ? (double)hitCount/total : 0.0d;
+    }
+
+    /**
+     * Returns the number of entries evicted or refused to keep the cache within its maximum size.
+     * @return The number of entries evicted or refused to keep the cache within its maximum size
+     */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of entries removed because they had expired.
+     * @return The number of entries removed because they had expired
+     */
+    public long getExpirationCount()
+    {
+        return expirations.sum();
+    }
+
+    /**
+     * Resets the counts to zero.
+     */
+    public void reset()
+    {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        expirations.reset();
+    }
+
+    /**
+     * Adds a new entry and evicts entries if the cache is over its maximum size.
+     * <p>
+     * The caller must hold the lock.
+     * @param key The key of the entry
+     * @param value The value of the entry
+     */
+    private void add(K key, V value)
+    {
+        long expiresAt = expireAfterWrite > 0L ? System.nanoTime()+expireAfterWrite : Long.MAX_VALUE;
+        Node<K,V> node = new Node<K,V>(key, value, expiresAt);
+        drainReadBuffers();
+
+        Node<K,V> existing = data.put(key, node);
+        if(existing != null)
+            unlink(existing);
+
+        sketch.increment(key);
+        node.queue = WINDOW;
+        window.add(node);
+        ++windowSize;
+        ++size;
+        evictEntries();
+    }
+
+    /**
+     * Moves the oldest entries of the window to probation and evicts entries until the cache is within its maximum size.
+     * <p>
+     * Each entry leaving the window is compared with the least recently used entry on probation,
+     * and whichever has been used least often is evicted.
+     */
+    private void evictEntries()
+    {
+        while(windowSize > maxWindow)
+        {
+            Node<K,V> candidate = window.peekFirst();
+            window.remove(candidate);
+            --windowSize;
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+
+            if(size > maximumSize)
+            {
+                Node<K,V> victim = probation.peekFirst();
+                if(victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key))
+                    evict(victim);
+                else
+                    evict(candidate);
+            }
+        }
+
+        // Only reached if entries were protected while the window was empty
+        while(size > maximumSize)
+        {
+            Node<K,V> victim = probation.peekFirst();
+            if(victim == null)
+                victim = protectedDeque.peekFirst();
+            if(victim == null)
+                victim = window.peekFirst();
+            evict(victim);
+        }
+    }
+
+    /**
+     * Removes the given entry to keep the cache within its maximum size.
+     * @param node The entry to evict
+     */
+    private void evict(Node<K,V> node)
+    {
+        data.remove(node.key, node);
+        unlink(node);
+        evictions.increment();
+    }
+
+    /**
+     * Removes the given entry because it has expired.
+     * @param node The entry that has expired
+     */
+    private void expire(Node<K,V> node)
+    {
+        lock.lock();
+        try
+        {
+            if(data.remove(node.key, node))
+            {
+                unlink(node);
+                expirations.increment();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given entry from its LRU list.
+     * <p>
+     * The caller must hold the lock.
+     * @param node The entry to remove
+     */
+    private void unlink(Node<K,V> node)
+    {
+        switch(node.queue)
+        {
+            case WINDOW:
+                window.remove(node);
+                --windowSize;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedDeque.remove(node);
+                --protectedSize;
+                break;
+            default:
+                return;
+        }
+        node.queue = REMOVED;
+        --size;
+    }
+
+    /**
+     * Records that the given entry was used, draining the read buffers if it is worth doing so.
+     * @param node The entry that was read
+     */
+    private void afterRead(Node<K,V> node)
+    {
+        int index = (int)mix(Thread.currentThread().getId()) & (readBuffers.length-1);
+        if(readBuffers[index].offer(node) && lock.tryLock())
+        {
+            try
+            {
+                drainReadBuffers();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays the buffered reads against the LRU lists.
+     * <p>
+     * The caller must hold the lock.
+     */
+    private void drainReadBuffers()
+    {
+        for(ReadBuffer buffer : readBuffers)
+            buffer.drain(this);
+    }
+
+    /**
+     * Counts a read of the given entry and moves it to the most recently used end of its list,
+     * protecting it if it was on probation.
+     * <p>
+     * The caller must hold the lock.
+     * @param read The entry that was read
+     */
+    @SuppressWarnings("unchecked")
+    private void onAccess(Node<?,?> read)
+    {
+        Node<K,V> node = (Node<K,V>)read;
+        switch(node.queue)
+        {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedDeque.add(node);
+                ++protectedSize;
+                while(protectedSize > maxProtected)
+                {
+                    Node<K,V> demoted = protectedDeque.peekFirst();
+                    protectedDeque.remove(demoted);
+                    --protectedSize;
+                    demoted.queue = PROBATION;
+                    probation.add(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedDeque.moveToBack(node);
+                break;
+            default:
+                // Removed since it was read
+                return;
+        }
+        sketch.increment(node.key);
+    }
+
+    /**
+     * Marks the entries of the given list as removed and empties it.
+     * @param deque The list to empty
+     */
+    private void clear(AccessOrderDeque<K,V> deque)
+    {
+        for(Node<K,V> node = deque.peekFirst(); node != null; )
+        {
+            Node<K,V> next = node.next;
+            node.queue = REMOVED;
+            node.prev = null;
+            node.next = null;
+            node = next;
+        }
+        deque.first = null;
+        deque.last = null;
+    }
+
+    /**
+     * Returns the given thread id with its bits mixed, to spread threads across the read buffers.
+     * @param id The thread id
+     * @return The mixed thread id
+     */
+    private static long mix(long id)
+    {
+        id = (id ^ (id >>> 33))*0xff51afd7ed558ccdL;
+        return id ^ (id >>> 33);
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "TinyLfuCache ["
+            +"size="+size()
+            +", maximumSize="+maximumSize
+            +", hits="+getHitCount()
+            +", misses="+getMissCount()
+            +", hitRate="+String.format("%.3f", getHitRate())
+            +", evictions="+getEvictionCount()
+            +", expirations="+getExpirationCount()
+            +"]";
+    }
+
+    /**
+     * An entry in the cache, linked into one of the LRU lists.
+     */
+    private static class Node<K,V>
+    {
+        final K key;
+        final V value;
+        final long expiresAt;
+        Node<K,V> prev;
+        Node<K,V> next;
+        int queue = REMOVED;
+
+        Node(K key, V value, long expiresAt)
+        {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now)
+        {
+            return now-expiresAt >= 0L;
+        }
+    }
+
+    /**
+     * Doubly-linked list of entries from least to most recently used.
+     */
+    private static class AccessOrderDeque<K,V>
+    {
+        Node<K,V> first;
+        Node<K,V> last;
+
+        Node<K,V> peekFirst()
+        {
+            return first;
+        }
+
+        void add(Node<K,V> node)
+        {
+            node.prev = last;
+            node.next = null;
+            if(last == null)
+                first = node;
+            else
+                last.next = node;
+            last = node;
+        }
+
+        void remove(Node<K,V> node)
+        {
+            if(node.prev == null)
+                first = node.next;
+            else
+                node.prev.next = node.next;
+            if(node.next == null)
+                last = node.prev;
+            else
+                node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K,V> node)
+        {
+            if(node != last)
+            {
+                remove(node);
+                add(node);
+            }
+        }
+    }
+
+    /**
+     * Ring buffer of reads written by many threads and drained by the thread holding the lock.
+     */
+    private static class ReadBuffer
+    {
+        private final AtomicReferenceArray<Node<?,?>> buffer = new AtomicReferenceArray<Node<?,?>>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /**
+         * Records a read of the given entry, dropping it if the buffer is full or another thread is writing.
+         * @param node The entry that was read
+         * @return <CODE>true</CODE> if the buffer should be drained
+         */
+        boolean offer(Node<?,?> node)
+        {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long pending = tail-head;
+            if(pending >= READ_BUFFER_SIZE)
+                return true;
+            if(writeCounter.compareAndSet(tail, tail+1L))
+            {
+                buffer.lazySet((int)(tail & READ_BUFFER_MASK), node);
+                return pending+1L >= READ_BUFFER_DRAIN_THRESHOLD;
+            }
+            return false;
+        }
+
+        /**
+         * Replays the recorded reads against the given cache.
+         * <p>
+         * The caller must hold the lock of the cache.
+         * @param cache The cache that owns the buffer
+         */
+        void drain(TinyLfuCache<?,?> cache)
+        {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for(; head < tail; head++)
+            {
+                int index = (int)(head & READ_BUFFER_MASK);
+                Node<?,?> node = buffer.get(index);
+                if(node == null)
+                    break; // The write has not been published yet
+                buffer.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCounter = head;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Collections;
+
+/**
+ * Represents a request to be sent by a {@link HttpTransport}.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class TransportRequest
+{
+    private String method;
+    private URI uri;
+    private Map<String,String> headers;
+    private RequestBody body;
+    private Deadline deadline;
+
+    /**
+     * Constructor that takes a method, URI, headers and body.
+     * @param method The HTTP method type
+     * @param uri The URI to call, including any query parameters
+     * @param headers The headers to add to the request, or <CODE>null</CODE> if there are none
+     * @param body The request body, or <CODE>null</CODE> if there is no body
+     */
+    public TransportRequest(String method, URI uri, Map<String,String> headers, RequestBody body)
+    {
+        this(method, uri, headers, body, null);
+    }
+
+    /**
+     * Constructor that takes a method, URI, headers, body and deadline.
+     * @param method The HTTP method type
+     * @param uri The URI to call, including any query parameters
+     * @param headers The headers to add to the request, or <CODE>null</CODE> if there are none
+     * @param body The request body, or <CODE>null</CODE> if there is no body
+     * @param deadline The time by which the request must complete, or <CODE>null</CODE> if there is no deadline
+     */
+    public TransportRequest(String method, URI uri, Map<String,String> headers, RequestBody body, Deadline deadline)
+    {
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers != null ? headers : Collections.<String,String>emptyMap();
+        this.body = body;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the HTTP method type.
+     * @return The HTTP method type
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Returns the URI to call.
+     * @return The URI to call
+     */
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    /**
+     * Returns the headers to add to the request.
+     * @return The headers to add to the request
+     */
+    public Map<String,String> getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * Returns the request body.
+     * @return The request body, or <CODE>null</CODE> if there is no body
+     */
+    public RequestBody getBody()
+    {
+        return body;
+    }
+
+    /**
+     * Returns the time by which the request must complete.
+     * <p>
+     * Transports should limit the time waiting for a connection, connecting and reading to the time remaining.
+     * @return The time by which the request must complete, or <CODE>null</CODE> if there is no deadline
+     */
+    public Deadline getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "TransportRequest ["
+            +"method="+method
+            +", uri="+uri
+            +", body="+body
+            +", deadline="+deadline
+            +"]";
+    }
+}
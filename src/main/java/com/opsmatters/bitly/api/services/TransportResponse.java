@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represents a response returned by a {@link HttpTransport}.
+ * <p>
+ * Closing the response releases the underlying connection.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface TransportResponse extends Closeable
+{
+    /**
+     * Returns the HTTP status code.
+     * @return The HTTP status code
+     */
+    int getStatusCode();
+
+    /**
+     * Returns the HTTP reason phrase.
+     * @return The HTTP reason phrase
+     */
+    String getReasonPhrase();
+
+    /**
+     * Returns the value of the first header with the given name.
+     * @param name The name of the header
+     * @return The value of the header, or <CODE>null</CODE> if the header is not present
+     */
+    String getHeader(String name);
+
+    /**
+     * Returns the response body.
+     * @return The response body, or <CODE>null</CODE> if there is no body
+     * @throws IOException if the body could not be read.
+     */
+    InputStream getContent() throws IOException;
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Creates executors that run each task on its own virtual thread when the JVM supports them (Java 21+).
+ * <p>
+ * The lookup is done reflectively so that the library keeps a Java 8 baseline.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class VirtualThreads
+{
+    private static final Logger logger = Logger.getLogger(VirtualThreads.class.getName());
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactoryMethod();
+
+    /**
+     * Private constructor as all methods are static.
+     */
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * Returns the Executors.newVirtualThreadPerTaskExecutor() method if it exists in this JVM.
+     * @return The factory method, or <CODE>null</CODE> if virtual threads are not supported
+     */
+    private static Method findFactoryMethod()
+    {
+        try
+        {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch(NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the JVM supports virtual threads.
+     * @return <CODE>true</CODE> if the JVM supports virtual threads
+     */
+    public static boolean isSupported()
+    {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns a new executor that starts a virtual thread for each task.
+     * <p>
+     * If the JVM does not support virtual threads, a cached thread pool is returned instead.
+     * @return The new executor
+     */
+    public static ExecutorService newExecutor()
+    {
+        if(isSupported())
+        {
+            try
+            {
+                return (ExecutorService)NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            }
+            catch(ReflectiveOperationException e)
+            {
+                logger.warning("Unable to create virtual thread executor: "+e.getMessage());
+            }
+        }
+        else
+        {
+            logger.warning("Virtual threads are not supported by this JVM, using a cached thread pool");
+        }
+
+        return Executors.newCachedThreadPool();
+    }
+}
@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.model.v4.GetOAuthAppResponse;
 
 /**
@@ -39,6 +41,25 @@ public class AppService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private AppService(AppService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AppService withOptions(RequestOptions options)
+    {
+        return new AppService(this, options);
+    }
+
     /**
      * Returns the details for the provided OAuth App client ID.
      * @param clientId The client ID of an OAuth app to be retrieved
@@ -48,6 +69,16 @@ public class AppService extends BitlyV4Service
      */
     public Optional<GetOAuthAppResponse> get(String clientId) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/apps/%s", clientId), getHeaders(), null, GET_OAUTH_APP);
+        return HTTP.GET(APP_PATH.expand(clientId), getHeaders(), null, GET_OAUTH_APP, getOptions());
+    }
+
+    /**
+     * Returns the details for the provided OAuth App client ID asynchronously.
+     * @param clientId The client ID of an OAuth app to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetOAuthAppResponse>> getAsync(String clientId)
+    {
+        return HTTP.GETAsync(APP_PATH.expand(clientId), getHeaders(), null, GET_OAUTH_APP, getOptions());
     }
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services.v4;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import com.google.common.base.Optional;
+import com.opsmatters.bitly.BitlyException;
+import com.opsmatters.bitly.api.services.QueryParameterList;
+import com.opsmatters.bitly.api.model.v4.Bitlink;
+import com.opsmatters.bitly.api.model.v4.BitlinkQuery;
+import com.opsmatters.bitly.api.model.v4.Pagination;
+
+/**
+ * Iterator over the bitlinks of a group that fetches each page when the bitlinks of the previous page
+ * have been read, or ahead of time if pages are prefetched.
+ * <p>
+ * Without prefetching, only one page of bitlinks is held in memory, and each bitlink is released as soon as
+ * it has been read. With a prefetch depth of k, once the first page shows that there are more pages,
+ * the next k pages are fetched asynchronously while a page is being read, so the reader does not wait
+ * for a round trip per page. A new page is only fetched when the reader moves on to the next page,
+ * so no more than k pages are held ahead of the reader, and the pages fetched past the last page are cancelled.
+ * <p>
+ * No more pages are fetched once the reader stops, eg. when a stream over the iterator short-circuits,
+ * and {@link #close()} cancels any pages still being prefetched. A page that cannot be fetched
+ * throws a {@link BitlyException}.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class BitlinkPageIterator implements Iterator<Bitlink>, AutoCloseable
+{
+    private final GroupService service;
+    private final String groupGuid;
+    private final QueryParameterList queryParams;
+    private final int prefetch;
+    private final ArrayDeque<Fetch> fetches = new ArrayDeque<Fetch>();
+    private ArrayDeque<Bitlink> bitlinks = new ArrayDeque<Bitlink>();
+    private int page;
+    private int pageCount = 0;
+    private Pagination pagination;
+    private boolean last = false;
+
+    /**
+     * Constructor that takes the service, group, query and prefetch depth.
+     * @param service The service used to fetch the pages
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query, starting at its page
+     * @param prefetch The number of pages to fetch ahead of the page being read, or 0 to fetch each page when it is needed
+     */
+    BitlinkPageIterator(GroupService service, String groupGuid, BitlinkQuery query, int prefetch)
+    {
+        if(prefetch < 0)
+            throw new IllegalArgumentException("prefetch must be >= 0");
+
+        this.service = service;
+        this.prefetch = prefetch;
+        this.groupGuid = groupGuid;
+        this.queryParams = service.getQueryParameterList(query);
+        this.page = Math.max(query.getPage(), 1);
+    }
+
+    /**
+     * Returns the number of pages to fetch ahead of the page being read.
+     * @return The number of pages to fetch ahead of the page being read
+     */
+    public int getPrefetch()
+    {
+        return prefetch;
+    }
+
+    /**
+     * Returns the number of pages fetched.
+     * @return The number of pages fetched
+     */
+    public int getPageCount()
+    {
+        return pageCount;
+    }
+
+    /**
+     * Returns the pagination of the last page fetched.
+     * @return The pagination of the last page fetched, or <CODE>null</CODE> if no page has been fetched
+     */
+    public Pagination getPagination()
+    {
+        return pagination;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if there are more bitlinks, fetching the next page if necessary.
+     * @return <CODE>true</CODE> if there are more bitlinks
+     * @throws BitlyException if a page could not be fetched.
+     */
+    @Override
+    public boolean hasNext()
+    {
+        while(bitlinks.isEmpty() && !last)
+            fetch();
+        return !bitlinks.isEmpty();
+    }
+
+    /**
+     * Returns the next bitlink, fetching the next page if necessary.
+     * @return The next bitlink
+     * @throws NoSuchElementException if there are no more bitlinks.
+     * @throws BitlyException if a page could not be fetched.
+     */
+    @Override
+    public Bitlink next()
+    {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        return bitlinks.poll();
+    }
+
+    /**
+     * Stops fetching pages and cancels the pages being prefetched, after which there are no more bitlinks.
+     */
+    @Override
+    public void close()
+    {
+        last = true;
+        bitlinks.clear();
+        cancel();
+    }
+
+    /**
+     * Fetches the next page of bitlinks, or waits for it if it is being prefetched.
+     * @throws BitlyException if the page could not be fetched.
+     */
+    private void fetch()
+    {
+        Optional<Pagination> ret;
+        if(fetches.isEmpty())
+        {
+            try
+            {
+                ret = service.getBitlinksPage(groupGuid, getQueryParameterList(page), bitlinks::add);
+            }
+            catch(IOException | URISyntaxException e)
+            {
+                last = true;
+                throw new BitlyException("Unable to fetch page "+page+" of the bitlinks for group "+groupGuid+": "+e, e);
+            }
+            ++page;
+        }
+        else
+        {
+            Fetch fetch = fetches.poll();
+            ret = fetch.get();
+            bitlinks = fetch.bitlinks;
+        }
+
+        ++pageCount;
+        pagination = ret.orNull();
+        last = isLastPage(pagination, bitlinks.isEmpty());
+        if(last)
+            cancel();
+        else
+            prefetch();
+    }
+
+    /**
+     * Starts fetching the pages after the page being read, up to the prefetch depth.
+     */
+    private void prefetch()
+    {
+        while(fetches.size() < prefetch)
+        {
+            Fetch fetch = new Fetch(page++);
+            fetch.future = service.getBitlinksPageAsync(groupGuid, getQueryParameterList(fetch.page),
+                fetch.bitlinks::add);
+            fetches.add(fetch);
+        }
+    }
+
+    /**
+     * Cancels the pages being prefetched.
+     */
+    private void cancel()
+    {
+        for(Fetch fetch : fetches)
+            fetch.future.cancel(true);
+        fetches.clear();
+    }
+
+    /**
+     * Returns the query parameters for the given page.
+     * @param page The number of the page
+     * @return The query parameters for the given page
+     */
+    private List<String> getQueryParameterList(int page)
+    {
+        QueryParameterList ret = new QueryParameterList();
+        for(int i = 0; i < queryParams.size(); i += 2)
+        {
+            if(!queryParams.get(i).equals("page"))
+                ret.add(queryParams.get(i), queryParams.get(i+1));
+        }
+        ret.add("page", Integer.toString(page));
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if there are no pages after the page with the given pagination.
+     * @param pagination The pagination of the page, or <CODE>null</CODE> if it had none
+     * @param empty <CODE>true</CODE> if the page had no bitlinks
+     * @return <CODE>true</CODE> if there are no pages after the page with the given pagination
+     */
+    static boolean isLastPage(Pagination pagination, boolean empty)
+    {
+        return empty || pagination == null || pagination.getNext() == null || pagination.getNext().isEmpty();
+    }
+
+    /**
+     * A page being prefetched, with the bitlinks read from it.
+     */
+    private class Fetch
+    {
+        private final int page;
+        private final ArrayDeque<Bitlink> bitlinks = new ArrayDeque<Bitlink>();
+        private CompletableFuture<Optional<Pagination>> future;
+
+        /**
+         * Constructor that takes the number of the page.
+         * @param page The number of the page
+         */
+        Fetch(int page)
+        {
+            this.page = page;
+        }
+
+        /**
+         * Waits for the page to be fetched and returns its pagination.
+         * <p>
+         * The bitlinks are added by the thread that reads the page, and are visible once the future has completed.
+         * @return The pagination of the page
+         * @throws BitlyException if the page could not be fetched.
+         */
+        Optional<Pagination> get()
+        {
+            try
+            {
+                return future.get();
+            }
+            catch(InterruptedException e)
+            {
+                close();
+                Thread.currentThread().interrupt();
+                throw new BitlyException("Interrupted while waiting for page "+page+" of the bitlinks for group "+groupGuid, e);
+            }
+            catch(ExecutionException e)
+            {
+                close();
+                if(e.getCause() instanceof BitlyException)
+                    throw (BitlyException)e.getCause();
+                throw new BitlyException("Unable to fetch page "+page+" of the bitlinks for group "+groupGuid+": "
+                    +e.getCause(), e.getCause());
+            }
+        }
+    }
+}
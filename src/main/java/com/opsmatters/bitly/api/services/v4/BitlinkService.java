@@ -18,8 +18,21 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
 import com.google.common.base.Optional;
+import com.opsmatters.bitly.api.services.BatchIterator;
+import com.opsmatters.bitly.api.services.BatchResult;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
+import com.opsmatters.bitly.api.services.TinyLfuCache;
+import com.opsmatters.bitly.api.services.ShortenStore;
 import com.opsmatters.bitly.api.services.v4.BitlyV4Service;
 import com.opsmatters.bitly.api.model.v4.UnitQuery;
 import com.opsmatters.bitly.api.model.v4.GetBitlinkResponse;
@@ -45,6 +58,12 @@ import com.opsmatters.bitly.api.model.v4.GetBitlinkQrCodeResponse;
  */
 public class BitlinkService extends BitlyV4Service
 {
+    private static final Logger logger = Logger.getLogger(BitlinkService.class.getName());
+
+    private TinyLfuCache<String,ExpandBitlinkResponse> expandCache;
+    private TinyLfuCache<String,CreateBitlinkResponse> shortenCache;
+    private ShortenStore shortenStore;
+
     /**
      * Constructor that takes a http context and API client.
      * @param accessToken The access token used to authenticate the operations
@@ -55,6 +74,126 @@ public class BitlinkService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private BitlinkService(BitlinkService service, RequestOptions options)
+    {
+        super(service, options);
+        this.expandCache = service.expandCache;
+        this.shortenCache = service.shortenCache;
+        this.shortenStore = service.shortenStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BitlinkService withOptions(RequestOptions options)
+    {
+        return new BitlinkService(this, options);
+    }
+
+    /**
+     * Returns the cache of expanded bitlinks.
+     * @return The cache of expanded bitlinks, or <CODE>null</CODE> if expanded bitlinks are not cached
+     */
+    public TinyLfuCache<String,ExpandBitlinkResponse> getExpandCache()
+    {
+        return expandCache;
+    }
+
+    /**
+     * Sets the cache of expanded bitlinks.
+     * <p>
+     * The cache is keyed by the normalized bitlink, and an entry is invalidated when
+     * its bitlink is updated with a new long url through this service.
+     * @param expandCache The cache of expanded bitlinks, or <CODE>null</CODE> if expanded bitlinks should not be cached
+     */
+    public void setExpandCache(TinyLfuCache<String,ExpandBitlinkResponse> expandCache)
+    {
+        this.expandCache = expandCache;
+    }
+
+    /**
+     * Returns the cache of shortened long urls.
+     * @return The cache of shortened long urls, or <CODE>null</CODE> if shortened long urls are not cached
+     */
+    public TinyLfuCache<String,CreateBitlinkResponse> getShortenCache()
+    {
+        return shortenCache;
+    }
+
+    /**
+     * Sets the cache of shortened long urls.
+     * <p>
+     * The cache is keyed by the long url, domain and group of each shorten request, as Bitly returns
+     * the same bitlink when a long url is shortened again in the same domain and group. An entry is invalidated
+     * when its bitlink is updated with a new long url through this service.
+     * @param shortenCache The cache of shortened long urls, or <CODE>null</CODE> if shortened long urls should not be cached
+     */
+    public void setShortenCache(TinyLfuCache<String,CreateBitlinkResponse> shortenCache)
+    {
+        this.shortenCache = shortenCache;
+    }
+
+    /**
+     * Returns the persistent store of shortened long urls.
+     * @return The persistent store of shortened long urls, or <CODE>null</CODE> if shortened long urls are not stored
+     */
+    public ShortenStore getShortenStore()
+    {
+        return shortenStore;
+    }
+
+    /**
+     * Sets the persistent store of shortened long urls.
+     * <p>
+     * The store is read after the cache of shortened long urls, if there is one, and before a request is sent.
+     * It is keyed in the same way as the cache and holds each response as JSON. It is not closed by the service.
+     * @param shortenStore The persistent store of shortened long urls, or <CODE>null</CODE> if shortened long urls should not be stored
+     */
+    public void setShortenStore(ShortenStore shortenStore)
+    {
+        this.shortenStore = shortenStore;
+    }
+
+    /**
+     * Returns the key of the given shorten request in the cache of shortened long urls.
+     * @param request The request containing the long url to be shortened
+     * @return The key of the given shorten request
+     */
+    private static String getShortenKey(CreateBitlinkRequest request)
+    {
+        String domain = request.getDomain() != null ? request.getDomain().toLowerCase(Locale.ROOT) : "";
+        String groupGuid = request.getGroupGuid() != null ? request.getGroupGuid() : "";
+        return domain+" "+groupGuid+" "+request.getLongUrl();
+    }
+
+    /**
+     * Returns the given bitlink in the form used as its cache key, eg. "bit.ly/2ZbAcD1".
+     * <p>
+     * Removes any scheme and trailing slash, and converts the domain to lower case.
+     * The path is left as it is, as bitlinks are case sensitive.
+     * @param bitlink The bitlink to be normalized
+     * @return The normalized bitlink
+     */
+    public static String normalize(String bitlink)
+    {
+        String ret = bitlink.trim();
+        int pos = ret.indexOf("://");
+        if(pos >= 0)
+            ret = ret.substring(pos+3);
+        while(ret.endsWith("/"))
+            ret = ret.substring(0, ret.length()-1);
+        pos = ret.indexOf('/');
+        if(pos < 0)
+            pos = ret.length();
+        return ret.substring(0, pos).toLowerCase(Locale.ROOT)+ret.substring(pos);
+    }
+
     /**
      * Returns the attributes of the given bitlink.
      * @param bitlink The bitlink to be retrieved
@@ -64,7 +203,17 @@ public class BitlinkService extends BitlyV4Service
      */
     public Optional<GetBitlinkResponse> get(String bitlink) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s", bitlink), getHeaders(), null, GET_BITLINK);
+        return HTTP.GET(BITLINK_PATH.expand(bitlink), getHeaders(), null, GET_BITLINK, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given bitlink asynchronously.
+     * @param bitlink The bitlink to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetBitlinkResponse>> getAsync(String bitlink)
+    {
+        return HTTP.GETAsync(BITLINK_PATH.expand(bitlink), getHeaders(), null, GET_BITLINK, getOptions());
     }
 
     /**
@@ -75,7 +224,17 @@ public class BitlinkService extends BitlyV4Service
      */
     public Optional<CreateBitlinkResponse> create(CreateFullBitlinkRequest request) throws IOException
     {
-        return HTTP.POST("/v4/bitlinks", request, getHeaders(), CREATE_BITLINK);
+        return HTTP.POST("/v4/bitlinks", request, getHeaders(), CREATE_BITLINK, getOptions());
+    }
+
+    /**
+     * Creates a bitlink asynchronously.
+     * @param request The request containing the attributes of the bitlink to be created
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateBitlinkResponse>> createAsync(CreateFullBitlinkRequest request)
+    {
+        return HTTP.POSTAsync("/v4/bitlinks", request, getHeaders(), CREATE_BITLINK, getOptions());
     }
 
     /**
@@ -89,6 +248,16 @@ public class BitlinkService extends BitlyV4Service
         return shorten(CreateBitlinkRequest.builder().longUrl(longUrl).build());
     }
 
+    /**
+     * Shortens the given long url asynchronously.
+     * @param longUrl The long url to be shortened
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateBitlinkResponse>> shortenAsync(String longUrl)
+    {
+        return shortenAsync(CreateBitlinkRequest.builder().longUrl(longUrl).build());
+    }
+
     /**
      * Shortens the given long url using the given short domain name.
      * @param longUrl The long url to be shortened
@@ -101,6 +270,17 @@ public class BitlinkService extends BitlyV4Service
         return shorten(CreateBitlinkRequest.builder().longUrl(longUrl).domain(domain).build());
     }
 
+    /**
+     * Shortens the given long url using the given short domain name asynchronously.
+     * @param longUrl The long url to be shortened
+     * @param domain The short domain to be used
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateBitlinkResponse>> shortenAsync(String longUrl, String domain)
+    {
+        return shortenAsync(CreateBitlinkRequest.builder().longUrl(longUrl).domain(domain).build());
+    }
+
     /**
      * Shortens the given long url.
      * @param request The request containing the long url to be shortened
@@ -109,7 +289,150 @@ public class BitlinkService extends BitlyV4Service
      */
     public Optional<CreateBitlinkResponse> shorten(CreateBitlinkRequest request) throws IOException
     {
-        return HTTP.POST("/v4/shorten", request, getHeaders(), CREATE_BITLINK);
+        if((shortenCache == null && shortenStore == null) || request.getLongUrl() == null)
+            return HTTP.POST("/v4/shorten", request, getHeaders(), CREATE_BITLINK, getOptions());
+
+        String key = getShortenKey(request);
+        CreateBitlinkResponse shortened = getShortened(key);
+        if(shortened != null)
+            return Optional.of(shortened);
+
+        long cacheStamp = shortenCache != null ? shortenCache.getInvalidationStamp() : 0L;
+        long storeStamp = shortenStore != null ? shortenStore.getInvalidationStamp() : 0L;
+        Optional<CreateBitlinkResponse> ret = HTTP.POST("/v4/shorten", request, getHeaders(), CREATE_BITLINK, getOptions());
+        if(ret.isPresent())
+            putShortened(key, ret.get(), cacheStamp, storeStamp);
+        return ret;
+    }
+
+    /**
+     * Shortens the given long url asynchronously.
+     * <p>
+     * The bitlink is added to the persistent store using the completion executor of the context,
+     * rather than on the I/O thread that received the response.
+     * @param request The request containing the long url to be shortened
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateBitlinkResponse>> shortenAsync(CreateBitlinkRequest request)
+    {
+        if((shortenCache == null && shortenStore == null) || request.getLongUrl() == null)
+            return HTTP.POSTAsync("/v4/shorten", request, getHeaders(), CREATE_BITLINK, getOptions());
+
+        String key = getShortenKey(request);
+        CreateBitlinkResponse shortened = getShortened(key);
+        if(shortened != null)
+            return CompletableFuture.completedFuture(Optional.of(shortened));
+
+        long cacheStamp = shortenCache != null ? shortenCache.getInvalidationStamp() : 0L;
+        long storeStamp = shortenStore != null ? shortenStore.getInvalidationStamp() : 0L;
+        CompletableFuture<Optional<CreateBitlinkResponse>> ret = HTTP.POSTAsync("/v4/shorten", request,
+            getHeaders(), CREATE_BITLINK, getOptions());
+        ret.thenAcceptAsync(response ->
+        {
+            if(response.isPresent())
+                putShortened(key, response.get(), cacheStamp, storeStamp);
+        }, HTTP.getCompletionExecutor());
+        return ret;
+    }
+
+    /**
+     * Shortens the given long urls, with up to {@link BatchIterator#DEFAULT_CONCURRENCY} requests in flight.
+     * @param requests The requests containing the long urls to be shortened
+     * @return The outcome of each request, in the order of the requests
+     * @throws com.opsmatters.bitly.BitlyException if the thread is interrupted while waiting.
+     */
+    public List<BatchResult<CreateBitlinkRequest,CreateBitlinkResponse>> shortenAll(Collection<CreateBitlinkRequest> requests)
+    {
+        return shortenAll(requests, BatchIterator.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Shortens the given long urls, with up to the given number of requests in flight.
+     * <p>
+     * Requests with the same long url, domain and group share one request while the outcome of the first
+     * is waiting to be read, and a shorten cache avoids sending later duplicates again. A request that fails
+     * does not stop the others, and its outcome holds the exception it failed with.
+     * @param requests The requests containing the long urls to be shortened
+     * @param concurrency The maximum number of requests in flight
+     * @return The outcome of each request, in the order of the requests
+     * @throws com.opsmatters.bitly.BitlyException if the thread is interrupted while waiting.
+     */
+    public List<BatchResult<CreateBitlinkRequest,CreateBitlinkResponse>> shortenAll(Collection<CreateBitlinkRequest> requests,
+        int concurrency)
+    {
+        return shortenAll(requests.iterator(), concurrency).toList();
+    }
+
+    /**
+     * Shortens the long urls of the given requests as they are read, with up to the given number of requests in flight.
+     * <p>
+     * Requests with the same long url, domain and group share one request while the outcome of the first
+     * is waiting to be read. The outcomes are returned in the order of the requests, and no more requests are sent
+     * while a number of outcomes is waiting to be read, so that a large batch can be streamed without being held
+     * in memory. Set a shorten cache to avoid sending the request again for a duplicate later in the batch.
+     * @param requests The requests containing the long urls to be shortened
+     * @param concurrency The maximum number of requests in flight
+     * @return An iterator over the outcome of each request, in the order of the requests
+     */
+    public BatchIterator<CreateBitlinkRequest,CreateBitlinkResponse> shortenAll(Iterator<CreateBitlinkRequest> requests,
+        int concurrency)
+    {
+        return new BatchIterator<CreateBitlinkRequest,CreateBitlinkResponse>(requests,
+            request -> getShortenKey(request), request -> shortenAsync(request), concurrency, true);
+    }
+
+    /**
+     * Returns the bitlink for the given shorten request key from the cache or persistent store.
+     * <p>
+     * A bitlink found in the store is added to the cache.
+     * @param key The key of the shorten request
+     * @return The bitlink for the given key, or <CODE>null</CODE> if it has not been shortened before
+     */
+    private CreateBitlinkResponse getShortened(String key)
+    {
+        TinyLfuCache<String,CreateBitlinkResponse> cache = shortenCache;
+        CreateBitlinkResponse ret = cache != null ? cache.get(key) : null;
+        if(ret != null || shortenStore == null)
+            return ret;
+
+        long stamp = cache != null ? cache.getInvalidationStamp() : 0L;
+        String json = shortenStore.get(key);
+        if(json != null)
+        {
+            ret = HTTP.getGson().fromJson(json, CreateBitlinkResponse.class);
+            if(cache != null)
+                cache.put(key, ret, stamp);
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the given bitlink to the cache and persistent store, unless a bitlink has been invalidated since it was requested.
+     * <p>
+     * The bitlink is stored with its id, so that it can be removed from the store when its long url is updated.
+     * @param key The key of the shorten request
+     * @param response The bitlink returned for the shorten request
+     * @param cacheStamp The invalidation stamp of the cache taken before the request was sent
+     * @param storeStamp The invalidation stamp of the persistent store taken before the request was sent
+     */
+    private void putShortened(String key, CreateBitlinkResponse response, long cacheStamp, long storeStamp)
+    {
+        if(shortenCache != null && !shortenCache.put(key, response, cacheStamp))
+            return;
+
+        if(shortenStore != null)
+        {
+            try
+            {
+                String json = HTTP.getGson().toJson(response, CreateBitlinkResponse.class);
+                String id = response.getId() != null ? normalize(response.getId()) : null;
+                shortenStore.put(key, json, id, storeStamp);
+            }
+            catch(IOException | RuntimeException e)
+            {
+                logger.warning("Unable to store shortened url: "+e.getMessage());
+            }
+        }
     }
 
     /**
@@ -123,6 +446,16 @@ public class BitlinkService extends BitlyV4Service
         return expand(ExpandBitlinkRequest.builder().bitlink(bitlink).build());
     }
 
+    /**
+     * Returns the long url for the given bitlink asynchronously.
+     * @param bitlink The bitlink to be expanded
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ExpandBitlinkResponse>> expandAsync(String bitlink)
+    {
+        return expandAsync(ExpandBitlinkRequest.builder().bitlink(bitlink).build());
+    }
+
     /**
      * Returns the long url for the given bitlink.
      * @param request The request containing the bitlink to be expanded
@@ -131,7 +464,98 @@ public class BitlinkService extends BitlyV4Service
      */
     public Optional<ExpandBitlinkResponse> expand(ExpandBitlinkRequest request) throws IOException
     {
-        return HTTP.POST("/v4/expand", request, getHeaders(), EXPAND_BITLINK);
+        TinyLfuCache<String,ExpandBitlinkResponse> cache = expandCache;
+        if(cache == null || request.getBitlink() == null)
+            return HTTP.POST("/v4/expand", request, getHeaders(), EXPAND_BITLINK, getOptions());
+
+        String key = normalize(request.getBitlink());
+        ExpandBitlinkResponse cached = cache.get(key);
+        if(cached != null)
+            return Optional.of(cached);
+
+        long stamp = cache.getInvalidationStamp();
+        Optional<ExpandBitlinkResponse> ret = HTTP.POST("/v4/expand", request, getHeaders(), EXPAND_BITLINK, getOptions());
+        if(ret.isPresent())
+            cache.put(key, ret.get(), stamp);
+        return ret;
+    }
+
+    /**
+     * Returns the long url for the given bitlink asynchronously.
+     * @param request The request containing the bitlink to be expanded
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ExpandBitlinkResponse>> expandAsync(ExpandBitlinkRequest request)
+    {
+        TinyLfuCache<String,ExpandBitlinkResponse> cache = expandCache;
+        if(cache == null || request.getBitlink() == null)
+            return HTTP.POSTAsync("/v4/expand", request, getHeaders(), EXPAND_BITLINK, getOptions());
+
+        String key = normalize(request.getBitlink());
+        ExpandBitlinkResponse cached = cache.get(key);
+        if(cached != null)
+            return CompletableFuture.completedFuture(Optional.of(cached));
+
+        // The returned future is the one sent, so that cancelling it aborts the request
+        long stamp = cache.getInvalidationStamp();
+        CompletableFuture<Optional<ExpandBitlinkResponse>> ret = HTTP.POSTAsync("/v4/expand", request,
+            getHeaders(), EXPAND_BITLINK, getOptions());
+        ret.thenAccept(response ->
+        {
+            if(response.isPresent())
+                cache.put(key, response.get(), stamp);
+        });
+        return ret;
+    }
+
+    /**
+     * Returns the long urls for the given bitlinks, with up to {@link BatchIterator#DEFAULT_CONCURRENCY} requests in flight.
+     * @param bitlinks The bitlinks to be expanded
+     * @return The outcome for each bitlink, keyed by the normalized bitlink
+     * @throws com.opsmatters.bitly.BitlyException if the thread is interrupted while waiting.
+     */
+    public Map<String,BatchResult<String,ExpandBitlinkResponse>> expandAll(Iterable<String> bitlinks)
+    {
+        return expandAll(bitlinks, BatchIterator.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Returns the long urls for the given bitlinks, with up to the given number of requests in flight.
+     * <p>
+     * The bitlinks are normalized so that forms of the same bitlink, eg. "https://Bit.ly/2ZbAcD1" and "bit.ly/2ZbAcD1",
+     * share one request. A request that fails does not stop the others, and the outcome of a bitlink that
+     * does not exist holds an exception for which {@link BatchResult#isNotFound()} is <CODE>true</CODE>.
+     * @param bitlinks The bitlinks to be expanded
+     * @param concurrency The maximum number of requests in flight
+     * @return The outcome for each bitlink, keyed by the normalized bitlink in the order the requests completed
+     * @throws com.opsmatters.bitly.BitlyException if the thread is interrupted while waiting.
+     */
+    public Map<String,BatchResult<String,ExpandBitlinkResponse>> expandAll(Iterable<String> bitlinks, int concurrency)
+    {
+        Map<String,BatchResult<String,ExpandBitlinkResponse>> ret = new LinkedHashMap<String,BatchResult<String,ExpandBitlinkResponse>>();
+        BatchIterator<String,ExpandBitlinkResponse> results = expandAll(bitlinks.iterator(), concurrency);
+        while(results.hasNext())
+        {
+            BatchResult<String,ExpandBitlinkResponse> result = results.next();
+            ret.put(normalize(result.getInput()), result);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the long urls for the bitlinks as they are read, with up to the given number of requests in flight.
+     * <p>
+     * The bitlinks are normalized so that forms of the same bitlink share one request, and one outcome
+     * is returned for each normalized bitlink as soon as its request completes, so a slow request
+     * does not hold back the others. No more requests are sent while a number of outcomes is waiting to be read.
+     * @param bitlinks The bitlinks to be expanded
+     * @param concurrency The maximum number of requests in flight
+     * @return An iterator over the outcome for each bitlink, in the order the requests completed
+     */
+    public BatchIterator<String,ExpandBitlinkResponse> expandAll(Iterator<String> bitlinks, int concurrency)
+    {
+        return new BatchIterator<String,ExpandBitlinkResponse>(bitlinks,
+            bitlink -> normalize(bitlink), bitlink -> expandAsync(bitlink), concurrency, false);
     }
 
     /**
@@ -145,7 +569,57 @@ public class BitlinkService extends BitlyV4Service
     public Optional<UpdateBitlinkResponse> update(String bitlink, UpdateBitlinkRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/bitlinks/%s", bitlink), request, getHeaders(), null, UPDATE_BITLINK);
+        try
+        {
+            return HTTP.PATCH(BITLINK_PATH.expand(bitlink), request, getHeaders(), null, UPDATE_BITLINK, getOptions());
+        }
+        finally
+        {
+            // Invalidate even if the call failed, as the update may still have been made
+            invalidateCaches(bitlink, request);
+        }
+    }
+
+    /**
+     * Updates the given bitlink asynchronously.
+     * @param bitlink The bitlink to be updated
+     * @param request The request containing the attributes of the bitlink to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateBitlinkResponse>> updateAsync(String bitlink, UpdateBitlinkRequest request)
+    {
+        CompletableFuture<Optional<UpdateBitlinkResponse>> ret = HTTP.PATCHAsync(BITLINK_PATH.expand(bitlink),
+            request, getHeaders(), null, UPDATE_BITLINK, getOptions());
+        ret.whenComplete((response, e) -> invalidateCaches(bitlink, request));
+        return ret;
+    }
+
+    /**
+     * Removes the given bitlink from the caches and store of expanded bitlinks and shortened long urls if the update changes its long url.
+     * @param bitlink The bitlink that was updated
+     * @param request The request containing the attributes of the bitlink that were updated
+     */
+    private void invalidateCaches(String bitlink, UpdateBitlinkRequest request)
+    {
+        if(request.getLongUrl() == null)
+            return;
+
+        String id = normalize(bitlink);
+        if(expandCache != null)
+            expandCache.invalidate(id);
+        if(shortenCache != null)
+            shortenCache.invalidateIf((key, response) -> response.getId() != null && id.equals(normalize(response.getId())));
+        if(shortenStore != null)
+        {
+            try
+            {
+                shortenStore.removeId(id);
+            }
+            catch(IOException | RuntimeException e)
+            {
+                logger.warning("Unable to remove shortened url from store: "+e.getMessage());
+            }
+        }
     }
 
     /**
@@ -159,8 +633,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetBitlinkClicksResponse> getClicks(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/clicks", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS);
+        return HTTP.GET(BITLINK_CLICKS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS, getOptions());
+    }
+
+    /**
+     * Returns the clicks for the given bitlink asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetBitlinkClicksResponse>> getClicksAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_CLICKS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS, getOptions());
     }
 
     /**
@@ -174,8 +660,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetBitlinkClicksSummaryResponse> getClicksSummary(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/clicks/summary", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS_SUMMARY);
+        return HTTP.GET(BITLINK_CLICKS_SUMMARY_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS_SUMMARY, getOptions());
+    }
+
+    /**
+     * Returns the clicks summary for the given bitlink asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetBitlinkClicksSummaryResponse>> getClicksSummaryAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_CLICKS_SUMMARY_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_BITLINK_CLICKS_SUMMARY, getOptions());
     }
 
     /**
@@ -189,8 +687,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetMetricsByCountriesResponse> getMetricsByCountries(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/countries", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES);
+        return HTTP.GET(BITLINK_COUNTRIES_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given bitlink by countries asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByCountriesResponse>> getMetricsByCountriesAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_COUNTRIES_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES, getOptions());
     }
 
     /**
@@ -204,8 +714,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetMetricsByReferrersResponse> getMetricsByReferrers(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/referrers", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS);
+        return HTTP.GET(BITLINK_REFERRERS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given bitlink by referrers asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByReferrersResponse>> getMetricsByReferrersAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_REFERRERS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS, getOptions());
     }
 
     /**
@@ -219,8 +741,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetMetricsByReferringDomainsResponse> getMetricsByReferringDomains(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/referring_domains", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRING_DOMAINS);
+        return HTTP.GET(BITLINK_REFERRING_DOMAINS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRING_DOMAINS, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given bitlink by referring domains asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByReferringDomainsResponse>> getMetricsByReferringDomainsAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_REFERRING_DOMAINS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRING_DOMAINS, getOptions());
     }
 
     /**
@@ -234,8 +768,20 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetMetricsByReferrersByDomainResponse> getMetricsByReferrersByDomain(String bitlink, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/referrers_by_domains", bitlink),
-            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS_BY_DOMAIN);
+        return HTTP.GET(BITLINK_REFERRERS_BY_DOMAINS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS_BY_DOMAIN, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given bitlink by referrers by domain asynchronously.
+     * @param bitlink The bitlink for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByReferrersByDomainResponse>> getMetricsByReferrersByDomainAsync(String bitlink, UnitQuery query)
+    {
+        return HTTP.GETAsync(BITLINK_REFERRERS_BY_DOMAINS_PATH.expand(bitlink),
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_REFERRERS_BY_DOMAIN, getOptions());
     }
 
     /**
@@ -248,6 +794,16 @@ public class BitlinkService extends BitlyV4Service
     public Optional<GetBitlinkQrCodeResponse> getQrCode(String bitlink)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/bitlinks/%s/qr", bitlink), getHeaders(), null, GET_BITLINK_QR_CODE);
+        return HTTP.GET(BITLINK_QR_PATH.expand(bitlink), getHeaders(), null, GET_BITLINK_QR_CODE, getOptions());
+    }
+
+    /**
+     * Returns the QR code for the given bitlin asynchronously.
+     * @param bitlink The bitlink for the QR code
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetBitlinkQrCodeResponse>> getQrCodeAsync(String bitlink)
+    {
+        return HTTP.GETAsync(BITLINK_QR_PATH.expand(bitlink), getHeaders(), null, GET_BITLINK_QR_CODE, getOptions());
     }
 }
\ No newline at end of file
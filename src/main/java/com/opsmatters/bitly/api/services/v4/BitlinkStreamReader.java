@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services.v4;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.opsmatters.bitly.api.services.EntityReader;
+import com.opsmatters.bitly.api.model.v4.Bitlink;
+import com.opsmatters.bitly.api.model.v4.Pagination;
+
+/**
+ * Reads a page of bitlinks, passing each bitlink to a consumer as soon as it has been parsed.
+ * <p>
+ * Only one bitlink is held in memory at a time, whatever the size of the page.
+ * The pagination of the page is returned once the whole page has been read.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class BitlinkStreamReader implements EntityReader<Pagination>
+{
+    private Consumer<? super Bitlink> consumer;
+
+    /**
+     * Constructor that takes a consumer.
+     * @param consumer The consumer called with each bitlink as it is parsed
+     */
+    public BitlinkStreamReader(Consumer<? super Bitlink> consumer)
+    {
+        if(consumer == null)
+            throw new IllegalArgumentException("consumer == null");
+        this.consumer = consumer;
+    }
+
+    /**
+     * Reads the page, passing each element of "links" to the consumer and returning the pagination.
+     * @param reader The JSON reader positioned at the start of the page
+     * @param gson The Gson instance used to read the bitlinks and pagination
+     * @return The pagination of the page, or <CODE>null</CODE> if the page has no pagination
+     * @throws IOException if the page could not be read.
+     */
+    @Override
+    public Pagination read(JsonReader reader, Gson gson) throws IOException
+    {
+        Pagination ret = null;
+        if(reader.peek() == JsonToken.NULL)
+        {
+            reader.nextNull();
+            return ret;
+        }
+
+        TypeAdapter<Bitlink> bitlinkAdapter = gson.getAdapter(Bitlink.class);
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            String name = reader.nextName();
+            if(name.equals("links") && reader.peek() == JsonToken.BEGIN_ARRAY)
+            {
+                reader.beginArray();
+                while(reader.hasNext())
+                {
+                    Bitlink bitlink = bitlinkAdapter.read(reader);
+                    if(bitlink != null)
+                        consumer.accept(bitlink);
+                }
+                reader.endArray();
+            }
+            else if(name.equals("pagination"))
+            {
+                ret = gson.getAdapter(Pagination.class).read(reader);
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return ret;
+    }
+}
@@ -21,7 +21,9 @@ import com.google.gson.reflect.TypeToken;
 import org.apache.commons.lang3.StringUtils;
 import com.opsmatters.bitly.api.services.BitlyService;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.services.QueryParameterList;
+import com.opsmatters.bitly.api.services.PathTemplate;
 import com.opsmatters.bitly.api.model.v4.UnitQuery;
 import com.opsmatters.bitly.api.model.v4.BitlinkQuery;
 import com.opsmatters.bitly.api.model.v4.GetBitlinkResponse;
@@ -75,6 +77,32 @@ import com.opsmatters.bitly.api.model.v4.GetOAuthAppResponse;
  */
 public class BitlyV4Service extends BitlyService
 {
+    protected static final PathTemplate APP_PATH = PathTemplate.compile("/v4/apps/%s");
+    protected static final PathTemplate BITLINK_PATH = PathTemplate.compile("/v4/bitlinks/%s");
+    protected static final PathTemplate BITLINK_CLICKS_PATH = PathTemplate.compile("/v4/bitlinks/%s/clicks");
+    protected static final PathTemplate BITLINK_CLICKS_SUMMARY_PATH = PathTemplate.compile("/v4/bitlinks/%s/clicks/summary");
+    protected static final PathTemplate BITLINK_COUNTRIES_PATH = PathTemplate.compile("/v4/bitlinks/%s/countries");
+    protected static final PathTemplate BITLINK_QR_PATH = PathTemplate.compile("/v4/bitlinks/%s/qr");
+    protected static final PathTemplate BITLINK_REFERRERS_PATH = PathTemplate.compile("/v4/bitlinks/%s/referrers");
+    protected static final PathTemplate BITLINK_REFERRERS_BY_DOMAINS_PATH = PathTemplate.compile("/v4/bitlinks/%s/referrers_by_domains");
+    protected static final PathTemplate BITLINK_REFERRING_DOMAINS_PATH = PathTemplate.compile("/v4/bitlinks/%s/referring_domains");
+    protected static final PathTemplate CAMPAIGN_PATH = PathTemplate.compile("/v4/campaigns/%s");
+    protected static final PathTemplate CHANNEL_PATH = PathTemplate.compile("/v4/channels/%s");
+    protected static final PathTemplate CUSTOM_BITLINK_PATH = PathTemplate.compile("/v4/custom_bitlinks/%s");
+    protected static final PathTemplate CUSTOM_BITLINK_CLICKS_BY_DESTINATION_PATH = PathTemplate.compile("/v4/custom_bitlinks/%s/clicks_by_destination");
+    protected static final PathTemplate GROUP_PATH = PathTemplate.compile("/v4/groups/%s");
+    protected static final PathTemplate GROUP_BITLINKS_PATH = PathTemplate.compile("/v4/groups/%s/bitlinks");
+    protected static final PathTemplate GROUP_SORTED_BITLINKS_PATH = PathTemplate.compile("/v4/groups/%s/bitlinks/%s");
+    protected static final PathTemplate GROUP_COUNTRIES_PATH = PathTemplate.compile("/v4/groups/%s/countries");
+    protected static final PathTemplate GROUP_PREFERENCES_PATH = PathTemplate.compile("/v4/groups/%s/preferences");
+    protected static final PathTemplate GROUP_REFERRING_NETWORKS_PATH = PathTemplate.compile("/v4/groups/%s/referring_networks");
+    protected static final PathTemplate GROUP_SHORTEN_COUNTS_PATH = PathTemplate.compile("/v4/groups/%s/shorten_counts");
+    protected static final PathTemplate GROUP_TAGS_PATH = PathTemplate.compile("/v4/groups/%s/tags");
+    protected static final PathTemplate ORGANIZATION_PATH = PathTemplate.compile("/v4/organizations/%s");
+    protected static final PathTemplate ORGANIZATION_SHORTEN_COUNTS_PATH = PathTemplate.compile("/v4/organizations/%s/shorten_counts");
+    protected static final PathTemplate ORGANIZATION_WEBHOOKS_PATH = PathTemplate.compile("/v4/organizations/%s/webhooks");
+    protected static final PathTemplate WEBHOOK_PATH = PathTemplate.compile("/v4/webhooks/%s");
+
     protected static final Type GET_BITLINK = new TypeToken<GetBitlinkResponse>(){}.getType();
     protected static final Type CREATE_BITLINK = new TypeToken<CreateBitlinkResponse>(){}.getType();
     protected static final Type EXPAND_BITLINK = new TypeToken<ExpandBitlinkResponse>(){}.getType();
@@ -129,6 +157,16 @@ public class BitlyV4Service extends BitlyService
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    protected BitlyV4Service(BitlyV4Service service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
     /**
      * Returns the query parameter list for the given query.
      * @param query The attributes of the units to use for the query
@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.model.v4.ListBsdsResponse;
 
 /**
@@ -39,6 +41,25 @@ public class BsdService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private BsdService(BsdService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BsdService withOptions(RequestOptions options)
+    {
+        return new BsdService(this, options);
+    }
+
     /**
      * Returns the list of Branded Short Domains.
      * @return The response object
@@ -47,6 +68,15 @@ public class BsdService extends BitlyV4Service
      */
     public Optional<ListBsdsResponse> list() throws IOException, URISyntaxException
     {
-        return HTTP.GET("/v4/bsds", getHeaders(), null, LIST_BSDS);
+        return HTTP.GET("/v4/bsds", getHeaders(), null, LIST_BSDS, getOptions());
+    }
+
+    /**
+     * Returns the list of Branded Short Domains asynchronously.
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListBsdsResponse>> listAsync()
+    {
+        return HTTP.GETAsync("/v4/bsds", getHeaders(), null, LIST_BSDS, getOptions());
     }
 }
\ No newline at end of file
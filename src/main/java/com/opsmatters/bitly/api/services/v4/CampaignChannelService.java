@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.services.QueryParameterList;
 import com.opsmatters.bitly.api.model.v4.GetChannelResponse;
 import com.opsmatters.bitly.api.model.v4.CreateChannelRequest;
@@ -45,6 +47,25 @@ public class CampaignChannelService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private CampaignChannelService(CampaignChannelService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CampaignChannelService withOptions(RequestOptions options)
+    {
+        return new CampaignChannelService(this, options);
+    }
+
     /**
      * Returns the attributes of the given campaign channel.
      * @param channelGuid The GUID of the channel to be retrieved
@@ -54,7 +75,17 @@ public class CampaignChannelService extends BitlyV4Service
      */
     public Optional<GetChannelResponse> get(String channelGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/channels/%s", channelGuid), getHeaders(), null, GET_CHANNEL);
+        return HTTP.GET(CHANNEL_PATH.expand(channelGuid), getHeaders(), null, GET_CHANNEL, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given campaign channel asynchronously.
+     * @param channelGuid The GUID of the channel to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetChannelResponse>> getAsync(String channelGuid)
+    {
+        return HTTP.GETAsync(CHANNEL_PATH.expand(channelGuid), getHeaders(), null, GET_CHANNEL, getOptions());
     }
 
     /**
@@ -65,7 +96,17 @@ public class CampaignChannelService extends BitlyV4Service
      */
     public Optional<CreateChannelResponse> create(CreateChannelRequest request) throws IOException
     {
-        return HTTP.POST("/v4/channels", request, getHeaders(), CREATE_CHANNEL);
+        return HTTP.POST("/v4/channels", request, getHeaders(), CREATE_CHANNEL, getOptions());
+    }
+
+    /**
+     * Creates a campaign channel asynchronously.
+     * @param request The request containing the attributes of the campaign channel to be created
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateChannelResponse>> createAsync(CreateChannelRequest request)
+    {
+        return HTTP.POSTAsync("/v4/channels", request, getHeaders(), CREATE_CHANNEL, getOptions());
     }
 
     /**
@@ -79,7 +120,18 @@ public class CampaignChannelService extends BitlyV4Service
     public Optional<UpdateChannelResponse> update(String channelGuid, UpdateChannelRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/channels/%s", channelGuid), request, getHeaders(), null, UPDATE_CHANNEL);
+        return HTTP.PATCH(CHANNEL_PATH.expand(channelGuid), request, getHeaders(), null, UPDATE_CHANNEL, getOptions());
+    }
+
+    /**
+     * Updates the attributes of the given campaign channel asynchronously.
+     * @param channelGuid The GUID of the campaign channel to be updated
+     * @param request The request containing the attributes of the campaign channel to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateChannelResponse>> updateAsync(String channelGuid, UpdateChannelRequest request)
+    {
+        return HTTP.PATCHAsync(CHANNEL_PATH.expand(channelGuid), request, getHeaders(), null, UPDATE_CHANNEL, getOptions());
     }
 
     /**
@@ -98,6 +150,22 @@ public class CampaignChannelService extends BitlyV4Service
             queryParams.add("group_guid", groupGuid);
         if(campaignGuid != null)
             queryParams.add("campaign_guid", campaignGuid);
-        return HTTP.GET("/v4/channels", getHeaders(), queryParams, LIST_CHANNELS);
+        return HTTP.GET("/v4/channels", getHeaders(), queryParams, LIST_CHANNELS, getOptions());
+    }
+
+    /**
+     * Returns the list of campaign channels for the given group and campaign asynchronously.
+     * @param groupGuid The GUID of the group for the campaign channels
+     * @param campaignGuid The GUID of the campaign for the campaign channels
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListChannelsResponse>> listAsync(String groupGuid, String campaignGuid)
+    {
+        QueryParameterList queryParams = new QueryParameterList();
+        if(groupGuid != null)
+            queryParams.add("group_guid", groupGuid);
+        if(campaignGuid != null)
+            queryParams.add("campaign_guid", campaignGuid);
+        return HTTP.GETAsync("/v4/channels", getHeaders(), queryParams, LIST_CHANNELS, getOptions());
     }
 }
\ No newline at end of file
@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.services.QueryParameterList;
 import com.opsmatters.bitly.api.model.v4.GetCampaignResponse;
 import com.opsmatters.bitly.api.model.v4.CreateCampaignRequest;
@@ -45,6 +47,25 @@ public class CampaignService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private CampaignService(CampaignService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CampaignService withOptions(RequestOptions options)
+    {
+        return new CampaignService(this, options);
+    }
+
     /**
      * Returns the attributes of the given campaign.
      * @param campaignGuid The GUID of the campaign to be retrieved
@@ -54,7 +75,17 @@ public class CampaignService extends BitlyV4Service
      */
     public Optional<GetCampaignResponse> get(String campaignGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/campaigns/%s", campaignGuid), getHeaders(), null, GET_CAMPAIGN);
+        return HTTP.GET(CAMPAIGN_PATH.expand(campaignGuid), getHeaders(), null, GET_CAMPAIGN, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given campaign asynchronously.
+     * @param campaignGuid The GUID of the campaign to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetCampaignResponse>> getAsync(String campaignGuid)
+    {
+        return HTTP.GETAsync(CAMPAIGN_PATH.expand(campaignGuid), getHeaders(), null, GET_CAMPAIGN, getOptions());
     }
 
     /**
@@ -65,7 +96,17 @@ public class CampaignService extends BitlyV4Service
      */
     public Optional<CreateCampaignResponse> create(CreateCampaignRequest request) throws IOException
     {
-        return HTTP.POST("/v4/campaigns", request, getHeaders(), CREATE_CAMPAIGN);
+        return HTTP.POST("/v4/campaigns", request, getHeaders(), CREATE_CAMPAIGN, getOptions());
+    }
+
+    /**
+     * Creates a campaign asynchronously.
+     * @param request The request containing the attributes of the campaign to be created
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateCampaignResponse>> createAsync(CreateCampaignRequest request)
+    {
+        return HTTP.POSTAsync("/v4/campaigns", request, getHeaders(), CREATE_CAMPAIGN, getOptions());
     }
 
     /**
@@ -79,7 +120,18 @@ public class CampaignService extends BitlyV4Service
     public Optional<UpdateCampaignResponse> update(String campaignGuid, UpdateCampaignRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/campaigns/%s", campaignGuid), request, getHeaders(), null, UPDATE_CAMPAIGN);
+        return HTTP.PATCH(CAMPAIGN_PATH.expand(campaignGuid), request, getHeaders(), null, UPDATE_CAMPAIGN, getOptions());
+    }
+
+    /**
+     * Updates the attributes of the given campaign asynchronously.
+     * @param campaignGuid The GUID of the campaign to be updated
+     * @param request The request containing the attributes of the campaign to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateCampaignResponse>> updateAsync(String campaignGuid, UpdateCampaignRequest request)
+    {
+        return HTTP.PATCHAsync(CAMPAIGN_PATH.expand(campaignGuid), request, getHeaders(), null, UPDATE_CAMPAIGN, getOptions());
     }
 
     /**
@@ -94,6 +146,19 @@ public class CampaignService extends BitlyV4Service
         QueryParameterList queryParams = new QueryParameterList();
         if(groupGuid != null)
             queryParams.add("group_guid", groupGuid);
-        return HTTP.GET("/v4/campaigns", getHeaders(), queryParams, LIST_CAMPAIGNS);
+        return HTTP.GET("/v4/campaigns", getHeaders(), queryParams, LIST_CAMPAIGNS, getOptions());
+    }
+
+    /**
+     * Returns the list of campaigns for the given group asynchronously.
+     * @param groupGuid The GUID of the group for the campaigns
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListCampaignsResponse>> listAsync(String groupGuid)
+    {
+        QueryParameterList queryParams = new QueryParameterList();
+        if(groupGuid != null)
+            queryParams.add("group_guid", groupGuid);
+        return HTTP.GETAsync("/v4/campaigns", getHeaders(), queryParams, LIST_CAMPAIGNS, getOptions());
     }
 }
\ No newline at end of file
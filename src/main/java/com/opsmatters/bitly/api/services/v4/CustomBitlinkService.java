@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.services.v4.BitlyV4Service;
 import com.opsmatters.bitly.api.model.v4.GetCustomBitlinkResponse;
 import com.opsmatters.bitly.api.model.v4.CreateCustomBitlinkRequest;
@@ -45,6 +47,25 @@ public class CustomBitlinkService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private CustomBitlinkService(CustomBitlinkService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CustomBitlinkService withOptions(RequestOptions options)
+    {
+        return new CustomBitlinkService(this, options);
+    }
+
     /**
      * Returns the details and history of a custom bitlink.
      * @param customBitlink The custom bitlink made of the domain and keyword
@@ -54,7 +75,17 @@ public class CustomBitlinkService extends BitlyV4Service
      */
     public Optional<GetCustomBitlinkResponse> get(String customBitlink) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/custom_bitlinks/%s", customBitlink), getHeaders(), null, GET_CUSTOM_BITLINK);
+        return HTTP.GET(CUSTOM_BITLINK_PATH.expand(customBitlink), getHeaders(), null, GET_CUSTOM_BITLINK, getOptions());
+    }
+
+    /**
+     * Returns the details and history of a custom bitlink asynchronously.
+     * @param customBitlink The custom bitlink made of the domain and keyword
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetCustomBitlinkResponse>> getAsync(String customBitlink)
+    {
+        return HTTP.GETAsync(CUSTOM_BITLINK_PATH.expand(customBitlink), getHeaders(), null, GET_CUSTOM_BITLINK, getOptions());
     }
 
     /**
@@ -65,7 +96,17 @@ public class CustomBitlinkService extends BitlyV4Service
      */
     public Optional<CreateCustomBitlinkResponse> create(CreateCustomBitlinkRequest request) throws IOException
     {
-        return HTTP.POST("/v4/custom_bitlinks", request, getHeaders(), CREATE_CUSTOM_BITLINK);
+        return HTTP.POST("/v4/custom_bitlinks", request, getHeaders(), CREATE_CUSTOM_BITLINK, getOptions());
+    }
+
+    /**
+     * Add a keyword to a bitlink asynchronously.
+     * @param request The request containing the bitlink and keyword to be added
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateCustomBitlinkResponse>> createAsync(CreateCustomBitlinkRequest request)
+    {
+        return HTTP.POSTAsync("/v4/custom_bitlinks", request, getHeaders(), CREATE_CUSTOM_BITLINK, getOptions());
     }
 
     /**
@@ -79,8 +120,20 @@ public class CustomBitlinkService extends BitlyV4Service
     public Optional<UpdateCustomBitlinkResponse> update(String customBitlink, UpdateCustomBitlinkRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/custom_bitlinks/%s", customBitlink),
-            request, getHeaders(), null, UPDATE_CUSTOM_BITLINK);
+        return HTTP.PATCH(CUSTOM_BITLINK_PATH.expand(customBitlink),
+            request, getHeaders(), null, UPDATE_CUSTOM_BITLINK, getOptions());
+    }
+
+    /**
+     * Move a keyword to a different bitlink asynchronously.
+     * @param customBitlink The custom bitlink made of the domain and keyword
+     * @param request The request containing the attributes of the bitlink to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateCustomBitlinkResponse>> updateAsync(String customBitlink, UpdateCustomBitlinkRequest request)
+    {
+        return HTTP.PATCHAsync(CUSTOM_BITLINK_PATH.expand(customBitlink),
+            request, getHeaders(), null, UPDATE_CUSTOM_BITLINK, getOptions());
     }
 
     /**
@@ -93,7 +146,18 @@ public class CustomBitlinkService extends BitlyV4Service
     public Optional<GetMetricsByDestinationResponse> getMetricsByDestination(String customBitlink)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/custom_bitlinks/%s/clicks_by_destination", customBitlink), 
-            getHeaders(), null, GET_METRICS_BY_DESTINATION);
+        return HTTP.GET(CUSTOM_BITLINK_CLICKS_BY_DESTINATION_PATH.expand(customBitlink), 
+            getHeaders(), null, GET_METRICS_BY_DESTINATION, getOptions());
+    }
+
+    /**
+     * Returns the clicks for the given custom bitlink by destination asynchronously.
+     * @param customBitlink The custom bitlink made of the domain and keyword
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByDestinationResponse>> getMetricsByDestinationAsync(String customBitlink)
+    {
+        return HTTP.GETAsync(CUSTOM_BITLINK_CLICKS_BY_DESTINATION_PATH.expand(customBitlink), 
+            getHeaders(), null, GET_METRICS_BY_DESTINATION, getOptions());
     }
 }
\ No newline at end of file
@@ -18,8 +18,16 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.services.QueryParameterList;
 import com.opsmatters.bitly.api.model.v4.UnitQuery;
 import com.opsmatters.bitly.api.model.v4.BitlinkQuery;
@@ -34,6 +42,8 @@ import com.opsmatters.bitly.api.model.v4.GetGroupPreferencesResponse;
 import com.opsmatters.bitly.api.model.v4.UpdateGroupPreferencesRequest;
 import com.opsmatters.bitly.api.model.v4.UpdateGroupPreferencesResponse;
 import com.opsmatters.bitly.api.model.v4.GetBitlinksByGroupResponse;
+import com.opsmatters.bitly.api.model.v4.Bitlink;
+import com.opsmatters.bitly.api.model.v4.Pagination;
 import com.opsmatters.bitly.api.model.v4.GetSortedBitlinksByGroupResponse;
 import com.opsmatters.bitly.api.model.v4.GetMetricsByCountriesResponse;
 import com.opsmatters.bitly.api.model.v4.GetMetricsByReferringNetworksResponse;
@@ -55,6 +65,25 @@ public class GroupService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private GroupService(GroupService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GroupService withOptions(RequestOptions options)
+    {
+        return new GroupService(this, options);
+    }
+
     /**
      * Returns the attributes of the given group.
      * @param groupGuid The GUID of the group to be retrieved
@@ -64,7 +93,17 @@ public class GroupService extends BitlyV4Service
      */
     public Optional<GetGroupResponse> get(String groupGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s", groupGuid), getHeaders(), null, GET_GROUP);
+        return HTTP.GET(GROUP_PATH.expand(groupGuid), getHeaders(), null, GET_GROUP, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given group asynchronously.
+     * @param groupGuid The GUID of the group to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetGroupResponse>> getAsync(String groupGuid)
+    {
+        return HTTP.GETAsync(GROUP_PATH.expand(groupGuid), getHeaders(), null, GET_GROUP, getOptions());
     }
 
     /**
@@ -78,7 +117,18 @@ public class GroupService extends BitlyV4Service
     public Optional<UpdateGroupResponse> update(String groupGuid, UpdateGroupRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/groups/%s", groupGuid), request, getHeaders(), null, UPDATE_GROUP);
+        return HTTP.PATCH(GROUP_PATH.expand(groupGuid), request, getHeaders(), null, UPDATE_GROUP, getOptions());
+    }
+
+    /**
+     * Updates the attributes of the given group asynchronously.
+     * @param groupGuid The GUID of the group to be updated
+     * @param request The request containing the attributes of the group to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateGroupResponse>> updateAsync(String groupGuid, UpdateGroupRequest request)
+    {
+        return HTTP.PATCHAsync(GROUP_PATH.expand(groupGuid), request, getHeaders(), null, UPDATE_GROUP, getOptions());
     }
 
     /**
@@ -93,7 +143,20 @@ public class GroupService extends BitlyV4Service
         QueryParameterList queryParams = new QueryParameterList();
         if(organizationGuid != null)
             queryParams.add("organization_guid", organizationGuid);
-        return HTTP.GET("/v4/groups", getHeaders(), queryParams, LIST_GROUPS);
+        return HTTP.GET("/v4/groups", getHeaders(), queryParams, LIST_GROUPS, getOptions());
+    }
+
+    /**
+     * Returns the groups for the given organization GUID asynchronously.
+     * @param organizationGuid The GUID of the organization for the groups to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListGroupsResponse>> listAsync(String organizationGuid)
+    {
+        QueryParameterList queryParams = new QueryParameterList();
+        if(organizationGuid != null)
+            queryParams.add("organization_guid", organizationGuid);
+        return HTTP.GETAsync("/v4/groups", getHeaders(), queryParams, LIST_GROUPS, getOptions());
     }
 
     /**
@@ -104,7 +167,17 @@ public class GroupService extends BitlyV4Service
      */
     public void delete(String groupGuid) throws IOException, URISyntaxException
     {
-        HTTP.DELETE(String.format("/v4/groups/%s", groupGuid), getHeaders(), null);
+        HTTP.DELETE(GROUP_PATH.expand(groupGuid), getHeaders(), null, getOptions());
+    }
+
+    /**
+     * Deletes the given group asynchronously.
+     * @param groupGuid The GUID of the group to be deleted
+     * @return The future that completes when the operation has completed
+     */
+    public CompletableFuture<Void> deleteAsync(String groupGuid)
+    {
+        return HTTP.DELETEAsync(GROUP_PATH.expand(groupGuid), getHeaders(), null, getOptions());
     }
 
     /**
@@ -116,7 +189,17 @@ public class GroupService extends BitlyV4Service
      */
     public Optional<GetGroupTagsResponse> getTags(String groupGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/tags", groupGuid), getHeaders(), null, GET_GROUP_TAGS);
+        return HTTP.GET(GROUP_TAGS_PATH.expand(groupGuid), getHeaders(), null, GET_GROUP_TAGS, getOptions());
+    }
+
+    /**
+     * Returns the tags for the given group asynchronously.
+     * @param groupGuid The GUID of the group with the tags
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetGroupTagsResponse>> getTagsAsync(String groupGuid)
+    {
+        return HTTP.GETAsync(GROUP_TAGS_PATH.expand(groupGuid), getHeaders(), null, GET_GROUP_TAGS, getOptions());
     }
 
     /**
@@ -130,8 +213,20 @@ public class GroupService extends BitlyV4Service
     public Optional<GetShortenCountsResponse> getShortenCounts(String groupGuid, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/shorten_counts", groupGuid), 
-            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS);
+        return HTTP.GET(GROUP_SHORTEN_COUNTS_PATH.expand(groupGuid), 
+            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS, getOptions());
+    }
+
+    /**
+     * Returns the shorten counts for the given group asynchronously.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetShortenCountsResponse>> getShortenCountsAsync(String groupGuid, UnitQuery query)
+    {
+        return HTTP.GETAsync(GROUP_SHORTEN_COUNTS_PATH.expand(groupGuid), 
+            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS, getOptions());
     }
 
     /**
@@ -143,8 +238,19 @@ public class GroupService extends BitlyV4Service
      */
     public Optional<GetGroupPreferencesResponse> getPreferences(String groupGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/preferences", groupGuid),
-            getHeaders(), null, GET_GROUP_PREFERENCES);
+        return HTTP.GET(GROUP_PREFERENCES_PATH.expand(groupGuid),
+            getHeaders(), null, GET_GROUP_PREFERENCES, getOptions());
+    }
+
+    /**
+     * Returns the preferences for the given group asynchronously.
+     * @param groupGuid The GUID of the group with the preferences
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetGroupPreferencesResponse>> getPreferencesAsync(String groupGuid)
+    {
+        return HTTP.GETAsync(GROUP_PREFERENCES_PATH.expand(groupGuid),
+            getHeaders(), null, GET_GROUP_PREFERENCES, getOptions());
     }
 
     /**
@@ -158,8 +264,20 @@ public class GroupService extends BitlyV4Service
     public Optional<UpdateGroupPreferencesResponse> updatePreferences(String groupGuid, UpdateGroupPreferencesRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/groups/%s/preferences", groupGuid), request,
-            getHeaders(), null, UPDATE_GROUP_PREFERENCES);
+        return HTTP.PATCH(GROUP_PREFERENCES_PATH.expand(groupGuid), request,
+            getHeaders(), null, UPDATE_GROUP_PREFERENCES, getOptions());
+    }
+
+    /**
+     * Updates the preferences of the given group asynchronously.
+     * @param groupGuid The GUID of the group to be updated
+     * @param request The request containing the preferences of the group to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateGroupPreferencesResponse>> updatePreferencesAsync(String groupGuid, UpdateGroupPreferencesRequest request)
+    {
+        return HTTP.PATCHAsync(GROUP_PREFERENCES_PATH.expand(groupGuid), request,
+            getHeaders(), null, UPDATE_GROUP_PREFERENCES, getOptions());
     }
 
     /**
@@ -173,8 +291,142 @@ public class GroupService extends BitlyV4Service
     public Optional<GetBitlinksByGroupResponse> getBitlinks(String groupGuid, BitlinkQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/bitlinks", groupGuid),
-            getHeaders(), getQueryParameterList(query), GET_BITLINKS_BY_GROUP);
+        return HTTP.GET(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), getQueryParameterList(query), GET_BITLINKS_BY_GROUP, getOptions());
+    }
+
+    /**
+     * Returns the bitlinks for the given group asynchronously.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetBitlinksByGroupResponse>> getBitlinksAsync(String groupGuid, BitlinkQuery query)
+    {
+        return HTTP.GETAsync(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), getQueryParameterList(query), GET_BITLINKS_BY_GROUP, getOptions());
+    }
+
+    /**
+     * Returns the bitlinks for the given group, passing each bitlink to the consumer as it is parsed.
+     * <p>
+     * The page is read incrementally from the response, so memory use does not grow with the page size.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query
+     * @param consumer The consumer called with each bitlink
+     * @return The pagination of the page
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    public Optional<Pagination> getBitlinks(String groupGuid, BitlinkQuery query, Consumer<? super Bitlink> consumer)
+        throws IOException, URISyntaxException
+    {
+        return HTTP.GET(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), getQueryParameterList(query), new BitlinkStreamReader(consumer), getOptions());
+    }
+
+    /**
+     * Returns the bitlinks for the given group asynchronously, passing each bitlink to the consumer as it is parsed.
+     * <p>
+     * The consumer is called on the thread that completes the request.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query
+     * @param consumer The consumer called with each bitlink
+     * @return The future pagination of the page
+     */
+    public CompletableFuture<Optional<Pagination>> getBitlinksAsync(String groupGuid, BitlinkQuery query,
+        Consumer<? super Bitlink> consumer)
+    {
+        return HTTP.GETAsync(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), getQueryParameterList(query), new BitlinkStreamReader(consumer), getOptions());
+    }
+
+    /**
+     * Returns a lazy stream over all the bitlinks for the given group, fetching each page as it is needed.
+     * <p>
+     * Only one page of bitlinks is held in memory, and no more pages are fetched once the stream short-circuits,
+     * eg. after <CODE>limit(n)</CODE> or <CODE>findFirst()</CODE>. A page that cannot be fetched
+     * throws a {@link com.opsmatters.bitly.BitlyException}.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query, starting at its page
+     * @return The stream of bitlinks
+     */
+    public Stream<Bitlink> streamBitlinks(String groupGuid, BitlinkQuery query)
+    {
+        return streamBitlinks(groupGuid, query, 0);
+    }
+
+    /**
+     * Returns a lazy stream over all the bitlinks for the given group, fetching up to the given number of pages
+     * ahead of the page being read.
+     * <p>
+     * Prefetching overlaps the round trip for the next pages with reading the current page. No more than
+     * the given number of pages are held ahead of the reader, and closing the stream cancels the pages
+     * still being prefetched.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query, starting at its page
+     * @param prefetch The number of pages to fetch ahead of the page being read, or 0 to fetch each page when it is needed
+     * @return The stream of bitlinks
+     */
+    public Stream<Bitlink> streamBitlinks(String groupGuid, BitlinkQuery query, int prefetch)
+    {
+        BitlinkPageIterator iterator = iterateBitlinks(groupGuid, query, prefetch);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+            Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    /**
+     * Returns a lazy iterator over all the bitlinks for the given group, fetching each page as it is needed.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query, starting at its page
+     * @return The iterator over the bitlinks
+     */
+    public BitlinkPageIterator iterateBitlinks(String groupGuid, BitlinkQuery query)
+    {
+        return iterateBitlinks(groupGuid, query, 0);
+    }
+
+    /**
+     * Returns a lazy iterator over all the bitlinks for the given group, fetching up to the given number of pages
+     * ahead of the page being read.
+     * @param groupGuid The guid for the group
+     * @param query The attributes of the bitlinks to use for the query, starting at its page
+     * @param prefetch The number of pages to fetch ahead of the page being read, or 0 to fetch each page when it is needed
+     * @return The iterator over the bitlinks
+     */
+    public BitlinkPageIterator iterateBitlinks(String groupGuid, BitlinkQuery query, int prefetch)
+    {
+        return new BitlinkPageIterator(this, groupGuid, query, prefetch);
+    }
+
+    /**
+     * Returns a page of the bitlinks for the given group, passing each bitlink to the consumer as it is parsed.
+     * @param groupGuid The guid for the group
+     * @param queryParams The query parameters for the page
+     * @param consumer The consumer called with each bitlink
+     * @return The pagination of the page
+     * @throws IOException if there is a communication error.
+     * @throws URISyntaxException if there is a format error in the URL.
+     */
+    Optional<Pagination> getBitlinksPage(String groupGuid, List<String> queryParams, Consumer<? super Bitlink> consumer)
+        throws IOException, URISyntaxException
+    {
+        return HTTP.GET(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), queryParams, new BitlinkStreamReader(consumer), getOptions());
+    }
+
+    /**
+     * Returns a page of the bitlinks for the given group asynchronously, passing each bitlink to the consumer as it is parsed.
+     * @param groupGuid The guid for the group
+     * @param queryParams The query parameters for the page
+     * @param consumer The consumer called with each bitlink
+     * @return The future pagination of the page
+     */
+    CompletableFuture<Optional<Pagination>> getBitlinksPageAsync(String groupGuid, List<String> queryParams,
+        Consumer<? super Bitlink> consumer)
+    {
+        return HTTP.GETAsync(GROUP_BITLINKS_PATH.expand(groupGuid),
+            getHeaders(), queryParams, new BitlinkStreamReader(consumer), getOptions());
     }
 
     /**
@@ -189,8 +441,21 @@ public class GroupService extends BitlyV4Service
     public Optional<GetSortedBitlinksByGroupResponse> getSortedBitlinks(String groupGuid, Sort sort, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/bitlinks/%s", groupGuid, sort.value()), 
-            getHeaders(), getQueryParameterList(query), GET_SORTED_BITLINKS_BY_GROUP);
+        return HTTP.GET(GROUP_SORTED_BITLINKS_PATH.expand(groupGuid, sort.value()), 
+            getHeaders(), getQueryParameterList(query), GET_SORTED_BITLINKS_BY_GROUP, getOptions());
+    }
+
+    /**
+     * Returns the sorted bitlinks for the given group asynchronously.
+     * @param groupGuid The guid for the group
+     * @param sort The sort for the group
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetSortedBitlinksByGroupResponse>> getSortedBitlinksAsync(String groupGuid, Sort sort, UnitQuery query)
+    {
+        return HTTP.GETAsync(GROUP_SORTED_BITLINKS_PATH.expand(groupGuid, sort.value()), 
+            getHeaders(), getQueryParameterList(query), GET_SORTED_BITLINKS_BY_GROUP, getOptions());
     }
 
     /**
@@ -204,8 +469,20 @@ public class GroupService extends BitlyV4Service
     public Optional<GetMetricsByCountriesResponse> getMetricsByCountries(String groupGuid, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/countries", groupGuid), 
-            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES);
+        return HTTP.GET(GROUP_COUNTRIES_PATH.expand(groupGuid), 
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given group by countries asynchronously.
+     * @param groupGuid The GUID of the group for the metrics
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByCountriesResponse>> getMetricsByCountriesAsync(String groupGuid, UnitQuery query)
+    {
+        return HTTP.GETAsync(GROUP_COUNTRIES_PATH.expand(groupGuid), 
+            getHeaders(), getQueryParameterList(query), GET_METRICS_BY_COUNTRIES, getOptions());
     }
 
     /**
@@ -218,7 +495,18 @@ public class GroupService extends BitlyV4Service
     public Optional<GetMetricsByReferringNetworksResponse> getMetricsByReferringNetworks(String groupGuid)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/groups/%s/referring_networks", groupGuid), 
-            getHeaders(), null, GET_METRICS_BY_REFERRING_NETWORKS);
+        return HTTP.GET(GROUP_REFERRING_NETWORKS_PATH.expand(groupGuid), 
+            getHeaders(), null, GET_METRICS_BY_REFERRING_NETWORKS, getOptions());
+    }
+
+    /**
+     * Returns the metrics for the given group by referring networks asynchronously.
+     * @param groupGuid The GUID of the group for the metrics
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetMetricsByReferringNetworksResponse>> getMetricsByReferringNetworksAsync(String groupGuid)
+    {
+        return HTTP.GETAsync(GROUP_REFERRING_NETWORKS_PATH.expand(groupGuid), 
+            getHeaders(), null, GET_METRICS_BY_REFERRING_NETWORKS, getOptions());
     }
 }
\ No newline at end of file
@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.model.v4.UnitQuery;
 import com.opsmatters.bitly.api.model.v4.GetOrganizationResponse;
 import com.opsmatters.bitly.api.model.v4.ListOrganizationsResponse;
@@ -42,6 +44,25 @@ public class OrganizationService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private OrganizationService(OrganizationService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public OrganizationService withOptions(RequestOptions options)
+    {
+        return new OrganizationService(this, options);
+    }
+
     /**
      * Returns the attributes of the given organization.
      * @param organizationGuid The GUID of the organization to be retrieved
@@ -51,7 +72,17 @@ public class OrganizationService extends BitlyV4Service
      */
     public Optional<GetOrganizationResponse> get(String organizationGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/organizations/%s", organizationGuid), getHeaders(), null, GET_ORGANIZATION);
+        return HTTP.GET(ORGANIZATION_PATH.expand(organizationGuid), getHeaders(), null, GET_ORGANIZATION, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given organization asynchronously.
+     * @param organizationGuid The GUID of the organization to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetOrganizationResponse>> getAsync(String organizationGuid)
+    {
+        return HTTP.GETAsync(ORGANIZATION_PATH.expand(organizationGuid), getHeaders(), null, GET_ORGANIZATION, getOptions());
     }
 
     /**
@@ -62,7 +93,16 @@ public class OrganizationService extends BitlyV4Service
      */
     public Optional<ListOrganizationsResponse> list() throws IOException, URISyntaxException
     {
-        return HTTP.GET("/v4/organizations", getHeaders(), null, LIST_ORGANIZATIONS);
+        return HTTP.GET("/v4/organizations", getHeaders(), null, LIST_ORGANIZATIONS, getOptions());
+    }
+
+    /**
+     * Returns the list of organizations asynchronously.
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListOrganizationsResponse>> listAsync()
+    {
+        return HTTP.GETAsync("/v4/organizations", getHeaders(), null, LIST_ORGANIZATIONS, getOptions());
     }
 
     /**
@@ -76,7 +116,19 @@ public class OrganizationService extends BitlyV4Service
     public Optional<GetShortenCountsResponse> getShortenCounts(String organizationGuid, UnitQuery query)
         throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/organizations/%s/shorten_counts", organizationGuid), 
-            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS);
+        return HTTP.GET(ORGANIZATION_SHORTEN_COUNTS_PATH.expand(organizationGuid), 
+            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS, getOptions());
+    }
+
+    /**
+     * Returns the shorten counts for the given organization asynchronously.
+     * @param organizationGuid The guid for the organization
+     * @param query The attributes of the units to use for the query
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetShortenCountsResponse>> getShortenCountsAsync(String organizationGuid, UnitQuery query)
+    {
+        return HTTP.GETAsync(ORGANIZATION_SHORTEN_COUNTS_PATH.expand(organizationGuid), 
+            getHeaders(), getQueryParameterList(query), GET_SHORTEN_COUNTS, getOptions());
     }
 }
\ No newline at end of file
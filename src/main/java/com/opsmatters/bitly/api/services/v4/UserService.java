@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.model.v4.GetUserResponse;
 import com.opsmatters.bitly.api.model.v4.UpdateUserRequest;
 import com.opsmatters.bitly.api.model.v4.UpdateUserResponse;
@@ -41,6 +43,25 @@ public class UserService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private UserService(UserService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UserService withOptions(RequestOptions options)
+    {
+        return new UserService(this, options);
+    }
+
     /**
      * Returns the attributes of the current authenticated user.
      * @return The response object
@@ -49,7 +70,16 @@ public class UserService extends BitlyV4Service
      */
     public Optional<GetUserResponse> get() throws IOException, URISyntaxException
     {
-        return HTTP.GET("/v4/user", getHeaders(), null, GET_USER);
+        return HTTP.GET("/v4/user", getHeaders(), null, GET_USER, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the current authenticated user asynchronously.
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetUserResponse>> getAsync()
+    {
+        return HTTP.GETAsync("/v4/user", getHeaders(), null, GET_USER, getOptions());
     }
 
     /**
@@ -62,6 +92,16 @@ public class UserService extends BitlyV4Service
     public Optional<UpdateUserResponse> update(UpdateUserRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH("/v4/user", request, getHeaders(), null, UPDATE_USER);
+        return HTTP.PATCH("/v4/user", request, getHeaders(), null, UPDATE_USER, getOptions());
+    }
+
+    /**
+     * Updates the attributes of the current authenticated user asynchronously.
+     * @param request The request containing the attributes of the user to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateUserResponse>> updateAsync(UpdateUserRequest request)
+    {
+        return HTTP.PATCHAsync("/v4/user", request, getHeaders(), null, UPDATE_USER, getOptions());
     }
 }
\ No newline at end of file
@@ -18,8 +18,10 @@ package com.opsmatters.bitly.api.services.v4;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
 import com.google.common.base.Optional;
 import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.RequestOptions;
 import com.opsmatters.bitly.api.model.v4.GetWebhookResponse;
 import com.opsmatters.bitly.api.model.v4.CreateWebhookRequest;
 import com.opsmatters.bitly.api.model.v4.CreateWebhookResponse;
@@ -44,6 +46,25 @@ public class WebhookService extends BitlyV4Service
         super(accessToken, httpContext);
     }
 
+    /**
+     * Constructor that takes a service to copy and the options for its calls.
+     * @param service The service to copy
+     * @param options The options for the calls made through the new service
+     */
+    private WebhookService(WebhookService service, RequestOptions options)
+    {
+        super(service, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public WebhookService withOptions(RequestOptions options)
+    {
+        return new WebhookService(this, options);
+    }
+
     /**
      * Returns the attributes of the given webhook.
      * @param webhookGuid The GUID of the webhook to be retrieved
@@ -53,7 +74,17 @@ public class WebhookService extends BitlyV4Service
      */
     public Optional<GetWebhookResponse> get(String webhookGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/webhooks/%s", webhookGuid), getHeaders(), null, GET_WEBHOOK);
+        return HTTP.GET(WEBHOOK_PATH.expand(webhookGuid), getHeaders(), null, GET_WEBHOOK, getOptions());
+    }
+
+    /**
+     * Returns the attributes of the given webhook asynchronously.
+     * @param webhookGuid The GUID of the webhook to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<GetWebhookResponse>> getAsync(String webhookGuid)
+    {
+        return HTTP.GETAsync(WEBHOOK_PATH.expand(webhookGuid), getHeaders(), null, GET_WEBHOOK, getOptions());
     }
 
     /**
@@ -64,7 +95,17 @@ public class WebhookService extends BitlyV4Service
      */
     public Optional<CreateWebhookResponse> create(CreateWebhookRequest request) throws IOException
     {
-        return HTTP.POST("/v4/webhooks", request, getHeaders(), CREATE_WEBHOOK);
+        return HTTP.POST("/v4/webhooks", request, getHeaders(), CREATE_WEBHOOK, getOptions());
+    }
+
+    /**
+     * Creates a webhook asynchronously.
+     * @param request The request containing the attributes of the webhook to be created
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<CreateWebhookResponse>> createAsync(CreateWebhookRequest request)
+    {
+        return HTTP.POSTAsync("/v4/webhooks", request, getHeaders(), CREATE_WEBHOOK, getOptions());
     }
 
     /**
@@ -78,7 +119,18 @@ public class WebhookService extends BitlyV4Service
     public Optional<UpdateWebhookResponse> update(String webhookGuid, UpdateWebhookRequest request)
         throws IOException, URISyntaxException
     {
-        return HTTP.PATCH(String.format("/v4/webhooks/%s", webhookGuid), request, getHeaders(), null, UPDATE_WEBHOOK);
+        return HTTP.PATCH(WEBHOOK_PATH.expand(webhookGuid), request, getHeaders(), null, UPDATE_WEBHOOK, getOptions());
+    }
+
+    /**
+     * Updates the attributes of the given webhook asynchronously.
+     * @param webhookGuid The GUID of the webhook to be updated
+     * @param request The request containing the attributes of the webhook to be updated
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<UpdateWebhookResponse>> updateAsync(String webhookGuid, UpdateWebhookRequest request)
+    {
+        return HTTP.PATCHAsync(WEBHOOK_PATH.expand(webhookGuid), request, getHeaders(), null, UPDATE_WEBHOOK, getOptions());
     }
 
     /**
@@ -90,7 +142,17 @@ public class WebhookService extends BitlyV4Service
      */
     public Optional<ListWebhooksResponse> list(String organizationGuid) throws IOException, URISyntaxException
     {
-        return HTTP.GET(String.format("/v4/organizations/%s/webhooks", organizationGuid), getHeaders(), null, LIST_WEBHOOKS);
+        return HTTP.GET(ORGANIZATION_WEBHOOKS_PATH.expand(organizationGuid), getHeaders(), null, LIST_WEBHOOKS, getOptions());
+    }
+
+    /**
+     * Returns the webooks for the given organization GUID asynchronously.
+     * @param organizationGuid The GUID of the organization for the webhooks to be retrieved
+     * @return The future response object
+     */
+    public CompletableFuture<Optional<ListWebhooksResponse>> listAsync(String organizationGuid)
+    {
+        return HTTP.GETAsync(ORGANIZATION_WEBHOOKS_PATH.expand(organizationGuid), getHeaders(), null, LIST_WEBHOOKS, getOptions());
     }
 
     /**
@@ -101,6 +163,16 @@ public class WebhookService extends BitlyV4Service
      */
     public void delete(String webhookGuid) throws IOException, URISyntaxException
     {
-        HTTP.DELETE(String.format("/v4/webhooks/%s", webhookGuid), getHeaders(), null);
+        HTTP.DELETE(WEBHOOK_PATH.expand(webhookGuid), getHeaders(), null, getOptions());
+    }
+
+    /**
+     * Deletes the given webhook asynchronously.
+     * @param webhookGuid The GUID of the webhook to be deleted
+     * @return The future that completes when the operation has completed
+     */
+    public CompletableFuture<Void> deleteAsync(String webhookGuid)
+    {
+        return HTTP.DELETEAsync(WEBHOOK_PATH.expand(webhookGuid), getHeaders(), null, getOptions());
     }
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP transport using the JDK <CODE>java.net.http.HttpClient</CODE> (Java 11+).
+ * <p>
+ * HTTP/2 is negotiated where the server supports it, so concurrent requests are multiplexed
+ * over a single TLS connection rather than using a pooled connection each.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class JdkHttpTransport implements HttpTransport
+{
+    private HttpClient client;
+    private Duration requestTimeout;
+
+    /**
+     * Constructor that takes the connection settings.
+     * <p>
+     * Only the connect and socket timeouts apply, as the JDK client manages its own connections.
+     * @param config The connection settings
+     */
+    public JdkHttpTransport(HttpConfig config)
+    {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL);
+        if(config.getConnectTimeout() > 0)
+            builder.connectTimeout(Duration.ofMillis(config.getConnectTimeout()));
+        if(config.getSocketTimeout() > 0)
+            requestTimeout = Duration.ofMillis(config.getSocketTimeout());
+        this.client = builder.build();
+    }
+
+    /**
+     * Constructor that takes a configured JDK client.
+     * @param client The JDK HTTP client
+     */
+    public JdkHttpTransport(HttpClient client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        try
+        {
+            return new JdkTransportResponse(client.send(createRequest(request), HttpResponse.BodyHandlers.ofInputStream()));
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        HttpRequest httpRequest;
+        try
+        {
+            httpRequest = createRequest(request);
+        }
+        catch(IOException | RuntimeException e)
+        {
+            CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+            ret.completeExceptionally(e);
+            return ret;
+        }
+
+        // The body is buffered so that reading it never blocks the thread completing the future
+        final CompletableFuture<HttpResponse<byte[]>> future = client.sendAsync(httpRequest,
+            HttpResponse.BodyHandlers.ofByteArray());
+        final CompletableFuture<TransportResponse> ret = future.thenApply(response ->
+            new JdkTransportResponse(response.statusCode(), response.headers(), new ByteArrayInputStream(response.body())));
+
+        // Cancelling the returned future aborts the exchange
+        ret.whenComplete((result, e) ->
+        {
+            if(ret.isCancelled())
+                future.cancel(true);
+        });
+
+        return ret;
+    }
+
+    /**
+     * Does nothing, as the JDK client releases its connections when it is no longer referenced.
+     */
+    @Override
+    public void close()
+    {
+    }
+
+    /**
+     * Creates a JDK request from the given transport request.
+     * <p>
+     * If the request has a deadline, the timeout is limited to the time remaining.
+     * @param request The transport request
+     * @return The JDK request
+     * @throws IOException if the body could not be serialized.
+     */
+    private HttpRequest createRequest(TransportRequest request) throws IOException
+    {
+        RequestBody body = request.getBody();
+        HttpRequest.BodyPublisher publisher = body != null
+            ? HttpRequest.BodyPublishers.ofByteArray(body.toByteArray())
+            : HttpRequest.BodyPublishers.noBody();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri())
+            .method(request.getMethod(), publisher);
+        for(Map.Entry<String,String> e : request.getHeaders().entrySet())
+            builder.setHeader(e.getKey(), e.getValue());
+        if(body != null)
+            builder.setHeader("Content-Type", body.getContentType());
+        Duration timeout = requestTimeout;
+        Deadline deadline = request.getDeadline();
+        if(deadline != null)
+        {
+            Duration remaining = Duration.ofMillis(deadline.getTimeoutMillis());
+            if(timeout == null || remaining.compareTo(timeout) < 0)
+                timeout = remaining;
+        }
+        if(timeout != null)
+            builder.timeout(timeout);
+        return builder.build();
+    }
+
+    /**
+     * Wraps a JDK response.
+     */
+    private static class JdkTransportResponse implements TransportResponse
+    {
+        private int statusCode;
+        private HttpHeaders headers;
+        private InputStream body;
+
+        /**
+         * Constructor that takes a JDK response with a streamed body.
+         * @param response The JDK response
+         */
+        JdkTransportResponse(HttpResponse<InputStream> response)
+        {
+            this(response.statusCode(), response.headers(), response.body());
+        }
+
+        /**
+         * Constructor that takes a status code, headers and body.
+         * @param statusCode The HTTP status code
+         * @param headers The response headers
+         * @param body The response body
+         */
+        JdkTransportResponse(int statusCode, HttpHeaders headers, InputStream body)
+        {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * HTTP/2 has no reason phrases, so an empty string is returned.
+         */
+        @Override
+        public String getReasonPhrase()
+        {
+            return "";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getHeader(String name)
+        {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getContent()
+        {
+            return body;
+        }
+
+        /**
+         * Closes the body, releasing the stream back to the client.
+         * @throws IOException if the body could not be closed.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            body.close();
+        }
+    }
+}
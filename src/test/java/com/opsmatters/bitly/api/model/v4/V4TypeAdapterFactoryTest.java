@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.model.v4;
+
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * The set of tests used to check that the hand-written adapters match Gson's reflective adapter.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class V4TypeAdapterFactoryTest
+{
+    private static final Logger logger = Logger.getLogger(V4TypeAdapterFactoryTest.class.getName());
+
+    private final Gson reflective = new GsonBuilder().serializeNulls().create();
+    private final Gson adapters = new GsonBuilder().registerTypeAdapterFactory(new V4TypeAdapterFactory()).create();
+
+    private final String DEEPLINK = "{\"bitlink\":\"bit.ly/abc\",\"guid\":\"Dg1\",\"os\":\"ios\","
+        +"\"created\":\"2020-01-01T00:00:00+0000\",\"modified\":\"2020-01-02T00:00:00+0000\","
+        +"\"app_uri_path\":\"/path\",\"install_type\":\"promote_install\",\"install_url\":\"https://example.com/install\","
+        +"\"app_id\":\"com.example\",\"app_guid\":\"Ag1\",\"brand_guid\":\"Bg1\"}";
+
+    private final String BITLINK = "{\"id\":\"bit.ly/abc\",\"link\":\"https://bit.ly/abc\",\"title\":\"Title \\u00e9\","
+        +"\"references\":{\"group\":\"https://api-ssl.bitly.com/v4/groups/Bg1\",\"user\":null},"
+        +"\"tags\":[\"a\",\"b\"],\"deeplinks\":["+DEEPLINK+",null],\"archived\":false,"
+        +"\"long_url\":\"https://example.com/a?b=c\",\"client_id\":\"c1\",\"custom_bitlinks\":[],"
+        +"\"created_at\":\"2020-01-01T00:00:00+0000\",\"created_by\":\"user\","
+        +"\"unknown\":{\"nested\":[1,2,{\"x\":true}]},\"is_deleted\":false}";
+
+    private final String PAGINATION = "{\"total\":120,\"size\":50,\"prev\":\"\",\"page\":1,"
+        +"\"next\":\"https://api-ssl.bitly.com/v4/groups/Bg1/bitlinks?page=2\"}";
+
+    @Test
+    public void testAdaptersRegistered()
+    {
+        logger.info("Starting test: AdaptersRegisteredTest");
+        Assert.assertTrue(adapters.getAdapter(Bitlink.class) instanceof Bitlink.Adapter);
+        Assert.assertTrue(adapters.getAdapter(CreateBitlinkResponse.class) instanceof Bitlink.Adapter);
+        Assert.assertTrue(adapters.getAdapter(GetBitlinkResponse.class) instanceof Bitlink.Adapter);
+        Assert.assertTrue(adapters.getAdapter(UpdateBitlinkResponse.class) instanceof Bitlink.Adapter);
+        Assert.assertTrue(adapters.getAdapter(Deeplink.class) instanceof Deeplink.Adapter);
+        Assert.assertTrue(adapters.getAdapter(LinkClicks.class) instanceof LinkClicks.Adapter);
+        Assert.assertTrue(adapters.getAdapter(Metric.class) instanceof Metric.Adapter);
+        Assert.assertTrue(adapters.getAdapter(Pagination.class) instanceof Pagination.Adapter);
+    }
+
+    @Test
+    public void testBitlinks()
+    {
+        logger.info("Starting test: BitlinksTest");
+        assertSame(BITLINK, Bitlink.class);
+        assertSame(BITLINK, CreateBitlinkResponse.class);
+        assertSame(BITLINK, GetBitlinkResponse.class);
+        assertSame(BITLINK, UpdateBitlinkResponse.class);
+        assertSame("{}", Bitlink.class);
+        assertSame("null", Bitlink.class);
+        assertSame("{\"id\":null,\"tags\":null,\"archived\":\"true\",\"title\":true,\"link\":12}", Bitlink.class);
+        assertSame("{\"id\":\"first\",\"id\":\"second\"}", Bitlink.class);
+        assertSame(DEEPLINK, Deeplink.class);
+    }
+
+    @Test
+    public void testMetrics()
+    {
+        logger.info("Starting test: MetricsTest");
+        assertSame("{\"id\":\"bit.ly/abc\",\"date\":\"2020-01-01T00:00:00+0000\",\"value\":\"US\",\"clicks\":42}",
+            LinkClicks.class);
+        assertSame("{\"clicks\":\"7\",\"value\":null}", LinkClicks.class);
+        assertSame("{\"clicks\":null}", LinkClicks.class);
+        assertSame("{\"key\":\"GB\",\"value\":3}", Metric.class);
+        assertSame("{\"link_clicks\":[{\"date\":\"2020-01-01\",\"clicks\":1},{\"date\":\"2020-01-02\",\"clicks\":2}],"
+            +"\"units\":2,\"unit\":\"day\"}", GetBitlinkClicksResponse.class);
+        assertSame("{\"metrics\":[{\"key\":\"US\",\"value\":10},{\"key\":\"GB\",\"value\":5}],\"facet\":\"countries\"}",
+            GetMetricsResponse.class);
+    }
+
+    @Test
+    public void testPagination()
+    {
+        logger.info("Starting test: PaginationTest");
+        assertSame(PAGINATION, Pagination.class);
+        assertSame("{\"pagination\":"+PAGINATION+",\"links\":["+BITLINK+","+BITLINK+"]}",
+            GetBitlinksByGroupResponse.class);
+    }
+
+    @Test
+    public void testWrite()
+    {
+        logger.info("Starting test: WriteTest");
+        Bitlink bitlink = reflective.fromJson(BITLINK, Bitlink.class);
+        Assert.assertEquals(new Gson().toJson(bitlink), adapters.toJson(bitlink));
+        Pagination pagination = reflective.fromJson(PAGINATION, Pagination.class);
+        Assert.assertEquals(new Gson().toJson(pagination), adapters.toJson(pagination));
+    }
+
+    /**
+     * Parses the given JSON with both the reflective and hand-written adapters and checks the results are identical.
+     */
+    private <T> void assertSame(String json, Class<T> type)
+    {
+        T expected = reflective.fromJson(json, type);
+        T actual = adapters.fromJson(json, type);
+        if(expected == null)
+        {
+            Assert.assertNull(actual);
+            return;
+        }
+
+        Assert.assertEquals(expected.getClass(), actual.getClass());
+        Assert.assertEquals(reflective.toJson(expected), reflective.toJson(actual));
+    }
+}
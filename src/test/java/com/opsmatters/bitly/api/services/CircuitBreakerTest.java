@@ -0,0 +1,287 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.common.base.Optional;
+import com.google.gson.JsonObject;
+import com.opsmatters.bitly.CircuitOpenException;
+import com.opsmatters.bitly.RequestTimeoutException;
+import com.opsmatters.bitly.api.services.CircuitBreaker.State;
+
+/**
+ * The set of tests used for the circuit breaker.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CircuitBreakerTest
+{
+    private static final Logger logger = Logger.getLogger(CircuitBreakerTest.class.getName());
+
+    private static final String ENDPOINT = "POST /v4/shorten";
+
+    @Test
+    public void testOpenAtThreshold() throws Exception
+    {
+        logger.info("Starting test: OpenAtThresholdTest");
+        final List<State> states = new CopyOnWriteArrayList<State>();
+        CircuitBreaker breaker = builder()
+            .listener((endpoint, from, to) -> states.add(to))
+            .build();
+
+        // The failure rate is over the threshold, but fewer than the minimum calls have been made
+        breaker.acquire(ENDPOINT).onResponse(503);
+        breaker.acquire(ENDPOINT).onResponse(503);
+        breaker.acquire(ENDPOINT).onResponse(503);
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+
+        // The circuit opens once the minimum calls have been made
+        breaker.acquire(ENDPOINT).onResponse(200);
+        Assert.assertEquals(State.OPEN, breaker.getState(ENDPOINT));
+        Assert.assertEquals(Arrays.asList(State.OPEN), states);
+        assertOpen(breaker);
+
+        // Other endpoints have their own circuits, which open when the failure rate reaches the threshold
+        String endpoint = "GET /v4/groups";
+        Assert.assertEquals(State.CLOSED, breaker.getState(endpoint));
+        breaker.acquire(endpoint).onResponse(200);
+        breaker.acquire(endpoint).onResponse(200);
+        breaker.acquire(endpoint).onResponse(503);
+        breaker.acquire(endpoint).onResponse(404);
+        breaker.acquire(endpoint).onResponse(502);
+        Assert.assertEquals(State.CLOSED, breaker.getState(endpoint));
+        breaker.acquire(endpoint).onError(new IOException("Connection reset"));
+        Assert.assertEquals(State.OPEN, breaker.getState(endpoint));
+        Assert.assertEquals(Arrays.asList(State.OPEN, State.OPEN), states);
+    }
+
+    @Test
+    public void testHalfOpen() throws Exception
+    {
+        logger.info("Starting test: HalfOpenTest");
+        final List<State> states = new CopyOnWriteArrayList<State>();
+        CircuitBreaker breaker = builder()
+            .listener((endpoint, from, to) -> states.add(to))
+            .build();
+
+        open(breaker);
+        CircuitOpenException e = assertOpen(breaker);
+        Assert.assertEquals(ENDPOINT, e.getEndpoint());
+        Assert.assertTrue(e.getRetryAfter() > 0L && e.getRetryAfter() <= 100L);
+
+        // After the open duration the circuit lets the trial calls through, and no more
+        Thread.sleep(110L);
+        CircuitBreaker.Call trial1 = breaker.acquire(ENDPOINT);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(ENDPOINT));
+        CircuitBreaker.Call trial2 = breaker.acquire(ENDPOINT);
+        assertOpen(breaker);
+
+        // The circuit closes once all the trial calls succeed
+        trial1.onResponse(200);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(ENDPOINT));
+        trial2.onResponse(200);
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+
+        // A failed trial call opens the circuit again
+        open(breaker);
+        Thread.sleep(110L);
+        trial1 = breaker.acquire(ENDPOINT);
+        trial2 = breaker.acquire(ENDPOINT);
+        trial1.onResponse(503);
+        trial2.onResponse(200);
+        Assert.assertEquals(State.OPEN, breaker.getState(ENDPOINT));
+        assertOpen(breaker);
+
+        Assert.assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.CLOSED,
+            State.OPEN, State.HALF_OPEN, State.OPEN), states);
+    }
+
+    @Test
+    public void testRelease() throws Exception
+    {
+        logger.info("Starting test: ReleaseTest");
+        CircuitBreaker breaker = builder().halfOpenCalls(1).build();
+        open(breaker);
+        Thread.sleep(110L);
+
+        // A released trial call returns its permit, without recording an outcome
+        CircuitBreaker.Call trial = breaker.acquire(ENDPOINT);
+        assertOpen(breaker);
+        trial.release();
+        trial.release();
+        trial.onResponse(503);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(ENDPOINT));
+
+        trial = breaker.acquire(ENDPOINT);
+        assertOpen(breaker);
+
+        // An exception other than an I/O exception also releases the permit
+        trial.onError(new IllegalStateException("Cancelled"));
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(ENDPOINT));
+        breaker.acquire(ENDPOINT).onResponse(200);
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void testStaleCalls() throws Exception
+    {
+        logger.info("Starting test: StaleCallsTest");
+        CircuitBreaker breaker = builder().build();
+        open(breaker);
+        Thread.sleep(110L);
+
+        // Trial calls from the first half-open period are still running when the circuit is reset
+        CircuitBreaker.Call stale1 = breaker.acquire(ENDPOINT);
+        CircuitBreaker.Call stale2 = breaker.acquire(ENDPOINT);
+        breaker.reset();
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+
+        open(breaker);
+        Thread.sleep(110L);
+        CircuitBreaker.Call trial1 = breaker.acquire(ENDPOINT);
+        CircuitBreaker.Call trial2 = breaker.acquire(ENDPOINT);
+
+        // The stale calls neither return a permit nor count as trials in the new half-open period
+        stale1.release();
+        assertOpen(breaker);
+        stale2.onResponse(200);
+        trial1.onResponse(200);
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(ENDPOINT));
+        trial2.onResponse(200);
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+
+        // A call made before the circuit opened is not recorded in the next closed period
+        CircuitBreaker.Call call = breaker.acquire(ENDPOINT);
+        open(breaker);
+        breaker.reset();
+        for(int i = 0; i < 3; i++)
+            breaker.acquire(ENDPOINT).onResponse(200);
+        call.onResponse(503);
+        breaker.acquire(ENDPOINT).onResponse(503);
+        Assert.assertEquals(State.CLOSED, breaker.getState(ENDPOINT));
+    }
+
+    @Test
+    public void testAsyncDeadline() throws Exception
+    {
+        logger.info("Starting test: AsyncDeadlineTest");
+        StubTransport stub = new StubTransport(request ->
+        {
+            StubTransport.sleep(1000L);
+            return StubTransport.response(200, "{}");
+        });
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        CircuitBreaker breaker = builder().build();
+        context.setCircuitBreaker(breaker);
+        String endpoint = HttpContext.getEndpoint("GET", "/v4/groups");
+
+        // Calls cancelled by the caller are not counted
+        for(int i = 0; i < 4; i++)
+            getAsync(context, 2000L).cancel(true);
+        awaitCancelled(stub, 4);
+        Assert.assertEquals(State.CLOSED, breaker.getState(endpoint));
+
+        // Calls cancelled at their deadline are counted as failures
+        for(int i = 0; i < 4; i++)
+        {
+            try
+            {
+                getAsync(context, 20L).get();
+                Assert.fail("Expected RequestTimeoutException");
+            }
+            catch(ExecutionException e)
+            {
+                Assert.assertTrue(e.getCause() instanceof RequestTimeoutException);
+            }
+        }
+        awaitCancelled(stub, 8);
+        for(int i = 0; i < 200 && breaker.getState(endpoint) == State.CLOSED; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(State.OPEN, breaker.getState(endpoint));
+        context.close(0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a builder for a circuit breaker that opens at a 50% failure rate after 4 calls.
+     */
+    private static CircuitBreaker.Builder builder()
+    {
+        return CircuitBreaker.builder()
+            .failureRateThreshold(50)
+            .windowSize(10)
+            .minimumCalls(4)
+            .openDuration(100L)
+            .halfOpenCalls(2);
+    }
+
+    /**
+     * Opens the circuit of the endpoint with failed calls.
+     */
+    private static void open(CircuitBreaker breaker)
+    {
+        while(breaker.getState(ENDPOINT) == State.CLOSED)
+            breaker.acquire(ENDPOINT).onResponse(503);
+        Assert.assertEquals(State.OPEN, breaker.getState(ENDPOINT));
+    }
+
+    /**
+     * Asserts that a call to the endpoint is refused.
+     */
+    private static CircuitOpenException assertOpen(CircuitBreaker breaker)
+    {
+        try
+        {
+            breaker.acquire(ENDPOINT);
+            Assert.fail("Expected CircuitOpenException");
+            return null;
+        }
+        catch(CircuitOpenException e)
+        {
+            return e;
+        }
+    }
+
+    /**
+     * Sends a GET request asynchronously with the given timeout (in ms).
+     */
+    private static CompletableFuture<Optional<JsonObject>> getAsync(HttpContext context, long timeout)
+    {
+        return context.<JsonObject>GETAsync("/v4/groups", Collections.<String,String>emptyMap(), null,
+            JsonObject.class, RequestOptions.ofTimeout(timeout));
+    }
+
+    /**
+     * Waits until the given number of requests have been cancelled.
+     */
+    private static void awaitCancelled(StubTransport stub, int count) throws InterruptedException
+    {
+        for(int i = 0; i < 200 && stub.getCancelledCount() < count; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(count, stub.getCancelledCount());
+    }
+}
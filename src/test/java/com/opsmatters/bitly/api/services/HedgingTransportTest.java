@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.opsmatters.bitly.RequestTimeoutException;
+
+/**
+ * The set of tests used for the hedging transport.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class HedgingTransportTest
+{
+    private static final Logger logger = Logger.getLogger(HedgingTransportTest.class.getName());
+
+    private static final URI URI = java.net.URI.create("http://localhost/v4/groups/abc");
+    private static final String ENDPOINT = HttpContext.getEndpoint("GET", URI.getRawPath());
+
+    @Test
+    public void testPercentileDelay() throws Exception
+    {
+        logger.info("Starting test: PercentileDelayTest");
+        final AtomicInteger count = new AtomicInteger();
+        StubTransport stub = new StubTransport(request ->
+        {
+            // The first request after the warm up is slow
+            int n = count.incrementAndGet();
+            StubTransport.sleep(n == 11 ? 2000L : 20L);
+            return StubTransport.response(200, "{\"id\":\""+n+"\"}");
+        });
+        HedgingTransport transport = new HedgingTransport(stub, HedgePolicy.builder()
+            .percentile(50.0d)
+            .initialDelay(10000L)
+            .minDelay(1L)
+            .minSamples(10)
+            .build());
+
+        // The initial delay is used until there are enough samples
+        Assert.assertEquals(10000L, transport.getDelay(ENDPOINT));
+        for(int i = 0; i < 10; i++)
+            Assert.assertEquals(200, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(0L, transport.getHedgeCount());
+        long delay = transport.getDelay(ENDPOINT);
+        Assert.assertTrue("delay="+delay, delay >= 20L && delay < 1000L);
+
+        // The slow request is hedged after the percentile delay and the hedge is used
+        long start = System.nanoTime();
+        TransportResponse response = transport.execute(request(null));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+        Assert.assertTrue("elapsed="+elapsed, elapsed >= delay && elapsed < 2000L);
+        Assert.assertEquals("{\"id\":\"12\"}", read(response));
+        Assert.assertEquals(11L, transport.getRequestCount());
+        Assert.assertEquals(1L, transport.getHedgeCount());
+
+        // The win is counted once the response has been passed on
+        for(int i = 0; i < 200 && transport.getHedgeWinCount() == 0L; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(1L, transport.getHedgeWinCount());
+        transport.close();
+    }
+
+    @Test
+    public void testFirstResponseWins() throws Exception
+    {
+        logger.info("Starting test: FirstResponseWinsTest");
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        StubTransport stub = new StubTransport(request ->
+        {
+            // The original request is slower than its hedge
+            int n = count.incrementAndGet();
+            StubTransport.sleep(n == 1 ? 300L : 20L);
+            final TransportResponse ret = StubTransport.response(200, "{\"id\":\""+n+"\"}");
+            return new TransportResponse()
+            {
+                public int getStatusCode()
+                {
+                    return ret.getStatusCode();
+                }
+
+                public String getReasonPhrase()
+                {
+                    return ret.getReasonPhrase();
+                }
+
+                public String getHeader(String name)
+                {
+                    return ret.getHeader(name);
+                }
+
+                public InputStream getContent() throws IOException
+                {
+                    return ret.getContent();
+                }
+
+                public void close()
+                {
+                    closed.incrementAndGet();
+                }
+            };
+        });
+        HedgingTransport transport = new HedgingTransport(stub, HedgePolicy.builder()
+            .initialDelay(50L)
+            .build());
+
+        // The hedge wins, and the original request is cancelled and its response closed
+        TransportResponse response = transport.executeAsync(request(null)).get();
+        Assert.assertEquals("{\"id\":\"2\"}", read(response));
+        for(int i = 0; i < 200 && closed.get() == 0; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(1L, transport.getHedgeWinCount());
+        Assert.assertEquals(1, stub.getCancelledCount());
+        Assert.assertEquals(1, closed.get());
+        Assert.assertEquals(2, stub.getRequestCount());
+        transport.close();
+    }
+
+    @Test
+    public void testBudgetExhausted() throws Exception
+    {
+        logger.info("Starting test: BudgetExhaustedTest");
+        StubTransport stub = new StubTransport(request ->
+        {
+            StubTransport.sleep(200L);
+            return StubTransport.response(200, "{}");
+        });
+        HedgingTransport transport = new HedgingTransport(stub, HedgePolicy.builder()
+            .initialDelay(20L)
+            .budgetRatio(0.0d)
+            .budgetBurst(1)
+            .build());
+
+        // The only hedge in the budget is used by the first request
+        Assert.assertEquals(200, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+        Assert.assertEquals(200, transport.executeAsync(request(null)).get().getStatusCode());
+        Assert.assertEquals(3, stub.getRequestCount());
+
+        Assert.assertEquals(2L, transport.getRequestCount());
+        Assert.assertEquals(1L, transport.getHedgeCount());
+        Assert.assertEquals(1L, transport.getBudgetExhaustedCount());
+        transport.close();
+    }
+
+    @Test
+    public void testDeadline() throws Exception
+    {
+        logger.info("Starting test: DeadlineTest");
+        StubTransport stub = new StubTransport(request ->
+        {
+            StubTransport.sleep(300L);
+            return StubTransport.response(200, "{}");
+        });
+        HedgingTransport transport = new HedgingTransport(stub, HedgePolicy.builder()
+            .initialDelay(200L)
+            .build());
+
+        // No hedge is sent when the hedge delay is after the deadline
+        try
+        {
+            transport.execute(request(Deadline.after(100L, TimeUnit.MILLISECONDS)));
+            Assert.fail("Expected RequestTimeoutException");
+        }
+        catch(RequestTimeoutException e)
+        {
+        }
+        for(int i = 0; i < 200 && stub.getCancelledCount() == 0; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(1, stub.getCancelledCount());
+
+        // Wait past the hedge delay to check that none was scheduled
+        Thread.sleep(200L);
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(0L, transport.getHedgeCount());
+        Assert.assertEquals(0L, transport.getBudgetExhaustedCount());
+        transport.close();
+    }
+
+    /**
+     * Returns a GET request with the given deadline.
+     */
+    private static TransportRequest request(Deadline deadline)
+    {
+        return new TransportRequest("GET", URI, Collections.<String,String>emptyMap(), null, deadline);
+    }
+
+    /**
+     * Returns the body of the given response.
+     */
+    private static String read(TransportResponse response) throws Exception
+    {
+        try(InputStream in = response.getContent())
+        {
+            byte[] buffer = new byte[1024];
+            int length = 0;
+            for(int n; (n = in.read(buffer, length, buffer.length-length)) > 0;)
+                length += n;
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
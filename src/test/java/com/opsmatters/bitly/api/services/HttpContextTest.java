@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.common.base.Optional;
+import com.google.gson.JsonObject;
+
+/**
+ * The set of tests used for sending requests using the HTTP context.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class HttpContextTest
+{
+    private static final Logger logger = Logger.getLogger(HttpContextTest.class.getName());
+
+    @Test
+    public void testCompletionExecutor() throws Exception
+    {
+        logger.info("Starting test: CompletionExecutorTest");
+        StubTransport stub = new StubTransport(request ->
+        {
+            StubTransport.sleep(50L);
+            return StubTransport.response(200, "{\"ok\":true}");
+        });
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "completion"));
+        context.setCompletionExecutor(executor);
+
+        // The response is read and the future completed on the completion executor, not the transport thread
+        AtomicReference<String> thread = new AtomicReference<String>();
+        Optional<JsonObject> ret = context.<JsonObject>GETAsync("/v4/groups",
+            Collections.<String,String>emptyMap(), null, JsonObject.class)
+            .whenComplete((result, e) -> thread.set(Thread.currentThread().getName()))
+            .get();
+        Assert.assertTrue(ret.get().get("ok").getAsBoolean());
+        Assert.assertEquals("completion", thread.get());
+
+        // A rejected task is run on the transport thread
+        executor.shutdown();
+        ret = context.<JsonObject>GETAsync("/v4/groups", Collections.<String,String>emptyMap(), null, JsonObject.class).get();
+        Assert.assertTrue(ret.get().get("ok").getAsBoolean());
+        context.close();
+    }
+
+    @Test
+    public void testAsyncConnectionLimit() throws Exception
+    {
+        logger.info("Starting test: AsyncConnectionLimitTest");
+
+        // The connections are split between the blocking and non-blocking pools
+        Assert.assertEquals(10, ApacheHttpTransport.getAsyncLimit(HttpConfig.DEFAULT_MAX_PER_ROUTE));
+        Assert.assertEquals(2, ApacheHttpTransport.getAsyncLimit(5));
+        Assert.assertEquals(1, ApacheHttpTransport.getAsyncLimit(1));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * The set of tests used for serializing request bodies as JSON.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class JsonRequestBodyTest
+{
+    private static final Logger logger = Logger.getLogger(JsonRequestBodyTest.class.getName());
+
+    private static final Gson gson = new Gson();
+
+    @Test
+    public void testCharacters() throws Exception
+    {
+        logger.info("Starting test: CharactersTest");
+        assertEncoded("https://example.com/path?q=1&r=<2>");
+
+        // 2-byte and 3-byte characters, and surrogate pairs
+        assertEncoded("caf\u00e9 \u00df\u00f1");
+        assertEncoded("\u20ac100 \u4e2d\u6587");
+        assertEncoded("\ud83d\ude00 \ud83c\udf89");
+
+        // Unpaired surrogates are replaced with '?'
+        assertEncoded("a\ud83db");
+        assertEncoded("a\ude00b");
+        assertEncoded("\ud83d\ud83d\ude00");
+        assertEncoded("\ude00\ud83d");
+        assertEncoded("end\ud83d");
+        assertEncoded("");
+    }
+
+    @Test
+    public void testLargerThanBuffer() throws Exception
+    {
+        logger.info("Starting test: LargerThanBufferTest");
+
+        // Multi-byte characters that cross the end of the buffer at each offset
+        for(int offset = 0; offset < 4; offset++)
+        {
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < offset; i++)
+                sb.append('x');
+            for(int i = 0; sb.length() < JsonRequestBody.BUFFER_SIZE*3; i++)
+                sb.append(i%3 == 0 ? "\ud83d\ude00" : i%3 == 1 ? "\u20ac" : "\u00e9");
+            assertEncoded(sb.toString());
+        }
+
+        // A body that fits exactly in the buffer is returned, and one byte more is not: {"long_url":"..."}
+        String exact = repeat('a', JsonRequestBody.BUFFER_SIZE-15);
+        JsonRequestBody body = createBody(exact);
+        Assert.assertEquals(JsonRequestBody.BUFFER_SIZE, body.toByteArray(JsonRequestBody.BUFFER_SIZE).length);
+        Assert.assertNull(createBody(exact+"a").toByteArray(JsonRequestBody.BUFFER_SIZE));
+        Assert.assertNull(body.toByteArray(100));
+        Assert.assertNotNull(createBody("a").toByteArray(100));
+    }
+
+    /**
+     * Checks that the body for the given value is encoded the same as the bytes of the JSON string.
+     */
+    private static void assertEncoded(String value) throws Exception
+    {
+        JsonRequestBody body = createBody(value);
+        byte[] expected = gson.toJson(body.getObject()).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        body.writeTo(os);
+        Assert.assertTrue(Arrays.equals(expected, os.toByteArray()));
+        Assert.assertTrue(Arrays.equals(expected, body.toByteArray()));
+
+        byte[] buffered = body.toByteArray(JsonRequestBody.BUFFER_SIZE);
+        if(expected.length <= JsonRequestBody.BUFFER_SIZE)
+            Assert.assertTrue(Arrays.equals(expected, buffered));
+        else
+            Assert.assertNull(buffered);
+    }
+
+    /**
+     * Returns a body for an object with the given value.
+     */
+    private static JsonRequestBody createBody(String value)
+    {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("long_url", value);
+        return new JsonRequestBody(gson, obj);
+    }
+
+    /**
+     * Returns a string of the given character repeated the given number of times.
+     */
+    private static String repeat(char c, int count)
+    {
+        char[] ret = new char[count];
+        Arrays.fill(ret, c);
+        return new String(ret);
+    }
+}
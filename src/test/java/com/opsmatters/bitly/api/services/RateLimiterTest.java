@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.opsmatters.bitly.RateLimitExceededException;
+
+/**
+ * The set of tests used for the client-side rate limiter.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RateLimiterTest
+{
+    private static final Logger logger = Logger.getLogger(RateLimiterTest.class.getName());
+
+    private static final String TOKEN = "Bearer abc";
+
+    @Test
+    public void testBlock() throws Exception
+    {
+        logger.info("Starting test: BlockTest");
+        RateLimiter limiter = RateLimiter.builder()
+            .rate(EndpointFamily.MANAGEMENT, RateLimit.of(20, 1L, TimeUnit.SECONDS))
+            .build();
+
+        // The second permit is reserved ahead of time, and the caller waits for it
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT));
+        long delay = limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT);
+        Assert.assertTrue(delay > 0L && delay <= TimeUnit.MILLISECONDS.toNanos(50L));
+
+        long start = System.nanoTime();
+        limiter.acquire(TOKEN, EndpointFamily.MANAGEMENT);
+        Assert.assertTrue(System.nanoTime()-start >= TimeUnit.MILLISECONDS.toNanos(50L));
+
+        // Other access tokens and endpoint families have their own buckets
+        Assert.assertEquals(0L, limiter.reserve("Bearer xyz", EndpointFamily.MANAGEMENT));
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.SHORTEN));
+    }
+
+    @Test
+    public void testFailFast() throws Exception
+    {
+        logger.info("Starting test: FailFastTest");
+        RateLimiter limiter = RateLimiter.builder()
+            .rate(EndpointFamily.SHORTEN, new RateLimit(1, 1L, TimeUnit.MINUTES, 2))
+            .mode(RateLimiter.Mode.FAIL_FAST)
+            .build();
+
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.SHORTEN));
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.SHORTEN));
+        try
+        {
+            limiter.reserve(TOKEN, EndpointFamily.SHORTEN);
+            Assert.fail("Expected RateLimitExceededException");
+        }
+        catch(RateLimitExceededException e)
+        {
+            Assert.assertEquals(EndpointFamily.SHORTEN, e.getFamily());
+            Assert.assertTrue(e.getWaitTime() > 0L && e.getWaitTime() <= 60000L);
+        }
+
+        // A refused request does not take a permit
+        try
+        {
+            limiter.acquire(TOKEN, EndpointFamily.SHORTEN);
+            Assert.fail("Expected RateLimitExceededException");
+        }
+        catch(RateLimitExceededException e)
+        {
+            Assert.assertTrue(e.getWaitTime() > 0L && e.getWaitTime() <= 60000L);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        logger.info("Starting test: TimeoutTest");
+        RateLimiter limiter = RateLimiter.builder()
+            .rate(EndpointFamily.METRICS, RateLimit.of(10, 1L, TimeUnit.SECONDS))
+            .mode(RateLimiter.Mode.TIMEOUT)
+            .timeout(150L)
+            .build();
+
+        // Permits within the timeout are granted, the next one is refused without waiting for it
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.METRICS));
+        Assert.assertTrue(limiter.reserve(TOKEN, EndpointFamily.METRICS) > 0L);
+        long start = System.nanoTime();
+        try
+        {
+            limiter.acquire(TOKEN, EndpointFamily.METRICS);
+            Assert.fail("Expected RateLimitExceededException");
+        }
+        catch(RateLimitExceededException e)
+        {
+            Assert.assertTrue(e.getWaitTime() > 150L);
+            Assert.assertTrue(System.nanoTime()-start < TimeUnit.MILLISECONDS.toNanos(100L));
+        }
+
+        // A longer timeout set at runtime allows the caller to wait
+        limiter.setTimeout(1000L);
+        start = System.nanoTime();
+        limiter.acquire(TOKEN, EndpointFamily.METRICS);
+        Assert.assertTrue(System.nanoTime()-start >= TimeUnit.MILLISECONDS.toNanos(150L));
+    }
+
+    @Test
+    public void testSetRate() throws Exception
+    {
+        logger.info("Starting test: SetRateTest");
+        RateLimiter limiter = RateLimiter.builder()
+            .rate(EndpointFamily.MANAGEMENT, RateLimit.of(1, 1L, TimeUnit.MINUTES))
+            .mode(RateLimiter.Mode.FAIL_FAST)
+            .build();
+
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT));
+        assertRefused(limiter, EndpointFamily.MANAGEMENT);
+
+        // A faster rate applies to the existing bucket
+        limiter.setRate(EndpointFamily.MANAGEMENT, RateLimit.of(1000, 1L, TimeUnit.SECONDS));
+        Thread.sleep(5L);
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT));
+
+        // Removing the rate stops limiting the family
+        limiter.setRate(EndpointFamily.MANAGEMENT, null);
+        Assert.assertNull(limiter.getRate(EndpointFamily.MANAGEMENT));
+        for(int i = 0; i < 100; i++)
+            Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT));
+
+        // Limiting a family again applies to the existing bucket
+        Thread.sleep(5L);
+        limiter.setRate(EndpointFamily.MANAGEMENT, RateLimit.of(1, 1L, TimeUnit.MINUTES));
+        Assert.assertEquals(0L, limiter.reserve(TOKEN, EndpointFamily.MANAGEMENT));
+        assertRefused(limiter, EndpointFamily.MANAGEMENT);
+
+        // A family limited at runtime is limited for new access tokens
+        limiter.setRate(EndpointFamily.SHORTEN, RateLimit.of(1, 1L, TimeUnit.MINUTES));
+        Assert.assertEquals(0L, limiter.reserve("Bearer xyz", EndpointFamily.SHORTEN));
+        try
+        {
+            limiter.reserve("Bearer xyz", EndpointFamily.SHORTEN);
+            Assert.fail("Expected RateLimitExceededException");
+        }
+        catch(RateLimitExceededException e)
+        {
+            Assert.assertEquals(EndpointFamily.SHORTEN, e.getFamily());
+        }
+    }
+
+    @Test
+    public void testRetriesTakePermits() throws Exception
+    {
+        logger.info("Starting test: RetriesTakePermitsTest");
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(3).initialBackoff(1L).build();
+        RateLimiter limiter = RateLimiter.builder()
+            .rate(EndpointFamily.MANAGEMENT, new RateLimit(1, 1L, TimeUnit.MINUTES, 2))
+            .mode(RateLimiter.Mode.FAIL_FAST)
+            .build();
+        StubTransport stub = new StubTransport(request -> StubTransport.response(429, null));
+        RetryingTransport transport = new RetryingTransport(stub, policy);
+
+        // The context passes its rate limiter to the retrying transport
+        HttpContext context = new HttpContext("http", "localhost", 80, transport);
+        context.setRateLimiter(limiter);
+        Assert.assertSame(limiter, transport.getRateLimiter());
+
+        // Each retry takes one of the two permits, then the next retry is refused
+        Assert.assertEquals(429, transport.execute(request()).getStatusCode());
+        Assert.assertEquals(3, stub.getRequestCount());
+        Assert.assertEquals(429, transport.execute(request()).getStatusCode());
+        Assert.assertEquals(4, stub.getRequestCount());
+        Assert.assertEquals(429, transport.executeAsync(request()).get().getStatusCode());
+        Assert.assertEquals(5, stub.getRequestCount());
+        Assert.assertEquals(2L, transport.getRetryCount());
+
+        // In blocking mode the retries wait for their permits
+        limiter.setMode(RateLimiter.Mode.BLOCK);
+        limiter.setRate(EndpointFamily.MANAGEMENT, RateLimit.of(20, 1L, TimeUnit.SECONDS));
+        Thread.sleep(50L);
+        long start = System.nanoTime();
+        Assert.assertEquals(429, transport.executeAsync(request()).get().getStatusCode());
+        Assert.assertEquals(8, stub.getRequestCount());
+        Assert.assertTrue(System.nanoTime()-start >= TimeUnit.MILLISECONDS.toNanos(50L));
+        context.close();
+    }
+
+    /**
+     * Asserts that the next permit for the given endpoint family is refused.
+     */
+    private static void assertRefused(RateLimiter limiter, EndpointFamily family)
+    {
+        try
+        {
+            limiter.reserve(TOKEN, family);
+            Assert.fail("Expected RateLimitExceededException");
+        }
+        catch(RateLimitExceededException e)
+        {
+            Assert.assertEquals(family, e.getFamily());
+        }
+    }
+
+    /**
+     * Returns a GET request with an access token.
+     */
+    private static TransportRequest request()
+    {
+        return new TransportRequest("GET", URI.create("http://localhost/v4/groups"),
+            Collections.singletonMap("Authorization", TOKEN), null);
+    }
+}
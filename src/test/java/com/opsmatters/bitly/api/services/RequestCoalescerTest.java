@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.common.base.Optional;
+import com.google.gson.JsonObject;
+import com.opsmatters.bitly.RequestTimeoutException;
+
+/**
+ * The set of tests used for coalescing identical GET requests.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RequestCoalescerTest
+{
+    private static final Logger logger = Logger.getLogger(RequestCoalescerTest.class.getName());
+
+    private static final String PATH = "/v4/groups";
+
+    @Test
+    public void testLeaderDeadline() throws Exception
+    {
+        logger.info("Starting test: LeaderDeadlineTest");
+        StubTransport stub = slowTransport(300L);
+        HttpContext context = createContext(stub);
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        // The leader times out, but the follower with a longer deadline gets the result of the shared request
+        long start = System.nanoTime();
+        Future<Optional<JsonObject>> leader = executor.submit(() -> context.<JsonObject>GET(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(50L)));
+        awaitRequest(stub);
+        Future<Optional<JsonObject>> follower = executor.submit(() -> context.<JsonObject>GET(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(2000L)));
+
+        try
+        {
+            leader.get();
+            Assert.fail("Expected RequestTimeoutException");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof RequestTimeoutException);
+            Assert.assertTrue(System.nanoTime()-start < 250000000L);
+        }
+
+        Assert.assertTrue(follower.get().get().get("ok").getAsBoolean());
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(1L, context.getRequestCoalescer().getCoalescedCount());
+        executor.shutdown();
+        context.close();
+    }
+
+    @Test
+    public void testLeaderDeadlineAsync() throws Exception
+    {
+        logger.info("Starting test: LeaderDeadlineAsyncTest");
+        StubTransport stub = slowTransport(300L);
+        HttpContext context = createContext(stub);
+
+        CompletableFuture<Optional<JsonObject>> leader = context.<JsonObject>GETAsync(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(50L));
+        CompletableFuture<Optional<JsonObject>> follower = context.<JsonObject>GETAsync(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(2000L));
+
+        try
+        {
+            leader.get();
+            Assert.fail("Expected RequestTimeoutException");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof RequestTimeoutException);
+            Assert.assertFalse(follower.isDone());
+        }
+
+        Assert.assertTrue(follower.get().get().get("ok").getAsBoolean());
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(0, stub.getCancelledCount());
+        context.close();
+    }
+
+    @Test
+    public void testAllCallersLeave() throws Exception
+    {
+        logger.info("Starting test: AllCallersLeaveTest");
+        StubTransport stub = slowTransport(1000L);
+        HttpContext context = createContext(stub);
+
+        // The shared request is aborted once every caller has timed out or cancelled
+        CompletableFuture<Optional<JsonObject>> caller1 = context.<JsonObject>GETAsync(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(50L));
+        CompletableFuture<Optional<JsonObject>> caller2 = context.<JsonObject>GETAsync(PATH,
+            Collections.<String,String>emptyMap(), null, JsonObject.class, RequestOptions.ofTimeout(2000L));
+        awaitRequest(stub);
+        caller2.cancel(true);
+        Assert.assertEquals(0, stub.getCancelledCount());
+
+        try
+        {
+            caller1.get();
+            Assert.fail("Expected RequestTimeoutException");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof RequestTimeoutException);
+        }
+
+        for(int i = 0; i < 100 && stub.getCancelledCount() == 0; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(1, stub.getCancelledCount());
+        Assert.assertEquals(0, context.getRequestCoalescer().getInFlightCount());
+        context.close();
+    }
+
+    /**
+     * Returns a transport that responds to each request after the given delay (in ms).
+     */
+    private static StubTransport slowTransport(final long delay)
+    {
+        return new StubTransport(request ->
+        {
+            StubTransport.sleep(delay);
+            return StubTransport.response(200, "{\"ok\":true}");
+        });
+    }
+
+    /**
+     * Returns a context that coalesces identical GET requests sent using the given transport.
+     */
+    private static HttpContext createContext(StubTransport stub)
+    {
+        HttpContext ret = new HttpContext("http", "localhost", 80, stub);
+        ret.setRequestCoalescer(new RequestCoalescer());
+        return ret;
+    }
+
+    /**
+     * Waits until the given transport has received a request.
+     */
+    private static void awaitRequest(StubTransport stub) throws InterruptedException
+    {
+        for(int i = 0; i < 200 && stub.getRequestCount() == 0; i++)
+            Thread.sleep(5L);
+        Assert.assertEquals(1, stub.getRequestCount());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.utils.URIBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark that compares the work done to prepare a request before and after
+ * the headers and path templates were precomputed.
+ * <p>
+ * Run with the GC profiler to see the bytes allocated per call ("gc.alloc.rate.norm"):
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.opsmatters.bitly.api.services.RequestPathBenchmark
+ * </pre>
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestPathBenchmark
+{
+    private static final String ACCESS_TOKEN = "0123456789abcdef0123456789abcdef01234567";
+    private static final String BITLINK = "bit.ly/2ZbAcD1";
+    private static final PathTemplate BITLINK_CLICKS_PATH = PathTemplate.compile("/v4/bitlinks/%s/clicks");
+    private static final List<String> QUERY_PARAMS = Arrays.asList("unit", "day", "units", "30");
+
+    private HttpContext httpContext;
+    private BitlyService service;
+
+    @Setup
+    public void setup()
+    {
+        // No requests are sent, so the context does not need a transport
+        httpContext = new HttpContext("https", "api-ssl.bitly.com", 443, (HttpTransport)null);
+        service = new BitlyService(ACCESS_TOKEN, httpContext);
+    }
+
+    /**
+     * The request path before the change: new headers on every call, a formatted path,
+     * and a URI parsed once for the path and again to add the query.
+     */
+    @Benchmark
+    public void before(Blackhole bh) throws URISyntaxException
+    {
+        Map<String,String> headers = new HashMap<String,String>();
+        headers.put("Authorization", "Bearer "+ACCESS_TOKEN);
+        headers.put("Content-Type","application/json");
+
+        String path = String.format("/v4/bitlinks/%s/clicks", BITLINK);
+        URI uri = new URI(String.format("%s://%s:%d%s", "https", "api-ssl.bitly.com", 443, path));
+        URIBuilder builder = new URIBuilder(uri);
+        for(int i = 0; i < QUERY_PARAMS.size(); i += 2)
+            builder.addParameter(QUERY_PARAMS.get(i), QUERY_PARAMS.get(i+1));
+
+        bh.consume(headers);
+        bh.consume(builder.build());
+    }
+
+    /**
+     * The request path after the change: precomputed headers, a compiled path template,
+     * and a URI parsed once with the query included.
+     */
+    @Benchmark
+    public void after(Blackhole bh)
+    {
+        bh.consume(service.getHeaders());
+        bh.consume(httpContext.buildUri(BITLINK_CLICKS_PATH.expand(BITLINK), QUERY_PARAMS));
+    }
+
+    /**
+     * Runs the benchmark with the GC profiler.
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include(RequestPathBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build();
+        new Runner(options).run();
+    }
+}
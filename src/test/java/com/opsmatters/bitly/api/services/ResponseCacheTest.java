@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.google.common.base.Optional;
+import com.google.gson.JsonObject;
+
+/**
+ * The set of tests used for caching the results of GET requests.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ResponseCacheTest
+{
+    private static final Logger logger = Logger.getLogger(ResponseCacheTest.class.getName());
+
+    private static final PathTemplate GROUP_PATH = PathTemplate.compile("/v4/groups/%s");
+    private static final PathTemplate ORGANIZATION_WEBHOOKS_PATH = PathTemplate.compile("/v4/organizations/%s/webhooks");
+    private static final PathTemplate WEBHOOK_PATH = PathTemplate.compile("/v4/webhooks/%s");
+
+    @Test
+    public void testHit() throws Exception
+    {
+        logger.info("Starting test: HitTest");
+        AtomicInteger version = new AtomicInteger(1);
+        StubTransport stub = versionedTransport(version, false);
+        HttpContext context = createContext(stub);
+
+        // A result without validators is returned without a request until it expires
+        Assert.assertEquals(1, get(context, "/v4/campaigns"));
+        version.incrementAndGet();
+        Assert.assertEquals(1, get(context, "/v4/campaigns"));
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(1L, context.getResponseCache().getHitCount());
+        Assert.assertEquals(1L, context.getResponseCache().getMissCount());
+
+        // Paths that are not cached are always sent
+        Assert.assertEquals(2, get(context, "/v4/groups"));
+        Assert.assertEquals(2, get(context, "/v4/groups"));
+        Assert.assertEquals(3, stub.getRequestCount());
+        context.close();
+    }
+
+    @Test
+    public void testRevalidation() throws Exception
+    {
+        logger.info("Starting test: RevalidationTest");
+        AtomicInteger version = new AtomicInteger(1);
+        StubTransport stub = versionedTransport(version, true);
+        HttpContext context = createContext(stub);
+
+        // A result with an ETag is revalidated on each request
+        Assert.assertEquals(1, get(context, "/v4/campaigns"));
+        Assert.assertNull(stub.getRequests().get(0).getHeaders().get("If-None-Match"));
+        Assert.assertEquals(1, get(context, "/v4/campaigns"));
+        Assert.assertEquals("\"1\"", stub.getRequests().get(1).getHeaders().get("If-None-Match"));
+        Assert.assertEquals(1L, context.getResponseCache().getRevalidatedCount());
+        Assert.assertEquals(0L, context.getResponseCache().getHitCount());
+
+        // A modified result replaces the cached result
+        version.incrementAndGet();
+        Assert.assertEquals(2, get(context, "/v4/campaigns"));
+        Assert.assertEquals(2, get(context, "/v4/campaigns"));
+        Assert.assertEquals("\"2\"", stub.getRequests().get(3).getHeaders().get("If-None-Match"));
+        Assert.assertEquals(4, stub.getRequestCount());
+        Assert.assertEquals(2L, context.getResponseCache().getRevalidatedCount());
+        Assert.assertEquals(2L, context.getResponseCache().getMissCount());
+        context.close();
+    }
+
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        logger.info("Starting test: InvalidationTest");
+        AtomicInteger version = new AtomicInteger(1);
+        StubTransport stub = versionedTransport(version, false);
+        HttpContext context = createContext(stub);
+
+        // A change to a path invalidates the path and the path above it
+        Assert.assertEquals(1, get(context, GROUP_PATH.expand("g1")));
+        Assert.assertEquals(1, get(context, GROUP_PATH.expand("g1")));
+        Assert.assertEquals(1, get(context, "/v4/campaigns"));
+        version.incrementAndGet();
+        context.PATCH(GROUP_PATH.expand("g1"), new JsonObject());
+        context.POST("/v4/campaigns/c1", new JsonObject(), JsonObject.class);
+        Assert.assertEquals(2, get(context, GROUP_PATH.expand("g1")));
+        Assert.assertEquals(2, get(context, "/v4/campaigns"));
+        Assert.assertEquals(6, stub.getRequestCount());
+
+        // A change to a webhook invalidates the webhooks of every organization
+        Assert.assertEquals(2, get(context, ORGANIZATION_WEBHOOKS_PATH.expand("o1")));
+        Assert.assertEquals(2, get(context, ORGANIZATION_WEBHOOKS_PATH.expand("o2")));
+        version.incrementAndGet();
+        context.DELETE(WEBHOOK_PATH.expand("w1"));
+        Assert.assertEquals(3, get(context, ORGANIZATION_WEBHOOKS_PATH.expand("o1")));
+        Assert.assertEquals(3, get(context, ORGANIZATION_WEBHOOKS_PATH.expand("o2")));
+        Assert.assertEquals(11, stub.getRequestCount());
+
+        // A new webhook created using a raw POST also invalidates them, but not the other paths
+        version.incrementAndGet();
+        context.POST("/v4/webhooks", new JsonObject());
+        Assert.assertEquals(4, get(context, ORGANIZATION_WEBHOOKS_PATH.expand("o1")));
+        Assert.assertEquals(2, get(context, GROUP_PATH.expand("g1")));
+        Assert.assertEquals(13, stub.getRequestCount());
+        context.close();
+    }
+
+    /**
+     * Returns the version in the result of a GET request to the given path.
+     */
+    private static int get(HttpContext context, String path) throws Exception
+    {
+        Optional<JsonObject> ret = context.<JsonObject>GET(path,
+            Collections.<String,String>emptyMap(), null, JsonObject.class);
+        return ret.get().get("version").getAsInt();
+    }
+
+    /**
+     * Returns a transport that responds with the given version, and with an ETag if validators are used,
+     * returning 304 (Not Modified) if the request has the current ETag.
+     */
+    private static StubTransport versionedTransport(final AtomicInteger version, final boolean validators)
+    {
+        return new StubTransport(request ->
+        {
+            String etag = "\""+version.get()+"\"";
+            if(validators && etag.equals(request.getHeaders().get("If-None-Match")))
+                return StubTransport.response(304, null, "ETag", etag);
+            String body = "{\"version\":"+version.get()+"}";
+            return validators ? StubTransport.response(200, body, "ETag", etag) : StubTransport.response(200, body);
+        });
+    }
+
+    /**
+     * Returns a context that caches results using the given transport.
+     */
+    private static HttpContext createContext(StubTransport stub)
+    {
+        HttpContext ret = new HttpContext("http", "localhost", 80, stub);
+        ret.setResponseCache(new ResponseCache(CachePolicy.builder().expireAfterWrite(60000L).build()));
+        return ret;
+    }
+}
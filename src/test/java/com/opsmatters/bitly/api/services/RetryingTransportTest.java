@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the retrying transport.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RetryingTransportTest
+{
+    private static final Logger logger = Logger.getLogger(RetryingTransportTest.class.getName());
+
+    private static final URI URI = java.net.URI.create("http://localhost/v4/groups");
+
+    @Test
+    public void testRetryAfter() throws Exception
+    {
+        logger.info("Starting test: RetryAfterTest");
+        final List<Long> delays = new CopyOnWriteArrayList<Long>();
+        RetryPolicy policy = RetryPolicy.builder()
+            .maxAttempts(3)
+            .initialBackoff(5000L)
+            .maxRetryAfter(2000L)
+            .listener(new RetryListener()
+            {
+                public void onRetry(TransportRequest request, int attempt, long delay, int statusCode, Throwable cause)
+                {
+                    delays.add(delay);
+                }
+            })
+            .build();
+
+        // The Retry-After delay is used instead of the backoff
+        StubTransport stub = failFirst(1, StubTransport.response(503, null, "Retry-After", "1"));
+        RetryingTransport transport = new RetryingTransport(stub, policy);
+        Assert.assertEquals(200, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+        Assert.assertEquals(Collections.singletonList(1000L), delays);
+
+        stub = failFirst(1, StubTransport.response(503, null, "Retry-After", "1"));
+        transport = new RetryingTransport(stub, policy);
+        Assert.assertEquals(200, transport.executeAsync(request(null)).get().getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+
+        // A Retry-After delay longer than the maximum is not retried
+        delays.clear();
+        stub = new StubTransport(request -> StubTransport.response(503, null, "Retry-After", "120"));
+        transport = new RetryingTransport(stub, policy);
+        Assert.assertEquals(503, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(503, transport.executeAsync(request(null)).get().getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+        Assert.assertTrue(delays.isEmpty());
+        transport.close();
+    }
+
+    @Test
+    public void testBudgetExhausted() throws Exception
+    {
+        logger.info("Starting test: BudgetExhaustedTest");
+        final AtomicInteger exhausted = new AtomicInteger();
+        RetryPolicy policy = RetryPolicy.builder()
+            .maxAttempts(2)
+            .initialBackoff(1L)
+            .budgetRatio(0.0d)
+            .budgetBurst(1)
+            .listener(new RetryListener()
+            {
+                public void onBudgetExhausted(TransportRequest request, int attempts)
+                {
+                    exhausted.incrementAndGet();
+                }
+            })
+            .build();
+
+        // The only retry in the budget is used by the first request
+        StubTransport stub = new StubTransport(request -> StubTransport.response(503, null));
+        RetryingTransport transport = new RetryingTransport(stub, policy);
+        Assert.assertEquals(503, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+        Assert.assertEquals(503, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(3, stub.getRequestCount());
+        Assert.assertEquals(503, transport.executeAsync(request(null)).get().getStatusCode());
+        Assert.assertEquals(4, stub.getRequestCount());
+
+        Assert.assertEquals(1L, transport.getRetryCount());
+        Assert.assertEquals(1L, transport.getRetriesExhaustedCount());
+        Assert.assertEquals(2L, transport.getBudgetExhaustedCount());
+        Assert.assertEquals(2, exhausted.get());
+        transport.close();
+    }
+
+    @Test
+    public void testNonRetriableExceptions() throws Exception
+    {
+        logger.info("Starting test: NonRetriableExceptionsTest");
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(3).initialBackoff(1L).build();
+
+        // A non-retriable subclass of a retried exception is not retried
+        StubTransport stub = new StubTransport(request ->
+        {
+            throw new UnknownHostException("localhost");
+        });
+        RetryingTransport transport = new RetryingTransport(stub, policy);
+        try
+        {
+            transport.execute(request(null));
+            Assert.fail("Expected UnknownHostException");
+        }
+        catch(UnknownHostException e)
+        {
+            Assert.assertEquals(1, stub.getRequestCount());
+        }
+
+        try
+        {
+            transport.executeAsync(request(null)).get();
+            Assert.fail("Expected UnknownHostException");
+        }
+        catch(ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof UnknownHostException);
+            Assert.assertEquals(2, stub.getRequestCount());
+        }
+
+        // Other I/O exceptions are retried
+        stub = new StubTransport(request ->
+        {
+            throw new IOException("Connection reset");
+        });
+        transport = new RetryingTransport(stub, policy);
+        try
+        {
+            transport.execute(request(null));
+            Assert.fail("Expected IOException");
+        }
+        catch(IOException e)
+        {
+            Assert.assertEquals(3, stub.getRequestCount());
+        }
+
+        Assert.assertEquals(0L, transport.getBudgetExhaustedCount());
+        transport.close();
+    }
+
+    @Test
+    public void testDeadline() throws Exception
+    {
+        logger.info("Starting test: DeadlineTest");
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(3).initialBackoff(1L).build();
+
+        // The deadline has passed by the time the first attempt returns, so it is not retried
+        StubTransport stub = new StubTransport(request ->
+        {
+            StubTransport.sleep(20L);
+            return StubTransport.response(503, null);
+        });
+        RetryingTransport transport = new RetryingTransport(stub, policy);
+        Assert.assertEquals(503, transport.execute(request(Deadline.after(5L, TimeUnit.MILLISECONDS))).getStatusCode());
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(503, transport.executeAsync(request(Deadline.after(5L, TimeUnit.MILLISECONDS)))
+            .get().getStatusCode());
+        Assert.assertEquals(2, stub.getRequestCount());
+
+        // Without a deadline the same request is retried
+        Assert.assertEquals(503, transport.execute(request(null)).getStatusCode());
+        Assert.assertEquals(5, stub.getRequestCount());
+        Assert.assertEquals(503, transport.executeAsync(request(null)).get().getStatusCode());
+        Assert.assertEquals(8, stub.getRequestCount());
+        transport.close();
+    }
+
+    /**
+     * Returns a transport that returns the given response to the first requests, and 200 after that.
+     */
+    private static StubTransport failFirst(int count, TransportResponse response)
+    {
+        final AtomicInteger requests = new AtomicInteger();
+        return new StubTransport(request -> requests.incrementAndGet() <= count
+            ? response : StubTransport.response(200, null));
+    }
+
+    /**
+     * Returns a GET request with the given deadline.
+     */
+    private static TransportRequest request(Deadline deadline)
+    {
+        return new TransportRequest("GET", URI, Collections.<String,String>emptyMap(), null, deadline);
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the persistent store of shortened long urls.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ShortenStoreTest
+{
+    private static final Logger logger = Logger.getLogger(ShortenStoreTest.class.getName());
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        logger.info("Starting test: RoundTripTest");
+        Path directory = folder.getRoot().toPath().resolve("store");
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            store.put("bit.ly  https://example.com/a", "{\"id\":\"bit.ly/a\"}");
+            store.put("bit.ly  https://example.com/\u00e9", "{\"id\":\"bit.ly/\u00e9\"}");
+            store.put("bit.ly  https://example.com/b", "old");
+            store.put("bit.ly  https://example.com/b", "new");
+            Assert.assertEquals("{\"id\":\"bit.ly/a\"}", store.get("bit.ly  https://example.com/a"));
+            Assert.assertEquals("new", store.get("bit.ly  https://example.com/b"));
+            Assert.assertNull(store.get("bit.ly  https://example.com/c"));
+            Assert.assertEquals(3, store.size());
+            Assert.assertEquals(2L, store.getHitCount());
+            Assert.assertEquals(1L, store.getMissCount());
+
+            // The directory can only be used by one store at a time
+            try
+            {
+                new ShortenStore(directory);
+                Assert.fail("Expected IOException");
+            }
+            catch(IOException e)
+            {
+                Assert.assertTrue(e.getMessage().contains("in use"));
+            }
+        }
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("{\"id\":\"bit.ly/\u00e9\"}", store.get("bit.ly  https://example.com/\u00e9"));
+            Assert.assertEquals("new", store.get("bit.ly  https://example.com/b"));
+            Assert.assertEquals(3, store.size());
+        }
+    }
+
+    @Test
+    public void testTombstones() throws Exception
+    {
+        logger.info("Starting test: TombstonesTest");
+        Path directory = folder.getRoot().toPath();
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            store.put("a", "1");
+            store.put("b", "2");
+            store.remove("a");
+            store.remove("missing");
+            Assert.assertNull(store.get("a"));
+            Assert.assertEquals(1, store.size());
+
+            // The mappings of an id are removed together, without touching the others
+            store.put("c", "3", "bit.ly/x");
+            store.put("d", "3", "bit.ly/x");
+            store.put("e", "4", "bit.ly/y");
+            store.put("c", "3", "bit.ly/x");
+            Assert.assertEquals(4, store.size());
+            store.removeId("bit.ly/x");
+            store.removeId("bit.ly/z");
+            Assert.assertNull(store.get("c"));
+            Assert.assertNull(store.get("d"));
+            Assert.assertEquals("4", store.get("e"));
+            Assert.assertEquals(2, store.size());
+
+            try
+            {
+                store.put("\u0000bit.ly/y", "5");
+                Assert.fail("Expected IllegalArgumentException");
+            }
+            catch(IllegalArgumentException e)
+            {
+                Assert.assertNull(store.get("d"));
+            }
+        }
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertNull(store.get("a"));
+            Assert.assertNull(store.get("c"));
+            Assert.assertEquals("2", store.get("b"));
+            Assert.assertEquals(2, store.size());
+
+            // A removed key can be added again
+            store.put("a", "6");
+            store.removeId("bit.ly/y");
+            Assert.assertEquals("6", store.get("a"));
+            Assert.assertNull(store.get("e"));
+            Assert.assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void testInvalidationStamp() throws Exception
+    {
+        logger.info("Starting test: InvalidationStampTest");
+        try(ShortenStore store = new ShortenStore(folder.getRoot().toPath().resolve("store")))
+        {
+            // A mapping loaded before its id was removed is not stored
+            long stamp = store.getInvalidationStamp();
+            store.removeId("bit.ly/a");
+            Assert.assertFalse(store.put("bit.ly  https://example.com/a", "{\"id\":\"bit.ly/a\"}", "bit.ly/a", stamp));
+            Assert.assertNull(store.get("bit.ly  https://example.com/a"));
+
+            // A mapping loaded after the removal is stored, with or without an id
+            stamp = store.getInvalidationStamp();
+            Assert.assertTrue(store.put("bit.ly  https://example.com/a", "{\"id\":\"bit.ly/a\"}", "bit.ly/a", stamp));
+            Assert.assertTrue(store.put("bit.ly  https://example.com/b", "{}", null, stamp));
+            Assert.assertEquals(2, store.size());
+
+            // Any removal changes the stamp
+            store.remove("bit.ly  https://example.com/b");
+            Assert.assertFalse(store.put("bit.ly  https://example.com/c", "{}", null, stamp));
+            stamp = store.getInvalidationStamp();
+            store.removeIf((key, value) -> false);
+            Assert.assertFalse(store.put("bit.ly  https://example.com/c", "{}", null, stamp));
+
+            // The mapping is removed by its id
+            store.removeId("bit.ly/a");
+            Assert.assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception
+    {
+        logger.info("Starting test: TruncatedRecordTest");
+        Path directory = folder.getRoot().toPath();
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            store.put("a", "1");
+            store.put("b", "2");
+            store.put("c", "value of c");
+        }
+
+        // The last record was only partly written before the process crashed, and the index was not updated
+        int position = findRecord(directory, "c");
+        writeLog(directory, position+12+1+4, new byte[6]);
+        Files.delete(directory.resolve("shorten.idx"));
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("1", store.get("a"));
+            Assert.assertEquals("2", store.get("b"));
+            Assert.assertNull(store.get("c"));
+            Assert.assertEquals(2, store.size());
+
+            // The next record is written over the damaged record
+            store.put("d", "4");
+            Assert.assertEquals(position, findRecord(directory, "d"));
+        }
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("4", store.get("d"));
+            Assert.assertNull(store.get("c"));
+            Assert.assertEquals(3, store.size());
+        }
+    }
+
+    @Test
+    public void testBadChecksum() throws Exception
+    {
+        logger.info("Starting test: BadChecksumTest");
+        Path directory = folder.getRoot().toPath();
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            store.put("a", "1");
+            store.put("b", "2");
+            store.put("c", "3");
+        }
+
+        // A record that no longer matches its checksum is ignored when it is read
+        writeLog(directory, findRecord(directory, "b")+12+1, "X".getBytes(StandardCharsets.UTF_8));
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("1", store.get("a"));
+            Assert.assertNull(store.get("b"));
+            Assert.assertEquals("3", store.get("c"));
+        }
+
+        // When the index is rebuilt, the damaged record is treated as the end of the log
+        Files.delete(directory.resolve("shorten.idx"));
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("1", store.get("a"));
+            Assert.assertNull(store.get("b"));
+            Assert.assertNull(store.get("c"));
+            Assert.assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void testIndexRebuild() throws Exception
+    {
+        logger.info("Starting test: IndexRebuildTest");
+        Path directory = folder.getRoot().toPath();
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            // Enough keys to grow the index
+            for(int i = 0; i < 5000; i++)
+                store.put("key"+i, "value"+i, "id"+(i%10));
+            store.removeId("id0");
+            for(int i = 1; i < 5000; i += 10)
+                store.remove("key"+i);
+            Assert.assertEquals(4000, store.size());
+        }
+
+        // A missing index is rebuilt from the log
+        Files.delete(directory.resolve("shorten.idx"));
+        assertKeys(directory);
+
+        // So is a damaged index
+        write(directory.resolve("shorten.idx"), 0, new byte[4]);
+        assertKeys(directory);
+
+        // And an index left over from before the log was compacted
+        Path backup = folder.getRoot().toPath().resolve("shorten.idx.bak");
+        Files.copy(directory.resolve("shorten.idx"), backup);
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            store.compact();
+        }
+        Files.copy(backup, directory.resolve("shorten.idx"), StandardCopyOption.REPLACE_EXISTING);
+        assertKeys(directory);
+    }
+
+    @Test
+    public void testCompact() throws Exception
+    {
+        logger.info("Starting test: CompactTest");
+        Path directory = folder.getRoot().toPath();
+        StringBuilder value = new StringBuilder();
+        for(int i = 0; i < 100; i++)
+            value.append("0123456789");
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            for(int n = 0; n < 4; n++)
+            {
+                for(int i = 0; i < 1000; i++)
+                    store.put("key"+i, value.toString()+n, "id"+i);
+            }
+            for(int i = 0; i < 1000; i += 2)
+                store.remove("key"+i);
+
+            long size = Files.size(directory.resolve("shorten.log"));
+            Assert.assertTrue(size > 4000000L);
+            store.compact();
+            Assert.assertTrue(Files.size(directory.resolve("shorten.log")) <= size/4L);
+
+            Assert.assertNull(store.get("key0"));
+            Assert.assertEquals(value.toString()+3, store.get("key1"));
+            Assert.assertEquals(500, store.size());
+
+            // The ids are kept by compaction
+            store.removeId("id1");
+            Assert.assertNull(store.get("key1"));
+            store.put("key0", "new");
+        }
+
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals("new", store.get("key0"));
+            Assert.assertNull(store.get("key1"));
+            Assert.assertEquals(value.toString()+3, store.get("key999"));
+            Assert.assertEquals(500, store.size());
+        }
+    }
+
+    /**
+     * Asserts that the store in the given directory holds the keys written by the index rebuild test.
+     */
+    private static void assertKeys(Path directory) throws IOException
+    {
+        try(ShortenStore store = new ShortenStore(directory))
+        {
+            Assert.assertEquals(4000, store.size());
+            for(int i = 0; i < 5000; i++)
+            {
+                String expected = i%10 == 0 || i%10 == 1 ? null : "value"+i;
+                Assert.assertEquals(expected, store.get("key"+i));
+            }
+        }
+    }
+
+    /**
+     * Returns the position in the log of the last record with the given key.
+     */
+    private static int findRecord(Path directory, String key) throws IOException
+    {
+        byte[] log = Files.readAllBytes(directory.resolve("shorten.log"));
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        for(int i = log.length-bytes.length; i >= 12; i--)
+        {
+            int j = 0;
+            while(j < bytes.length && log[i+j] == bytes[j])
+                ++j;
+            if(j == bytes.length && ByteBuffer.wrap(log, i-8, 4).getInt() == bytes.length)
+                return i-12;
+        }
+        throw new IllegalStateException("Record not found: "+key);
+    }
+
+    /**
+     * Overwrites the log in the given directory at the given position.
+     */
+    private static void writeLog(Path directory, int position, byte[] bytes) throws IOException
+    {
+        write(directory.resolve("shorten.log"), (long)position, bytes);
+    }
+
+    /**
+     * Overwrites the given file at the given position.
+     */
+    private static void write(Path path, long position, byte[] bytes) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+        {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP transport used by the tests that answers each request using a handler instead of the network.
+ * <p>
+ * Asynchronous requests are answered on a thread of their own. The requests sent, the number in flight
+ * and the number of asynchronous requests cancelled are recorded.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class StubTransport implements HttpTransport
+{
+    /**
+     * Answers a request sent to the transport.
+     */
+    public interface Handler
+    {
+        /**
+         * Returns the response to the given request.
+         * @param request The request sent
+         * @return The response to the request
+         * @throws IOException to fail the request.
+         */
+        TransportResponse handle(TransportRequest request) throws IOException;
+    }
+
+    private final Handler handler;
+    private final List<TransportRequest> requests = Collections.synchronizedList(new ArrayList<TransportRequest>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(r ->
+    {
+        Thread ret = new Thread(r, "stub-transport");
+        ret.setDaemon(true);
+        return ret;
+    });
+
+    /**
+     * Constructor that takes the handler used to answer requests.
+     * @param handler The handler used to answer requests
+     */
+    public StubTransport(Handler handler)
+    {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the requests sent, in the order they were sent.
+     * @return The requests sent
+     */
+    public List<TransportRequest> getRequests()
+    {
+        synchronized(requests)
+        {
+            return new ArrayList<TransportRequest>(requests);
+        }
+    }
+
+    /**
+     * Returns the number of requests sent.
+     * @return The number of requests sent
+     */
+    public int getRequestCount()
+    {
+        return requests.size();
+    }
+
+    /**
+     * Returns the largest number of requests that were in flight at the same time.
+     * @return The largest number of requests in flight at the same time
+     */
+    public int getMaxInFlight()
+    {
+        return maxInFlight.get();
+    }
+
+    /**
+     * Returns the number of asynchronous requests that were cancelled before they were answered.
+     * @return The number of asynchronous requests cancelled
+     */
+    public int getCancelledCount()
+    {
+        return cancelled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException
+    {
+        requests.add(request);
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try
+        {
+            return handler.handle(request);
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request)
+    {
+        final CompletableFuture<TransportResponse> ret = new CompletableFuture<TransportResponse>();
+        ret.whenComplete((response, e) ->
+        {
+            if(ret.isCancelled())
+                cancelled.incrementAndGet();
+        });
+
+        executor.execute(() ->
+        {
+            try
+            {
+                TransportResponse response = execute(request);
+                if(!ret.complete(response))
+                    response.close();
+            }
+            catch(IOException | RuntimeException e)
+            {
+                ret.completeExceptionally(e);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Stops the threads used to answer asynchronous requests.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sleeps for the given time (in ms), used by handlers to delay their responses.
+     * @param millis The time to sleep (in ms)
+     */
+    public static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a response with the given status, JSON body and headers.
+     * @param statusCode The HTTP status code
+     * @param body The JSON body, or <CODE>null</CODE> if there is no body
+     * @param headers The names and values of the headers
+     * @return The response
+     */
+    public static TransportResponse response(int statusCode, String body, String... headers)
+    {
+        Map<String,String> map = new HashMap<String,String>();
+        for(int i = 0; i < headers.length; i += 2)
+            map.put(headers[i].toLowerCase(), headers[i+1]);
+        if(body != null)
+            map.put("content-type", "application/json");
+        return new StubResponse(statusCode, body != null ? body.getBytes(StandardCharsets.UTF_8) : null, map);
+    }
+
+    /**
+     * Response with a fixed status, body and headers.
+     */
+    static class StubResponse implements TransportResponse
+    {
+        private final int statusCode;
+        private final byte[] body;
+        private final Map<String,String> headers;
+
+        /**
+         * Constructor that takes the status, body and headers.
+         * @param statusCode The HTTP status code
+         * @param body The body, or <CODE>null</CODE> if there is no body
+         * @param headers The headers, keyed by lower case name
+         */
+        StubResponse(int statusCode, byte[] body, Map<String,String> headers)
+        {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getReasonPhrase()
+        {
+            return statusCode == 200 ? "OK" : "Status "+statusCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getHeader(String name)
+        {
+            return headers.get(name.toLowerCase());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public InputStream getContent()
+        {
+            return body != null ? new ByteArrayInputStream(body) : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.bitly.api.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the W-TinyLFU cache and its frequency sketch.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class TinyLfuCacheTest
+{
+    private static final Logger logger = Logger.getLogger(TinyLfuCacheTest.class.getName());
+
+    @Test
+    public void testAdmission() throws Exception
+    {
+        logger.info("Starting test: AdmissionTest");
+        TinyLfuCache<String,Integer> cache = createCache(100L);
+
+        // The hot entry is written repeatedly before the cache fills, and is the first entry on probation
+        for(int i = 0; i < 10; i++)
+            cache.put("hot", i);
+        for(int i = 1; i < 100; i++)
+            cache.put("key"+i, i);
+        Assert.assertEquals(100L, cache.size());
+        Assert.assertEquals(TinyLfuCache.PROBATION, cache.getSegment("hot"));
+
+        // Each cold entry leaving the window loses to the hot entry it would evict
+        for(int i = 0; i < 50; i++)
+            cache.put("cold"+i, i);
+        Assert.assertEquals(100L, cache.size());
+        Assert.assertEquals(50L, cache.getEvictionCount());
+        Assert.assertEquals(Integer.valueOf(9), cache.get("hot"));
+        Assert.assertNull(cache.get("cold0"));
+        Assert.assertEquals(Integer.valueOf(1), cache.get("key1"));
+
+        // A candidate used more often than the entry it would evict is admitted in its place
+        TinyLfuCache<String,Integer> cache2 = createCache(100L);
+        for(int i = 0; i < 100; i++)
+            cache2.put("key"+i, i);
+        for(int i = 0; i < 5; i++)
+            cache2.put("candidate", i);
+        cache2.put("next", 0);
+        Assert.assertEquals(TinyLfuCache.PROBATION, cache2.getSegment("candidate"));
+        Assert.assertEquals(TinyLfuCache.REMOVED, cache2.getSegment("key0"));
+        Assert.assertEquals(100L, cache2.size());
+    }
+
+    @Test
+    public void testPromotion() throws Exception
+    {
+        logger.info("Starting test: PromotionTest");
+        TinyLfuCache<String,Integer> cache = createCache(100L);
+
+        // New entries go into the window, and move to probation when they leave it
+        cache.put("a", 1);
+        Assert.assertEquals(TinyLfuCache.WINDOW, cache.getSegment("a"));
+        cache.put("b", 2);
+        Assert.assertEquals(TinyLfuCache.PROBATION, cache.getSegment("a"));
+        Assert.assertEquals(TinyLfuCache.WINDOW, cache.getSegment("b"));
+
+        // An entry on probation is protected once it is read again
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        Assert.assertEquals(TinyLfuCache.PROTECTED, cache.getSegment("a"));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("b"));
+        Assert.assertEquals(TinyLfuCache.WINDOW, cache.getSegment("b"));
+
+        // The least recently used protected entries are demoted to probation once the segment is full
+        for(int i = 0; i < 90; i++)
+            cache.put("key"+i, i);
+        for(int i = 0; i < 89; i++)
+            cache.get("key"+i);
+        Assert.assertEquals(TinyLfuCache.PROBATION, cache.getSegment("a"));
+        Assert.assertEquals(TinyLfuCache.PROTECTED, cache.getSegment("key88"));
+    }
+
+    @Test
+    public void testSketchAging() throws Exception
+    {
+        logger.info("Starting test: SketchAgingTest");
+        FrequencySketch sketch = new FrequencySketch(16L);
+
+        // The counters saturate at 15
+        for(int i = 0; i < 5; i++)
+            sketch.increment("hot");
+        Assert.assertEquals(5, sketch.frequency("hot"));
+        for(int i = 0; i < 20; i++)
+            sketch.increment("hot");
+        Assert.assertEquals(15, sketch.frequency("hot"));
+        Assert.assertEquals(0, sketch.frequency("unused"));
+
+        // All the counters are halved once ten times the maximum size have been counted
+        int count = 0;
+        while(sketch.frequency("hot") == 15 && count < 1000)
+            sketch.increment("key"+count++);
+        Assert.assertTrue(count > 100 && count < 160);
+        Assert.assertTrue(sketch.frequency("hot") <= 8);
+    }
+
+    @Test
+    public void testConcurrentPuts() throws Exception
+    {
+        logger.info("Starting test: ConcurrentPutsTest");
+        final TinyLfuCache<String,Integer> cache = createCache(100L);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for(int t = 0; t < 8; t++)
+        {
+            final int thread = t;
+            Thread th = new Thread(() ->
+            {
+                try
+                {
+                    start.await();
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+
+                for(int i = 0; i < 10000; i++)
+                {
+                    cache.put(thread+":"+i, i);
+                    cache.get(thread+":"+(i/2));
+                }
+            });
+            th.start();
+            threads.add(th);
+        }
+
+        start.countDown();
+        for(Thread th : threads)
+            th.join();
+
+        Assert.assertEquals(100L, cache.size());
+        Assert.assertEquals(80000L-100L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testInvalidationStamp() throws Exception
+    {
+        logger.info("Starting test: InvalidationStampTest");
+        TinyLfuCache<String,Integer> cache = createCache(100L);
+        cache.put("a", 1);
+
+        // A value loaded before an invalidation does not replace the invalidated entry
+        long stamp = cache.getInvalidationStamp();
+        cache.invalidate("a");
+        Assert.assertFalse(cache.put("a", 1, stamp));
+        Assert.assertNull(cache.get("a"));
+
+        // A value loaded with no invalidation since is added
+        stamp = cache.getInvalidationStamp();
+        Assert.assertTrue(cache.put("a", 2, stamp));
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+
+        // Invalidating any entry, or all of them, changes the stamp
+        stamp = cache.getInvalidationStamp();
+        cache.invalidateIf((key, value) -> key.equals("b"));
+        Assert.assertFalse(cache.put("b", 1, stamp));
+        stamp = cache.getInvalidationStamp();
+        cache.invalidateAll();
+        Assert.assertFalse(cache.put("b", 1, stamp));
+        Assert.assertEquals(0L, cache.size());
+    }
+
+    /**
+     * Returns a cache with the given maximum size whose entries do not expire.
+     */
+    private static TinyLfuCache<String,Integer> createCache(long maximumSize)
+    {
+        return new TinyLfuCache<String,Integer>(CachePolicy.builder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(0L)
+            .build());
+    }
+}
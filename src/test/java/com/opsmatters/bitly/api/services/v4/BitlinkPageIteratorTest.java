@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services.v4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.StubTransport;
+import com.opsmatters.bitly.api.services.TransportRequest;
+import com.opsmatters.bitly.api.model.v4.Bitlink;
+import com.opsmatters.bitly.api.model.v4.BitlinkQuery;
+
+/**
+ * The set of tests used for iterating over the bitlinks of a group.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class BitlinkPageIteratorTest
+{
+    private static final Logger logger = Logger.getLogger(BitlinkPageIteratorTest.class.getName());
+
+    private static final String GROUP_GUID = "Ba1bc23dE4F";
+    private static final int PAGE_SIZE = 3;
+
+    @Test
+    public void testSequential() throws Exception
+    {
+        logger.info("Starting test: SequentialTest");
+        StubTransport stub = pageTransport(3, 0L, 0L);
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        GroupService service = new GroupService("token", context);
+
+        // Each page is fetched when the bitlinks of the previous page have been read
+        BitlinkPageIterator iterator = service.iterateBitlinks(GROUP_GUID, new BitlinkQuery());
+        for(int i = 0; i < PAGE_SIZE; i++)
+            Assert.assertEquals(getId(1, i), iterator.next().getId());
+        Assert.assertEquals(1, stub.getRequestCount());
+        Assert.assertEquals(Collections.singletonList(1), getPages(stub));
+
+        List<String> ids = new ArrayList<String>();
+        while(iterator.hasNext())
+            ids.add(iterator.next().getId());
+        Assert.assertEquals(PAGE_SIZE*2, ids.size());
+        Assert.assertEquals(getId(3, PAGE_SIZE-1), ids.get(ids.size()-1));
+        Assert.assertEquals(3, iterator.getPageCount());
+        Assert.assertEquals(Arrays.asList(1, 2, 3), getPages(stub));
+        Assert.assertEquals(1, stub.getMaxInFlight());
+
+        // No more pages are fetched once a stream over the iterator short-circuits
+        StubTransport stub2 = pageTransport(3, 0L, 0L);
+        HttpContext context2 = new HttpContext("http", "localhost", 80, stub2);
+        Assert.assertEquals(PAGE_SIZE+1, new GroupService("token", context2)
+            .streamBitlinks(GROUP_GUID, new BitlinkQuery()).limit(PAGE_SIZE+1).count());
+        Assert.assertEquals(Arrays.asList(1, 2), getPages(stub2));
+        context.close();
+        context2.close();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception
+    {
+        logger.info("Starting test: PrefetchTest");
+        int prefetch = 2;
+        int total = 6;
+        StubTransport stub = pageTransport(total, 20L, 2000L);
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        GroupService service = new GroupService("token", context);
+
+        // The bitlinks are returned in order, with no more than the prefetch depth of pages in flight
+        long start = System.nanoTime();
+        BitlinkPageIterator iterator = service.iterateBitlinks(GROUP_GUID, new BitlinkQuery(), prefetch);
+        List<String> ids = new ArrayList<String>();
+        while(iterator.hasNext())
+            ids.add(iterator.next().getId());
+        Assert.assertEquals(total*PAGE_SIZE, ids.size());
+        for(int i = 0; i < ids.size(); i++)
+            Assert.assertEquals(getId(i/PAGE_SIZE+1, i%PAGE_SIZE), ids.get(i));
+        Assert.assertEquals(prefetch, stub.getMaxInFlight());
+
+        // The pages fetched past the last page are cancelled when the last page arrives
+        Assert.assertTrue(System.nanoTime()-start < 1000000000L);
+        List<Integer> pages = getPages(stub);
+        Collections.sort(pages);
+        int extra = pages.size()-total;
+        Assert.assertTrue(extra >= 1 && extra <= prefetch);
+        for(int i = 0; i < pages.size(); i++)
+            Assert.assertEquals(i+1, pages.get(i).intValue());
+        awaitCancelled(stub, extra);
+        Assert.assertEquals(extra, stub.getCancelledCount());
+        Assert.assertEquals(total, iterator.getPageCount());
+        context.close();
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        logger.info("Starting test: CloseTest");
+        int prefetch = 3;
+        StubTransport stub = pageTransport(10, 2000L, 2000L);
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        GroupService service = new GroupService("token", context);
+
+        // Closing the iterator cancels the pages being prefetched
+        BitlinkPageIterator iterator = service.iterateBitlinks(GROUP_GUID, new BitlinkQuery(), prefetch);
+        Assert.assertEquals(getId(1, 0), iterator.next().getId());
+        for(int i = 0; i < 200 && stub.getRequestCount() < prefetch+1; i++)
+            Thread.sleep(5L);
+        iterator.close();
+        Assert.assertFalse(iterator.hasNext());
+        awaitCancelled(stub, prefetch);
+        Assert.assertEquals(prefetch, stub.getCancelledCount());
+        Assert.assertEquals(prefetch+1, stub.getRequestCount());
+        Assert.assertEquals(1, iterator.getPageCount());
+        context.close();
+    }
+
+    /**
+     * Returns the id of the bitlink with the given index on the given page.
+     */
+    private static String getId(int page, int i)
+    {
+        return "bit.ly/p"+page+"-"+i;
+    }
+
+    /**
+     * Returns the page numbers of the requests sent to the given transport, in the order they were sent.
+     */
+    private static List<Integer> getPages(StubTransport stub)
+    {
+        List<Integer> ret = new ArrayList<Integer>();
+        for(TransportRequest request : stub.getRequests())
+            ret.add(getPage(request));
+        return ret;
+    }
+
+    /**
+     * Returns the page number of the given request.
+     */
+    private static int getPage(TransportRequest request)
+    {
+        for(String param : request.getUri().getRawQuery().split("&"))
+        {
+            if(param.startsWith("page="))
+                return Integer.parseInt(param.substring(5));
+        }
+        return 1;
+    }
+
+    /**
+     * Returns a transport that answers each request for a page of the given group's bitlinks,
+     * after the given delays (in ms) for the pages after the first page and for the pages past the last page.
+     */
+    private static StubTransport pageTransport(final int total, final long delay, final long pastEndDelay)
+    {
+        return new StubTransport(request ->
+        {
+            int page = getPage(request);
+            if(page > 1)
+                StubTransport.sleep(page > total ? pastEndDelay : delay);
+
+            StringBuilder sb = new StringBuilder("{\"links\":[");
+            for(int i = 0; page <= total && i < PAGE_SIZE; i++)
+            {
+                if(i > 0)
+                    sb.append(",");
+                sb.append("{\"id\":\"").append(getId(page, i)).append("\"}");
+            }
+            sb.append("],\"pagination\":{\"page\":").append(page).append(",\"size\":").append(PAGE_SIZE)
+                .append(",\"total\":").append(total*PAGE_SIZE).append(",\"next\":\"");
+            if(page < total)
+                sb.append("https://api-ssl.bitly.com/v4/groups/").append(GROUP_GUID).append("/bitlinks?page=").append(page+1);
+            sb.append("\"}}");
+            return StubTransport.response(200, sb.toString());
+        });
+    }
+
+    /**
+     * Waits until the given number of requests have been cancelled.
+     */
+    private static void awaitCancelled(StubTransport stub, int count) throws InterruptedException
+    {
+        for(int i = 0; i < 200 && stub.getCancelledCount() < count; i++)
+            Thread.sleep(5L);
+    }
+}
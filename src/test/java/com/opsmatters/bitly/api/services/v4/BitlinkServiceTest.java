@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.bitly.api.services.v4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import junit.framework.Assert;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.opsmatters.bitly.api.services.BatchIterator;
+import com.opsmatters.bitly.api.services.BatchResult;
+import com.opsmatters.bitly.api.services.HttpContext;
+import com.opsmatters.bitly.api.services.ShortenStore;
+import com.opsmatters.bitly.api.services.StubTransport;
+import com.opsmatters.bitly.api.model.v4.CreateBitlinkRequest;
+import com.opsmatters.bitly.api.model.v4.CreateBitlinkResponse;
+import com.opsmatters.bitly.api.model.v4.UpdateBitlinkRequest;
+
+/**
+ * The set of tests used for shortening long urls.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class BitlinkServiceTest
+{
+    private static final Logger logger = Logger.getLogger(BitlinkServiceTest.class.getName());
+
+    private static final int COUNT = 20;
+    private static final int CONCURRENCY = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testShortenAll() throws Exception
+    {
+        logger.info("Starting test: ShortenAllTest");
+        StubTransport stub = shortenTransport();
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        BitlinkService service = new BitlinkService("token", context);
+
+        // The later urls are answered sooner, so the requests complete out of order
+        List<CreateBitlinkRequest> requests = new ArrayList<CreateBitlinkRequest>();
+        for(int i = 0; i < COUNT; i++)
+            requests.add(CreateBitlinkRequest.builder().longUrl(getLongUrl(i)).build());
+        requests.add(CreateBitlinkRequest.builder().longUrl(getLongUrl(COUNT-1)).build());
+        requests.add(CreateBitlinkRequest.builder().longUrl(getLongUrl(1)).build());
+
+        List<BatchResult<CreateBitlinkRequest,CreateBitlinkResponse>> results = service.shortenAll(requests, CONCURRENCY);
+
+        Assert.assertEquals(COUNT+2, results.size());
+        for(int i = 0; i < results.size(); i++)
+        {
+            BatchResult<CreateBitlinkRequest,CreateBitlinkResponse> result = results.get(i);
+            Assert.assertSame(requests.get(i), result.getInput());
+            if(i == 7)
+            {
+                // The failed request does not stop the others
+                Assert.assertFalse(result.isSuccess());
+                Assert.assertNull(result.getValue());
+                Assert.assertEquals(400, result.getException().getStatus());
+            }
+            else
+            {
+                Assert.assertTrue(result.isSuccess());
+                Assert.assertEquals(requests.get(i).getLongUrl(), result.getValue().getLongUrl());
+            }
+        }
+
+        // The duplicate of a url waiting to be read shares its request,
+        // but the outcome of a url is not kept once it has been read
+        Assert.assertEquals(COUNT+1, stub.getRequestCount());
+        Assert.assertTrue(stub.getMaxInFlight() <= CONCURRENCY);
+        Assert.assertEquals(CONCURRENCY, stub.getMaxInFlight());
+        context.close();
+    }
+
+    @Test
+    public void testShortenAllSlowReader() throws Exception
+    {
+        logger.info("Starting test: ShortenAllSlowReaderTest");
+        StubTransport stub = shortenTransport();
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        BitlinkService service = new BitlinkService("token", context);
+
+        List<CreateBitlinkRequest> requests = new ArrayList<CreateBitlinkRequest>();
+        for(int i = 0; i < COUNT*2; i++)
+            requests.add(CreateBitlinkRequest.builder().longUrl(getLongUrl(i)).build());
+
+        // No more requests are sent once the outcomes waiting to be read reach the limit
+        BatchIterator<CreateBitlinkRequest,CreateBitlinkResponse> results = service.shortenAll(requests.iterator(), CONCURRENCY);
+        Assert.assertTrue(results.hasNext());
+        awaitRequests(stub, CONCURRENCY*4);
+        Assert.assertEquals(CONCURRENCY*4, stub.getRequestCount());
+        Assert.assertTrue(stub.getMaxInFlight() <= CONCURRENCY);
+
+        // Reading the outcomes sends the remaining requests
+        List<BatchResult<CreateBitlinkRequest,CreateBitlinkResponse>> list = results.toList();
+        Assert.assertEquals(COUNT*2, list.size());
+        Assert.assertSame(requests.get(COUNT*2-1), list.get(COUNT*2-1).getInput());
+        Assert.assertEquals(COUNT*2, stub.getRequestCount());
+        context.close();
+    }
+
+    @Test
+    public void testShortenStoreUpdate() throws Exception
+    {
+        logger.info("Starting test: ShortenStoreUpdateTest");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger shortens = new AtomicInteger();
+        StubTransport stub = new StubTransport(request ->
+        {
+            if(request.getMethod().equals("PATCH"))
+                return StubTransport.response(200, "{\"id\":\"bit.ly/1\",\"long_url\":\"https://example.com/new\"}");
+
+            // The first shorten request is held until the bitlink has been updated
+            if(shortens.incrementAndGet() == 1)
+            {
+                try
+                {
+                    latch.await(5L, TimeUnit.SECONDS);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return StubTransport.response(200, "{\"id\":\"bit.ly/1\",\"link\":\"https://bit.ly/1\",\"long_url\":\""
+                +getLongUrl(1)+"\"}");
+        });
+        HttpContext context = new HttpContext("http", "localhost", 80, stub);
+        try(ShortenStore store = new ShortenStore(folder.getRoot().toPath().resolve("store")))
+        {
+            BitlinkService service = new BitlinkService("token", context);
+            service.setShortenStore(store);
+
+            // A bitlink updated while it was being shortened is not stored
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            Thread thread = new Thread(() ->
+            {
+                try
+                {
+                    service.shorten(getLongUrl(1));
+                }
+                catch(Exception e)
+                {
+                    error.set(e);
+                }
+            });
+            thread.start();
+            for(int i = 0; i < 200 && stub.getRequestCount() == 0; i++)
+                Thread.sleep(5L);
+            service.update("bit.ly/1", UpdateBitlinkRequest.builder().longUrl("https://example.com/new").build());
+            latch.countDown();
+            thread.join();
+            Assert.assertNull(error.get());
+            Assert.assertEquals(0, store.size());
+
+            // The next shorten request is sent, and its bitlink stored off the I/O thread
+            Assert.assertEquals("bit.ly/1", service.shortenAsync(CreateBitlinkRequest.builder()
+                .longUrl(getLongUrl(1)).build()).get().get().getId());
+            for(int i = 0; i < 200 && store.size() == 0; i++)
+                Thread.sleep(5L);
+            Assert.assertEquals(1, store.size());
+            Assert.assertEquals(3, stub.getRequestCount());
+            Assert.assertEquals("bit.ly/1", service.shorten(getLongUrl(1)).get().getId());
+            Assert.assertEquals(3, stub.getRequestCount());
+        }
+        context.close();
+    }
+
+    /**
+     * Waits until the given number of requests have been sent.
+     */
+    private static void awaitRequests(StubTransport stub, int count) throws InterruptedException
+    {
+        for(int i = 0; i < 200 && stub.getRequestCount() < count; i++)
+            Thread.sleep(5L);
+    }
+
+    /**
+     * Returns the long url with the given index.
+     */
+    private static String getLongUrl(int i)
+    {
+        return "https://example.com/"+i;
+    }
+
+    /**
+     * Returns a transport that shortens each long url after a delay that is shorter for later urls,
+     * and fails the request for the long url with index 7.
+     */
+    private static StubTransport shortenTransport()
+    {
+        return new StubTransport(request ->
+        {
+            JsonObject body = new JsonParser().parse(new String(request.getBody().toByteArray(),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+            String longUrl = body.get("long_url").getAsString();
+            int i = Integer.parseInt(longUrl.substring(longUrl.lastIndexOf('/')+1));
+            StubTransport.sleep(Math.max(COUNT*2-i, 1));
+            if(i == 7)
+                return StubTransport.response(400, "{\"message\":\"INVALID_ARG_LONG_URL\"}");
+            return StubTransport.response(200, "{\"id\":\"bit.ly/"+i+"\",\"link\":\"https://bit.ly/"+i
+                +"\",\"long_url\":\""+longUrl+"\"}");
+        });
+    }
+}